@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.glite.authz.common.util.Base64;
+
+/**
+ * Latency of the Base64 encoding and decoding of a message, with the
+ * allocating <code>String</code> and stream methods and with the methods
+ * encoding into and decoding from a reused array.
+ * <p>
+ * Usage: <code>Base64Benchmark [iterations] [message size]</code>
+ */
+public class Base64Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations= args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int size= args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+        final byte[] message= new byte[size];
+        new Random(42).nextBytes(message);
+        final String encodedString= Base64.encodeBytes(message);
+        final byte[] encoded= encodedString.getBytes("US-ASCII");
+        final byte[] encodedBuffer= new byte[Base64.encodedLength(size,
+                                                                  Base64.NO_OPTIONS)];
+        final byte[] decodedBuffer= new byte[size];
+        final ByteArrayOutputStream out= new ByteArrayOutputStream(encodedBuffer.length);
+        Case[] cases= { new Case("encodeBytes(byte[]) String") {
+            int run() {
+                return Base64.encodeBytes(message).length();
+            }
+        }, new Case("Base64.OutputStream") {
+            int run() throws IOException {
+                out.reset();
+                Base64.OutputStream b64out= new Base64.OutputStream(out,
+                                                                    Base64.ENCODE);
+                b64out.write(message);
+                b64out.flushBase64();
+                return out.size();
+            }
+        }, new Case("encode(byte[], byte[])") {
+            int run() {
+                return Base64.encode(message,
+                                     0,
+                                     message.length,
+                                     encodedBuffer,
+                                     0,
+                                     Base64.NO_OPTIONS);
+            }
+        }, new Case("encode(byte[], byte[]) unwrapped") {
+            int run() {
+                return Base64.encode(message,
+                                     0,
+                                     message.length,
+                                     encodedBuffer,
+                                     0,
+                                     Base64.DONT_BREAK_LINES);
+            }
+        }, new Case("decode(String)") {
+            int run() {
+                return Base64.decode(encodedString).length;
+            }
+        }, new Case("Base64.InputStream") {
+            int run() throws IOException {
+                InputStream in= new Base64.InputStream(new ByteArrayInputStream(encoded));
+                int length= 0;
+                int n;
+                while ((n= in.read(decodedBuffer,
+                                   length,
+                                   decodedBuffer.length - length)) > 0) {
+                    length+= n;
+                }
+                return length;
+            }
+        }, new Case("decode(byte[], byte[])") {
+            int run() {
+                return Base64.decode(encoded,
+                                     0,
+                                     encoded.length,
+                                     decodedBuffer,
+                                     0,
+                                     Base64.NO_OPTIONS);
+            }
+        } };
+        for (Case c : cases) {
+            // warm up
+            c.measure(iterations);
+        }
+        System.out.println(size + " bytes message");
+        for (Case c : cases) {
+            c.measure(iterations).print();
+        }
+    }
+
+    /** An encoding or decoding method. */
+    private static abstract class Case {
+
+        private final String name_;
+
+        private double nanosPerOp_;
+
+        private long sink_;
+
+        Case(String name) {
+            name_= name;
+        }
+
+        abstract int run() throws IOException;
+
+        Case measure(int iterations) throws IOException {
+            long start= System.nanoTime();
+            for (int i= 0; i < iterations; i++) {
+                sink_+= run();
+            }
+            nanosPerOp_= (double) (System.nanoTime() - start) / iterations;
+            return this;
+        }
+
+        void print() {
+            System.out.println(name_ + ": " + (long) nanosPerOp_ + " ns/op ("
+                    + (sink_ > 0 ? "ok" : "empty") + ")");
+        }
+    }
+}
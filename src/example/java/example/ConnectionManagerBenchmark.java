@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.glite.authz.pep.client.http.PerHostHttpConnectionManager;
+
+/**
+ * Contention of the connection managers: threads getting and releasing the
+ * pooled connections of a few hosts as fast as they can, with the
+ * {@link MultiThreadedHttpConnectionManager} single pool and the
+ * {@link PerHostHttpConnectionManager} per host pools. The connections are
+ * never opened, only the pool bookkeeping is measured, and the limits are
+ * high enough for the threads never to wait for a free connection.
+ * <p>
+ * Usage:
+ * <code>ConnectionManagerBenchmark [max threads] [hosts] [get/release per thread]</code>
+ * , the threads doubling from 1 to the maximum.
+ */
+public class ConnectionManagerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads= args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int hosts= args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int iterations= args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        HostConfiguration[] hostConfigurations= new HostConfiguration[hosts];
+        for (int i= 0; i < hosts; i++) {
+            hostConfigurations[i]= new HostConfiguration();
+            hostConfigurations[i].setHost("pepd" + i + ".example.org",
+                                          8154, "https");
+        }
+        System.out.println(hosts + " hosts, " + iterations
+                + " get/release per thread");
+        for (int threads= 1; threads <= maxThreads; threads*= 2) {
+            StringBuilder line= new StringBuilder();
+            line.append(threads).append(" threads:");
+            for (int perHost= 0; perHost < 2; perHost++) {
+                HttpConnectionManager connectionManager= createConnectionManager(perHost == 1,
+                                                                                 threads);
+                // warm up
+                run(connectionManager, hostConfigurations, threads,
+                    iterations / 10);
+                long start= System.nanoTime();
+                run(connectionManager, hostConfigurations, threads,
+                    iterations);
+                double seconds= (System.nanoTime() - start) / 1e9;
+                line.append(perHost == 1 ? "  per host " : "  multi-threaded ");
+                line.append((long) (threads * iterations / seconds)).append(" ops/s");
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static HttpConnectionManager createConnectionManager(
+            boolean perHost, int threads) {
+        HttpConnectionManagerParams params= new HttpConnectionManagerParams();
+        params.setDefaultMaxConnectionsPerHost(threads);
+        params.setMaxTotalConnections(threads);
+        HttpConnectionManager connectionManager= perHost ? new PerHostHttpConnectionManager()
+                : new MultiThreadedHttpConnectionManager();
+        connectionManager.setParams(params);
+        return connectionManager;
+    }
+
+    /**
+     * Gets and releases connections from many threads, each thread using a
+     * host after the other.
+     */
+    private static void run(final HttpConnectionManager connectionManager,
+            final HostConfiguration[] hostConfigurations, int threads,
+            final int iterations) throws InterruptedException {
+        final CountDownLatch start= new CountDownLatch(1);
+        List<Thread> workers= new ArrayList<Thread>(threads);
+        for (int i= 0; i < threads; i++) {
+            final int first= i;
+            Thread worker= new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j= 0; j < iterations; j++) {
+                        HostConfiguration hostConfiguration= hostConfigurations[(first + j)
+                                % hostConfigurations.length];
+                        HttpConnection connection= connectionManager.getConnection(hostConfiguration);
+                        connection.releaseConnection();
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.pep.client.codec.HessianCodec;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * Microbenchmark of the Hessian serialization of a typical authorization
+ * request and response: new Hessian encoder and decoder for each message,
+ * versus the {@link HessianCodec} shared serializer factory and reusable
+ * per-thread state.
+ * <p>
+ * Usage: <code>HessianCodecBenchmark [iterations]</code>
+ */
+public class HessianCodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations= args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Request request= createRequest();
+        Response response= createResponse(request);
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        new HessianOutput(out).writeObject(response);
+        byte[] responseBytes= out.toByteArray();
+
+        Benchmark perMessage= new Benchmark("new HessianOutput/HessianInput") {
+            void run(Request request, byte[] responseBytes) throws IOException {
+                ByteArrayOutputStream out= new ByteArrayOutputStream(512);
+                HessianOutput hout= new HessianOutput(out);
+                hout.writeObject(request);
+                hout.flush();
+                HessianInput hin= new HessianInput(new ByteArrayInputStream(responseBytes));
+                hin.readObject(Response.class);
+            }
+        };
+        final HessianCodec codec= new HessianCodec();
+        Benchmark reused= new Benchmark("HessianCodec") {
+            ByteArrayOutputStream out_= new ByteArrayOutputStream(512);
+
+            void run(Request request, byte[] responseBytes) throws IOException {
+                out_.reset();
+                codec.writeObject(request, out_);
+                codec.readObject(new ByteArrayInputStream(responseBytes),
+                                 Response.class);
+            }
+        };
+        // warm up
+        perMessage.measure(request, responseBytes, iterations);
+        reused.measure(request, responseBytes, iterations);
+        // measure
+        perMessage.measure(request, responseBytes, iterations).print();
+        reused.measure(request, responseBytes, iterations).print();
+    }
+
+    private static Request createRequest() {
+        Request request= new Request();
+        Subject subject= new Subject();
+        Attribute subjectId= new Attribute(Attribute.ID_SUB_ID,
+                                           Attribute.DT_X500_NAME);
+        subjectId.getValues().add("CN=John Doe,O=Example,C=CH");
+        subject.getAttributes().add(subjectId);
+        Attribute fqans= new Attribute("http://glite.org/xacml/attribute/fqan",
+                                       "http://glite.org/xacml/datatype/fqan");
+        fqans.getValues().add("/atlas/Role=NULL/Capability=NULL");
+        fqans.getValues().add("/atlas/production/Role=NULL/Capability=NULL");
+        subject.getAttributes().add(fqans);
+        request.getSubjects().add(subject);
+        Resource resource= new Resource();
+        Attribute resourceId= new Attribute(Attribute.ID_RES_ID,
+                                            Attribute.DT_STRING);
+        resourceId.getValues().add("http://authz-interop.org/xacml/resource/resource-type/wn");
+        resource.getAttributes().add(resourceId);
+        request.getResources().add(resource);
+        Action action= new Action();
+        Attribute actionId= new Attribute(Attribute.ID_ACT_ID,
+                                          Attribute.DT_STRING);
+        actionId.getValues().add("http://glite.org/xacml/action/execute");
+        action.getAttributes().add(actionId);
+        request.setAction(action);
+        return request;
+    }
+
+    private static Response createResponse(Request request) {
+        Response response= new Response();
+        response.setRequest(request);
+        Result result= new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setResourceId("http://authz-interop.org/xacml/resource/resource-type/wn");
+        Obligation obligation= new Obligation();
+        obligation.setId("http://glite.org/xacml/obligation/local-environment-map/posix");
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        String[][] assignments= {
+                { "http://glite.org/xacml/attribute/user-id", "atlas001" },
+                { "http://glite.org/xacml/attribute/group-id/primary", "atlas" },
+                { "http://glite.org/xacml/attribute/group-id", "atlasprd" } };
+        for (String[] assignment : assignments) {
+            AttributeAssignment attributeAssignment= new AttributeAssignment();
+            attributeAssignment.setAttributeId(assignment[0]);
+            attributeAssignment.setDataType(Attribute.DT_STRING);
+            attributeAssignment.setValue(assignment[1]);
+            obligation.getAttributeAssignments().add(attributeAssignment);
+        }
+        result.getObligations().add(obligation);
+        response.getResults().add(result);
+        return response;
+    }
+
+    /** A serialization round trip: request out, response in. */
+    private static abstract class Benchmark {
+
+        private final String name_;
+
+        private double nanosPerOp_;
+
+        private long bytesPerOp_= -1;
+
+        Benchmark(String name) {
+            name_= name;
+        }
+
+        abstract void run(Request request, byte[] responseBytes)
+                throws IOException;
+
+        Benchmark measure(Request request, byte[] responseBytes, int iterations)
+                throws IOException {
+            long allocated= allocatedBytes();
+            long start= System.nanoTime();
+            for (int i= 0; i < iterations; i++) {
+                run(request, responseBytes);
+            }
+            nanosPerOp_= (double) (System.nanoTime() - start) / iterations;
+            if (allocated >= 0) {
+                bytesPerOp_= (allocatedBytes() - allocated) / iterations;
+            }
+            return this;
+        }
+
+        void print() {
+            System.out.println(name_ + ": " + (long) nanosPerOp_ + " ns/op, "
+                    + (bytesPerOp_ >= 0 ? bytesPerOp_ + " bytes/op" : "n/a"));
+        }
+
+        /** Bytes allocated by the current thread, -1 if not supported. */
+        private static long allocatedBytes() {
+            ThreadMXBean threads= ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+    }
+}
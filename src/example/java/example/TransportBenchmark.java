@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.pep.client.PEPClient;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.config.TransportType;
+
+/**
+ * Throughput of the authorizations sent by many threads to a PEP daemon, with
+ * each HTTP transport: the commons-httpclient pool, the JDK
+ * <code>HttpURLConnection</code>, the NIO transport pipelining the requests
+ * on a few connections, and the HTTP/2 transport multiplexing them. HTTP/2
+ * over plain HTTP requires a PEP daemon, or a proxy, supporting h2c.
+ * <p>
+ * Usage:
+ * <code>TransportBenchmark &lt;endpoint&gt; [threads] [requests per thread] [connections] [transports]</code>
+ * , the transports being a comma separated list, all by default.
+ */
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: TransportBenchmark <endpoint> [threads] [requests per thread] [connections] [transports]");
+            System.exit(1);
+        }
+        String endpoint= args[0];
+        int threads= args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int requests= args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int connections= args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        List<TransportType> transportTypes= new ArrayList<TransportType>();
+        if (args.length > 4) {
+            for (String transportType : args[4].split(",")) {
+                transportTypes.add(TransportType.valueOf(transportType.trim().toUpperCase()));
+            }
+        }
+        else {
+            transportTypes.addAll(Arrays.asList(TransportType.values()));
+        }
+        System.out.println(threads + " threads, " + requests
+                + " requests per thread, " + connections
+                + " connections per host");
+        for (TransportType transportType : transportTypes) {
+            PEPClientConfiguration config= new PEPClientConfiguration();
+            config.addPEPDaemonEndpoint(endpoint);
+            config.setTransportType(transportType);
+            config.setMaxConnectionsPerHost(connections);
+            PEPClient client= new PEPClient(config);
+            // warm up
+            run(client, threads, Math.max(1, requests / 10));
+            long start= System.nanoTime();
+            int failures= run(client, threads, requests);
+            double seconds= (System.nanoTime() - start) / 1e9;
+            System.out.println(transportType + ": "
+                    + (long) (threads * requests / seconds)
+                    + " authorizations/s, "
+                    + (long) (seconds * 1e6 / requests)
+                    + " us/authorization per thread, " + failures
+                    + " failures");
+            client.close();
+        }
+    }
+
+    /**
+     * Sends authorizations from many threads.
+     * 
+     * @return the number of failed authorizations
+     */
+    private static int run(final PEPClient client, int threads,
+            final int requests) throws InterruptedException {
+        final CountDownLatch start= new CountDownLatch(1);
+        final AtomicInteger failures= new AtomicInteger();
+        List<Thread> workers= new ArrayList<Thread>(threads);
+        for (int i= 0; i < threads; i++) {
+            Thread worker= new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j= 0; j < requests; j++) {
+                        try {
+                            client.authorize(createRequest());
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return failures.get();
+    }
+
+    private static Request createRequest() {
+        Request request= new Request();
+        Action action= new Action();
+        Attribute actionId= new Attribute(Attribute.ID_ACT_ID,
+                                          Attribute.DT_STRING);
+        actionId.getValues().add("http://glite.org/xacml/action/execute");
+        action.getAttributes().add(actionId);
+        request.setAction(action);
+        return request;
+    }
+}
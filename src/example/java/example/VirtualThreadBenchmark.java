@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package example;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.pep.client.PEPClient;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.config.TransportType;
+
+/**
+ * Throughput of many concurrent callers authorizing with a PEP daemon: the
+ * callers run as tasks of a platform thread pool with the default PEP client,
+ * then each in its own virtual thread with the PEP client in virtual thread
+ * mode. The virtual threads require a Java 21 runtime.
+ * <p>
+ * Usage:
+ * <code>VirtualThreadBenchmark &lt;endpoint&gt; [callers] [requests per caller] [pool threads] [connections] [transport]</code>
+ */
+public class VirtualThreadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: VirtualThreadBenchmark <endpoint> [callers] [requests per caller] [pool threads] [connections] [transport]");
+            System.exit(1);
+        }
+        String endpoint= args[0];
+        int callers= args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int requests= args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int poolThreads= args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int connections= args.length > 4 ? Integer.parseInt(args[4]) : 20;
+        TransportType transportType= args.length > 5 ? TransportType.valueOf(args[5].trim().toUpperCase())
+                : TransportType.HTTPCLIENT;
+        System.out.println(callers + " callers, " + requests
+                + " requests per caller, " + connections
+                + " connections per host, " + transportType + " transport");
+
+        PEPClient client= new PEPClient(createConfiguration(endpoint,
+                                                            connections,
+                                                            transportType,
+                                                            false));
+        ExecutorService pool= Executors.newFixedThreadPool(poolThreads);
+        // warm up
+        run(client, pool, null, poolThreads, requests);
+        long start= System.nanoTime();
+        int failures= run(client, pool, null, callers, requests);
+        report(poolThreads + " platform threads", callers * requests,
+               System.nanoTime() - start, failures);
+        pool.shutdown();
+        client.close();
+
+        Method startVirtualThread;
+        try {
+            startVirtualThread= Thread.class.getMethod("startVirtualThread",
+                                                       Runnable.class);
+        } catch (NoSuchMethodException e) {
+            System.out.println("virtual threads: not supported by Java "
+                    + System.getProperty("java.version"));
+            return;
+        }
+        client= new PEPClient(createConfiguration(endpoint, connections,
+                                                  transportType, true));
+        run(client, null, startVirtualThread, poolThreads, requests);
+        start= System.nanoTime();
+        failures= run(client, null, startVirtualThread, callers, requests);
+        report(callers + " virtual threads", callers * requests,
+               System.nanoTime() - start, failures);
+        client.close();
+    }
+
+    private static PEPClientConfiguration createConfiguration(
+            String endpoint, int connections, TransportType transportType,
+            boolean virtualThreads) throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(endpoint);
+        config.setTransportType(transportType);
+        config.setMaxConnectionsPerHost(connections);
+        config.setMaxTotalConnections(connections);
+        config.setVirtualThreads(virtualThreads);
+        return config;
+    }
+
+    private static void report(String callers, int authorizations,
+            long nanos, int failures) {
+        double seconds= nanos / 1e9;
+        System.out.println(callers + ": " + (long) (authorizations / seconds)
+                + " authorizations/s, " + failures + " failures");
+    }
+
+    /**
+     * Runs the callers, as tasks of the pool or in virtual threads, and waits
+     * for them.
+     * 
+     * @return the number of failed authorizations
+     */
+    private static int run(final PEPClient client, ExecutorService pool,
+            Method startVirtualThread, int callers, final int requests)
+            throws Exception {
+        final CountDownLatch done= new CountDownLatch(callers);
+        final AtomicInteger failures= new AtomicInteger();
+        List<Runnable> tasks= new ArrayList<Runnable>(callers);
+        for (int i= 0; i < callers; i++) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j= 0; j < requests; j++) {
+                            try {
+                                client.authorize(createRequest());
+                            } catch (Exception e) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        for (Runnable task : tasks) {
+            if (pool != null) {
+                pool.execute(task);
+            }
+            else {
+                startVirtualThread.invoke(null, task);
+            }
+        }
+        done.await(10, TimeUnit.MINUTES);
+        return failures.get();
+    }
+
+    private static Request createRequest() {
+        Request request= new Request();
+        Action action= new Action();
+        Attribute actionId= new Attribute(Attribute.ID_ACT_ID,
+                                          Attribute.DT_STRING);
+        actionId.getValues().add("http://glite.org/xacml/action/execute");
+        action.getAttributes().add(actionId);
+        request.setAction(action);
+        return request;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.common.util.Base64;
+import org.glite.authz.pep.client.codec.CompactWireCodec;
+import org.glite.authz.pep.client.codec.Hessian2WireCodec;
+import org.glite.authz.pep.client.codec.HessianCodec;
+import org.glite.authz.pep.client.codec.HessianWireCodec;
+import org.glite.authz.pep.client.codec.WireCodec;
+
+import com.caucho.hessian.io.Hessian2Output;
+
+/**
+ * Payload size and latency of the wire codecs, for a typical authorization
+ * request and response: encoding of the request and decoding of the
+ * response, as done by the PEP client.
+ * <p>
+ * Usage: <code>WireCodecBenchmark [iterations]</code>
+ */
+public class WireCodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations= args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Request request= createRequest();
+        Response response= createResponse(request);
+        final HessianCodec hessianCodec= new HessianCodec();
+        final CompactWireCodec compactCodec= new CompactWireCodec();
+        Format[] formats= {
+                new Format(new HessianWireCodec(hessianCodec)) {
+                    void encodeResponse(Response response, OutputStream out)
+                            throws IOException {
+                        hessianCodec.writeObject(response, out);
+                    }
+                },
+                new Format(new Hessian2WireCodec(hessianCodec)) {
+                    void encodeResponse(Response response, OutputStream out)
+                            throws IOException {
+                        Hessian2Output output= new Hessian2Output(out);
+                        output.setSerializerFactory(hessianCodec.getSerializerFactory());
+                        output.writeObject(response);
+                        output.flush();
+                    }
+                }, new Format(compactCodec) {
+                    void encodeResponse(Response response, OutputStream out)
+                            throws IOException {
+                        compactCodec.encodeResponse(response, out);
+                    }
+                } };
+        for (Format format : formats) {
+            format.prepare(request, response);
+            // warm up
+            format.measure(iterations);
+        }
+        for (Format format : formats) {
+            format.measure(iterations).print();
+        }
+    }
+
+    private static Request createRequest() {
+        Request request= new Request();
+        Subject subject= new Subject();
+        Attribute subjectId= new Attribute(Attribute.ID_SUB_ID,
+                                           Attribute.DT_X500_NAME);
+        subjectId.getValues().add("CN=John Doe,O=Example,C=CH");
+        subject.getAttributes().add(subjectId);
+        Attribute fqans= new Attribute("http://glite.org/xacml/attribute/fqan",
+                                       "http://glite.org/xacml/datatype/fqan");
+        fqans.getValues().add("/atlas/Role=NULL/Capability=NULL");
+        fqans.getValues().add("/atlas/production/Role=NULL/Capability=NULL");
+        subject.getAttributes().add(fqans);
+        Attribute primaryFqan= new Attribute("http://glite.org/xacml/attribute/fqan/primary",
+                                             "http://glite.org/xacml/datatype/fqan");
+        primaryFqan.getValues().add("/atlas/Role=NULL/Capability=NULL");
+        subject.getAttributes().add(primaryFqan);
+        request.getSubjects().add(subject);
+        Resource resource= new Resource();
+        Attribute resourceId= new Attribute(Attribute.ID_RES_ID,
+                                            Attribute.DT_STRING);
+        resourceId.getValues().add("http://authz-interop.org/xacml/resource/resource-type/wn");
+        resource.getAttributes().add(resourceId);
+        request.getResources().add(resource);
+        Action action= new Action();
+        Attribute actionId= new Attribute(Attribute.ID_ACT_ID,
+                                          Attribute.DT_STRING);
+        actionId.getValues().add("http://glite.org/xacml/action/execute");
+        action.getAttributes().add(actionId);
+        request.setAction(action);
+        return request;
+    }
+
+    private static Response createResponse(Request request) {
+        Response response= new Response();
+        response.setRequest(request);
+        Result result= new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setResourceId("http://authz-interop.org/xacml/resource/resource-type/wn");
+        Obligation obligation= new Obligation();
+        obligation.setId("http://glite.org/xacml/obligation/local-environment-map/posix");
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        String[][] assignments= {
+                { "http://glite.org/xacml/attribute/user-id", "atlas001" },
+                { "http://glite.org/xacml/attribute/group-id/primary", "atlas" },
+                { "http://glite.org/xacml/attribute/group-id", "atlasprd" } };
+        for (String[] assignment : assignments) {
+            AttributeAssignment attributeAssignment= new AttributeAssignment();
+            attributeAssignment.setAttributeId(assignment[0]);
+            attributeAssignment.setDataType(Attribute.DT_STRING);
+            attributeAssignment.setValue(assignment[1]);
+            obligation.getAttributeAssignments().add(attributeAssignment);
+        }
+        result.getObligations().add(obligation);
+        response.getResults().add(result);
+        return response;
+    }
+
+    /** A wire codec and the encoding of the response, done by the PEP daemon. */
+    private static abstract class Format {
+
+        private final WireCodec codec_;
+
+        private final ByteArrayOutputStream out_= new ByteArrayOutputStream(2048);
+
+        private Request request_;
+
+        private byte[] responseBytes_;
+
+        private int requestSize_;
+
+        private double nanosPerOp_;
+
+        Format(WireCodec codec) {
+            codec_= codec;
+        }
+
+        abstract void encodeResponse(Response response, OutputStream out)
+                throws IOException;
+
+        void prepare(Request request, Response response) throws IOException {
+            request_= request;
+            ByteArrayOutputStream out= new ByteArrayOutputStream();
+            encodeResponse(response, out);
+            responseBytes_= out.toByteArray();
+            out_.reset();
+            codec_.encodeRequest(request, out_);
+            requestSize_= out_.size();
+        }
+
+        Format measure(int iterations) throws IOException {
+            long start= System.nanoTime();
+            for (int i= 0; i < iterations; i++) {
+                out_.reset();
+                codec_.encodeRequest(request_, out_);
+                codec_.decodeResponse(new ByteArrayInputStream(responseBytes_));
+            }
+            nanosPerOp_= (double) (System.nanoTime() - start) / iterations;
+            return this;
+        }
+
+        void print() {
+            System.out.println(codec_ + ": request " + requestSize_
+                    + " bytes (" + base64Size(requestSize_) + " Base64), response "
+                    + responseBytes_.length + " bytes ("
+                    + base64Size(responseBytes_.length) + " Base64), "
+                    + (long) nanosPerOp_ + " ns/op");
+        }
+
+        private static int base64Size(int size) {
+            return Base64.encodeBytes(new byte[size]).length();
+        }
+    }
+}
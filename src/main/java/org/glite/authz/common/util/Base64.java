@@ -134,6 +134,12 @@ public class Base64 {
     /** Maximum line length (76) of Base64 output. */
     private final static int MAX_LINE_LENGTH = 76;
 
+    /** Number of 4 characters groups per line of Base64 output. */
+    private final static int GROUPS_PER_LINE = MAX_LINE_LENGTH / 4;
+
+    /** Number of encoded characters read ahead by a decoding {@link Base64.InputStream}. */
+    private final static int DECODE_BLOCK_SIZE = 2048;
+
     /** The equals sign (=) as a byte. */
     private final static byte EQUALS_SIGN = (byte) '=';
 
@@ -681,32 +687,9 @@ public class Base64 {
 
         // Else, don't compress. Better not to use streams at all then.
         else {
-            // Convert option to boolean in way that code likes it.
-            boolean breakLines = dontBreakLines == 0;
-
-            int len43 = len * 4 / 3;
-            byte[] outBuff = new byte[(len43) // Main 4:3
-                    + ((len % 3) > 0 ? 4 : 0) // Account for padding
-                    + (breakLines ? (len43 / MAX_LINE_LENGTH) : 0)]; // New lines
-            int d = 0;
-            int e = 0;
-            int len2 = len - 2;
-            int lineLength = 0;
-            for (; d < len2; d += 3, e += 4) {
-                encode3to4(source, d + off, 3, outBuff, e, options);
-
-                lineLength += 4;
-                if (breakLines && lineLength == MAX_LINE_LENGTH) {
-                    outBuff[e + 4] = NEW_LINE;
-                    e++;
-                    lineLength = 0;
-                } // end if: end of line
-            } // en dfor: each piece of array
-
-            if (d < len) {
-                encode3to4(source, d + off, len - d, outBuff, e, options);
-                e += 4;
-            } // end if: some padding needed
+            // Exact size, no trimming copy
+            byte[] outBuff = new byte[encodedLength(len, options)];
+            int e = encode(source, off, len, outBuff, 0, options);
 
             // Return value according to relevant encoding.
             try {
@@ -720,6 +703,171 @@ public class Base64 {
 
     } // end encodeBytes
 
+    /**
+     * Returns the exact length of the Base64 encoding of <var>len</var> bytes, as written by
+     * {@link #encode(byte[], int, int, byte[], int, int)} and {@link #encodeBytes(byte[], int, int, int)}. Unless
+     * <code>DONT_BREAK_LINES</code> is given, a new line follows every 76 characters.
+     * 
+     * @param len Length of data to convert
+     * @param options Specified options
+     * @return the encoded length
+     * @throws IllegalArgumentException if the encoded length exceeds the maximum array length
+     */
+    public static int encodedLength(int len, int options) {
+        if (len < 0)
+            throw new IllegalArgumentException("Negative length: " + len);
+        long fullGroups = len / 3;
+        long length = (fullGroups + (len % 3 > 0 ? 1 : 0)) * 4;
+        if ((options & DONT_BREAK_LINES) == 0)
+            length += fullGroups / GROUPS_PER_LINE;
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Encoded length too large: " + length);
+        return (int) length;
+    } // end encodedLength
+
+    /**
+     * Encodes a byte array into Base64 notation, into the <var>destination</var> array. Nothing is allocated: the
+     * destination must have room for {@link #encodedLength(int, int)} bytes at <var>destOff</var>. GZIP is not
+     * supported.
+     * 
+     * @param source The data to convert
+     * @param off Offset in array where conversion should begin
+     * @param len Length of data to convert
+     * @param destination the array to hold the conversion
+     * @param destOff the index where output will be put
+     * @param options alphabet type (standard, url-safe, ordered) and DONT_BREAK_LINES
+     * @return the number of bytes written
+     * @throws IndexOutOfBoundsException if the source range is invalid or the destination too small
+     */
+    public static int encode(byte[] source, int off, int len, byte[] destination, int destOff, int options) {
+        checkRange(source.length, off, len);
+        int encodedLength = encodedLength(len, options);
+        checkRange(destination.length, destOff, encodedLength);
+        byte[] alphabet = getAlphabet(options);
+        boolean breakLines = (options & DONT_BREAK_LINES) == 0;
+        int s = off;
+        int d = destOff;
+        int fullGroupsEnd = off + len - len % 3;
+        while (s < fullGroupsEnd) {
+            // One line at a time, no line length test in the inner loop
+            int lineStart = s;
+            int lineEnd = Math.min(fullGroupsEnd, s + GROUPS_PER_LINE * 3);
+            while (s < lineEnd) {
+                int bits = (source[s] & 0xFF) << 16 | (source[s + 1] & 0xFF) << 8 | (source[s + 2] & 0xFF);
+                destination[d] = alphabet[bits >>> 18];
+                destination[d + 1] = alphabet[(bits >>> 12) & 0x3f];
+                destination[d + 2] = alphabet[(bits >>> 6) & 0x3f];
+                destination[d + 3] = alphabet[bits & 0x3f];
+                s += 3;
+                d += 4;
+            } // end while: each group of the line
+            if (breakLines && lineEnd - lineStart == GROUPS_PER_LINE * 3)
+                destination[d++] = NEW_LINE; // Full line
+        } // end while: each line
+        int remaining = off + len - s;
+        if (remaining > 0) {
+            int bits = (source[s] & 0xFF) << 16 | (remaining > 1 ? (source[s + 1] & 0xFF) << 8 : 0);
+            destination[d] = alphabet[bits >>> 18];
+            destination[d + 1] = alphabet[(bits >>> 12) & 0x3f];
+            destination[d + 2] = remaining > 1 ? alphabet[(bits >>> 6) & 0x3f] : EQUALS_SIGN;
+            destination[d + 3] = EQUALS_SIGN;
+            d += 4;
+        } // end if: padding needed
+        return d - destOff;
+    } // end encode
+
+    /**
+     * Encodes the remaining bytes of the <var>source</var> buffer into Base64 notation, into the
+     * <var>destination</var> buffer. Both buffer positions are advanced. Heap buffers are encoded in place, nothing is
+     * allocated.
+     * 
+     * @param source The data to convert
+     * @param destination the buffer to hold the conversion
+     * @param options alphabet type (standard, url-safe, ordered) and DONT_BREAK_LINES
+     * @throws java.nio.BufferOverflowException if the destination has less than {@link #encodedLength(int, int)}
+     *             bytes remaining, nothing is then written
+     */
+    public static void encode(java.nio.ByteBuffer source, java.nio.ByteBuffer destination, int options) {
+        if (source.hasArray() && destination.hasArray() && !destination.isReadOnly()) {
+            int len = source.remaining();
+            if (destination.remaining() < encodedLength(len, options))
+                throw new java.nio.BufferOverflowException();
+            int n = encode(source.array(), source.arrayOffset() + source.position(), len, destination.array(),
+                    destination.arrayOffset() + destination.position(), options);
+            source.position(source.limit());
+            destination.position(destination.position() + n);
+        } // end if: heap buffers
+        else {
+            encode(source, destination, null, options);
+        } // end else
+    } // end encode
+
+    /**
+     * Encodes the remaining bytes of the <var>source</var> buffer into Base64 notation, into the
+     * <var>destination</var> character buffer. Both buffer positions are advanced. Nothing is allocated.
+     * 
+     * @param source The data to convert
+     * @param destination the buffer to hold the conversion
+     * @param options alphabet type (standard, url-safe, ordered) and DONT_BREAK_LINES
+     * @throws java.nio.BufferOverflowException if the destination has less than {@link #encodedLength(int, int)}
+     *             characters remaining, nothing is then written
+     */
+    public static void encode(java.nio.ByteBuffer source, java.nio.CharBuffer destination, int options) {
+        encode(source, null, destination, options);
+    } // end encode
+
+    /**
+     * Encodes the remaining bytes of the <var>source</var> buffer, a byte at a time, into either the byte or the
+     * character destination buffer.
+     */
+    private static void encode(java.nio.ByteBuffer source, java.nio.ByteBuffer bytes, java.nio.CharBuffer chars,
+            int options) {
+        int len = source.remaining();
+        if ((bytes != null ? bytes.remaining() : chars.remaining()) < encodedLength(len, options))
+            throw new java.nio.BufferOverflowException();
+        byte[] alphabet = getAlphabet(options);
+        boolean breakLines = (options & DONT_BREAK_LINES) == 0;
+        int groups = 0;
+        for (int fullGroups = len / 3; fullGroups > 0; fullGroups--) {
+            int bits = (source.get() & 0xFF) << 16 | (source.get() & 0xFF) << 8 | (source.get() & 0xFF);
+            put(bytes, chars, alphabet[bits >>> 18]);
+            put(bytes, chars, alphabet[(bits >>> 12) & 0x3f]);
+            put(bytes, chars, alphabet[(bits >>> 6) & 0x3f]);
+            put(bytes, chars, alphabet[bits & 0x3f]);
+            if (breakLines && ++groups == GROUPS_PER_LINE) {
+                put(bytes, chars, NEW_LINE);
+                groups = 0;
+            } // end if: end of line
+        } // end for: each full group
+        int remaining = len % 3;
+        if (remaining > 0) {
+            int bits = (source.get() & 0xFF) << 16 | (remaining > 1 ? (source.get() & 0xFF) << 8 : 0);
+            put(bytes, chars, alphabet[bits >>> 18]);
+            put(bytes, chars, alphabet[(bits >>> 12) & 0x3f]);
+            put(bytes, chars, remaining > 1 ? alphabet[(bits >>> 6) & 0x3f] : EQUALS_SIGN);
+            put(bytes, chars, EQUALS_SIGN);
+        } // end if: padding needed
+    } // end encode
+
+    /** Puts an encoded character into either the byte or the character buffer. */
+    private static void put(java.nio.ByteBuffer bytes, java.nio.CharBuffer chars, byte b) {
+        if (bytes != null)
+            bytes.put(b);
+        else
+            chars.put((char) b);
+    } // end put
+
+    /**
+     * Checks that a range lies within an array.
+     * 
+     * @throws IndexOutOfBoundsException if the range is invalid
+     */
+    private static void checkRange(int arrayLength, int off, int len) {
+        if (off < 0 || len < 0 || off > arrayLength - len)
+            throw new IndexOutOfBoundsException("Invalid range: offset " + off + ", length " + len + ", array length "
+                    + arrayLength);
+    } // end checkRange
+
     /* ******** D E C O D I N G M E T H O D S ******** */
 
     /**
@@ -853,6 +1001,226 @@ public class Base64 {
         return out;
     } // end decode
 
+    /**
+     * Returns the exact length of the data encoded in Base64 notation. White space is skipped and the padding ends
+     * the data: only white space may follow it.
+     * 
+     * @param source The Base64 encoded data
+     * @param off The offset of where to begin decoding
+     * @param len The length of characters to decode
+     * @param options alphabet type (standard, url-safe, ordered)
+     * @return the decoded length
+     * @throws IllegalArgumentException if the data contains an invalid character, is improperly padded or continues
+     *             after the padding
+     */
+    public static int decodedLength(byte[] source, int off, int len, int options) {
+        checkRange(source.length, off, len);
+        byte[] decodabet = getDecodabet(options);
+        int characters = 0;
+        int padding = 0;
+        for (int i = off; i < off + len; i++) {
+            int sbiDecode = decodabetValue(decodabet, source[i] & 0xFF, i);
+            if (sbiDecode == EQUALS_SIGN_ENC)
+                padding++;
+            else if (sbiDecode >= 0) {
+                checkNotPadded(padding, i);
+                characters++;
+            } // end else if: Base64 character
+        } // end for: each character
+        checkPadding(characters, padding);
+        return characters * 3 / 4;
+    } // end decodedLength
+
+    /**
+     * Decodes data from Base64 notation into the <var>destination</var> array. White space is skipped and the
+     * padding ends the data: only white space may follow it. Nothing is allocated: the destination must have room
+     * for {@link #decodedLength(byte[], int, int, int)} bytes at <var>destOff</var>, which is checked before anything
+     * is written. Does not support automatically gunzipping.
+     * 
+     * @param source The Base64 encoded data
+     * @param off The offset of where to begin decoding
+     * @param len The length of characters to decode
+     * @param destination the array to hold the decoded data
+     * @param destOff the index where output will be put
+     * @param options alphabet type (standard, url-safe, ordered)
+     * @return the number of decoded bytes
+     * @throws IllegalArgumentException if the data contains an invalid character, is improperly padded or continues
+     *             after the padding
+     * @throws IndexOutOfBoundsException if the source range is invalid or the destination too small
+     */
+    public static int decode(byte[] source, int off, int len, byte[] destination, int destOff, int options) {
+        int decodedLength = decodedLength(source, off, len, options);
+        checkRange(destination.length, destOff, decodedLength);
+        return decodeChecked(source, off, len, destination, destOff, options);
+    } // end decode
+
+    /**
+     * Decodes data from Base64 notation into the <var>destination</var> array, once the source has been checked by
+     * {@link #decodedLength(byte[], int, int, int)} and the destination has room for its result.
+     * 
+     * @return the number of decoded bytes
+     */
+    private static int decodeChecked(byte[] source, int off, int len, byte[] destination, int destOff, int options) {
+        byte[] decodabet = getDecodabet(options);
+        int d = destOff;
+        int bits = 0;
+        int characters = 0;
+        int end = off + len;
+        int i = off;
+        for (; i < end; i++) {
+            int sbiDecode = decodabetValue(decodabet, source[i] & 0xFF, i);
+            if (sbiDecode >= 0) {
+                bits = bits << 6 | sbiDecode;
+                if (++characters == 4) {
+                    destination[d] = (byte) (bits >>> 16);
+                    destination[d + 1] = (byte) (bits >>> 8);
+                    destination[d + 2] = (byte) bits;
+                    d += 3;
+                    bits = 0;
+                    characters = 0;
+                } // end if: quartet built
+            } // end if: Base64 character
+            else if (sbiDecode == EQUALS_SIGN_ENC) {
+                break;
+            } // end else if: padding, already checked
+        } // end for: each character
+        return d - destOff + decodeLastGroup(bits, characters, destination, d);
+    } // end decodeChecked
+
+    /**
+     * Decodes the remaining characters of the <var>source</var> buffer from Base64 notation into the
+     * <var>destination</var> buffer. White space is skipped and the padding ends the data: only white space may follow
+     * it. Both buffer positions are advanced, the source to its limit. Nothing is allocated.
+     * 
+     * @param source The Base64 encoded data
+     * @param destination the buffer to hold the decoded data
+     * @param options alphabet type (standard, url-safe, ordered)
+     * @throws IllegalArgumentException if the data contains an invalid character, is improperly padded or continues
+     *             after the padding
+     * @throws java.nio.BufferOverflowException if the destination is too small
+     */
+    public static void decode(java.nio.ByteBuffer source, java.nio.ByteBuffer destination, int options) {
+        if (source.hasArray() && destination.hasArray() && !destination.isReadOnly()) {
+            byte[] array = source.array();
+            int off = source.arrayOffset() + source.position();
+            int len = source.remaining();
+            if (destination.remaining() < decodedLength(array, off, len, options))
+                throw new java.nio.BufferOverflowException();
+            int n = decodeChecked(array, off, len, destination.array(),
+                    destination.arrayOffset() + destination.position(), options);
+            source.position(source.limit());
+            destination.position(destination.position() + n);
+        } // end if: heap buffers
+        else {
+            decode(source, null, destination, options);
+        } // end else
+    } // end decode
+
+    /**
+     * Decodes the remaining characters of the <var>source</var> character buffer from Base64 notation into the
+     * <var>destination</var> buffer. White space is skipped and the padding ends the data: only white space may follow
+     * it. Both buffer positions are advanced, the source to its limit. Nothing is allocated.
+     * 
+     * @param source The Base64 encoded data
+     * @param destination the buffer to hold the decoded data
+     * @param options alphabet type (standard, url-safe, ordered)
+     * @throws IllegalArgumentException if the data contains an invalid character, is improperly padded or continues
+     *             after the padding
+     * @throws java.nio.BufferOverflowException if the destination is too small
+     */
+    public static void decode(java.nio.CharBuffer source, java.nio.ByteBuffer destination, int options) {
+        decode(null, source, destination, options);
+    } // end decode
+
+    /**
+     * Decodes the remaining characters of either the byte or the character source buffer, a character at a time.
+     */
+    private static void decode(java.nio.ByteBuffer bytes, java.nio.CharBuffer chars, java.nio.ByteBuffer destination,
+            int options) {
+        byte[] decodabet = getDecodabet(options);
+        int bits = 0;
+        int characters = 0;
+        int padding = 0;
+        int end = bytes != null ? bytes.limit() : chars.limit();
+        for (int i = bytes != null ? bytes.position() : chars.position(); i < end; i++) {
+            int c = bytes != null ? bytes.get(i) & 0xFF : chars.get(i);
+            int sbiDecode = decodabetValue(decodabet, c, i);
+            if (sbiDecode >= 0) {
+                checkNotPadded(padding, i);
+                bits = bits << 6 | sbiDecode;
+                if (++characters == 4) {
+                    destination.put((byte) (bits >>> 16));
+                    destination.put((byte) (bits >>> 8));
+                    destination.put((byte) bits);
+                    bits = 0;
+                    characters = 0;
+                } // end if: quartet built
+            } // end if: Base64 character
+            else if (sbiDecode == EQUALS_SIGN_ENC) {
+                padding++;
+            } // end else if: padding
+        } // end for: each character
+        checkPadding(characters, padding);
+        if (characters > 1)
+            destination.put((byte) (bits >>> (characters == 2 ? 4 : 10)));
+        if (characters > 2)
+            destination.put((byte) (bits >>> 2));
+        if (bytes != null)
+            bytes.position(end);
+        else
+            chars.position(end);
+    } // end decode
+
+    /**
+     * Decodes the last, padded, group of characters.
+     * 
+     * @return the number of decoded bytes
+     */
+    private static int decodeLastGroup(int bits, int characters, byte[] destination, int destOff) {
+        if (characters == 2) {
+            destination[destOff] = (byte) (bits >>> 4);
+            return 1;
+        } // end if: Dk==
+        if (characters == 3) {
+            destination[destOff] = (byte) (bits >>> 10);
+            destination[destOff + 1] = (byte) (bits >>> 2);
+            return 2;
+        } // end if: DkL=
+        return 0;
+    } // end decodeLastGroup
+
+    /**
+     * Returns the decodabet value of a character: the 6 bits value, or white space or equals sign.
+     * 
+     * @throws IllegalArgumentException if the character is invalid
+     */
+    private static int decodabetValue(byte[] decodabet, int c, int index) {
+        int sbiDecode = c < 128 ? decodabet[c] : -9;
+        if (sbiDecode < WHITE_SPACE_ENC)
+            throw new IllegalArgumentException("Invalid character in Base64 data at " + index + ": " + c + "(decimal)");
+        return sbiDecode;
+    } // end decodabetValue
+
+    /**
+     * Checks that the characters of the last group are completed by the padding.
+     * 
+     * @throws IllegalArgumentException if the data is improperly padded
+     */
+    private static void checkPadding(int characters, int padding) {
+        if ((characters + padding) % 4 != 0 || characters % 4 == 1 || padding > 2)
+            throw new IllegalArgumentException("Improperly padded Base64 input.");
+    } // end checkPadding
+
+    /**
+     * Checks that a Base64 character does not follow the padding.
+     * 
+     * @throws IllegalArgumentException if the padding was already read
+     */
+    private static void checkNotPadded(int padding, int index) {
+        if (padding > 0)
+            throw new IllegalArgumentException("Base64 data after the padding at " + index);
+    } // end checkNotPadded
+
     /**
      * Decodes data from Base64 notation, automatically detecting gzip-compressed data and decompressing it.
      * 
@@ -1240,6 +1608,24 @@ public class Base64 {
 
         private byte[] decodabet; // Local copies to avoid extra method calls
 
+        private byte[] encoded; // Block of encoded characters read ahead when decoding
+
+        private int encodedPosition; // Current position in the encoded block
+
+        private int encodedLength; // Length of the encoded block
+
+        private byte[] decoded; // Block of decoded bytes when decoding
+
+        private int decodedPosition; // Current position in the decoded block
+
+        private int decodedLength; // Length of the decoded block
+
+        private byte[] group; // Meaningful characters of the current group when decoding
+
+        private int groupLength; // Number of characters in the current group
+
+        private boolean endOfData; // End of stream or padding reached when decoding
+
         /**
          * Constructs a {@link Base64.InputStream} in DECODE mode.
          * 
@@ -1284,6 +1670,11 @@ public class Base64 {
             this.options = options; // Record for later, mostly to determine which alphabet to use
             this.alphabet = getAlphabet(options);
             this.decodabet = getDecodabet(options);
+            if (!encode) {
+                this.encoded = new byte[DECODE_BLOCK_SIZE];
+                this.decoded = new byte[DECODE_BLOCK_SIZE / 4 * 3];
+                this.group = new byte[4];
+            } // end if: decoding
         } // end constructor
 
         /**
@@ -1293,6 +1684,13 @@ public class Base64 {
          * @since 1.3
          */
         public int read() throws java.io.IOException {
+            // Decoding is block oriented
+            if (!encode) {
+                if (decodedPosition >= decodedLength && !fillDecoded())
+                    return -1;
+                return decoded[decodedPosition++] & 0xFF;
+            } // end if: decoding
+
             // Do we need to get data?
             if (position < 0) {
                 if (encode) {
@@ -1326,37 +1724,6 @@ public class Base64 {
                         return -1;
                     } // end else
                 } // end if: encoding
-
-                // Else decoding
-                else {
-                    byte[] b4 = new byte[4];
-                    int i = 0;
-                    for (i = 0; i < 4; i++) {
-                        // Read four "meaningful" bytes:
-                        int b = 0;
-                        do {
-                            b = in.read();
-                        } while (b >= 0 && decodabet[b & 0x7f] <= WHITE_SPACE_ENC);
-
-                        if (b < 0)
-                            break; // Reads a -1 if end of stream
-
-                        b4[i] = (byte) b;
-                    } // end for: each needed input byte
-
-                    if (i == 4) {
-                        numSigBytes = decode4to3(b4, 0, buffer, 0, options);
-                        position = 0;
-                    } // end if: got four characters
-                    else if (i == 0) {
-                        return -1;
-                    } // end else if: also padded correctly
-                    else {
-                        // Must have broken out from above.
-                        throw new java.io.IOException("Improperly padded Base64 input.");
-                    } // end
-
-                } // end else: decode
             } // end else: get data
 
             // Got data?
@@ -1392,8 +1759,9 @@ public class Base64 {
         } // end read
 
         /**
-         * Calls {@link #read()} repeatedly until the end of stream is reached or <var>len</var> bytes are read.
-         * Returns number of bytes read into array or -1 if end of stream is encountered.
+         * Reads up to <var>len</var> bytes. When decoding, copies the bytes decoded a block at a time, otherwise calls
+         * {@link #read()} repeatedly until the end of stream is reached or <var>len</var> bytes are read. Returns
+         * number of bytes read into array or -1 if end of stream is encountered.
          * 
          * @param dest array to hold values
          * @param off offset for array
@@ -1402,6 +1770,26 @@ public class Base64 {
          * @since 1.3
          */
         public int read(byte[] dest, int off, int len) throws java.io.IOException {
+            if (!encode) {
+                if (len == 0)
+                    return 0;
+                int copied = 0;
+                while (copied < len) {
+                    if (decodedPosition >= decodedLength) {
+                        // Don't block for more data once some bytes are read
+                        if (copied > 0 && encodedPosition >= encodedLength)
+                            break;
+                        if (!fillDecoded())
+                            break;
+                    } // end if: decoded block consumed
+                    int n = Math.min(len - copied, decodedLength - decodedPosition);
+                    System.arraycopy(decoded, decodedPosition, dest, off + copied, n);
+                    decodedPosition += n;
+                    copied += n;
+                } // end while: bytes to copy
+                return copied == 0 ? -1 : copied;
+            } // end if: decoding
+
             int i;
             int b;
             for (i = 0; i < len; i++) {
@@ -1420,6 +1808,61 @@ public class Base64 {
             return i;
         } // end read
 
+        /**
+         * Decodes the next block of bytes from the characters read ahead from the input stream. Reads the input
+         * stream only when no character is left, so the call never blocks once some bytes are decoded.
+         * 
+         * @return <code>true</code> if some bytes were decoded, <code>false</code> at end of data
+         * @throws java.io.IOException if the input stream failed, or the Base64 input contains an invalid character or
+         *             is improperly padded
+         */
+        private boolean fillDecoded() throws java.io.IOException {
+            decodedPosition = 0;
+            decodedLength = 0;
+            while (!endOfData && decodedLength + 3 <= decoded.length) {
+                if (encodedPosition >= encodedLength) {
+                    if (decodedLength > 0)
+                        break; // Don't block while bytes are decoded
+                    encodedLength = in.read(encoded, 0, encoded.length);
+                    encodedPosition = 0;
+                    if (encodedLength < 0) {
+                        encodedLength = 0;
+                        endOfData = true;
+                        if (groupLength > 0)
+                            throw new java.io.IOException("Improperly padded Base64 input.");
+                    } // end if: end of stream
+                    continue;
+                } // end if: need characters
+
+                int b = encoded[encodedPosition++] & 0xFF;
+                if (decodabet[b & 0x7f] == WHITE_SPACE_ENC)
+                    continue; // Skip white space
+                if (decodabet[b & 0x7f] < WHITE_SPACE_ENC)
+                    throw new java.io.IOException("Invalid character in Base64 data.");
+
+                group[groupLength++] = (byte) b;
+                if (groupLength == 4) {
+                    int numDecoded = decode4to3(group, 0, decoded, decodedLength, options);
+                    if (numDecoded < 0)
+                        throw new java.io.IOException("Invalid character in Base64 data.");
+                    decodedLength += numDecoded;
+                    groupLength = 0;
+                    if (numDecoded < 3)
+                        endOfData = true; // Padding ends the data
+                } // end if: got four characters
+            } // end while: room for a group
+            return decodedLength > 0;
+        } // end fillDecoded
+
+        /**
+         * Mark is not supported, the input stream is read ahead when decoding.
+         * 
+         * @return <code>false</code>
+         */
+        public boolean markSupported() {
+            return false;
+        } // end markSupported
+
     } // end inner class InputStream
 
     /* ******** I N N E R C L A S S O U T P U T S T R E A M ******** */
@@ -1446,6 +1889,8 @@ public class Base64 {
 
         private byte[] b4; // Scratch used in a few places
 
+        private byte[] line; // Scratch holding an encoded line, allocated on first bulk write
+
         private boolean suspendEncoding;
 
         private int options; // Record for later
@@ -1553,7 +1998,8 @@ public class Base64 {
         } // end write
 
         /**
-         * Calls {@link #write(int)} repeatedly until <var>len</var> bytes are written.
+         * Writes <var>len</var> bytes. When encoding, the complete 3 bytes groups are encoded a line at a time,
+         * otherwise calls {@link #write(int)} repeatedly.
          * 
          * @param theBytes array from which to read bytes
          * @param off offset for array
@@ -1567,7 +2013,36 @@ public class Base64 {
                 return;
             } // end if: supsended
 
-            for (int i = 0; i < len; i++) {
+            int i = 0;
+            if (encode) {
+                // Complete the pending group first
+                for (; i < len && position > 0; i++) {
+                    write(theBytes[off + i]);
+                } // end for: pending group
+
+                if (line == null) {
+                    line = new byte[MAX_LINE_LENGTH + 1];
+                } // end if: first bulk write
+                int lineEnd = 0;
+                for (; i + 3 <= len; i += 3) {
+                    encode3to4(theBytes, off + i, 3, line, lineEnd, options);
+                    lineEnd += 4;
+                    lineLength += 4;
+                    if (breakLines && lineLength >= MAX_LINE_LENGTH) {
+                        line[lineEnd++] = NEW_LINE;
+                        lineLength = 0;
+                    } // end if: end of line
+                    if (lineEnd + 4 > line.length) {
+                        out.write(line, 0, lineEnd);
+                        lineEnd = 0;
+                    } // end if: scratch full
+                } // end for: each complete group
+                if (lineEnd > 0) {
+                    out.write(line, 0, lineEnd);
+                } // end if: partial line
+            } // end if: encoding
+
+            for (; i < len; i++) {
                 write(theBytes[off + i]);
             } // end for: each byte written
 
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Passive health tracking of a PEP daemon endpoint.
+ * <p>
+ * The circuit is <b>closed</b> while the endpoint answers. After a number of
+ * consecutive failures the circuit <b>opens</b> and the endpoint is skipped.
+ * Once the cool-down period has elapsed, the circuit is <b>half-open</b>: a
+ * single probe request is allowed, its success closes the circuit and its
+ * failure opens it again for another cool-down period.
+ */
+public class CircuitBreaker {
+
+    /** Circuit states */
+    public enum State {
+        /** Requests are allowed */
+        CLOSED,
+        /** Requests are not allowed */
+        OPEN,
+        /** A single probe request is allowed */
+        HALF_OPEN
+    }
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(CircuitBreaker.class);
+
+    /** The PEP daemon endpoint URL */
+    private final String endpoint_;
+
+    /** Number of consecutive failures opening the circuit */
+    private final int failureThreshold_;
+
+    /** Cool-down period in millis before a half-open probe */
+    private final long coolDown_;
+
+    /**
+     * Lock guarding the state changes, a monitor would pin the virtual
+     * threads logging the changes
+     */
+    private final ReentrantLock lock_= new ReentrantLock();
+
+    /** Current state, changed under the lock */
+    private volatile State state_= State.CLOSED;
+
+    /** Number of consecutive failures, changed under the lock */
+    private volatile int consecutiveFailures_= 0;
+
+    /** Time in millis the circuit was opened, or the probe started */
+    private long stateChangedAt_= 0;
+
+    /**
+     * Constructor.
+     *
+     * @param endpoint
+     *            the PEP daemon endpoint URL
+     * @param failureThreshold
+     *            number of consecutive failures opening the circuit, must be
+     *            greater than zero
+     * @param coolDown
+     *            cool-down period in millis before a half-open probe
+     */
+    public CircuitBreaker(String endpoint, int failureThreshold, long coolDown) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be greater than zero");
+        }
+        endpoint_= endpoint;
+        failureThreshold_= failureThreshold;
+        coolDown_= coolDown;
+    }
+
+    /**
+     * Checks if a request can be sent to the endpoint. When the circuit is
+     * open and the cool-down period has elapsed, the circuit becomes half-open
+     * and only the caller receiving <code>true</code> may probe the endpoint.
+     *
+     * @return <code>true</code> if the request can be sent
+     */
+    public boolean allowRequest() {
+        if (state_ == State.CLOSED) {
+            return true;
+        }
+        lock_.lock();
+        try {
+            if (state_ == State.CLOSED) {
+                return true;
+            }
+            // in half-open state, a lost probe is replaced after a cool-down
+            long now= System.currentTimeMillis();
+            if (now - stateChangedAt_ >= coolDown_) {
+                if (log.isDebugEnabled()) {
+                    log.debug("PEP Server " + endpoint_
+                            + " circuit half-open, probing");
+                }
+                state_= State.HALF_OPEN;
+                stateChangedAt_= now;
+                return true;
+            }
+            return false;
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /** Records a successful request, closing the circuit. */
+    public void recordSuccess() {
+        if (state_ == State.CLOSED && consecutiveFailures_ == 0) {
+            return;
+        }
+        lock_.lock();
+        try {
+            consecutiveFailures_= 0;
+            if (state_ != State.CLOSED) {
+                log.info("PEP Server " + endpoint_ + " circuit closed");
+                state_= State.CLOSED;
+            }
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /** Records a failed request, opening the circuit if needed. */
+    public void recordFailure() {
+        lock_.lock();
+        try {
+            int consecutiveFailures= consecutiveFailures_ + 1;
+            consecutiveFailures_= consecutiveFailures;
+            if (state_ == State.HALF_OPEN
+                    || (state_ == State.CLOSED && consecutiveFailures >= failureThreshold_)) {
+                log.warn("PEP Server " + endpoint_ + " circuit opened after "
+                        + consecutiveFailures + " consecutive failures");
+                state_= State.OPEN;
+                stateChangedAt_= System.currentTimeMillis();
+            }
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the current circuit state.
+     *
+     * @return the circuit state
+     */
+    public State getState() {
+        return state_;
+    }
+
+    /**
+     * Returns the number of consecutive failures.
+     *
+     * @return the number of consecutive failures
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures_;
+    }
+
+    /**
+     * Returns the PEP daemon endpoint URL.
+     *
+     * @return the endpoint URL
+     */
+    public String getEndpoint() {
+        return endpoint_;
+    }
+}
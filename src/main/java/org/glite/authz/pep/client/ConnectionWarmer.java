@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glite.authz.pep.client.balancer.EndpointStatistics;
+import org.glite.authz.pep.client.http.PerHostHttpConnectionManager;
+
+/**
+ * Background maintenance of the HTTP connection pool, keeping the TCP connect
+ * and the TLS handshake off the request path.
+ * <p>
+ * At startup, a number of connections is opened to each PEP daemon endpoint.
+ * Then, periodically, the connections idle for longer than the maximum idle
+ * time are closed, and new connections are opened until each endpoint has
+ * the minimum number of idle connections. The idle connections of an
+ * endpoint are estimated as its pooled connections minus its outstanding
+ * requests.
+ */
+final class ConnectionWarmer {
+
+    /** Time in millis to wait for a pooled connection, when the pool is full */
+    private static final long POOL_TIMEOUT= 100;
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(ConnectionWarmer.class);
+
+    /** The HTTP client owning the connection pool */
+    private final HttpClient httpClient_;
+
+    /** The PEP daemon endpoints */
+    private final List<EndpointStatistics> endpoints_;
+
+    /** Number of connections opened per endpoint at startup */
+    private final int warmupConnections_;
+
+    /** Minimum number of idle connections per endpoint */
+    private final int minIdleConnections_;
+
+    /** Maximum idle time in millis of a connection, <code>0</code> if unlimited */
+    private final long maxIdleTime_;
+
+    /** Maximum number of connections per endpoint */
+    private final int maxConnectionsPerHost_;
+
+    /** Executor running the maintenance */
+    private final ScheduledExecutorService executor_;
+
+    /**
+     * Constructor.
+     *
+     * @param httpClient
+     *            the HTTP client owning the connection pool
+     * @param endpoints
+     *            the PEP daemon endpoints
+     * @param warmupConnections
+     *            number of connections opened per endpoint at startup
+     * @param minIdleConnections
+     *            minimum number of idle connections per endpoint
+     * @param maxIdleTime
+     *            maximum idle time in millis of a connection, <code>0</code>
+     *            if unlimited
+     * @param maxConnectionsPerHost
+     *            maximum number of connections per endpoint
+     */
+    ConnectionWarmer(HttpClient httpClient, List<EndpointStatistics> endpoints,
+            int warmupConnections, int minIdleConnections, long maxIdleTime,
+            int maxConnectionsPerHost) {
+        httpClient_= httpClient;
+        endpoints_= endpoints;
+        warmupConnections_= warmupConnections;
+        minIdleConnections_= minIdleConnections;
+        maxIdleTime_= maxIdleTime;
+        maxConnectionsPerHost_= maxConnectionsPerHost;
+        executor_= Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("PEPClient-connections"));
+    }
+
+    /**
+     * Starts the warm-up and the periodic maintenance of the connection pool,
+     * in the background.
+     *
+     * @param interval
+     *            the maintenance interval in millis
+     */
+    void start(long interval) {
+        executor_.execute(new Runnable() {
+            public void run() {
+                for (EndpointStatistics endpoint : endpoints_) {
+                    openConnections(endpoint, warmupConnections_);
+                }
+            }
+        });
+        executor_.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                maintain();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the warm-up and the maintenance, interrupting the one in progress,
+     * if any.
+     */
+    void stop() {
+        executor_.shutdownNow();
+    }
+
+    /**
+     * Closes the connections idle for too long, and tops up the idle
+     * connections of each endpoint.
+     */
+    void maintain() {
+        HttpConnectionManager connectionManager= httpClient_.getHttpConnectionManager();
+        if (maxIdleTime_ > 0) {
+            connectionManager.closeIdleConnections(maxIdleTime_);
+        }
+        if (minIdleConnections_ > 0
+                && (connectionManager instanceof PerHostHttpConnectionManager
+                        || connectionManager instanceof MultiThreadedHttpConnectionManager)) {
+            for (EndpointStatistics endpoint : endpoints_) {
+                HostConfiguration hostConfiguration= getHostConfiguration(endpoint);
+                if (hostConfiguration == null) {
+                    continue;
+                }
+                int pooled;
+                if (connectionManager instanceof PerHostHttpConnectionManager) {
+                    PerHostHttpConnectionManager pool= (PerHostHttpConnectionManager) connectionManager;
+                    pool.deleteClosedConnections();
+                    pooled= pool.getConnectionsInPool(hostConfiguration);
+                }
+                else {
+                    MultiThreadedHttpConnectionManager pool= (MultiThreadedHttpConnectionManager) connectionManager;
+                    // closed connections are only removed from the pool when
+                    // reused
+                    pool.deleteClosedConnections();
+                    pooled= pool.getConnectionsInPool(hostConfiguration);
+                }
+                int idle= pooled - endpoint.getOutstandingRequests();
+                if (idle < minIdleConnections_) {
+                    openConnections(endpoint, minIdleConnections_);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure that a number of open connections to an endpoint are free in
+     * the pool. The connections are opened one at a time: the free pooled
+     * connections are taken until the pool hands out a closed one, they are
+     * returned to the pool at once, and the closed one is opened and returned
+     * to the pool. So the warmer holds a single connection during the TCP
+     * connect and the TLS handshake, and the requests can use the others.
+     *
+     * @param endpoint
+     *            the PEP daemon endpoint
+     * @param count
+     *            the number of free connections, capped by the per endpoint
+     *            maximum
+     */
+    private void openConnections(EndpointStatistics endpoint, int count) {
+        if (count <= 0) {
+            return;
+        }
+        HostConfiguration hostConfiguration= getHostConfiguration(endpoint);
+        if (hostConfiguration == null) {
+            return;
+        }
+        HttpConnectionManager connectionManager= httpClient_.getHttpConnectionManager();
+        int max= Math.min(count, maxConnectionsPerHost_);
+        List<HttpConnection> connections= new ArrayList<HttpConnection>(max);
+        int opened= 0;
+        try {
+            while (opened < max) {
+                // the open ones are held, otherwise the same free connection
+                // is handed out again
+                HttpConnection connection= null;
+                try {
+                    while (connection == null && connections.size() < max) {
+                        HttpConnection pooled= connectionManager.getConnectionWithTimeout(hostConfiguration,
+                                                                                          POOL_TIMEOUT);
+                        if (pooled.isOpen()) {
+                            connections.add(pooled);
+                        }
+                        else {
+                            connection= pooled;
+                        }
+                    }
+                } finally {
+                    release(connections);
+                }
+                if (connection == null) {
+                    // enough open connections in the pool
+                    break;
+                }
+                try {
+                    connection.open();
+                    opened++;
+                } finally {
+                    connection.releaseConnection();
+                }
+            }
+        } catch (Exception e) {
+            // pool exhausted or endpoint down
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to open connection to PEP Server "
+                        + endpoint.getEndpoint() + ": " + e);
+            }
+        }
+        if (opened > 0 && log.isDebugEnabled()) {
+            log.debug(opened + " connections opened to PEP Server "
+                    + endpoint.getEndpoint());
+        }
+    }
+
+    /**
+     * Returns connections to the pool.
+     *
+     * @param connections
+     *            the connections, cleared
+     */
+    private static void release(List<HttpConnection> connections) {
+        for (HttpConnection connection : connections) {
+            connection.releaseConnection();
+        }
+        connections.clear();
+    }
+
+    /**
+     * Returns the host configuration keying the pooled connections of an
+     * endpoint, as created by {@link HttpClient#executeMethod}.
+     *
+     * @param endpoint
+     *            the PEP daemon endpoint
+     * @return the host configuration, or <code>null</code> if the endpoint URL
+     *         is invalid
+     */
+    private HostConfiguration getHostConfiguration(EndpointStatistics endpoint) {
+        HostConfiguration hostConfiguration= (HostConfiguration) httpClient_.getHostConfiguration().clone();
+        try {
+            hostConfiguration.setHost(new URI(endpoint.getEndpoint(), true));
+        } catch (IOException e) {
+            log.warn("Invalid PEP Server endpoint URL " + endpoint.getEndpoint(),
+                     e);
+            return null;
+        }
+        return hostConfiguration;
+    }
+}
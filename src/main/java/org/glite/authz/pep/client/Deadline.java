@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+/**
+ * Time budget of an authorization call, shared by the PIPs and the PEP
+ * daemon attempts, and checked before the obligation handlers.
+ */
+final class Deadline {
+
+    /** Deadline of a call without timeout */
+    static final Deadline NONE= new Deadline(0, 0);
+
+    /** The timeout in millis, <code>0</code> if none */
+    private final long timeout_;
+
+    /** Expiration time as {@link System#nanoTime()} */
+    private final long expiresAt_;
+
+    /**
+     * Constructor.
+     *
+     * @param timeout
+     *            the timeout in millis
+     * @param expiresAt
+     *            the expiration time in nanos
+     */
+    private Deadline(long timeout, long expiresAt) {
+        timeout_= timeout;
+        expiresAt_= expiresAt;
+    }
+
+    /**
+     * Returns the deadline expiring after the timeout.
+     *
+     * @param timeout
+     *            the timeout in millis, <code>0</code> or less for no
+     *            timeout
+     * @return the deadline
+     */
+    static Deadline after(long timeout) {
+        if (timeout <= 0) {
+            return NONE;
+        }
+        return new Deadline(timeout, System.nanoTime() + timeout * 1000000L);
+    }
+
+    /**
+     * Checks if the call has a timeout.
+     *
+     * @return <code>true</code> if the call has a timeout
+     */
+    boolean isBounded() {
+        return timeout_ > 0;
+    }
+
+    /**
+     * Checks if the call has a timeout and it is expired.
+     *
+     * @return <code>true</code> if the deadline is expired
+     */
+    boolean isExpired() {
+        return isBounded() && remaining() == 0;
+    }
+
+    /**
+     * Returns the remaining time.
+     *
+     * @return the remaining time in millis, at least <code>1</code> if the
+     *         deadline is not expired, <code>0</code> if expired, and
+     *         {@link Long#MAX_VALUE} if the call has no timeout
+     */
+    long remaining() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        long remainingNanos= expiresAt_ - System.nanoTime();
+        if (remainingNanos <= 0) {
+            return 0;
+        }
+        // round up, a sub-millisecond budget is still a budget
+        return (remainingNanos + 999999L) / 1000000L;
+    }
+
+    /**
+     * Returns the timeout of the next operation: the remaining time, capped
+     * by the operation timeout.
+     *
+     * @param timeout
+     *            the operation timeout in millis, <code>0</code> for no
+     *            timeout
+     * @return the operation timeout in millis, <code>0</code> for no timeout
+     */
+    int timeout(int timeout) {
+        if (!isBounded()) {
+            return timeout;
+        }
+        long remaining= Math.max(1, remaining());
+        if (timeout > 0 && timeout < remaining) {
+            return timeout;
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Throws an exception if the deadline is expired.
+     *
+     * @param phase
+     *            the authorization phase, for the error message
+     * @throws PEPClientException
+     *             if the deadline is expired
+     */
+    void check(String phase) throws PEPClientException {
+        if (isExpired()) {
+            throw new PEPClientException("Authorization timeout of "
+                    + timeout_ + " ms expired " + phase);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return isBounded() ? remaining() + "/" + timeout_ + "ms" : "none";
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bounded client-side cache of the PEP daemon authorization responses.
+ * <p>
+ * Responses are cached by {@link RequestKey} with a time-to-live depending on
+ * the decision: Permit, Deny and NotApplicable have their own TTL, a TTL of
+ * <code>0</code> disables the caching of that decision. Responses containing
+ * an Indeterminate result are never cached. When the cache is full, the least
+ * recently used entry is evicted.
+ * <p>
+ * The cache stores a private copy of the response, and returns a new copy on
+ * each hit, so obligation handlers can safely process the returned response.
+ */
+public class DecisionCache {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(DecisionCache.class);
+
+    /** Maximum number of cached responses */
+    private final int maxSize_;
+
+    /** TTL in millis of a Permit decision */
+    private final long permitTTL_;
+
+    /** TTL in millis of a Deny decision */
+    private final long denyTTL_;
+
+    /** TTL in millis of a NotApplicable decision */
+    private final long notApplicableTTL_;
+
+    /** LRU ordered cache entries, guarded by the lock */
+    private final Map<RequestKey, CacheEntry> entries_;
+
+    /**
+     * Lock guarding the entries, the virtual threads waiting for it are not
+     * pinned to their carrier thread
+     */
+    private final ReentrantLock lock_= new ReentrantLock();
+
+    /** Number of cache hits */
+    private final AtomicLong hits_= new AtomicLong();
+
+    /** Number of cache misses */
+    private final AtomicLong misses_= new AtomicLong();
+
+    /** Number of evicted entries */
+    private final AtomicLong evictions_= new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize
+     *            maximum number of cached responses, must be greater than
+     *            zero
+     * @param permitTTL
+     *            time-to-live in millis of a Permit decision
+     * @param denyTTL
+     *            time-to-live in millis of a Deny decision
+     * @param notApplicableTTL
+     *            time-to-live in millis of a NotApplicable decision
+     */
+    public DecisionCache(int maxSize, long permitTTL, long denyTTL,
+            long notApplicableTTL) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Decision cache size must be greater than zero");
+        }
+        maxSize_= maxSize;
+        permitTTL_= permitTTL;
+        denyTTL_= denyTTL;
+        notApplicableTTL_= notApplicableTTL;
+        entries_= new LinkedHashMap<RequestKey, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID= 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<RequestKey, CacheEntry> eldest) {
+                if (size() > maxSize_) {
+                    evictions_.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets a copy of the cached response for the request key.
+     *
+     * @param key
+     *            the request key
+     * @return a copy of the cached response or <code>null</code> if the
+     *         response is not cached or is expired
+     */
+    public Response get(RequestKey key) {
+        CacheEntry entry;
+        lock_.lock();
+        try {
+            entry= entries_.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                entries_.remove(key);
+                entry= null;
+            }
+        } finally {
+            lock_.unlock();
+        }
+        if (entry == null) {
+            misses_.incrementAndGet();
+            return null;
+        }
+        hits_.incrementAndGet();
+        if (log.isDebugEnabled()) {
+            log.debug("cached response found for " + key);
+        }
+        return Responses.copy(entry.response_);
+    }
+
+    /**
+     * Caches a copy of the response for the request key, if the response
+     * decisions are cacheable.
+     *
+     * @param key
+     *            the request key
+     * @param response
+     *            the PEP daemon response, before obligation handling
+     * @return <code>true</code> if the response was cached
+     */
+    public boolean put(RequestKey key, Response response) {
+        long ttl= getTimeToLive(response);
+        if (ttl <= 0) {
+            return false;
+        }
+        CacheEntry entry= new CacheEntry(Responses.copy(response),
+                                         System.currentTimeMillis() + ttl);
+        lock_.lock();
+        try {
+            entries_.put(key, entry);
+        } finally {
+            lock_.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the time-to-live of the response, that is the minimum TTL of
+     * all its result decisions.
+     *
+     * @param response
+     *            the response
+     * @return the time-to-live in millis, <code>0</code> if the response can
+     *         not be cached
+     */
+    protected long getTimeToLive(Response response) {
+        if (response == null) {
+            return 0;
+        }
+        List<Result> results= response.getResults();
+        if (results == null || results.isEmpty()) {
+            return 0;
+        }
+        long ttl= Long.MAX_VALUE;
+        for (Result result : results) {
+            long decisionTTL;
+            switch (result.getDecision()) {
+            case Result.DECISION_PERMIT:
+                decisionTTL= permitTTL_;
+                break;
+            case Result.DECISION_DENY:
+                decisionTTL= denyTTL_;
+                break;
+            case Result.DECISION_NOT_APPLICABLE:
+                decisionTTL= notApplicableTTL_;
+                break;
+            default:
+                decisionTTL= 0;
+                break;
+            }
+            ttl= Math.min(ttl, decisionTTL);
+        }
+        return ttl;
+    }
+
+    /** Removes all the cached responses. */
+    public void clear() {
+        lock_.lock();
+        try {
+            entries_.clear();
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached responses, including the expired ones not
+     * yet removed.
+     *
+     * @return the number of cached responses
+     */
+    public int size() {
+        lock_.lock();
+        try {
+            return entries_.size();
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached responses.
+     *
+     * @return the maximum cache size
+     */
+    public int getMaxSize() {
+        return maxSize_;
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits_.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses_.get();
+    }
+
+    /**
+     * Returns the number of responses evicted because the cache was full.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions_.get();
+    }
+
+    /** Cached response with its expiration time. */
+    private static final class CacheEntry {
+
+        /** The cached response */
+        private final Response response_;
+
+        /** Expiration time in millis */
+        private final long expiresAt_;
+
+        /**
+         * Constructor.
+         *
+         * @param response
+         *            the response to cache
+         * @param expiresAt
+         *            the expiration time in millis
+         */
+        CacheEntry(Response response, long expiresAt) {
+            response_= response;
+            expiresAt_= expiresAt;
+        }
+
+        /**
+         * Checks if the entry is expired.
+         *
+         * @param now
+         *            the current time in millis
+         * @return <code>true</code> if the entry is expired
+         */
+        boolean isExpired(long now) {
+            return now >= expiresAt_;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.io.OutputStream;
+
+/**
+ * Growable, reusable and unsynchronized byte buffer receiving a serialized
+ * message.
+ * <p>
+ * Unlike {@link java.io.ByteArrayOutputStream}, the written bytes are
+ * accessed without copy, and the buffer is kept across messages. A buffer
+ * grown above its retained capacity by a large message is released on the
+ * next {@link #reset()}.
+ */
+final class MessageBuffer extends OutputStream {
+
+    /** Initial buffer capacity */
+    private static final int INITIAL_CAPACITY= 1024;
+
+    /** Maximum buffer capacity kept across messages */
+    private static final int MAX_RETAINED_CAPACITY= 64 * 1024;
+
+    /** The buffer */
+    private byte[] buffer_= new byte[INITIAL_CAPACITY];
+
+    /** Number of bytes written */
+    private int count_= 0;
+
+    /** {@inheritDoc} */
+    public void write(int b) {
+        ensureCapacity(count_ + 1);
+        buffer_[count_++]= (byte) b;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count_ + len);
+        System.arraycopy(b, off, buffer_, count_, len);
+        count_+= len;
+    }
+
+    /**
+     * Grows the buffer if needed.
+     *
+     * @param capacity
+     *            the required capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer_.length) {
+            byte[] buffer= new byte[Math.max(capacity, buffer_.length << 1)];
+            System.arraycopy(buffer_, 0, buffer, 0, count_);
+            buffer_= buffer;
+        }
+    }
+
+    /**
+     * Discards the written bytes, and releases the buffer if it grew above the
+     * retained capacity.
+     */
+    void reset() {
+        count_= 0;
+        if (buffer_.length > MAX_RETAINED_CAPACITY) {
+            buffer_= new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Returns the buffer, valid until the next write or reset.
+     *
+     * @return the buffer, the written bytes are at the beginning
+     */
+    byte[] getBuffer() {
+        return buffer_;
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return the number of bytes written
+     */
+    int size() {
+        return count_;
+    }
+
+    /**
+     * Returns a copy of the written bytes.
+     *
+     * @return the written bytes
+     */
+    byte[] toByteArray() {
+        byte[] bytes= new byte[count_];
+        System.arraycopy(buffer_, 0, bytes, 0, count_);
+        return bytes;
+    }
+}
@@ -18,19 +18,52 @@
  */
 package org.glite.authz.pep.client;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 import org.glite.authz.common.model.Request;
 import org.glite.authz.common.model.Response;
 import org.glite.authz.common.model.Result;
 import org.glite.authz.common.util.Base64;
+import org.glite.authz.pep.client.balancer.EndpointSelector;
+import org.glite.authz.pep.client.balancer.EndpointStatistics;
+import org.glite.authz.pep.client.codec.WireCodec;
 import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.config.RequestCompression;
+import org.glite.authz.pep.client.config.TransportType;
+import org.glite.authz.pep.client.http.Base64RequestEntity;
+import org.glite.authz.pep.client.http.BinaryRequestEntity;
+import org.glite.authz.pep.client.http.GzipRequestEntity;
 import org.glite.authz.pep.client.http.HttpClientBuilder;
 import org.glite.authz.pep.client.http.TLSProtocolSocketFactory;
+import org.glite.authz.pep.client.transport.HttpClientTransport;
+import org.glite.authz.pep.client.transport.NIOTransport;
+import org.glite.authz.pep.client.transport.PEPExchange;
+import org.glite.authz.pep.client.transport.PEPTransport;
+import org.glite.authz.pep.client.transport.URLConnectionTransport;
 import org.glite.authz.pep.obligation.ObligationHandler;
 import org.glite.authz.pep.obligation.ObligationProcessingException;
 import org.glite.authz.pep.pip.PIPProcessingException;
@@ -38,25 +71,35 @@ import org.glite.authz.pep.pip.PolicyInformationPoint;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.caucho.hessian.io.HessianInput;
-import com.caucho.hessian.io.HessianOutput;
-
 /**
  * A PEP client to communicate with the Argus PEP Server and authorize request.
  * 
  * It uses a multi-threaded http client to authorize the request. The http
- * client tries to keep alive connection whitin its pool of connections.
+ * client tries to keep alive connection whitin its pool of connections. The
+ * http client is one of the {@link PEPTransport} implementations, selected
+ * by the configuration.
  * 
  * @author Valery Tschopp &lt;valery.tschopp&#64;switch.ch&gt;
  */
 public class PEPClient {
 
+    /** Per-thread buffer receiving the serialized requests */
+    private static final ThreadLocal<MessageBuffer> MESSAGE_BUFFER= new ThreadLocal<MessageBuffer>() {
+        protected MessageBuffer initialValue() {
+            return new MessageBuffer();
+        }
+    };
+
+    /**
+     * Base64 encoding of the requests: unwrapped, the PEP daemon skips the
+     * white space anyway
+     */
+    private static final int BASE64_OPTIONS= Base64.DONT_BREAK_LINES;
+
     /** Class logger. */
     private final Log log= LogFactory.getLog(PEPClient.class);
 
@@ -69,69 +112,575 @@ public class PEPClient {
     /** Unmodifiable list of PEP daemon endpoints */
     private List<String> pepdEndpoints_= null;
 
-    /** HTTP client used to contact the PEP daemon. */
-    private HttpClient httpClient_= null;
+    /** HTTP transport used to contact the PEP daemon. */
+    private PEPTransport transport_= null;
+
+    /** HTTPS socket factory, <code>null</code> if HTTPS is not configured */
+    private TLSProtocolSocketFactory tlsSocketFactory_= null;
+
+    /** Default wire codec of the requests and responses */
+    private WireCodec wireCodec_= null;
+
+    /** Unmodifiable wire codecs by endpoint */
+    private Map<String, WireCodec> wireCodecs_= null;
+
+    /** Send the messages without Base64 armoring */
+    private boolean binaryTransport_= false;
+
+    /** Endpoints which rejected a binary request, only sent Base64 requests */
+    private final ConcurrentMap<String, Boolean> base64Endpoints_= new ConcurrentHashMap<String, Boolean>();
+
+    /** Compression of the requests */
+    private RequestCompression requestCompression_= RequestCompression.NONE;
+
+    /** Minimum size in bytes of a serialized request to compress it */
+    private int compressionThreshold_= 0;
+
+    /** Client-side decision cache, <code>null</code> if disabled */
+    private DecisionCache decisionCache_= null;
+
+    /** Coalescer of concurrent identical requests, <code>null</code> if disabled */
+    private RequestCoalescer requestCoalescer_= null;
+
+    /** Executor running the asynchronous authorizations */
+    private Executor asyncExecutor_= null;
+
+    /** Executor created by the client, <code>null</code> if configured */
+    private ExecutorService ownAsyncExecutor_= null;
+
+    /** Background connection warm-up and maintenance, <code>null</code> if disabled */
+    private ConnectionWarmer connectionWarmer_= null;
+
+    /** Whether the client is closed */
+    private final AtomicBoolean closed_= new AtomicBoolean();
+
+    /** Unmodifiable circuit breakers by endpoint, empty if disabled */
+    private Map<String, CircuitBreaker> circuitBreakers_= Collections.emptyMap();
+
+    /** Unmodifiable list of PEP daemon endpoint statistics, in endpoint order */
+    private List<EndpointStatistics> endpointStatistics_= null;
+
+    /** Strategy selecting the PEP daemon endpoint receiving a request */
+    private EndpointSelector endpointSelector_= null;
+
+    /** Delay in millis before hedging a request, <code>0</code> if disabled */
+    private int hedgeDelay_= 0;
+
+    /** Maximum ratio of hedged requests */
+    private float maxHedgeRate_= 0;
+
+    /** Executor running the hedged requests, <code>null</code> if disabled */
+    private ExecutorService hedgeExecutor_= null;
+
+    /** Number of requests eligible for hedging */
+    private final AtomicLong hedgeableRequests_= new AtomicLong();
+
+    /** Number of hedges sent */
+    private final AtomicLong hedges_= new AtomicLong();
+
+    /** HTTP socket read timeout in millis, <code>0</code> if none */
+    private int socketTimeout_= 0;
+
+    /** Default authorization timeout in millis, <code>0</code> if none */
+    private long authorizationTimeout_= 0;
+
+    /** Virtual thread mode, the threads started by the client are virtual */
+    private boolean virtualThreads_= false;
 
     /**
      * Constructor. Creates a new PEP client based on the given configuration.
      * The PEP client uses a multi-threaded {@link HttpClient} with a pool of
-     * connections.
+     * connections, or the JDK HTTP client, depending on the configured
+     * transport type.
      * 
      * @param config
      *            the client configuration used for this client
      * @throws PEPClientException
      */
     public PEPClient(PEPClientConfiguration config) throws PEPClientException {
-        HttpClientBuilder httpClientBuilder= new HttpClientBuilder();
-        httpClientBuilder.setConnectionTimeout(config.getConnectionTimeout());
-        httpClientBuilder.setMaxConnectionsPerHost(config.getMaxConnectionsPerHost());
-        httpClientBuilder.setMaxTotalConnections(config.getMaxTotalConnections());
-        // httpClientBuilder.setReceiveBufferSize(config.getReceiveBufferSize());
-        // httpClientBuilder.setSendBufferSize(config.getSendBufferSize());
-
         if (config.getTrustManager() != null) {
             // if the key manager is null, it just means TLS client-auth isn't
             // enabled
-            httpClientBuilder.setHttpsProtocolSocketFactory(new TLSProtocolSocketFactory(config.getKeyManager(),
-                                                                                         config.getTrustManager()));
+            tlsSocketFactory_= new TLSProtocolSocketFactory(config.getKeyManager(),
+                                                            config.getTrustManager(),
+                                                            config.getTLSProfile());
+            if (config.getTLSSessionCacheSize() >= 0) {
+                tlsSocketFactory_.setSessionCacheSize(config.getTLSSessionCacheSize());
+            }
+            if (config.getTLSSessionTimeout() >= 0) {
+                tlsSocketFactory_.setSessionTimeout(config.getTLSSessionTimeout());
+            }
+        }
+        virtualThreads_= config.isVirtualThreads();
+        if (virtualThreads_ && !VirtualThreads.isSupported()) {
+            log.info("Virtual threads not supported by the Java runtime, using platform threads");
         }
-        httpClient_= httpClientBuilder.buildClient();
+        transport_= createTransport(config);
 
         pepdEndpoints_= config.getPEPDaemonEndpoints();
         if (pepdEndpoints_.isEmpty()) {
             throw new PEPClientException("Configuration doesn't contain any PEP Server endpoint URL");
         }
+        List<EndpointStatistics> endpointStatistics= new ArrayList<EndpointStatistics>();
+        for (String endpoint : pepdEndpoints_) {
+            endpointStatistics.add(new EndpointStatistics(endpoint,
+                                                          config.getPEPDaemonEndpointWeight(endpoint)));
+        }
+        endpointStatistics_= Collections.unmodifiableList(endpointStatistics);
+        endpointSelector_= config.getEndpointSelector();
+        wireCodec_= config.getWireCodec();
+        Map<String, WireCodec> wireCodecs= new HashMap<String, WireCodec>();
+        for (String endpoint : pepdEndpoints_) {
+            wireCodecs.put(endpoint,
+                           config.getPEPDaemonEndpointWireCodec(endpoint));
+        }
+        wireCodecs_= Collections.unmodifiableMap(wireCodecs);
+        binaryTransport_= config.isBinaryTransport();
+        requestCompression_= config.getRequestCompression();
+        compressionThreshold_= config.getCompressionThreshold();
+        if (config.getCircuitBreakerFailureThreshold() > 0) {
+            Map<String, CircuitBreaker> circuitBreakers= new HashMap<String, CircuitBreaker>();
+            for (String endpoint : pepdEndpoints_) {
+                circuitBreakers.put(endpoint,
+                                    new CircuitBreaker(endpoint,
+                                                       config.getCircuitBreakerFailureThreshold(),
+                                                       config.getCircuitBreakerCoolDown()));
+            }
+            circuitBreakers_= Collections.unmodifiableMap(circuitBreakers);
+        }
+        hedgeDelay_= config.getHedgeDelay();
+        maxHedgeRate_= config.getMaxHedgeRate();
+        if (hedgeDelay_ > 0 && pepdEndpoints_.size() > 1) {
+            hedgeExecutor_= Executors.newCachedThreadPool(newThreadFactory("PEPClient-hedge"));
+        }
+        socketTimeout_= config.getSocketTimeout();
+        authorizationTimeout_= config.getAuthorizationTimeout();
         pips_= config.getPolicyInformationPoints();
         obligationHandlers_= config.getObligationHandlers();
+
+        if (config.getDecisionCacheSize() > 0) {
+            decisionCache_= new DecisionCache(config.getDecisionCacheSize(),
+                                              config.getDecisionCachePermitTTL(),
+                                              config.getDecisionCacheDenyTTL(),
+                                              config.getDecisionCacheNotApplicableTTL());
+        }
+        if (config.isRequestCoalescing()) {
+            requestCoalescer_= new RequestCoalescer();
+        }
+        if (config.getWarmupConnections() > 0
+                || config.getMinIdleConnections() > 0
+                || config.getMaxIdleTime() > 0) {
+            startConnectionWarmer(config);
+        }
+        asyncExecutor_= config.getAsyncExecutor();
+        if (asyncExecutor_ == null) {
+            ThreadFactory virtualThreadFactory= virtualThreads_ ? VirtualThreads.newThreadFactory("PEPClient-async")
+                    : null;
+            if (virtualThreadFactory != null) {
+                // a virtual thread per concurrent asynchronous authorization
+                ownAsyncExecutor_= Executors.newCachedThreadPool(virtualThreadFactory);
+            }
+            else {
+                // threads are only started on the first asynchronous
+                // authorization
+                ownAsyncExecutor_= Executors.newFixedThreadPool(config.getAsyncThreads(),
+                                                               new DaemonThreadFactory("PEPClient-async"));
+            }
+            asyncExecutor_= ownAsyncExecutor_;
+        }
+    }
+
+    /**
+     * Creates the factory of the threads started by the PEP client: virtual
+     * threads in virtual thread mode, if supported, otherwise daemon threads.
+     * 
+     * @param namePrefix
+     *            prefix of the thread names
+     * @return the thread factory
+     */
+    private ThreadFactory newThreadFactory(String namePrefix) {
+        ThreadFactory threadFactory= virtualThreads_ ? VirtualThreads.newThreadFactory(namePrefix)
+                : null;
+        return threadFactory != null ? threadFactory
+                : new DaemonThreadFactory(namePrefix);
+    }
+
+    /**
+     * Creates the HTTP transport of the configured type.
+     * 
+     * @param config
+     *            the client configuration
+     * @return the HTTP transport
+     * @throws PEPClientException
+     *             if the transport can not be created
+     */
+    private PEPTransport createTransport(PEPClientConfiguration config)
+            throws PEPClientException {
+        if (config.getTransportType() == TransportType.NIO
+                || config.getTransportType() == TransportType.HTTP2) {
+            boolean http2= config.getTransportType() == TransportType.HTTP2;
+            try {
+                return new NIOTransport(config.getConnectionTimeout(),
+                                        config.getSocketTimeout(),
+                                        config.getMaxConnectionsPerHost(),
+                                        tlsSocketFactory_,
+                                        http2 ? config.getHTTP2MaxConcurrentStreams()
+                                                : 0,
+                                        config.getHTTP2StreamWindowSize());
+            } catch (IOException e) {
+                throw new PEPClientException("Failed to create the NIO transport",
+                                             e);
+            }
+        }
+        if (config.getTransportType() == TransportType.URLCONNECTION) {
+            return new URLConnectionTransport(config.getConnectionTimeout(),
+                                              config.getSocketTimeout(),
+                                              tlsSocketFactory_ == null ? null
+                                                      : tlsSocketFactory_.getSSLSocketFactory());
+        }
+        HttpClientBuilder httpClientBuilder= new HttpClientBuilder();
+        httpClientBuilder.setConnectionTimeout(config.getConnectionTimeout());
+        httpClientBuilder.setSocketTimeout(config.getSocketTimeout());
+        httpClientBuilder.setMaxConnectionsPerHost(config.getMaxConnectionsPerHost());
+        httpClientBuilder.setMaxTotalConnections(config.getMaxTotalConnections());
+        // httpClientBuilder.setReceiveBufferSize(config.getReceiveBufferSize());
+        // httpClientBuilder.setSendBufferSize(config.getSendBufferSize());
+        if (tlsSocketFactory_ != null) {
+            httpClientBuilder.setHttpsProtocolSocketFactory(tlsSocketFactory_);
+        }
+        httpClientBuilder.setPerHostConnectionPool(config.isPerHostConnectionPool());
+        if (!config.isPerHostConnectionPool()) {
+            // the multi-threaded connection manager waits for a free
+            // connection in a monitor, which would pin the virtual threads,
+            // and regardless of the authorization deadline
+            return new HttpClientTransport(httpClientBuilder.buildClient(),
+                                           config.getMaxConnectionsPerHost(),
+                                           config.getMaxTotalConnections());
+        }
+        // the per host connection manager waits for a free connection on a
+        // semaphore, which doesn't pin the virtual threads
+        return new HttpClientTransport(httpClientBuilder.buildClient());
+    }
+
+    /**
+     * Starts the warm-up and the maintenance of the connection pool, if the
+     * transport has one.
+     * 
+     * @param config
+     *            the client configuration
+     */
+    private void startConnectionWarmer(PEPClientConfiguration config) {
+        if (!(transport_ instanceof HttpClientTransport)) {
+            log.warn("Connection warm-up and maintenance not supported by the "
+                    + config.getTransportType() + " transport");
+            return;
+        }
+        // runs in a daemon thread until the client is closed
+        connectionWarmer_= new ConnectionWarmer(((HttpClientTransport) transport_).getHttpClient(),
+                                                endpointStatistics_,
+                                                config.getWarmupConnections(),
+                                                config.getMinIdleConnections(),
+                                                config.getMaxIdleTime(),
+                                                config.getMaxConnectionsPerHost());
+        connectionWarmer_.start(config.getConnectionMaintenanceInterval());
+    }
+
+    /**
+     * Closes the client: stops the connection maintenance, shuts down the
+     * hedge executor and the asynchronous authorizations executor created by
+     * the client, and shuts down the transport, closing its connections and
+     * threads. An executor set with
+     * {@link PEPClientConfiguration#setAsyncExecutor(Executor)} is not shut
+     * down. The asynchronous authorizations already submitted still run, but
+     * fail. The client can not be used afterwards, closing it again has no
+     * effect.
+     */
+    public void close() {
+        if (!closed_.compareAndSet(false, true)) {
+            return;
+        }
+        if (connectionWarmer_ != null) {
+            connectionWarmer_.stop();
+        }
+        if (hedgeExecutor_ != null) {
+            hedgeExecutor_.shutdown();
+        }
+        if (ownAsyncExecutor_ != null) {
+            ownAsyncExecutor_.shutdown();
+        }
+        transport_.shutdown();
     }
 
     /**
      * Authorizes the request with the PEP daemon and return the response
+     * <p>
+     * If the decision cache is enabled, a cached response for the same
+     * request, after the PIPs have been applied, is returned without
+     * contacting the PEP daemon. The obligation handlers are always run.
+     * <p>
+     * If the request coalescing is enabled, concurrent callers with an equal
+     * request share a single PEP daemon call.
+     * <p>
+     * The call is bounded by the configured default authorization timeout.
      * 
      * @param request
      *            the authorization request
      * @return the reponse
      * @throws PEPClientException
      *             if a processing error occurs.
+     * @see #authorize(Request, long)
      */
     public Response authorize(Request request) throws PEPClientException {
-        Response response= null;
-        Exception cause= null;
+        return authorize(request, authorizationTimeout_);
+    }
+
+    /**
+     * Authorizes the request with the PEP daemon within the given time and
+     * return the response.
+     * <p>
+     * The timeout covers the PIPs and all the PEP daemon attempts, and is
+     * checked before the obligation handlers, which are not interrupted once
+     * started. The remaining time bounds the wait for a free connection and
+     * the socket read timeout of each PEP daemon attempt, and no further
+     * endpoint is tried once it is expired.
+     * 
+     * @param request
+     *            the authorization request
+     * @param timeoutMillis
+     *            the authorization timeout in millis, <code>0</code> for no
+     *            timeout
+     * @return the reponse
+     * @throws PEPClientException
+     *             if a processing error occurs, if the timeout expired, or if
+     *             the client is closed.
+     */
+    public Response authorize(Request request, long timeoutMillis)
+            throws PEPClientException {
+        if (closed_.get()) {
+            throw new PEPClientException("PEP client is closed");
+        }
+        Deadline deadline= Deadline.after(timeoutMillis);
         try {
             runPolicyInformationPoints(request);
         } catch (PIPProcessingException e) {
             throw new PEPClientException("PIP processing failure", e);
         }
-        for (String endpoint : pepdEndpoints_) {
+        deadline.check("during PIP processing");
+        Response response= null;
+        RequestKey key= null;
+        if (decisionCache_ != null || requestCoalescer_ != null) {
+            key= new RequestKey(request);
+        }
+        if (decisionCache_ != null) {
+            response= decisionCache_.get(key);
+        }
+        if (response == null) {
+            if (requestCoalescer_ != null) {
+                response= coalesceRequest(key, request, deadline);
+            }
+            else {
+                response= sendAndCacheRequest(key, request, deadline);
+            }
+        }
+        deadline.check("before obligation handling");
+        try {
+            runObligationHandlers(request, response);
+        } catch (ObligationProcessingException e) {
+            throw new PEPClientException("ObligationHandler processing failure",
+                                         e);
+        }
+        // once started, the obligation handlers enforce the decision, their
+        // side effects can not be undone by a timeout
+        return response;
+    }
+
+    /**
+     * Authorizes asynchronously the request with the PEP daemon. The whole
+     * authorization (PIPs, PEP daemon failover and obligation handlers) runs
+     * in the configured executor.
+     * 
+     * @param request
+     *            the authorization request
+     * @return the future response, {@link Future#get()} throws an
+     *         {@link java.util.concurrent.ExecutionException} wrapping the
+     *         {@link PEPClientException} if the authorization fails
+     * @throws PEPClientException
+     *             if the executor rejects the authorization
+     * @see #authorize(Request)
+     */
+    public Future<Response> authorizeAsync(final Request request)
+            throws PEPClientException {
+        FutureTask<Response> task= new FutureTask<Response>(new Callable<Response>() {
+            public Response call() throws PEPClientException {
+                return authorize(request);
+            }
+        });
+        try {
+            asyncExecutor_.execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new PEPClientException("Asynchronous authorization rejected",
+                                         e);
+        }
+        return task;
+    }
+
+    /**
+     * Sends the request to the PEP daemon, unless an equal request is already
+     * in flight, in which case its response is shared.
+     * 
+     * @param key
+     *            the request key
+     * @param request
+     *            the authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @return a private copy of the response
+     * @throws PEPClientException
+     *             if no PEP daemon was able to process the request
+     */
+    private Response coalesceRequest(final RequestKey key,
+            final Request request, final Deadline deadline)
+            throws PEPClientException {
+        return requestCoalescer_.execute(key, new Callable<Response>() {
+            public Response call() throws PEPClientException {
+                return sendAndCacheRequest(key, request, deadline);
+            }
+        }, deadline.timeout(0));
+    }
+
+    /**
+     * Sends the request to the PEP daemon and caches the response if the
+     * decision cache is enabled.
+     * 
+     * @param key
+     *            the request key, <code>null</code> if the decision cache is
+     *            disabled
+     * @param request
+     *            the authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @return the response
+     * @throws PEPClientException
+     *             if no PEP daemon was able to process the request
+     */
+    private Response sendAndCacheRequest(RequestKey key, Request request,
+            Deadline deadline) throws PEPClientException {
+        Response response= sendRequest(request, deadline);
+        if (decisionCache_ != null) {
+            decisionCache_.put(key, response);
+        }
+        return response;
+    }
+
+    /**
+     * Sends the request to the PEP daemon endpoints, in the order given by the
+     * endpoint selector, until one of them returns a response.
+     * <p>
+     * The endpoints with an open circuit are skipped, and only tried as a
+     * last resort when all the other endpoints failed.
+     * <p>
+     * If the hedging is enabled, the first request is also sent to the next
+     * endpoint when no response was received within the hedge delay.
+     * 
+     * @param request
+     *            the authorization request
+     * @return the response
+     * @throws PEPClientException
+     *             if no PEP daemon was able to process the request
+     */
+    protected Response sendRequest(Request request) throws PEPClientException {
+        return sendRequest(request, Deadline.NONE);
+    }
+
+    /**
+     * Sends the request to the PEP daemon endpoints until one of them returns
+     * a response or the deadline expires.
+     * 
+     * @param request
+     *            the authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @return the response
+     * @throws PEPClientException
+     *             if no PEP daemon was able to process the request, or if the
+     *             deadline expired
+     * @see #sendRequest(Request)
+     */
+    private Response sendRequest(Request request, Deadline deadline)
+            throws PEPClientException {
+        Response response= null;
+        Exception cause= null;
+        List<EndpointStatistics> skippedEndpoints= null;
+        List<EndpointStatistics> endpoints= endpointSelector_.select(endpointStatistics_);
+        // endpoint already tried by the hedged first attempt
+        EndpointStatistics hedgedEndpoint= null;
+        boolean firstAttempt= true;
+        for (int i= 0; i < endpoints.size(); i++) {
+            EndpointStatistics endpoint= endpoints.get(i);
+            if (endpoint == hedgedEndpoint) {
+                continue;
+            }
+            CircuitBreaker circuitBreaker= circuitBreakers_.get(endpoint.getEndpoint());
+            if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("skip PEP Server " + endpoint.getEndpoint()
+                            + ": circuit open");
+                }
+                if (skippedEndpoints == null) {
+                    skippedEndpoints= new ArrayList<EndpointStatistics>();
+                }
+                skippedEndpoints.add(endpoint);
+                continue;
+            }
+            deadline.check("before contacting PEP Server "
+                    + endpoint.getEndpoint());
+            // only the first attempt is hedged, the next ones are failovers
+            EndpointStatistics hedgeEndpoint= null;
+            if (firstAttempt && hedgeExecutor_ != null) {
+                hedgeEndpoint= getHedgeEndpoint(endpoints, i + 1);
+                hedgedEndpoint= hedgeEndpoint;
+            }
+            firstAttempt= false;
             try {
-                response= performRequest(endpoint, request);
+                if (hedgeEndpoint != null) {
+                    response= performHedgedRequest(endpoint,
+                                                   hedgeEndpoint,
+                                                   request,
+                                                   deadline);
+                }
+                else {
+                    response= performMonitoredRequest(endpoint,
+                                                      request,
+                                                      deadline);
+                }
                 // success, exit loop
                 break;
             } catch (PEPClientException e) {
-                log.error("Request failed for PEP Server " + endpoint, e);
+                // the hedged request logs the failure of each endpoint
+                if (hedgeEndpoint == null) {
+                    log.error("Request failed for PEP Server "
+                            + endpoint.getEndpoint(), e);
+                }
                 cause= e;
             }
         }
+        if (response == null && skippedEndpoints != null) {
+            // last resort: try the endpoints with an open circuit
+            for (EndpointStatistics endpoint : skippedEndpoints) {
+                deadline.check("before contacting PEP Server "
+                        + endpoint.getEndpoint());
+                try {
+                    response= performMonitoredRequest(endpoint,
+                                                      request,
+                                                      deadline);
+                    break;
+                } catch (PEPClientException e) {
+                    log.error("Request failed for PEP Server "
+                            + endpoint.getEndpoint(), e);
+                    cause= e;
+                }
+            }
+        }
         if (response == null) {
             String error= "No PEP Server " + pepdEndpoints_
                     + " was able to process the request";
@@ -142,17 +691,311 @@ public class PEPClient {
             }
             throw exception;
         }
+        return response;
+    }
+
+    /**
+     * Calls out to the remote PEP and records the outcome in the endpoint
+     * statistics and circuit breaker, if any. A request failing once the
+     * deadline is expired ran out of the caller's time, it is not recorded
+     * as an endpoint failure.
+     * 
+     * @param endpoint
+     *            the remote PEP to which to callout
+     * @param authzRequest
+     *            the authorization request to send to the PEP daemon
+     * @param deadline
+     *            the authorization deadline
+     * @return the response to the request
+     * @throws PEPClientException
+     *             thrown if there is a problem processing the request
+     */
+    private Response performMonitoredRequest(EndpointStatistics endpoint,
+            Request authzRequest, Deadline deadline) throws PEPClientException {
+        String pepUrl= endpoint.getEndpoint();
+        WireCodec codec= getWireCodec(pepUrl);
+        CircuitBreaker circuitBreaker= circuitBreakers_.get(pepUrl);
+        boolean success= false;
+        endpoint.requestStarted();
+        long start= System.nanoTime();
         try {
-            runObligationHandlers(request, response);
-        } catch (ObligationProcessingException e) {
-            throw new PEPClientException("ObligationHandler processing failure",
+            PEPExchange exchange= transport_.createExchange(pepUrl);
+            exchange.setRequestEntity(createRequestEntity(authzRequest,
+                                                          codec,
+                                                          isBinaryTransport(pepUrl)));
+            applyDeadline(exchange, deadline);
+            Response response= executeExchange(exchange, codec);
+            success= true;
+            return response;
+        } finally {
+            recordOutcome(endpoint, circuitBreaker, start, success, !success
+                    && deadline.isExpired());
+        }
+    }
+
+    /**
+     * Records the outcome of a request in the endpoint statistics and circuit
+     * breaker, if any.
+     * 
+     * @param endpoint
+     *            the endpoint statistics
+     * @param circuitBreaker
+     *            the endpoint circuit breaker, <code>null</code> if none
+     * @param start
+     *            the request start time as {@link System#nanoTime()}
+     * @param success
+     *            <code>true</code> if the request was successful
+     * @param cancelled
+     *            <code>true</code> if the request was aborted or ran out of
+     *            the caller's time, neither a success nor a failure
+     */
+    private static void recordOutcome(EndpointStatistics endpoint,
+            CircuitBreaker circuitBreaker, long start, boolean success,
+            boolean cancelled) {
+        if (cancelled) {
+            endpoint.requestCancelled();
+            return;
+        }
+        endpoint.requestCompleted(System.nanoTime() - start, success);
+        if (circuitBreaker != null) {
+            if (success) {
+                circuitBreaker.recordSuccess();
+            }
+            else {
+                circuitBreaker.recordFailure();
+            }
+        }
+    }
+
+    /**
+     * Returns the endpoint receiving the hedged request: the next endpoint
+     * with a closed circuit.
+     * 
+     * @param endpoints
+     *            the endpoints, in the order they will be tried
+     * @param from
+     *            index of the first candidate endpoint
+     * @return the hedge endpoint or <code>null</code> if none is available
+     */
+    private EndpointStatistics getHedgeEndpoint(
+            List<EndpointStatistics> endpoints, int from) {
+        for (int i= from; i < endpoints.size(); i++) {
+            EndpointStatistics endpoint= endpoints.get(i);
+            CircuitBreaker circuitBreaker= circuitBreakers_.get(endpoint.getEndpoint());
+            if (circuitBreaker == null
+                    || circuitBreaker.getState() == CircuitBreaker.State.CLOSED) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the hedge rate allows one more hedge, and counts it.
+     * 
+     * @return <code>true</code> if the request can be hedged
+     */
+    private boolean acquireHedge() {
+        long hedgeable= hedgeableRequests_.get();
+        while (true) {
+            long hedges= hedges_.get();
+            if (hedges + 1 > maxHedgeRate_ * hedgeable) {
+                return false;
+            }
+            if (hedges_.compareAndSet(hedges, hedges + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sends the request to the endpoint, and if no response was received
+     * within the hedge delay, sends the same request to the hedge endpoint.
+     * The first successful response is returned and the other request is
+     * aborted. If the first request fails before the hedge is sent, the
+     * request is sent to the hedge endpoint as a normal failover.
+     * 
+     * @param endpoint
+     *            the endpoint receiving the request
+     * @param hedgeEndpoint
+     *            the endpoint receiving the hedged request
+     * @param authzRequest
+     *            the authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @return the first successful response
+     * @throws PEPClientException
+     *             if both requests failed, or if the deadline expired
+     */
+    private Response performHedgedRequest(EndpointStatistics endpoint,
+            EndpointStatistics hedgeEndpoint, Request authzRequest,
+            Deadline deadline) throws PEPClientException {
+        hedgeableRequests_.incrementAndGet();
+        // the request is sent by the hedge executor threads
+        WireCodec codec= getWireCodec(endpoint.getEndpoint());
+        boolean binary= isBinaryTransport(endpoint.getEndpoint());
+        WireCodec hedgeCodec= getWireCodec(hedgeEndpoint.getEndpoint());
+        boolean hedgeBinary= isBinaryTransport(hedgeEndpoint.getEndpoint());
+        RequestEntity requestEntity= createSharedRequestEntity(authzRequest,
+                                                               codec,
+                                                               binary);
+        RequestEntity hedgeRequestEntity= requestEntity;
+        if (hedgeCodec != codec || hedgeBinary != binary) {
+            hedgeRequestEntity= createSharedRequestEntity(authzRequest,
+                                                          hedgeCodec,
+                                                          hedgeBinary);
+        }
+        CompletionService<Response> completionService= new ExecutorCompletionService<Response>(hedgeExecutor_);
+        HedgedAttempt attempt= new HedgedAttempt(endpoint,
+                                                 requestEntity,
+                                                 codec,
+                                                 deadline);
+        HedgedAttempt hedge= new HedgedAttempt(hedgeEndpoint,
+                                               hedgeRequestEntity,
+                                               hedgeCodec,
+                                               deadline);
+        PEPClientException cause= null;
+        try {
+            Future<Response> attemptFuture= completionService.submit(attempt);
+            boolean hedgeSent= false;
+            int pending= 1;
+            Future<Response> completed= completionService.poll(Math.min(hedgeDelay_,
+                                                                        deadline.remaining()),
+                                                               TimeUnit.MILLISECONDS);
+            if (completed == null && acquireHedge()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("no response from PEP Server "
+                            + endpoint.getEndpoint() + " after "
+                            + hedgeDelay_ + " ms, hedging to "
+                            + hedgeEndpoint.getEndpoint());
+                }
+                completionService.submit(hedge);
+                hedgeSent= true;
+                pending++;
+            }
+            while (pending > 0) {
+                while (completed == null) {
+                    completed= completionService.poll(deadline.remaining(),
+                                                      TimeUnit.MILLISECONDS);
+                    if (completed == null) {
+                        deadline.check("waiting for PEP Servers "
+                                + endpoint.getEndpoint() + " and "
+                                + hedgeEndpoint.getEndpoint());
+                    }
+                }
+                pending--;
+                try {
+                    return completed.get();
+                } catch (ExecutionException e) {
+                    cause= toPEPClientException(e.getCause());
+                    String failedEndpoint= (completed == attemptFuture) ? endpoint.getEndpoint()
+                            : hedgeEndpoint.getEndpoint();
+                    log.error("Request failed for PEP Server " + failedEndpoint,
+                              cause);
+                }
+                completed= null;
+                if (!hedgeSent) {
+                    // failover to the hedge endpoint
+                    completionService.submit(hedge);
+                    hedgeSent= true;
+                    pending++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PEPClientException("Interrupted while waiting for the PEP Server response",
                                          e);
+        } catch (RejectedExecutionException e) {
+            throw new PEPClientException("Hedged request rejected", e);
+        } finally {
+            // abort the request still in progress, if any
+            attempt.abort();
+            hedge.abort();
         }
-        return response;
+        throw cause;
     }
 
     /**
-     * Calls out to the remote PEP and returns the response.
+     * Converts the failure of a request into a {@link PEPClientException}.
+     * 
+     * @param failure
+     *            the request failure
+     * @return the PEP client exception
+     */
+    private PEPClientException toPEPClientException(Throwable failure) {
+        if (failure instanceof PEPClientException) {
+            return (PEPClientException) failure;
+        }
+        if (failure instanceof Exception) {
+            return new PEPClientException("Request failed", (Exception) failure);
+        }
+        throw (Error) failure;
+    }
+
+    /**
+     * Returns the number of hedged requests sent to a second PEP daemon.
+     * 
+     * @return the number of hedges
+     */
+    public long getHedgeCount() {
+        return hedges_.get();
+    }
+
+    /**
+     * Returns the live statistics of the PEP daemon endpoints.
+     * 
+     * @return the unmodifiable list of endpoint statistics, in endpoint order
+     */
+    public List<EndpointStatistics> getEndpointStatistics() {
+        return endpointStatistics_;
+    }
+
+    /**
+     * Returns the circuit breaker of a PEP daemon endpoint.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint URL
+     * @return the circuit breaker or <code>null</code> if the circuit
+     *         breakers are disabled
+     */
+    public CircuitBreaker getCircuitBreaker(String endpoint) {
+        return circuitBreakers_.get(endpoint);
+    }
+
+    /**
+     * Returns the client-side decision cache.
+     * 
+     * @return the decision cache or <code>null</code> if the cache is disabled
+     */
+    public DecisionCache getDecisionCache() {
+        return decisionCache_;
+    }
+
+    /**
+     * Returns the HTTPS socket factory, with the TLS session cache settings,
+     * the full and resumed handshake counters and the negotiated protocols and
+     * cipher suites.
+     * 
+     * @return the HTTPS socket factory or <code>null</code> if no trust
+     *         manager is configured
+     */
+    public TLSProtocolSocketFactory getTLSSocketFactory() {
+        return tlsSocketFactory_;
+    }
+
+    /**
+     * Returns the coalescer of concurrent identical requests.
+     * 
+     * @return the request coalescer or <code>null</code> if the request
+     *         coalescing is disabled
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer_;
+    }
+
+    /**
+     * Calls out to the remote PEP and returns the response, without
+     * deadline, endpoint statistics or circuit breaker.
      * 
      * @param pepUrl
      *            the remote PEP to which to callout
@@ -161,41 +1004,267 @@ public class PEPClient {
      * @return the response to the request
      * @throws PEPClientException
      *             thrown if there is a problem processing the request
+     * @deprecated no longer called by {@link #authorize(Request)}, which
+     *             sends the requests through the transport with the
+     *             authorization deadline, the endpoint statistics and the
+     *             hedging: overriding this method has no effect on the
+     *             authorizations.
      */
+    @Deprecated
     protected Response performRequest(String pepUrl, Request authzRequest)
             throws PEPClientException {
+        WireCodec codec= getWireCodec(pepUrl);
+        PEPExchange exchange= transport_.createExchange(pepUrl);
+        exchange.setRequestEntity(createRequestEntity(authzRequest,
+                                                      codec,
+                                                      isBinaryTransport(pepUrl)));
+        return executeExchange(exchange, codec);
+    }
+
+    /**
+     * Checks if the messages are sent to the PEP daemon endpoint without
+     * Base64 armoring.
+     * 
+     * @param pepUrl
+     *            the PEP daemon endpoint
+     * @return <code>true</code> if the binary transport is enabled and the
+     *         endpoint didn't reject it
+     */
+    private boolean isBinaryTransport(String pepUrl) {
+        return binaryTransport_ && !base64Endpoints_.containsKey(pepUrl);
+    }
+
+    /**
+     * Returns the wire codec of a PEP daemon endpoint.
+     * 
+     * @param pepUrl
+     *            the PEP daemon endpoint
+     * @return the endpoint wire codec, or the default wire codec
+     */
+    private WireCodec getWireCodec(String pepUrl) {
+        WireCodec codec= wireCodecs_.get(pepUrl);
+        return codec == null ? wireCodec_ : codec;
+    }
 
-        String b64Message= null;
+    /**
+     * Bounds the wait for a free connection and the socket read timeout of
+     * the exchange by the time remaining before the deadline.
+     * 
+     * @param exchange
+     *            the HTTP exchange
+     * @param deadline
+     *            the authorization deadline
+     */
+    private void applyDeadline(PEPExchange exchange, Deadline deadline) {
+        if (deadline.isBounded()) {
+            exchange.setPoolTimeout(deadline.timeout(0));
+            exchange.setReadTimeout(deadline.timeout(socketTimeout_));
+        }
+    }
+
+    /**
+     * Serializes the request with the default wire codec into a repeatable
+     * HTTP request entity.
+     * 
+     * @param authzRequest
+     *            the authorization request to send to the PEP daemon
+     * @return the request entity
+     * @throws PEPClientException
+     *             thrown if the request can not be serialized
+     * @see #createRequestEntity(Request, WireCodec)
+     */
+    protected RequestEntity createRequestEntity(Request authzRequest)
+            throws PEPClientException {
+        return createRequestEntity(authzRequest, wireCodec_, false);
+    }
+
+    /**
+     * Serializes the request into a repeatable HTTP request entity, streaming
+     * the message, Base64 encoded or not, to the connection.
+     * <p>
+     * The entity uses the serialization buffer of the calling thread, and is
+     * only valid until the thread serializes another request.
+     * 
+     * @param authzRequest
+     *            the authorization request to send to the PEP daemon
+     * @param codec
+     *            the wire codec of the PEP daemon
+     * @param binary
+     *            <code>true</code> to send the message without Base64
+     *            armoring
+     * @return the request entity
+     * @throws PEPClientException
+     *             thrown if the request can not be serialized
+     */
+    private RequestEntity createRequestEntity(Request authzRequest,
+            WireCodec codec, boolean binary) throws PEPClientException {
+        MessageBuffer buffer= serializeRequest(authzRequest, codec);
+        return createRequestEntity(buffer.getBuffer(),
+                                   0,
+                                   buffer.size(),
+                                   codec,
+                                   binary);
+    }
+
+    /**
+     * Creates the request entity of a serialized message, compressed if the
+     * request compression is enabled and the message is not smaller than the
+     * compression threshold.
+     * 
+     * @param message
+     *            the array containing the message
+     * @param offset
+     *            the message offset in the array
+     * @param length
+     *            the message length
+     * @param codec
+     *            the wire codec of the message
+     * @param binary
+     *            <code>true</code> to send the message without Base64
+     *            armoring
+     * @return the request entity
+     * @throws PEPClientException
+     *             thrown if the message can not be compressed
+     */
+    private RequestEntity createRequestEntity(byte[] message, int offset,
+            int length, WireCodec codec, boolean binary)
+            throws PEPClientException {
+        boolean compress= requestCompression_ != RequestCompression.NONE
+                && length >= compressionThreshold_;
         try {
-            ByteArrayOutputStream out= new ByteArrayOutputStream();
-            HessianOutput hout= new HessianOutput(out);
-            hout.writeObject(authzRequest);
-            hout.flush();
-            b64Message= Base64.encodeBytes(out.toByteArray());
+            if (binary) {
+                RequestEntity entity= new BinaryRequestEntity(message,
+                                                              offset,
+                                                              length,
+                                                              codec.getBinaryContentType());
+                // no Base64 armoring to carry the gzip header
+                return compress ? new GzipRequestEntity(entity) : entity;
+            }
+            if (compress
+                    && requestCompression_ == RequestCompression.BASE64_GZIP) {
+                byte[] compressed= GzipRequestEntity.gzip(message,
+                                                          offset,
+                                                          length);
+                return new Base64RequestEntity(compressed,
+                                               0,
+                                               compressed.length,
+                                               codec.getContentType(),
+                                               BASE64_OPTIONS);
+            }
+            RequestEntity entity= new Base64RequestEntity(message,
+                                                          offset,
+                                                          length,
+                                                          codec.getContentType(),
+                                                          BASE64_OPTIONS);
+            return compress ? new GzipRequestEntity(entity) : entity;
         } catch (IOException e) {
-            log.error("Unable to serialize request object", e);
-            throw new PEPClientException("Unable to serialize request object",
+            log.error("Unable to compress request object", e);
+            throw new PEPClientException("Unable to compress request object",
                                          e);
         }
+    }
+
+    /**
+     * Serializes the request into a repeatable HTTP request entity owning a
+     * copy of the message, which can be sent by other threads.
+     * 
+     * @param authzRequest
+     *            the authorization request to send to the PEP daemon
+     * @param codec
+     *            the wire codec of the PEP daemon
+     * @param binary
+     *            <code>true</code> to send the message without Base64
+     *            armoring
+     * @return the request entity
+     * @throws PEPClientException
+     *             thrown if the request can not be serialized
+     */
+    private RequestEntity createSharedRequestEntity(Request authzRequest,
+            WireCodec codec, boolean binary) throws PEPClientException {
+        byte[] message= serializeRequest(authzRequest, codec).toByteArray();
+        return createRequestEntity(message, 0, message.length, codec, binary);
+    }
 
-        PostMethod postMethod= new PostMethod(pepUrl);
+    /**
+     * Serializes the request with the wire codec into the serialization
+     * buffer of the calling thread.
+     * 
+     * @param authzRequest
+     *            the authorization request
+     * @param codec
+     *            the wire codec
+     * @return the buffer containing the serialized request
+     * @throws PEPClientException
+     *             thrown if the request can not be serialized
+     */
+    private MessageBuffer serializeRequest(Request authzRequest,
+            WireCodec codec) throws PEPClientException {
+        MessageBuffer buffer= MESSAGE_BUFFER.get();
+        buffer.reset();
         try {
-            RequestEntity requestEntity= new StringRequestEntity(b64Message,
-                                                                 "application/octet-stream",
-                                                                 "UTF-8");
-            postMethod.setRequestEntity(requestEntity);
-        } catch (UnsupportedEncodingException e) {
-            throw new PEPClientException(e);
+            codec.encodeRequest(authzRequest, buffer);
+        } catch (IOException e) {
+            log.error("Unable to serialize request object", e);
+            throw new PEPClientException("Unable to serialize request object",
+                                         e);
         }
+        return buffer;
+    }
 
+    /**
+     * Executes the HTTP exchange with the remote PEP and returns the response.
+     * <p>
+     * If the PEP daemon rejects a binary request, the endpoint falls back to
+     * the Base64 transport and the request is sent again Base64 encoded.
+     * <p>
+     * The gzip-compressed responses, with the <code>gzip</code> content
+     * encoding or inside the Base64 armoring, are transparently decompressed.
+     * 
+     * @param exchange
+     *            the HTTP exchange, with its request entity
+     * @param codec
+     *            the wire codec decoding the response
+     * @return the response to the request
+     * @throws PEPClientException
+     *             thrown if there is a problem processing the request
+     */
+    private Response executeExchange(PEPExchange exchange, WireCodec codec)
+            throws PEPClientException {
+        String pepUrl= exchange.getEndpoint();
         Response response= null;
         try {
-            httpClient_.executeMethod(postMethod);
-            if (postMethod.getStatusCode() == HttpStatus.SC_OK) {
+            setEncodingHeaders(exchange);
+            exchange.execute();
+            RequestEntity requestEntity= exchange.getRequestEntity();
+            if (requestEntity instanceof GzipRequestEntity) {
+                requestEntity= ((GzipRequestEntity) requestEntity).getEntity();
+            }
+            if (requestEntity instanceof BinaryRequestEntity
+                    && isBinaryRejected(exchange.getStatusCode())) {
+                log.warn("PEP Server " + pepUrl + " rejected binary request ("
+                        + exchange.getStatusCode()
+                        + " status code), falling back to Base64");
+                base64Endpoints_.put(pepUrl, Boolean.TRUE);
+                BinaryRequestEntity binaryEntity= (BinaryRequestEntity) requestEntity;
+                exchange.release();
+                exchange.setRequestEntity(createRequestEntity(binaryEntity.getContent(),
+                                                              binaryEntity.getOffset(),
+                                                              (int) binaryEntity.getContentLength(),
+                                                              codec,
+                                                              false));
+                setEncodingHeaders(exchange);
+                exchange.execute();
+            }
+            if (exchange.getStatusCode() == HttpStatus.SC_OK) {
                 try {
-                    InputStream is= new Base64.InputStream(postMethod.getResponseBodyAsStream());
-                    HessianInput hin= new HessianInput(is);
-                    response= (Response) hin.readObject(Response.class);
+                    InputStream is= exchange.getResponseBody();
+                    if (isGzipEncoded(exchange)) {
+                        is= new GZIPInputStream(is);
+                    }
+                    if (!isBinaryResponse(exchange, codec)) {
+                        is= decompressIfGzip(new Base64.InputStream(is));
+                    }
+                    response= codec.decodeResponse(is);
                 } catch (IOException e) {
                     log.error("Unable to deserialize response object", e);
                     throw new PEPClientException("Unable to deserialize response object",
@@ -203,7 +1272,7 @@ public class PEPClient {
                 }
             }
             else {
-                String error= postMethod.getStatusCode()
+                String error= exchange.getStatusCode()
                         + " status code response from the PEP Server " + pepUrl;
                 log.error(error);
                 throw new PEPClientException(error);
@@ -216,12 +1285,121 @@ public class PEPClient {
                                          e);
         } finally {
             log.debug("release connection");
-            postMethod.releaseConnection();
+            exchange.release();
         }
 
         return response;
     }
 
+    /**
+     * Checks if the status code of a binary request means that the PEP daemon
+     * doesn't support the binary transport: the request is malformed, of
+     * unsupported media type, or not implemented. A server error is not a
+     * rejection, it would otherwise double the load of an overloaded PEP
+     * daemon and downgrade it to Base64 for good.
+     * 
+     * @param statusCode
+     *            the HTTP status code
+     * @return <code>true</code> if the binary transport is rejected
+     */
+    private boolean isBinaryRejected(int statusCode) {
+        return statusCode == HttpStatus.SC_BAD_REQUEST
+                || statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE
+                || statusCode == HttpStatus.SC_NOT_IMPLEMENTED;
+    }
+
+    /**
+     * Sets the content encoding of the request entity, and accepts the
+     * compressed responses if the request compression is enabled.
+     * 
+     * @param exchange
+     *            the HTTP exchange, with its request entity
+     */
+    private void setEncodingHeaders(PEPExchange exchange) {
+        if (exchange.getRequestEntity() instanceof GzipRequestEntity) {
+            exchange.setRequestHeader("Content-Encoding",
+                                      GzipRequestEntity.CONTENT_ENCODING);
+        }
+        else {
+            exchange.removeRequestHeader("Content-Encoding");
+        }
+        if (requestCompression_ != RequestCompression.NONE) {
+            exchange.setRequestHeader("Accept-Encoding",
+                                      GzipRequestEntity.CONTENT_ENCODING);
+        }
+    }
+
+    /**
+     * Checks if the response body is sent with the <code>gzip</code> content
+     * encoding.
+     * 
+     * @param exchange
+     *            the executed HTTP exchange
+     * @return <code>true</code> if the response body is gzip-compressed
+     */
+    private boolean isGzipEncoded(PEPExchange exchange) {
+        String contentEncoding= exchange.getResponseHeader("Content-Encoding");
+        if (contentEncoding == null) {
+            return false;
+        }
+        String encoding= contentEncoding.trim();
+        return encoding.equalsIgnoreCase("gzip")
+                || encoding.equalsIgnoreCase("x-gzip");
+    }
+
+    /**
+     * Decompresses the Base64 decoded message if it starts with the gzip
+     * header, like {@link Base64#decode(String)} does. None of the wire
+     * formats starts with the gzip magic number.
+     * 
+     * @param in
+     *            the Base64 decoded message
+     * @return the decompressed message stream, or the message stream
+     * @throws IOException
+     *             if the message can not be read
+     */
+    private InputStream decompressIfGzip(InputStream in) throws IOException {
+        PushbackInputStream pushback= new PushbackInputStream(in, 2);
+        byte[] magic= new byte[2];
+        int n= 0;
+        while (n < magic.length) {
+            int read= pushback.read(magic, n, magic.length - n);
+            if (read < 0) {
+                break;
+            }
+            n+= read;
+        }
+        pushback.unread(magic, 0, n);
+        if (n == magic.length
+                && (magic[0] & 0xff) == (GZIPInputStream.GZIP_MAGIC & 0xff)
+                && (magic[1] & 0xff) == (GZIPInputStream.GZIP_MAGIC >>> 8)) {
+            return new GZIPInputStream(pushback);
+        }
+        return pushback;
+    }
+
+    /**
+     * Checks if the response message is sent without Base64 armoring, that
+     * is with the binary content type of the wire codec.
+     * 
+     * @param exchange
+     *            the executed HTTP exchange
+     * @param codec
+     *            the wire codec
+     * @return <code>true</code> if the response is binary
+     */
+    private boolean isBinaryResponse(PEPExchange exchange, WireCodec codec) {
+        String mediaType= exchange.getResponseHeader("Content-Type");
+        if (mediaType == null) {
+            return false;
+        }
+        int parameters= mediaType.indexOf(';');
+        if (parameters >= 0) {
+            mediaType= mediaType.substring(0, parameters);
+        }
+        return mediaType.trim().equalsIgnoreCase(codec.getBinaryContentType());
+    }
+
     /**
      * Run the list of PIPs over the request.
      * 
@@ -277,4 +1455,82 @@ public class PEPClient {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * A request to an endpoint, run by the hedge executor, which can be
+     * aborted once another request won.
+     */
+    private class HedgedAttempt implements Callable<Response> {
+
+        /** The endpoint receiving the request */
+        private final EndpointStatistics endpoint_;
+
+        /** The HTTP exchange with the endpoint */
+        private final PEPExchange exchange_;
+
+        /** The wire codec decoding the response */
+        private final WireCodec codec_;
+
+        /** The authorization deadline */
+        private final Deadline deadline_;
+
+        /** Whether the request was aborted */
+        private volatile boolean aborted_= false;
+
+        /** Whether the request completed */
+        private volatile boolean completed_= false;
+
+        /**
+         * Constructor.
+         * 
+         * @param endpoint
+         *            the endpoint receiving the request
+         * @param requestEntity
+         *            the repeatable serialized request
+         * @param codec
+         *            the wire codec decoding the response
+         * @param deadline
+         *            the authorization deadline
+         */
+        HedgedAttempt(EndpointStatistics endpoint,
+                RequestEntity requestEntity, WireCodec codec, Deadline deadline) {
+            endpoint_= endpoint;
+            codec_= codec;
+            deadline_= deadline;
+            exchange_= transport_.createExchange(endpoint.getEndpoint());
+            exchange_.setRequestEntity(requestEntity);
+        }
+
+        /** {@inheritDoc} */
+        public Response call() throws PEPClientException {
+            if (aborted_) {
+                throw new PEPClientException("Request to PEP Server "
+                        + endpoint_.getEndpoint() + " aborted");
+            }
+            // the hedge starts later, with less remaining time
+            applyDeadline(exchange_, deadline_);
+            CircuitBreaker circuitBreaker= circuitBreakers_.get(endpoint_.getEndpoint());
+            boolean success= false;
+            endpoint_.requestStarted();
+            long start= System.nanoTime();
+            try {
+                Response response= executeExchange(exchange_, codec_);
+                success= true;
+                return response;
+            } finally {
+                completed_= true;
+                // an aborted request is not an endpoint failure
+                recordOutcome(endpoint_, circuitBreaker, start, success,
+                              !success
+                                      && (aborted_ || deadline_.isExpired()));
+            }
+        }
+
+        /** Aborts the request if it is still in progress. */
+        void abort() {
+            if (!completed_) {
+                aborted_= true;
+                exchange_.abort();
+            }
+        }
+    }
+}
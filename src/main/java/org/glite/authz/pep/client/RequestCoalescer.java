@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glite.authz.common.model.Response;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Coalesces concurrent identical authorization requests.
+ * <p>
+ * The first caller for a given {@link RequestKey} sends the request to the PEP
+ * daemon, all the callers arriving with an equal key while the request is in
+ * flight wait for, and share, its result. Each caller receives its own copy
+ * of the response, so the obligation handlers can process it independently.
+ */
+public class RequestCoalescer {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(RequestCoalescer.class);
+
+    /** In-flight requests by key */
+    private final ConcurrentMap<RequestKey, FutureTask<Response>> inFlight_= new ConcurrentHashMap<RequestKey, FutureTask<Response>>();
+
+    /** Number of requests sent to the PEP daemon */
+    private final AtomicLong executed_= new AtomicLong();
+
+    /** Number of requests that joined an in-flight request */
+    private final AtomicLong coalesced_= new AtomicLong();
+
+    /**
+     * Executes the call, unless an equal request is already in flight, in
+     * which case its result is awaited and shared.
+     *
+     * @param key
+     *            the request key
+     * @param call
+     *            the call sending the request to the PEP daemon
+     * @return a private copy of the response
+     * @throws PEPClientException
+     *             if the call failed, or if the thread was interrupted while
+     *             waiting for the in-flight request
+     */
+    public Response execute(RequestKey key, Callable<Response> call)
+            throws PEPClientException {
+        return execute(key, call, 0);
+    }
+
+    /**
+     * Executes the call, unless an equal request is already in flight, in
+     * which case its result is awaited, at most for the given timeout, and
+     * shared.
+     *
+     * @param key
+     *            the request key
+     * @param call
+     *            the call sending the request to the PEP daemon
+     * @param timeout
+     *            maximum time in millis waiting for an in-flight request,
+     *            <code>0</code> for no timeout
+     * @return a private copy of the response
+     * @throws PEPClientException
+     *             if the call failed, or if the thread was interrupted or
+     *             timed out while waiting for the in-flight request
+     */
+    public Response execute(RequestKey key, Callable<Response> call,
+            long timeout) throws PEPClientException {
+        FutureTask<Response> task= new FutureTask<Response>(call);
+        FutureTask<Response> inFlight= inFlight_.putIfAbsent(key, task);
+        if (inFlight == null) {
+            executed_.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight_.remove(key, task);
+            }
+            inFlight= task;
+        }
+        else {
+            coalesced_.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("waiting for in-flight request " + key);
+            }
+        }
+        Response response= getResponse(inFlight, timeout);
+        return response == null ? null : Responses.copy(response);
+    }
+
+    /**
+     * Waits for the task and unwraps its failure.
+     *
+     * @param task
+     *            the in-flight task
+     * @param timeout
+     *            maximum time in millis waiting for the task, <code>0</code>
+     *            for no timeout
+     * @return the response
+     * @throws PEPClientException
+     *             if the task failed, or the thread was interrupted or timed
+     *             out
+     */
+    private Response getResponse(FutureTask<Response> task, long timeout)
+            throws PEPClientException {
+        try {
+            if (timeout > 0) {
+                return task.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            return task.get();
+        } catch (TimeoutException e) {
+            throw new PEPClientException("Timeout of " + timeout
+                    + " ms expired waiting for the in-flight request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PEPClientException("Interrupted while waiting for the in-flight request",
+                                         e);
+        } catch (ExecutionException e) {
+            Throwable cause= e.getCause();
+            if (cause instanceof PEPClientException) {
+                throw new PEPClientException(cause.getMessage(),
+                                             (PEPClientException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PEPClientException((Exception) cause);
+        }
+    }
+
+    /**
+     * Returns the number of requests sent to the PEP daemon.
+     *
+     * @return the number of executed requests
+     */
+    public long getExecutedCount() {
+        return executed_.get();
+    }
+
+    /**
+     * Returns the number of requests which joined an identical in-flight
+     * request instead of being sent to the PEP daemon.
+     *
+     * @return the number of coalesced requests
+     */
+    public long getCoalescedCount() {
+        return coalesced_.get();
+    }
+}
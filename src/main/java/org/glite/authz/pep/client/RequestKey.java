@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * Immutable key identifying an authorization {@link Request}.
+ * <p>
+ * The key is built from a canonical form of the request: subjects, resources,
+ * attributes and attribute values are sorted, so two requests containing the
+ * same attributes produce equal keys whatever the order in which they were
+ * populated. The key is a snapshot, later modifications of the request are
+ * not reflected.
+ */
+public final class RequestKey {
+
+    /** Canonical form of the request */
+    private final String canonical_;
+
+    /** Cached hash code */
+    private final int hashCode_;
+
+    /**
+     * Constructor. Creates the key of the given request.
+     *
+     * @param request
+     *            the authorization request
+     */
+    public RequestKey(Request request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        canonical_= canonicalize(request);
+        hashCode_= canonical_.hashCode();
+    }
+
+    /**
+     * Returns the canonical form of the request.
+     *
+     * @return the canonical form of the request
+     */
+    public String getCanonicalForm() {
+        return canonical_;
+    }
+
+    /** {@inheritDoc} */
+    public int hashCode() {
+        return hashCode_;
+    }
+
+    /** {@inheritDoc} */
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other= (RequestKey) obj;
+        return hashCode_ == other.hashCode_
+                && canonical_.equals(other.canonical_);
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return canonical_;
+    }
+
+    /**
+     * Builds the canonical form of the request.
+     *
+     * @param request
+     *            the request
+     * @return the canonical string
+     */
+    private static String canonicalize(Request request) {
+        StringBuilder sb= new StringBuilder(512);
+        List<String> subjects= new ArrayList<String>();
+        Set<Subject> requestSubjects= request.getSubjects();
+        if (requestSubjects != null) {
+            for (Subject subject : requestSubjects) {
+                StringBuilder s= new StringBuilder();
+                append(s, subject.getCategory());
+                appendAttributes(s, subject.getAttributes());
+                subjects.add(s.toString());
+            }
+        }
+        appendSorted(sb.append('S'), subjects);
+
+        List<String> resources= new ArrayList<String>();
+        Set<Resource> requestResources= request.getResources();
+        if (requestResources != null) {
+            for (Resource resource : requestResources) {
+                StringBuilder r= new StringBuilder();
+                append(r, resource.getResourceContent());
+                appendAttributes(r, resource.getAttributes());
+                resources.add(r.toString());
+            }
+        }
+        appendSorted(sb.append('R'), resources);
+
+        Action action= request.getAction();
+        sb.append('A');
+        if (action != null) {
+            appendAttributes(sb, action.getAttributes());
+        }
+
+        Environment environment= request.getEnvironment();
+        sb.append('E');
+        if (environment != null) {
+            appendAttributes(sb, environment.getAttributes());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the sorted canonical forms of the attributes.
+     *
+     * @param sb
+     *            the buffer to append to
+     * @param attributes
+     *            the attributes, can be <code>null</code>
+     */
+    private static void appendAttributes(StringBuilder sb,
+            Set<Attribute> attributes) {
+        List<String> attrs= new ArrayList<String>();
+        if (attributes != null) {
+            for (Attribute attribute : attributes) {
+                StringBuilder a= new StringBuilder();
+                append(a, attribute.getId());
+                append(a, attribute.getDataType());
+                append(a, attribute.getIssuer());
+                List<String> values= new ArrayList<String>();
+                Set<Object> attributeValues= attribute.getValues();
+                if (attributeValues != null) {
+                    for (Object value : attributeValues) {
+                        StringBuilder v= new StringBuilder();
+                        append(v, value == null ? null : value.toString());
+                        values.add(v.toString());
+                    }
+                }
+                appendSorted(a, values);
+                attrs.add(a.toString());
+            }
+        }
+        appendSorted(sb, attrs);
+    }
+
+    /**
+     * Appends the sorted elements, prefixed by their count.
+     *
+     * @param sb
+     *            the buffer to append to
+     * @param elements
+     *            the canonical elements to sort and append
+     */
+    private static void appendSorted(StringBuilder sb, List<String> elements) {
+        Collections.sort(elements);
+        sb.append(elements.size()).append('[');
+        for (String element : elements) {
+            sb.append(element);
+        }
+        sb.append(']');
+    }
+
+    /**
+     * Appends a length prefixed string, or <code>-</code> if the string is
+     * <code>null</code>. The length prefix makes the encoding unambiguous.
+     *
+     * @param sb
+     *            the buffer to append to
+     * @param value
+     *            the string, can be <code>null</code>
+     */
+    private static void append(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append('-');
+        }
+        else {
+            sb.append(value.length()).append(':').append(value);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+
+/**
+ * Response utility methods.
+ */
+final class Responses {
+
+    /**
+     * Copies the response, its results and obligations, so that a shared
+     * response can be handed to the obligation handlers. The request, status
+     * and attribute assignments are not modified by the obligation handlers
+     * and are shared.
+     * 
+     * @param response
+     *            the response to copy
+     * @return the copy
+     */
+    static Response copy(Response response) {
+        Response copy= new Response();
+        copy.setRequest(response.getRequest());
+        for (Result result : response.getResults()) {
+            Result resultCopy= new Result();
+            resultCopy.setDecision(result.getDecision());
+            resultCopy.setResourceId(result.getResourceId());
+            resultCopy.setStatus(result.getStatus());
+            for (Obligation obligation : result.getObligations()) {
+                Obligation obligationCopy= new Obligation();
+                obligationCopy.setId(obligation.getId());
+                obligationCopy.setFulfillOn(obligation.getFulfillOn());
+                obligationCopy.getAttributeAssignments().addAll(obligation.getAttributeAssignments());
+                resultCopy.getObligations().add(obligationCopy);
+            }
+            copy.getResults().add(resultCopy);
+        }
+        return copy;
+    }
+
+    /** Prevents instantiation */
+    private Responses() {
+    }
+}
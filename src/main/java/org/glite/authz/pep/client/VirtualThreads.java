@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of the Java 21 runtimes, by reflection. The
+ * virtual threads are always daemon threads.
+ */
+final class VirtualThreads {
+
+    /** Thread.ofVirtual(), <code>null</code> if not supported */
+    private static final Method OF_VIRTUAL;
+
+    /** Thread.Builder.name(String, long) */
+    private static final Method NAME;
+
+    /** Thread.Builder.factory() */
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual= null;
+        Method name= null;
+        Method factory= null;
+        try {
+            Class<?> builder= Class.forName("java.lang.Thread$Builder");
+            ofVirtual= Thread.class.getMethod("ofVirtual");
+            name= builder.getMethod("name", String.class, long.class);
+            factory= builder.getMethod("factory");
+        } catch (Exception e) {
+            // runtime without virtual threads
+            ofVirtual= null;
+        }
+        OF_VIRTUAL= ofVirtual;
+        NAME= name;
+        FACTORY= factory;
+    }
+
+    /** Prevent instantiation. */
+    private VirtualThreads() {
+    }
+
+    /**
+     * Tells whether the runtime supports the virtual threads.
+     * 
+     * @return <code>true</code> if the virtual threads are supported
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates a factory of named virtual threads.
+     * 
+     * @param namePrefix
+     *            prefix of the thread names
+     * @return the thread factory, or <code>null</code> if the runtime does
+     *         not support the virtual threads
+     */
+    static ThreadFactory newThreadFactory(String namePrefix) {
+        if (OF_VIRTUAL == null) {
+            return null;
+        }
+        try {
+            Object builder= OF_VIRTUAL.invoke(null);
+            builder= NAME.invoke(builder, namePrefix + "-", Long.valueOf(1));
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.balancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Base class of the selectors choosing a single preferred endpoint. The other
+ * endpoints keep their configuration order for the failover.
+ */
+public abstract class AbstractEndpointSelector implements EndpointSelector {
+
+    /** Random generator shared by the selector threads */
+    private final Random random_= new Random();
+
+    /** {@inheritDoc} */
+    public List<EndpointStatistics> select(List<EndpointStatistics> endpoints) {
+        int size= endpoints.size();
+        if (size < 2) {
+            return endpoints;
+        }
+        int preferred= selectIndex(endpoints);
+        if (preferred == 0) {
+            return endpoints;
+        }
+        List<EndpointStatistics> ordered= new ArrayList<EndpointStatistics>(size);
+        ordered.add(endpoints.get(preferred));
+        for (int i= 0; i < size; i++) {
+            if (i != preferred) {
+                ordered.add(endpoints.get(i));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Selects the preferred endpoint.
+     * 
+     * @param endpoints
+     *            the endpoints, at least two
+     * @return the index of the preferred endpoint
+     */
+    protected abstract int selectIndex(List<EndpointStatistics> endpoints);
+
+    /**
+     * Returns a random integer between 0 (inclusive) and the bound
+     * (exclusive).
+     * 
+     * @param bound
+     *            the upper bound, must be positive
+     * @return the random integer
+     */
+    protected int nextRandom(int bound) {
+        return random_.nextInt(bound);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.balancer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics of a PEP daemon endpoint: configured weight, number of
+ * outstanding requests and exponentially weighted moving average (EWMA) of
+ * the request latency.
+ * <p>
+ * A failed request is recorded as a latency sample of at least four times the
+ * current average, so a fast failing endpoint doesn't look like a fast one.
+ */
+public class EndpointStatistics {
+
+    /** Smoothing factor of the latency moving average */
+    private static final double EWMA_ALPHA= 0.3;
+
+    /** Latency multiplier applied to a failed request */
+    private static final double FAILURE_PENALTY= 4.0;
+
+    /** The PEP daemon endpoint URL */
+    private final String endpoint_;
+
+    /** The endpoint weight */
+    private final int weight_;
+
+    /** Number of outstanding requests */
+    private final AtomicInteger outstanding_= new AtomicInteger();
+
+    /** Number of completed requests */
+    private final AtomicLong requests_= new AtomicLong();
+
+    /** Number of failed requests */
+    private final AtomicLong failures_= new AtomicLong();
+
+    /** Latency EWMA in nanoseconds, as double bits */
+    private final AtomicLong latencyEWMA_= new AtomicLong(Double.doubleToLongBits(0.0));
+
+    /**
+     * Constructor.
+     *
+     * @param endpoint
+     *            the PEP daemon endpoint URL
+     * @param weight
+     *            the endpoint weight, must be greater than zero
+     */
+    public EndpointStatistics(String endpoint, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Endpoint weight must be greater than zero");
+        }
+        endpoint_= endpoint;
+        weight_= weight;
+    }
+
+    /**
+     * Records the start of a request.
+     */
+    public void requestStarted() {
+        outstanding_.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a request without outcome, aborted or out of the
+     * caller's time: neither the number of requests nor the latency is
+     * updated.
+     */
+    public void requestCancelled() {
+        outstanding_.decrementAndGet();
+    }
+
+    /**
+     * Records the completion of a request.
+     *
+     * @param latencyNanos
+     *            the request latency in nanoseconds
+     * @param success
+     *            <code>true</code> if the request was successful
+     */
+    public void requestCompleted(long latencyNanos, boolean success) {
+        outstanding_.decrementAndGet();
+        requests_.incrementAndGet();
+        if (!success) {
+            failures_.incrementAndGet();
+        }
+        while (true) {
+            long bits= latencyEWMA_.get();
+            double ewma= Double.longBitsToDouble(bits);
+            double sample= success ? latencyNanos : Math.max(latencyNanos,
+                                                             FAILURE_PENALTY
+                                                                     * ewma);
+            double updated= (ewma == 0.0) ? sample : ewma + EWMA_ALPHA
+                    * (sample - ewma);
+            if (latencyEWMA_.compareAndSet(bits,
+                                           Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the PEP daemon endpoint URL.
+     *
+     * @return the endpoint URL
+     */
+    public String getEndpoint() {
+        return endpoint_;
+    }
+
+    /**
+     * Returns the endpoint weight.
+     *
+     * @return the endpoint weight
+     */
+    public int getWeight() {
+        return weight_;
+    }
+
+    /**
+     * Returns the number of outstanding requests.
+     *
+     * @return the number of outstanding requests
+     */
+    public int getOutstandingRequests() {
+        return outstanding_.get();
+    }
+
+    /**
+     * Returns the number of completed requests.
+     *
+     * @return the number of completed requests
+     */
+    public long getRequests() {
+        return requests_.get();
+    }
+
+    /**
+     * Returns the number of failed requests.
+     *
+     * @return the number of failed requests
+     */
+    public long getFailures() {
+        return failures_.get();
+    }
+
+    /**
+     * Returns the moving average of the request latency.
+     *
+     * @return the latency EWMA in nanoseconds, <code>0</code> if no request
+     *         completed yet
+     */
+    public double getLatencyEWMA() {
+        return Double.longBitsToDouble(latencyEWMA_.get());
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return endpoint_ + "{weight=" + weight_ + ", outstanding="
+                + getOutstandingRequests() + ", requests=" + getRequests()
+                + ", failures=" + getFailures() + ", latencyEWMA="
+                + (long) (getLatencyEWMA() / 1000000) + "ms}";
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.balancer;
+
+import java.util.List;
+
+/**
+ * Latency-aware "power of two choices" selector: two distinct endpoints are
+ * picked at random and the request is sent to the one with the lowest
+ * expected latency, that is its latency moving average multiplied by its
+ * number of outstanding requests plus one.
+ * <p>
+ * Endpoints without latency sample yet are preferred, so every endpoint gets
+ * measured.
+ */
+public class LatencyEndpointSelector extends AbstractEndpointSelector {
+
+    /** {@inheritDoc} */
+    protected int selectIndex(List<EndpointStatistics> endpoints) {
+        int size= endpoints.size();
+        int first= nextRandom(size);
+        int second= nextRandom(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        if (getCost(endpoints.get(second)) < getCost(endpoints.get(first))) {
+            return second;
+        }
+        return first;
+    }
+
+    /**
+     * Returns the expected cost of a request sent to the endpoint.
+     * 
+     * @param endpoint
+     *            the endpoint
+     * @return the expected cost
+     */
+    private double getCost(EndpointStatistics endpoint) {
+        return endpoint.getLatencyEWMA()
+                * (endpoint.getOutstandingRequests() + 1);
+    }
+}
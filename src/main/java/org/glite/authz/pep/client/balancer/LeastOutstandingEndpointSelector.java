@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.balancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Least outstanding requests selector: the request is sent to the endpoint
+ * with the fewest requests in flight. Ties are broken in round-robin order.
+ */
+public class LeastOutstandingEndpointSelector extends AbstractEndpointSelector {
+
+    /** Request counter, used to rotate the ties */
+    private final AtomicInteger counter_= new AtomicInteger();
+
+    /** {@inheritDoc} */
+    protected int selectIndex(List<EndpointStatistics> endpoints) {
+        int size= endpoints.size();
+        int start= (counter_.getAndIncrement() & Integer.MAX_VALUE) % size;
+        int selected= start;
+        int leastOutstanding= Integer.MAX_VALUE;
+        for (int n= 0; n < size; n++) {
+            int i= (start + n) % size;
+            int outstanding= endpoints.get(i).getOutstandingRequests();
+            if (outstanding < leastOutstanding) {
+                leastOutstanding= outstanding;
+                selected= i;
+            }
+        }
+        return selected;
+    }
+}
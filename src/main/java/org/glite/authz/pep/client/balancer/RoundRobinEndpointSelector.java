@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.balancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Round-robin selector: each request is sent to the next endpoint.
+ */
+public class RoundRobinEndpointSelector extends AbstractEndpointSelector {
+
+    /** Request counter */
+    private final AtomicInteger counter_= new AtomicInteger();
+
+    /** {@inheritDoc} */
+    protected int selectIndex(List<EndpointStatistics> endpoints) {
+        return (counter_.getAndIncrement() & Integer.MAX_VALUE)
+                % endpoints.size();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.balancer;
+
+import java.util.List;
+
+/**
+ * Weighted random selector: each endpoint receives a share of the requests
+ * proportional to its configured weight.
+ * 
+ * @see org.glite.authz.pep.client.config.PEPClientConfiguration#addPEPDaemonEndpoint(String,
+ *      int)
+ */
+public class WeightedEndpointSelector extends AbstractEndpointSelector {
+
+    /** {@inheritDoc} */
+    protected int selectIndex(List<EndpointStatistics> endpoints) {
+        int totalWeight= 0;
+        for (EndpointStatistics endpoint : endpoints) {
+            totalWeight+= endpoint.getWeight();
+        }
+        int r= nextRandom(totalWeight);
+        int size= endpoints.size();
+        for (int i= 0; i < size; i++) {
+            r-= endpoints.get(i).getWeight();
+            if (r < 0) {
+                return i;
+            }
+        }
+        return size - 1;
+    }
+}
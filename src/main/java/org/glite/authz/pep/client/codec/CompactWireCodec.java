@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * Compact schema-based binary wire format, for a PEP daemon or a local proxy
+ * supporting it.
+ * <p>
+ * The message is a version byte followed by the fields of the model objects
+ * in a fixed order, without field names or class names. The integers and
+ * lengths are unsigned variable-length integers (7 bits per byte, least
+ * significant group first). A string is written once in UTF-8, and then
+ * referenced by its index in the message, so the repeated attribute
+ * identifiers and data types cost one or two bytes. The attribute values must
+ * be strings.
+ */
+public class CompactWireCodec implements WireCodec {
+
+    /** Content type of the compact messages */
+    public static final String CONTENT_TYPE= "application/x-glite-authz-compact";
+
+    /** Content type of the compact messages without Base64 armoring */
+    public static final String BINARY_CONTENT_TYPE= "application/x-glite-authz-compact-binary";
+
+    /** Version of the compact format */
+    static final int VERSION= 1;
+
+    /** Maximum length of a string, in bytes */
+    private static final int MAX_STRING_LENGTH= 16 * 1024 * 1024;
+
+    /**
+     * Length of the chunks a long string is read in, so that a truncated
+     * message does not allocate its whole declared length
+     */
+    private static final int CHUNK_LENGTH= 8192;
+
+    /** Maximum nesting depth of a status code and its subcodes */
+    private static final int MAX_STATUS_CODE_DEPTH= 32;
+
+    /** {@inheritDoc} */
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    public String getBinaryContentType() {
+        return BINARY_CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    public void encodeRequest(Request request, OutputStream out)
+            throws IOException {
+        Writer writer= new Writer(out);
+        writer.writeVarInt(VERSION);
+        writer.writeRequest(request);
+    }
+
+    /**
+     * Serializes an authorization response, as the PEP daemon does.
+     *
+     * @param response
+     *            the authorization response
+     * @param out
+     *            the output stream
+     * @throws IOException
+     *             if the response can not be serialized or written
+     */
+    public void encodeResponse(Response response, OutputStream out)
+            throws IOException {
+        Writer writer= new Writer(out);
+        writer.writeVarInt(VERSION);
+        writer.writeResponse(response);
+    }
+
+    /** {@inheritDoc} */
+    public Response decodeResponse(InputStream in) throws IOException {
+        Reader reader= new Reader(in);
+        checkVersion(reader.readVarInt());
+        return reader.readResponse();
+    }
+
+    /**
+     * Deserializes an authorization request, as the PEP daemon does.
+     *
+     * @param in
+     *            the input stream
+     * @return the authorization request
+     * @throws IOException
+     *             if the request can not be read or deserialized
+     */
+    public Request decodeRequest(InputStream in) throws IOException {
+        Reader reader= new Reader(in);
+        checkVersion(reader.readVarInt());
+        return reader.readRequest();
+    }
+
+    /**
+     * Checks the version of a compact message.
+     *
+     * @param version
+     *            the message version
+     * @throws IOException
+     *             if the version is not supported
+     */
+    private void checkVersion(int version) throws IOException {
+        if (version != VERSION) {
+            throw new IOException("Unsupported compact message version "
+                    + version);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return "Compact";
+    }
+
+    /** Writer of a compact message. */
+    private static final class Writer {
+
+        /** The output stream */
+        private final OutputStream out_;
+
+        /** Index of the strings already written */
+        private final Map<String, Integer> strings_= new HashMap<String, Integer>();
+
+        /**
+         * Constructor.
+         *
+         * @param out
+         *            the output stream
+         */
+        Writer(OutputStream out) {
+            out_= out;
+        }
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out_.write((value & 0x7F) | 0x80);
+                value>>>= 7;
+            }
+            out_.write(value);
+        }
+
+        /**
+         * Writes a string: <code>0</code> for <code>null</code>, the UTF-8
+         * length shifted left with the low bit set followed by the bytes for
+         * a new string, or the index plus one shifted left for a string
+         * already written.
+         */
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            Integer index= strings_.get(value);
+            if (index != null) {
+                writeVarInt((index.intValue() + 1) << 1);
+                return;
+            }
+            strings_.put(value, Integer.valueOf(strings_.size()));
+            byte[] bytes= value.getBytes("UTF-8");
+            writeVarInt((bytes.length << 1) | 1);
+            out_.write(bytes);
+        }
+
+        void writeBoolean(boolean value) throws IOException {
+            out_.write(value ? 1 : 0);
+        }
+
+        void writeRequest(Request request) throws IOException {
+            Set<Subject> subjects= request.getSubjects();
+            writeVarInt(subjects.size());
+            for (Subject subject : subjects) {
+                writeString(subject.getCategory());
+                writeAttributes(subject.getAttributes());
+            }
+            Set<Resource> resources= request.getResources();
+            writeVarInt(resources.size());
+            for (Resource resource : resources) {
+                writeString(resource.getResourceContent());
+                writeAttributes(resource.getAttributes());
+            }
+            Action action= request.getAction();
+            writeBoolean(action != null);
+            if (action != null) {
+                writeAttributes(action.getAttributes());
+            }
+            Environment environment= request.getEnvironment();
+            writeBoolean(environment != null);
+            if (environment != null) {
+                writeAttributes(environment.getAttributes());
+            }
+        }
+
+        void writeAttributes(Collection<Attribute> attributes)
+                throws IOException {
+            writeVarInt(attributes.size());
+            for (Attribute attribute : attributes) {
+                writeString(attribute.getId());
+                writeString(attribute.getDataType());
+                writeString(attribute.getIssuer());
+                Collection<Object> values= attribute.getValues();
+                writeVarInt(values.size());
+                for (Object value : values) {
+                    if (value != null && !(value instanceof String)) {
+                        throw new IOException("Attribute " + attribute.getId()
+                                + " value is not a string: "
+                                + value.getClass().getName());
+                    }
+                    writeString((String) value);
+                }
+            }
+        }
+
+        void writeResponse(Response response) throws IOException {
+            Request request= response.getRequest();
+            writeBoolean(request != null);
+            if (request != null) {
+                writeRequest(request);
+            }
+            List<Result> results= response.getResults();
+            writeVarInt(results.size());
+            for (Result result : results) {
+                writeVarInt(result.getDecision());
+                writeString(result.getResourceId());
+                Status status= result.getStatus();
+                writeBoolean(status != null);
+                if (status != null) {
+                    writeString(status.getMessage());
+                    writeStatusCode(status.getCode());
+                }
+                List<Obligation> obligations= result.getObligations();
+                writeVarInt(obligations.size());
+                for (Obligation obligation : obligations) {
+                    writeString(obligation.getId());
+                    writeVarInt(obligation.getFulfillOn());
+                    List<AttributeAssignment> assignments= obligation.getAttributeAssignments();
+                    writeVarInt(assignments.size());
+                    for (AttributeAssignment assignment : assignments) {
+                        writeString(assignment.getAttributeId());
+                        writeString(assignment.getDataType());
+                        writeString(assignment.getValue());
+                    }
+                }
+            }
+        }
+
+        /** Writes a status code and its nested subcodes, iteratively. */
+        void writeStatusCode(StatusCode code) throws IOException {
+            while (code != null) {
+                writeBoolean(true);
+                writeString(code.getCode());
+                code= code.getSubCode();
+            }
+            writeBoolean(false);
+        }
+    }
+
+    /** Reader of a compact message. */
+    private static final class Reader {
+
+        /** The input stream */
+        private final InputStream in_;
+
+        /** The strings already read, by index */
+        private final List<String> strings_= new ArrayList<String>();
+
+        /**
+         * Constructor.
+         *
+         * @param in
+         *            the input stream
+         */
+        Reader(InputStream in) {
+            in_= in;
+        }
+
+        int readByte() throws IOException {
+            int b= in_.read();
+            if (b < 0) {
+                throw new EOFException("Truncated compact message");
+            }
+            return b;
+        }
+
+        int readVarInt() throws IOException {
+            int value= 0;
+            for (int shift= 0; shift < 32; shift+= 7) {
+                int b= readByte();
+                value|= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed compact message: integer too long");
+        }
+
+        /** Reads a count of elements, the elements are read one by one. */
+        int readCount() throws IOException {
+            int count= readVarInt();
+            if (count < 0) {
+                throw new IOException("Malformed compact message: count "
+                        + (count & 0xFFFFFFFFL));
+            }
+            return count;
+        }
+
+        String readString() throws IOException {
+            int header= readVarInt();
+            if (header == 0) {
+                return null;
+            }
+            if ((header & 1) == 0) {
+                int index= (header >>> 1) - 1;
+                if (index >= strings_.size()) {
+                    throw new IOException("Malformed compact message: string reference "
+                            + index);
+                }
+                return strings_.get(index);
+            }
+            int length= header >>> 1;
+            if (length > MAX_STRING_LENGTH) {
+                throw new IOException("Malformed compact message: string length "
+                        + length);
+            }
+            String value;
+            if (length <= CHUNK_LENGTH) {
+                byte[] bytes= new byte[length];
+                readFully(bytes, length);
+                value= new String(bytes, "UTF-8");
+            }
+            else {
+                byte[] chunk= new byte[CHUNK_LENGTH];
+                ByteArrayOutputStream bytes= new ByteArrayOutputStream(
+                        CHUNK_LENGTH);
+                for (int remaining= length; remaining > 0;
+                        remaining-= CHUNK_LENGTH) {
+                    int n= Math.min(remaining, CHUNK_LENGTH);
+                    readFully(chunk, n);
+                    bytes.write(chunk, 0, n);
+                }
+                value= bytes.toString("UTF-8");
+            }
+            strings_.add(value);
+            return value;
+        }
+
+        /** Reads the first <code>length</code> bytes of the buffer. */
+        void readFully(byte[] bytes, int length) throws IOException {
+            int off= 0;
+            while (off < length) {
+                int n= in_.read(bytes, off, length - off);
+                if (n < 0) {
+                    throw new EOFException("Truncated compact message");
+                }
+                off+= n;
+            }
+        }
+
+        boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        Request readRequest() throws IOException {
+            Request request= new Request();
+            for (int i= readCount(); i > 0; i--) {
+                Subject subject= new Subject();
+                subject.setCategory(readString());
+                readAttributes(subject.getAttributes());
+                request.getSubjects().add(subject);
+            }
+            for (int i= readCount(); i > 0; i--) {
+                Resource resource= new Resource();
+                resource.setResourceContent(readString());
+                readAttributes(resource.getAttributes());
+                request.getResources().add(resource);
+            }
+            if (readBoolean()) {
+                Action action= new Action();
+                readAttributes(action.getAttributes());
+                request.setAction(action);
+            }
+            if (readBoolean()) {
+                Environment environment= new Environment();
+                readAttributes(environment.getAttributes());
+                request.setEnvironment(environment);
+            }
+            return request;
+        }
+
+        void readAttributes(Collection<Attribute> attributes)
+                throws IOException {
+            for (int i= readCount(); i > 0; i--) {
+                Attribute attribute= new Attribute();
+                attribute.setId(readString());
+                attribute.setDataType(readString());
+                attribute.setIssuer(readString());
+                Collection<Object> values= attribute.getValues();
+                for (int j= readCount(); j > 0; j--) {
+                    values.add(readString());
+                }
+                attributes.add(attribute);
+            }
+        }
+
+        Response readResponse() throws IOException {
+            Response response= new Response();
+            if (readBoolean()) {
+                response.setRequest(readRequest());
+            }
+            for (int i= readCount(); i > 0; i--) {
+                Result result= new Result();
+                result.setDecision(readVarInt());
+                result.setResourceId(readString());
+                if (readBoolean()) {
+                    Status status= new Status();
+                    status.setMessage(readString());
+                    status.setCode(readStatusCode());
+                    result.setStatus(status);
+                }
+                for (int j= readCount(); j > 0; j--) {
+                    Obligation obligation= new Obligation();
+                    obligation.setId(readString());
+                    obligation.setFulfillOn(readVarInt());
+                    for (int k= readCount(); k > 0; k--) {
+                        AttributeAssignment assignment= new AttributeAssignment();
+                        assignment.setAttributeId(readString());
+                        assignment.setDataType(readString());
+                        assignment.setValue(readString());
+                        obligation.getAttributeAssignments().add(assignment);
+                    }
+                    result.getObligations().add(obligation);
+                }
+                response.getResults().add(result);
+            }
+            return response;
+        }
+
+        /**
+         * Reads a status code and its nested subcodes, iteratively and up to
+         * the maximum depth, so a malformed message can not overflow the
+         * stack of the reader or of the model users.
+         */
+        StatusCode readStatusCode() throws IOException {
+            StatusCode top= null;
+            StatusCode parent= null;
+            for (int depth= 1; readBoolean(); depth++) {
+                if (depth > MAX_STATUS_CODE_DEPTH) {
+                    throw new IOException("Malformed compact message: status code depth "
+                            + depth);
+                }
+                StatusCode code= new StatusCode();
+                code.setCode(readString());
+                if (parent == null) {
+                    top= code;
+                }
+                else {
+                    parent.setSubCode(code);
+                }
+                parent= code;
+            }
+            return top;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Hessian 2 wire format, for a PEP daemon supporting it.
+ * <p>
+ * Hessian 2 writes the field names of a class once per message, in a class
+ * definition, and encodes the short strings, integers and lists more
+ * compactly than Hessian 1. The encoder and decoder are created for each
+ * message, Hessian 2 can not reset them, but they share the serializer
+ * factory of the {@link HessianCodec}.
+ */
+public class Hessian2WireCodec implements WireCodec {
+
+    /** Content type of the Hessian 2 messages */
+    public static final String CONTENT_TYPE= "application/x-hessian2";
+
+    /** Content type of the Hessian 2 messages without Base64 armoring */
+    public static final String BINARY_CONTENT_TYPE= "application/x-hessian2-binary";
+
+    /** The shared serializer factory */
+    private final SerializerFactory serializerFactory_;
+
+    /** Constructor. */
+    public Hessian2WireCodec() {
+        this(new HessianCodec());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param codec
+     *            the Hessian codec providing the shared serializer factory
+     */
+    public Hessian2WireCodec(HessianCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("Hessian codec can not be null");
+        }
+        serializerFactory_= codec.getSerializerFactory();
+    }
+
+    /** {@inheritDoc} */
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    public String getBinaryContentType() {
+        return BINARY_CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    public void encodeRequest(Request request, OutputStream out)
+            throws IOException {
+        Hessian2Output output= new Hessian2Output(out);
+        output.setSerializerFactory(serializerFactory_);
+        output.writeObject(request);
+        // writes the internal buffer
+        output.flush();
+    }
+
+    /** {@inheritDoc} */
+    public Response decodeResponse(InputStream in) throws IOException {
+        Hessian2Input input= new Hessian2Input(in);
+        input.setSerializerFactory(serializerFactory_);
+        try {
+            return (Response) input.readObject(Response.class);
+        } catch (ClassCastException e) {
+            throw new IOException("Hessian 2 message is not a "
+                    + Response.class.getName());
+        }
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return "Hessian 2";
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Hessian serialization with a shared {@link SerializerFactory} and reusable
+ * per-thread encoder and decoder.
+ * <p>
+ * A new {@link HessianOutput} or {@link HessianInput} creates its own
+ * serializer factory, and thus looks up again, by reflection, the serializers
+ * of the model classes. The codec shares a single factory, which caches the
+ * serializers and is thread-safe, and each thread reuses its encoder and
+ * decoder, reset before each message.
+ * <p>
+ * The default codec also serializes the model classes with the hand-written
+ * serializers of the {@link ModelSerializerFactory}.
+ * <p>
+ * The codec is thread-safe.
+ */
+public class HessianCodec {
+
+    /** The shared serializer factory */
+    private final SerializerFactory serializerFactory_;
+
+    /** Per-thread Hessian encoder */
+    private final ThreadLocal<HessianOutput> output_= new ThreadLocal<HessianOutput>() {
+        protected HessianOutput initialValue() {
+            HessianOutput output= new HessianOutput();
+            output.setSerializerFactory(serializerFactory_);
+            return output;
+        }
+    };
+
+    /** Per-thread Hessian decoder */
+    private final ThreadLocal<HessianInput> input_= new ThreadLocal<HessianInput>() {
+        protected HessianInput initialValue() {
+            HessianInput input= new HessianInput();
+            input.setSerializerFactory(serializerFactory_);
+            return input;
+        }
+    };
+
+    /**
+     * Constructor. Creates a codec with its own serializer factory, and the
+     * hand-written serializers of the model classes.
+     */
+    public HessianCodec() {
+        this(createSerializerFactory());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param serializerFactory
+     *            the shared serializer factory
+     */
+    public HessianCodec(SerializerFactory serializerFactory) {
+        if (serializerFactory == null) {
+            throw new IllegalArgumentException("Serializer factory can not be null");
+        }
+        serializerFactory_= serializerFactory;
+    }
+
+    /**
+     * Creates a serializer factory with the model serializers.
+     *
+     * @return the serializer factory
+     */
+    private static SerializerFactory createSerializerFactory() {
+        SerializerFactory serializerFactory= new SerializerFactory();
+        serializerFactory.addFactory(new ModelSerializerFactory());
+        return serializerFactory;
+    }
+
+    /**
+     * Serializes the object into the output stream. The stream is flushed but
+     * not closed.
+     *
+     * @param object
+     *            the object to serialize
+     * @param out
+     *            the output stream
+     * @throws IOException
+     *             if the object can not be serialized or written
+     */
+    public void writeObject(Object object, OutputStream out) throws IOException {
+        HessianOutput output= output_.get();
+        // resets the references of the previous message
+        output.init(out);
+        try {
+            output.writeObject(object);
+            output.flush();
+        } finally {
+            // doesn't retain the stream
+            output.init(null);
+        }
+    }
+
+    /**
+     * Deserializes an object of the expected type from the input stream. The
+     * stream is not closed.
+     *
+     * @param in
+     *            the input stream
+     * @param type
+     *            the expected type
+     * @return the deserialized object
+     * @throws IOException
+     *             if the object can not be read or deserialized
+     */
+    public <T> T readObject(InputStream in, Class<T> type) throws IOException {
+        HessianInput input= input_.get();
+        // resets the references of the previous message
+        input.init(in);
+        try {
+            return type.cast(input.readObject(type));
+        } catch (ClassCastException e) {
+            throw new IOException("Hessian message is not a " + type.getName());
+        } finally {
+            // doesn't retain the stream
+            input.init(null);
+        }
+    }
+
+    /**
+     * Returns the shared serializer factory.
+     *
+     * @return the serializer factory
+     */
+    public SerializerFactory getSerializerFactory() {
+        return serializerFactory_;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+
+/**
+ * Hessian 1 wire format, the native format of the PEP daemon.
+ */
+public class HessianWireCodec implements WireCodec {
+
+    /** Content type of the Hessian messages */
+    public static final String CONTENT_TYPE= "application/octet-stream";
+
+    /** Content type of the Hessian messages without Base64 armoring */
+    public static final String BINARY_CONTENT_TYPE= "application/x-hessian";
+
+    /** The Hessian serialization */
+    private final HessianCodec codec_;
+
+    /** Constructor. */
+    public HessianWireCodec() {
+        this(new HessianCodec());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param codec
+     *            the Hessian serialization
+     */
+    public HessianWireCodec(HessianCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("Hessian codec can not be null");
+        }
+        codec_= codec;
+    }
+
+    /** {@inheritDoc} */
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    public String getBinaryContentType() {
+        return BINARY_CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    public void encodeRequest(Request request, OutputStream out)
+            throws IOException {
+        codec_.writeObject(request, out);
+    }
+
+    /** {@inheritDoc} */
+    public Response decodeResponse(InputStream in) throws IOException {
+        return codec_.readObject(in, Response.class);
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return "Hessian";
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.caucho.hessian.io.AbstractDeserializer;
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.HessianFieldException;
+import com.caucho.hessian.io.JavaDeserializer;
+
+/**
+ * Hessian deserializer of a model class, using its hand-written accessors.
+ * <p>
+ * Like the reflective {@link JavaDeserializer}, the unknown fields are read
+ * and ignored.
+ *
+ * @param <T>
+ *            the model class
+ */
+final class ModelDeserializer<T> extends AbstractDeserializer {
+
+    /** The model type */
+    private final ModelType<T> type_;
+
+    /** The deserialized properties, by field name */
+    private final Map<String, ModelProperty> properties_= new HashMap<String, ModelProperty>();
+
+    /**
+     * Constructor.
+     *
+     * @param type
+     *            the model type
+     * @param properties
+     *            the deserialized properties
+     */
+    ModelDeserializer(ModelType<T> type, ModelProperty[] properties) {
+        type_= type;
+        for (ModelProperty property : properties) {
+            properties_.put(property.getName(), property);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public Class<?> getType() {
+        return type_.getType();
+    }
+
+    /** {@inheritDoc} */
+    public Object readMap(AbstractHessianInput in) throws IOException {
+        // Hessian 1: map of the fields
+        T bean= type_.newInstance();
+        in.addRef(bean);
+        while (!in.isEnd()) {
+            readProperty(in, bean, in.readObject());
+        }
+        in.readMapEnd();
+        return bean;
+    }
+
+    /** {@inheritDoc} */
+    public Object readObject(AbstractHessianInput in, String[] fieldNames)
+            throws IOException {
+        // Hessian 2: instance of a class definition
+        T bean= type_.newInstance();
+        in.addRef(bean);
+        for (String fieldName : fieldNames) {
+            readProperty(in, bean, fieldName);
+        }
+        return bean;
+    }
+
+    /**
+     * Reads a field value, and sets the property or ignores the unknown field.
+     *
+     * @param in
+     *            the Hessian input
+     * @param bean
+     *            the model object
+     * @param fieldName
+     *            the field name
+     * @throws IOException
+     *             if the value can not be read or set
+     */
+    private void readProperty(AbstractHessianInput in, T bean, Object fieldName)
+            throws IOException {
+        ModelProperty property= properties_.get(fieldName);
+        if (property == null) {
+            in.readObject();
+            return;
+        }
+        Object value= property.read(in);
+        try {
+            type_.set(bean, property.getIndex(), value);
+        } catch (RuntimeException e) {
+            throw new HessianFieldException(type_.getType().getName() + "."
+                    + property.getName() + ": can not set value " + value, e);
+        }
+    }
+}
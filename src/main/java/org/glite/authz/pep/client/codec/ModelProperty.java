@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.IOException;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.AbstractHessianOutput;
+
+/**
+ * A serialized property of a model class: its field name, its index in the
+ * {@link ModelType}, and the Hessian encoding of its value, which is the one
+ * the reflective Hessian serializer uses for the field type.
+ */
+final class ModelProperty {
+
+    /** boolean field, {@link AbstractHessianOutput#writeBoolean(boolean)} */
+    static final int BOOLEAN= 0;
+
+    /** int field, {@link AbstractHessianOutput#writeInt(int)} */
+    static final int INT= 1;
+
+    /** long field, {@link AbstractHessianOutput#writeLong(long)} */
+    static final int LONG= 2;
+
+    /** double field, {@link AbstractHessianOutput#writeDouble(double)} */
+    static final int DOUBLE= 3;
+
+    /** String field, {@link AbstractHessianOutput#writeString(String)} */
+    static final int STRING= 4;
+
+    /** Object field, {@link AbstractHessianOutput#writeObject(Object)} */
+    static final int OBJECT= 5;
+
+    /** The field name */
+    private final String name_;
+
+    /** The property index in the model type */
+    private final int index_;
+
+    /** The field type */
+    private final Class<?> type_;
+
+    /** The value encoding */
+    private final int kind_;
+
+    /**
+     * Constructor.
+     *
+     * @param name
+     *            the field name
+     * @param index
+     *            the property index in the model type
+     * @param type
+     *            the field type
+     * @param kind
+     *            the value encoding, see {@link #kindOf(Class)}
+     */
+    ModelProperty(String name, int index, Class<?> type, int kind) {
+        name_= name;
+        index_= index;
+        type_= type;
+        kind_= kind;
+    }
+
+    /**
+     * Returns the value encoding of a field type.
+     *
+     * @param type
+     *            the field type
+     * @return the value encoding, or -1 if the field type is not supported
+     */
+    static int kindOf(Class<?> type) {
+        if (type == boolean.class) {
+            return BOOLEAN;
+        }
+        if (type == int.class) {
+            return INT;
+        }
+        if (type == long.class) {
+            return LONG;
+        }
+        if (type == double.class) {
+            return DOUBLE;
+        }
+        if (type == String.class) {
+            return STRING;
+        }
+        if (type.isPrimitive()) {
+            // byte, short, char and float are narrowed on read
+            return -1;
+        }
+        return OBJECT;
+    }
+
+    /**
+     * Returns the field name.
+     *
+     * @return the field name
+     */
+    String getName() {
+        return name_;
+    }
+
+    /**
+     * Returns the property index in the model type.
+     *
+     * @return the property index
+     */
+    int getIndex() {
+        return index_;
+    }
+
+    /**
+     * Writes the property value.
+     *
+     * @param out
+     *            the Hessian output
+     * @param value
+     *            the property value, primitives are boxed
+     * @throws IOException
+     *             if the value can not be written
+     */
+    void write(AbstractHessianOutput out, Object value) throws IOException {
+        switch (kind_) {
+        case BOOLEAN:
+            out.writeBoolean(((Boolean) value).booleanValue());
+            break;
+        case INT:
+            out.writeInt(((Integer) value).intValue());
+            break;
+        case LONG:
+            out.writeLong(((Long) value).longValue());
+            break;
+        case DOUBLE:
+            out.writeDouble(((Double) value).doubleValue());
+            break;
+        case STRING:
+            out.writeString((String) value);
+            break;
+        default:
+            out.writeObject(value);
+        }
+    }
+
+    /**
+     * Reads the property value.
+     *
+     * @param in
+     *            the Hessian input
+     * @return the property value, primitives are boxed
+     * @throws IOException
+     *             if the value can not be read
+     */
+    Object read(AbstractHessianInput in) throws IOException {
+        switch (kind_) {
+        case BOOLEAN:
+            return Boolean.valueOf(in.readBoolean());
+        case INT:
+            return Integer.valueOf(in.readInt());
+        case LONG:
+            return Long.valueOf(in.readLong());
+        case DOUBLE:
+            return Double.valueOf(in.readDouble());
+        case STRING:
+            return in.readString();
+        default:
+            return in.readObject(type_);
+        }
+    }
+}
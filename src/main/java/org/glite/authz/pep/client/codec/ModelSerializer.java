@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.IOException;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.AbstractSerializer;
+import com.caucho.hessian.io.JavaSerializer;
+
+/**
+ * Hessian serializer of a model class, using its hand-written accessors.
+ * <p>
+ * The serializer writes the same sequence as the reflective
+ * {@link JavaSerializer}: a map (Hessian 1) or an object definition and
+ * instance (Hessian 2) with the fields in the reflective order.
+ *
+ * @param <T>
+ *            the model class
+ */
+final class ModelSerializer<T> extends AbstractSerializer {
+
+    /** The model type */
+    private final ModelType<T> type_;
+
+    /** The serialized properties, in field order */
+    private final ModelProperty[] properties_;
+
+    /**
+     * Constructor.
+     *
+     * @param type
+     *            the model type
+     * @param properties
+     *            the serialized properties, in field order
+     */
+    ModelSerializer(ModelType<T> type, ModelProperty[] properties) {
+        type_= type;
+        properties_= properties;
+    }
+
+    /** {@inheritDoc} */
+    public void writeObject(Object obj, AbstractHessianOutput out)
+            throws IOException {
+        if (out.addRef(obj)) {
+            return;
+        }
+        T bean= type_.getType().cast(obj);
+        String className= type_.getType().getName();
+        int ref= out.writeObjectBegin(className);
+        if (ref < -1) {
+            // Hessian 1: map of the fields
+            for (ModelProperty property : properties_) {
+                out.writeString(property.getName());
+                property.write(out, type_.get(bean, property.getIndex()));
+            }
+            out.writeMapEnd();
+            return;
+        }
+        if (ref == -1) {
+            // Hessian 2: first instance, writes the class definition
+            out.writeClassFieldLength(properties_.length);
+            for (ModelProperty property : properties_) {
+                out.writeString(property.getName());
+            }
+            out.writeObjectBegin(className);
+        }
+        for (ModelProperty property : properties_) {
+            property.write(out, type_.get(bean, property.getIndex()));
+        }
+    }
+}
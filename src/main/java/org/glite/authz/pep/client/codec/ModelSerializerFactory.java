@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.caucho.hessian.io.AbstractSerializerFactory;
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.JavaSerializer;
+import com.caucho.hessian.io.Serializer;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * Hessian serializer factory of the authorization request and response model
+ * classes, to add to a {@link SerializerFactory}.
+ * <p>
+ * The serializers and deserializers access the model objects with
+ * hand-written accessors instead of reflection, and produce the same bytes
+ * as the reflective serializers. The field order of each class is computed
+ * once, with the same rules as the reflective {@link JavaSerializer}. A class
+ * with a field without accessor, or a field type not supported, is left to
+ * the reflective serializers.
+ */
+public class ModelSerializerFactory extends AbstractSerializerFactory {
+
+    /** Logging */
+    private final Log log= LogFactory.getLog(ModelSerializerFactory.class);
+
+    /** The serializers by model class */
+    private final Map<Class<?>, Serializer> serializers_= new HashMap<Class<?>, Serializer>();
+
+    /** The deserializers by model class */
+    private final Map<Class<?>, Deserializer> deserializers_= new HashMap<Class<?>, Deserializer>();
+
+    /** Constructor. */
+    public ModelSerializerFactory() {
+        for (ModelType<?> type : ModelTypes.getTypes()) {
+            register(type);
+        }
+    }
+
+    /**
+     * Creates and registers the serializer and deserializer of a model type,
+     * if its fields are all supported.
+     *
+     * @param type
+     *            the model type
+     */
+    private <T> void register(ModelType<T> type) {
+        ModelProperty[] properties= getProperties(type);
+        if (properties == null) {
+            log.debug("Using reflective Hessian serializer for "
+                    + type.getType().getName());
+            return;
+        }
+        serializers_.put(type.getType(),
+                         new ModelSerializer<T>(type, properties));
+        deserializers_.put(type.getType(),
+                           new ModelDeserializer<T>(type, properties));
+    }
+
+    /**
+     * Returns the serialized properties of a model type, in the field order of
+     * the reflective {@link JavaSerializer}: the primitive and
+     * <code>java.lang</code> fields, then the other fields, each from the
+     * class up to its superclasses.
+     *
+     * @param type
+     *            the model type
+     * @return the serialized properties, or <code>null</code> if a field is
+     *         not supported
+     */
+    private ModelProperty[] getProperties(ModelType<?> type) {
+        Class<?> cl= type.getType();
+        if (hasMethod(cl, "writeReplace") || hasMethod(cl, "readResolve")) {
+            return null;
+        }
+        List<ModelProperty> primitiveProperties= new ArrayList<ModelProperty>();
+        List<ModelProperty> compoundProperties= new ArrayList<ModelProperty>();
+        Set<String> names= new HashSet<String>();
+        for (; cl != null; cl= cl.getSuperclass()) {
+            for (Field field : cl.getDeclaredFields()) {
+                int modifiers= field.getModifiers();
+                if (Modifier.isTransient(modifiers)
+                        || Modifier.isStatic(modifiers)) {
+                    continue;
+                }
+                String name= field.getName();
+                Class<?> fieldType= field.getType();
+                int index= type.indexOf(name);
+                int kind= ModelProperty.kindOf(fieldType);
+                if (index < 0 || kind < 0 || !names.add(name)) {
+                    log.debug("Unsupported field " + cl.getName() + "." + name);
+                    return null;
+                }
+                ModelProperty property= new ModelProperty(name, index, fieldType, kind);
+                if (fieldType.isPrimitive()
+                        || (fieldType.getName().startsWith("java.lang.") && !fieldType.equals(Object.class))) {
+                    primitiveProperties.add(property);
+                } else {
+                    compoundProperties.add(property);
+                }
+            }
+        }
+        List<ModelProperty> properties= new ArrayList<ModelProperty>(primitiveProperties);
+        properties.addAll(compoundProperties);
+        return properties.toArray(new ModelProperty[properties.size()]);
+    }
+
+    /**
+     * Checks if the class, or a superclass, declares a method.
+     *
+     * @param cl
+     *            the class
+     * @param name
+     *            the method name
+     * @return <code>true</code> if the method is declared
+     */
+    private static boolean hasMethod(Class<?> cl, String name) {
+        for (; cl != null; cl= cl.getSuperclass()) {
+            for (Method method : cl.getDeclaredMethods()) {
+                if (method.getName().equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the model class has a hand-written serializer.
+     *
+     * @param cl
+     *            the model class
+     * @return <code>true</code> if the class is handled by this factory
+     */
+    public boolean isSupported(Class<?> cl) {
+        return serializers_.containsKey(cl);
+    }
+
+    /** {@inheritDoc} */
+    // raw parameter of the Hessian method, Class<?> would not override it
+    @SuppressWarnings("rawtypes")
+    public Serializer getSerializer(Class cl) {
+        return serializers_.get(cl);
+    }
+
+    /** {@inheritDoc} */
+    // raw parameter of the Hessian method, Class<?> would not override it
+    @SuppressWarnings("rawtypes")
+    public Deserializer getDeserializer(Class cl) {
+        return deserializers_.get(cl);
+    }
+}
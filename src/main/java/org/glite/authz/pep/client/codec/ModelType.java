@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Hand-written accessors of a model class: creates the instances, and reads
+ * and writes the serialized properties without reflection.
+ * <p>
+ * A property is identified by its index in the property names given to the
+ * constructor. The property names are the names of the serialized fields.
+ *
+ * @param <T>
+ *            the model class
+ */
+abstract class ModelType<T> {
+
+    /** The model class */
+    private final Class<T> type_;
+
+    /** The property names */
+    private final List<String> properties_;
+
+    /**
+     * Constructor.
+     *
+     * @param type
+     *            the model class
+     * @param properties
+     *            the property names, in index order
+     */
+    ModelType(Class<T> type, String... properties) {
+        type_= type;
+        properties_= Arrays.asList(properties);
+    }
+
+    /**
+     * Returns the model class.
+     *
+     * @return the model class
+     */
+    Class<T> getType() {
+        return type_;
+    }
+
+    /**
+     * Returns the index of a property.
+     *
+     * @param name
+     *            the property name
+     * @return the property index, or -1 if the property is unknown
+     */
+    int indexOf(String name) {
+        return properties_.indexOf(name);
+    }
+
+    /**
+     * Creates a new empty instance of the model class.
+     *
+     * @return the new instance
+     */
+    abstract T newInstance();
+
+    /**
+     * Returns the value of a property.
+     *
+     * @param bean
+     *            the model object
+     * @param property
+     *            the property index
+     * @return the property value, primitives are boxed
+     */
+    abstract Object get(T bean, int property);
+
+    /**
+     * Sets the value of a property.
+     *
+     * @param bean
+     *            the model object
+     * @param property
+     *            the property index
+     * @param value
+     *            the property value, primitives are boxed
+     */
+    abstract void set(T bean, int property, Object value);
+
+    /**
+     * Replaces the content of a model collection, which has no setter.
+     *
+     * @param collection
+     *            the model collection
+     * @param value
+     *            the deserialized collection, or <code>null</code>
+     */
+    @SuppressWarnings("unchecked")
+    static <E> void replace(Collection<E> collection, Object value) {
+        collection.clear();
+        if (value != null) {
+            collection.addAll((Collection<E>) value);
+        }
+    }
+
+    /**
+     * Returns the unboxed int value.
+     *
+     * @param value
+     *            the boxed value, <code>null</code> is 0
+     * @return the int value
+     */
+    static int intValue(Object value) {
+        return value == null ? 0 : ((Integer) value).intValue();
+    }
+}
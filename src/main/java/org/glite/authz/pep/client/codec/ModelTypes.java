@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * The hand-written accessors of the authorization request and response model
+ * classes.
+ */
+final class ModelTypes {
+
+    /** The model types */
+    private static final List<ModelType<?>> TYPES;
+
+    static {
+        List<ModelType<?>> types= new ArrayList<ModelType<?>>();
+        types.add(new ModelType<Request>(Request.class, "subjects", "resources", "action", "environment") {
+            Request newInstance() {
+                return new Request();
+            }
+
+            Object get(Request request, int property) {
+                switch (property) {
+                case 0:
+                    return request.getSubjects();
+                case 1:
+                    return request.getResources();
+                case 2:
+                    return request.getAction();
+                default:
+                    return request.getEnvironment();
+                }
+            }
+
+            void set(Request request, int property, Object value) {
+                switch (property) {
+                case 0:
+                    replace(request.getSubjects(), value);
+                    break;
+                case 1:
+                    replace(request.getResources(), value);
+                    break;
+                case 2:
+                    request.setAction((Action) value);
+                    break;
+                default:
+                    request.setEnvironment((Environment) value);
+                }
+            }
+        });
+        types.add(new ModelType<Subject>(Subject.class, "category", "attributes") {
+            Subject newInstance() {
+                return new Subject();
+            }
+
+            Object get(Subject subject, int property) {
+                return property == 0 ? subject.getCategory()
+                        : subject.getAttributes();
+            }
+
+            void set(Subject subject, int property, Object value) {
+                if (property == 0) {
+                    subject.setCategory((String) value);
+                } else {
+                    replace(subject.getAttributes(), value);
+                }
+            }
+        });
+        types.add(new ModelType<Resource>(Resource.class, "resourceContent", "attributes") {
+            Resource newInstance() {
+                return new Resource();
+            }
+
+            Object get(Resource resource, int property) {
+                return property == 0 ? resource.getResourceContent()
+                        : resource.getAttributes();
+            }
+
+            void set(Resource resource, int property, Object value) {
+                if (property == 0) {
+                    resource.setResourceContent((String) value);
+                } else {
+                    replace(resource.getAttributes(), value);
+                }
+            }
+        });
+        types.add(new ModelType<Action>(Action.class, "attributes") {
+            Action newInstance() {
+                return new Action();
+            }
+
+            Object get(Action action, int property) {
+                return action.getAttributes();
+            }
+
+            void set(Action action, int property, Object value) {
+                replace(action.getAttributes(), value);
+            }
+        });
+        types.add(new ModelType<Environment>(Environment.class, "attributes") {
+            Environment newInstance() {
+                return new Environment();
+            }
+
+            Object get(Environment environment, int property) {
+                return environment.getAttributes();
+            }
+
+            void set(Environment environment, int property, Object value) {
+                replace(environment.getAttributes(), value);
+            }
+        });
+        types.add(new ModelType<Attribute>(Attribute.class, "id", "dataType", "issuer", "values") {
+            Attribute newInstance() {
+                return new Attribute();
+            }
+
+            Object get(Attribute attribute, int property) {
+                switch (property) {
+                case 0:
+                    return attribute.getId();
+                case 1:
+                    return attribute.getDataType();
+                case 2:
+                    return attribute.getIssuer();
+                default:
+                    return attribute.getValues();
+                }
+            }
+
+            void set(Attribute attribute, int property, Object value) {
+                switch (property) {
+                case 0:
+                    attribute.setId((String) value);
+                    break;
+                case 1:
+                    attribute.setDataType((String) value);
+                    break;
+                case 2:
+                    attribute.setIssuer((String) value);
+                    break;
+                default:
+                    replace(attribute.getValues(), value);
+                }
+            }
+        });
+        types.add(new ModelType<Response>(Response.class, "request", "results") {
+            Response newInstance() {
+                return new Response();
+            }
+
+            Object get(Response response, int property) {
+                return property == 0 ? response.getRequest()
+                        : response.getResults();
+            }
+
+            void set(Response response, int property, Object value) {
+                if (property == 0) {
+                    response.setRequest((Request) value);
+                } else {
+                    replace(response.getResults(), value);
+                }
+            }
+        });
+        types.add(new ModelType<Result>(Result.class, "decision", "resourceId", "status", "obligations") {
+            Result newInstance() {
+                return new Result();
+            }
+
+            Object get(Result result, int property) {
+                switch (property) {
+                case 0:
+                    return Integer.valueOf(result.getDecision());
+                case 1:
+                    return result.getResourceId();
+                case 2:
+                    return result.getStatus();
+                default:
+                    return result.getObligations();
+                }
+            }
+
+            void set(Result result, int property, Object value) {
+                switch (property) {
+                case 0:
+                    result.setDecision(intValue(value));
+                    break;
+                case 1:
+                    result.setResourceId((String) value);
+                    break;
+                case 2:
+                    result.setStatus((Status) value);
+                    break;
+                default:
+                    replace(result.getObligations(), value);
+                }
+            }
+        });
+        types.add(new ModelType<Status>(Status.class, "message", "code") {
+            Status newInstance() {
+                return new Status();
+            }
+
+            Object get(Status status, int property) {
+                return property == 0 ? status.getMessage() : status.getCode();
+            }
+
+            void set(Status status, int property, Object value) {
+                if (property == 0) {
+                    status.setMessage((String) value);
+                } else {
+                    status.setCode((StatusCode) value);
+                }
+            }
+        });
+        types.add(new ModelType<StatusCode>(StatusCode.class, "code", "subCode") {
+            StatusCode newInstance() {
+                return new StatusCode();
+            }
+
+            Object get(StatusCode statusCode, int property) {
+                return property == 0 ? statusCode.getCode()
+                        : statusCode.getSubCode();
+            }
+
+            void set(StatusCode statusCode, int property, Object value) {
+                if (property == 0) {
+                    statusCode.setCode((String) value);
+                } else {
+                    statusCode.setSubCode((StatusCode) value);
+                }
+            }
+        });
+        types.add(new ModelType<Obligation>(Obligation.class, "id", "fulfillOn", "attributeAssignments") {
+            Obligation newInstance() {
+                return new Obligation();
+            }
+
+            Object get(Obligation obligation, int property) {
+                switch (property) {
+                case 0:
+                    return obligation.getId();
+                case 1:
+                    return Integer.valueOf(obligation.getFulfillOn());
+                default:
+                    return obligation.getAttributeAssignments();
+                }
+            }
+
+            void set(Obligation obligation, int property, Object value) {
+                switch (property) {
+                case 0:
+                    obligation.setId((String) value);
+                    break;
+                case 1:
+                    obligation.setFulfillOn(intValue(value));
+                    break;
+                default:
+                    replace(obligation.getAttributeAssignments(), value);
+                }
+            }
+        });
+        types.add(new ModelType<AttributeAssignment>(AttributeAssignment.class, "attributeId", "dataType", "value") {
+            AttributeAssignment newInstance() {
+                return new AttributeAssignment();
+            }
+
+            Object get(AttributeAssignment assignment, int property) {
+                switch (property) {
+                case 0:
+                    return assignment.getAttributeId();
+                case 1:
+                    return assignment.getDataType();
+                default:
+                    return assignment.getValue();
+                }
+            }
+
+            void set(AttributeAssignment assignment, int property, Object value) {
+                switch (property) {
+                case 0:
+                    assignment.setAttributeId((String) value);
+                    break;
+                case 1:
+                    assignment.setDataType((String) value);
+                    break;
+                default:
+                    assignment.setValue((String) value);
+                }
+            }
+        });
+        TYPES= Collections.unmodifiableList(types);
+    }
+
+    /** Prevents instantiation */
+    private ModelTypes() {
+    }
+
+    /**
+     * Returns the hand-written accessors of the model classes.
+     *
+     * @return the model types
+     */
+    static List<ModelType<?>> getTypes() {
+        return TYPES;
+    }
+}
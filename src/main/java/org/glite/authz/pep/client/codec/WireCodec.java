@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+
+/**
+ * Wire format of the authorization request and response messages exchanged
+ * with a PEP daemon.
+ * <p>
+ * The codec only serializes the messages, the PEP client Base64 encodes them
+ * in the HTTP body, or sends them as is with the binary content type when the
+ * binary transport is enabled. Implementations must be thread-safe.
+ */
+public interface WireCodec {
+
+    /**
+     * Returns the content type of the HTTP request, identifying the wire
+     * format to the PEP daemon.
+     *
+     * @return the content type
+     */
+    public String getContentType();
+
+    /**
+     * Returns the content type of the HTTP request and response when the
+     * message is sent without Base64 armoring. It must differ from the
+     * {@link #getContentType()}.
+     *
+     * @return the binary content type
+     */
+    public String getBinaryContentType();
+
+    /**
+     * Serializes the authorization request into the output stream. The stream
+     * is not closed.
+     *
+     * @param request
+     *            the authorization request
+     * @param out
+     *            the output stream
+     * @throws IOException
+     *             if the request can not be serialized or written
+     */
+    public void encodeRequest(Request request, OutputStream out)
+            throws IOException;
+
+    /**
+     * Deserializes the authorization response from the input stream. The
+     * stream is not closed.
+     *
+     * @param in
+     *            the input stream
+     * @return the authorization response
+     * @throws IOException
+     *             if the response can not be read or deserialized
+     */
+    public Response decodeResponse(InputStream in) throws IOException;
+
+}
@@ -25,14 +25,25 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.glite.authz.pep.client.balancer.EndpointSelector;
+import org.glite.authz.pep.client.balancer.FailoverEndpointSelector;
+import org.glite.authz.pep.client.codec.HessianWireCodec;
+import org.glite.authz.pep.client.codec.WireCodec;
+import org.glite.authz.pep.client.http.CachingX509TrustManager;
+import org.glite.authz.pep.client.http.PerHostHttpConnectionManager;
+import org.glite.authz.pep.client.http.TLSProfile;
 import org.glite.authz.pep.obligation.ObligationHandler;
 import org.glite.authz.pep.pip.PolicyInformationPoint;
 
@@ -55,6 +66,18 @@ public class PEPClientConfiguration {
     /** Registered PEP daemon endpoints. */
     private List<String> pepdEndpoints_;
 
+    /** Weights of the PEP daemon endpoints. */
+    private Map<String, Integer> pepdEndpointWeights_;
+
+    /** Strategy selecting the PEP daemon endpoint receiving a request. */
+    private EndpointSelector endpointSelector_= new FailoverEndpointSelector();
+
+    /** Default wire codec of the PEP daemon endpoints. */
+    private WireCodec wireCodec_= new HessianWireCodec();
+
+    /** Wire codecs of the PEP daemon endpoints not using the default codec. */
+    private Map<String, WireCodec> pepdEndpointWireCodecs_;
+
     /** Registered {@link PolicyInformationPoint}s. */
     private List<PolicyInformationPoint> pips_;
 
@@ -72,15 +95,136 @@ public class PEPClientConfiguration {
      */
     private int connectionTimeout_= 5000;
 
+    /**
+     * HTTP socket read timeout in millis, <code>0</code> is no timeout.
+     */
+    private int socketTimeout_= 30000;
+
     /** Max connections per host for the multi-threaded Http client */
     private int maxConnectionsPerHost_= 5;
 
     /** Max total number of connections for the multi-threaded Http client */
     private int maxTotalConnections_= 20;
 
+    /** Pool the connections of each host separately */
+    private boolean perHostConnectionPool_= false;
+
+    /**
+     * Max number of responses in the client-side decision cache,
+     * <code>0</code> disables the cache.
+     */
+    private int decisionCacheSize_= 0;
+
+    /** Time-to-live in millis of a cached Permit decision */
+    private int decisionCachePermitTTL_= 60000;
+
+    /** Time-to-live in millis of a cached Deny decision */
+    private int decisionCacheDenyTTL_= 60000;
+
+    /** Time-to-live in millis of a cached NotApplicable decision */
+    private int decisionCacheNotApplicableTTL_= 60000;
+
+    /** Coalesce concurrent identical requests into a single PEP daemon call */
+    private boolean requestCoalescing_= false;
+
+    /** Executor running the asynchronous authorizations */
+    private Executor asyncExecutor_= null;
+
+    /** Number of threads of the default asynchronous authorizations executor */
+    private int asyncThreads_= 10;
+
+    /** Virtual thread mode, the threads started by the client are virtual */
+    private boolean virtualThreads_= false;
+
+    /**
+     * Number of consecutive failures opening the circuit of a PEP daemon
+     * endpoint, <code>0</code> disables the circuit breakers.
+     */
+    private int circuitBreakerFailureThreshold_= 0;
+
+    /** Cool-down in millis before probing again an endpoint with open circuit */
+    private int circuitBreakerCoolDown_= 30000;
+
+    /**
+     * Delay in millis before a hedged request is sent to the next PEP daemon
+     * endpoint, <code>0</code> disables the hedging.
+     */
+    private int hedgeDelay_= 0;
+
+    /** Maximum ratio of the requests which can be hedged */
+    private float maxHedgeRate_= 0.1f;
+
+    /**
+     * Default timeout in millis of an authorization call, <code>0</code> is
+     * no timeout.
+     */
+    private int authorizationTimeout_= 0;
+
+    /**
+     * Send the messages without Base64 armoring to the PEP daemon endpoints
+     * supporting it.
+     */
+    private boolean binaryTransport_= false;
+
+    /** Compression of the requests */
+    private RequestCompression requestCompression_= RequestCompression.NONE;
+
+    /** Minimum size in bytes of a serialized request to compress it */
+    private int compressionThreshold_= 1024;
+
+    /** Number of connections opened per PEP daemon endpoint at startup */
+    private int warmupConnections_= 0;
+
+    /** Minimum number of idle connections kept per PEP daemon endpoint */
+    private int minIdleConnections_= 0;
+
+    /**
+     * Maximum idle time in millis of a pooled connection, <code>0</code> is
+     * no limit.
+     */
+    private int maxIdleTime_= 0;
+
+    /** Interval in millis of the connection pool maintenance */
+    private int connectionMaintenanceInterval_= 10000;
+
+    /**
+     * Max number of cached TLS client sessions, <code>0</code> is unlimited
+     * and <code>-1</code> the JSSE default.
+     */
+    private int tlsSessionCacheSize_= -1;
+
+    /**
+     * Timeout in seconds of the cached TLS client sessions, <code>0</code>
+     * is unlimited and <code>-1</code> the JSSE default.
+     */
+    private int tlsSessionTimeout_= -1;
+
+    /**
+     * TLS protocols, cipher suites and JSSE provider, <code>null</code> for
+     * the JSSE defaults.
+     */
+    private TLSProfile tlsProfile_= null;
+
+    /**
+     * Time-to-live in millis of a cached server certificate chain validation,
+     * <code>0</code> disables the cache.
+     */
+    private int trustCacheTTL_= 0;
+
+    /** HTTP transport sending the requests */
+    private TransportType transportType_= TransportType.HTTPCLIENT;
+
+    /** Maximum number of concurrent HTTP/2 streams per connection */
+    private int http2MaxConcurrentStreams_= 100;
+
+    /** HTTP/2 flow control window in bytes of a stream for the responses */
+    private int http2StreamWindowSize_= 1024 * 1024;
+
     /** Default constructor. */
     public PEPClientConfiguration() {
         pepdEndpoints_= new ArrayList<String>();
+        pepdEndpointWeights_= new HashMap<String, Integer>();
+        pepdEndpointWireCodecs_= new HashMap<String, WireCodec>();
         pips_= new ArrayList<PolicyInformationPoint>();
         obligationHandlers_= new ArrayList<ObligationHandler>();
     }
@@ -101,7 +245,121 @@ public class PEPClientConfiguration {
      *            PEP daemon endpoint url to add
      */
     public void addPEPDaemonEndpoint(String endpoint) {
+        addPEPDaemonEndpoint(endpoint, 1);
+    }
+
+    /**
+     * Adds a PEP daemon endpoint URL with a weight, used by the
+     * {@link org.glite.authz.pep.client.balancer.WeightedEndpointSelector}.
+     * 
+     * @param endpoint
+     *            PEP daemon endpoint url to add
+     * @param weight
+     *            the endpoint weight, must be greater than zero
+     */
+    public void addPEPDaemonEndpoint(String endpoint, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Endpoint weight must be greater than zero");
+        }
         pepdEndpoints_.add(endpoint);
+        pepdEndpointWeights_.put(endpoint, weight);
+    }
+
+    /**
+     * Gets the weight of a PEP daemon endpoint. Default is <code>1</code>.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint url
+     * @return the endpoint weight
+     */
+    public int getPEPDaemonEndpointWeight(String endpoint) {
+        Integer weight= pepdEndpointWeights_.get(endpoint);
+        return weight == null ? 1 : weight.intValue();
+    }
+
+    /**
+     * Gets the default wire codec of the PEP daemon endpoints. Default is the
+     * {@link HessianWireCodec}, the native format of the PEP daemon.
+     * 
+     * @return the default wire codec
+     */
+    public WireCodec getWireCodec() {
+        return wireCodec_;
+    }
+
+    /**
+     * Sets the default wire codec of the PEP daemon endpoints.
+     * 
+     * @param codec
+     *            the default wire codec
+     * @see org.glite.authz.pep.client.codec.Hessian2WireCodec
+     * @see org.glite.authz.pep.client.codec.CompactWireCodec
+     */
+    public void setWireCodec(WireCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("Wire codec can not be null");
+        }
+        wireCodec_= codec;
+    }
+
+    /**
+     * Gets the wire codec of a PEP daemon endpoint.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint url
+     * @return the endpoint wire codec, or the default wire codec if none is
+     *         set for the endpoint
+     */
+    public WireCodec getPEPDaemonEndpointWireCodec(String endpoint) {
+        WireCodec codec= pepdEndpointWireCodecs_.get(endpoint);
+        return codec == null ? wireCodec_ : codec;
+    }
+
+    /**
+     * Sets the wire codec of a PEP daemon endpoint, which must support it.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint url
+     * @param codec
+     *            the endpoint wire codec, or <code>null</code> to use the
+     *            default wire codec
+     */
+    public void setPEPDaemonEndpointWireCodec(String endpoint, WireCodec codec) {
+        if (codec == null) {
+            pepdEndpointWireCodecs_.remove(endpoint);
+        }
+        else {
+            pepdEndpointWireCodecs_.put(endpoint, codec);
+        }
+    }
+
+    /**
+     * Gets the strategy selecting the PEP daemon endpoint receiving a
+     * request. Default is the {@link FailoverEndpointSelector}, the endpoints
+     * are tried in order.
+     * 
+     * @return the endpoint selector
+     */
+    public EndpointSelector getEndpointSelector() {
+        return endpointSelector_;
+    }
+
+    /**
+     * Sets the strategy selecting the PEP daemon endpoint receiving a
+     * request. The other endpoints are used for the failover.
+     * 
+     * @param selector
+     *            the endpoint selector
+     * @see org.glite.authz.pep.client.balancer.RoundRobinEndpointSelector
+     * @see org.glite.authz.pep.client.balancer.WeightedEndpointSelector
+     * @see org.glite.authz.pep.client.balancer.LeastOutstandingEndpointSelector
+     * @see org.glite.authz.pep.client.balancer.LatencyEndpointSelector
+     */
+    public void setEndpointSelector(EndpointSelector selector) {
+        if (selector == null) {
+            throw new IllegalArgumentException("Endpoint selector can not be null");
+        }
+        endpointSelector_= selector;
     }
 
     /**
@@ -167,6 +425,31 @@ public class PEPClientConfiguration {
         connectionTimeout_= timeout;
     }
 
+    /**
+     * Returns the HTTP socket read timeout in millis, that is the maximum
+     * time waiting for data from the PEP daemon. Default is
+     * <code>30000</code> milliseconds.
+     * 
+     * @return the socket read timeout
+     */
+    public int getSocketTimeout() {
+        return socketTimeout_;
+    }
+
+    /**
+     * Sets the HTTP socket read timeout in millis. <code>0</code> for no
+     * timeout, a hung PEP daemon then blocks the authorization forever.
+     * 
+     * @param timeout
+     *            HTTP socket read timeout in millis
+     */
+    public void setSocketTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Socket timeout can not be negative");
+        }
+        socketTimeout_= timeout;
+    }
+
     /**
      * Sets the directory containing the trust material X509 certificates used
      * to authenticate the server side of a secure socket (server
@@ -193,7 +476,7 @@ public class PEPClientConfiguration {
         }
         
         X509CertChainValidator validator= new OpensslCertChainValidator(cadirname);
-        trustManager_= new CommonX509TrustManager(validator);
+        setTrustManager(validator);
     }
 
     /**
@@ -210,7 +493,7 @@ public class PEPClientConfiguration {
             throws PEPClientConfigurationException {
         try {
             X509CertChainValidator validator= new InMemoryKeystoreCertChainValidator(truststore);
-            trustManager_= new CommonX509TrustManager(validator);
+            setTrustManager(validator);
         } catch (IOException e) {
             throw new PEPClientConfigurationException(e);
         } catch (KeyStoreException e) {
@@ -218,6 +501,21 @@ public class PEPClientConfiguration {
         }
     }
 
+    /**
+     * Creates the trust manager validating the server certificate chains,
+     * caching the validations. The cache is cleared when the validator
+     * reloads its trust anchors or CRLs.
+     * 
+     * @param validator
+     *            the server certificate chain validator
+     */
+    private void setTrustManager(X509CertChainValidator validator) {
+        CachingX509TrustManager trustManager= new CachingX509TrustManager(new CommonX509TrustManager(validator),
+                                                                          trustCacheTTL_);
+        validator.addUpdateListener(trustManager);
+        trustManager_= trustManager;
+    }
+
     /**
      * Sets the key material X509 certificate-based key pairs used to
      * authenticate the client side of a secure socket (client authentication).
@@ -339,4 +637,726 @@ public class PEPClientConfiguration {
     public int getMaxTotalConnections() {
         return maxTotalConnections_;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns <code>true</code> if the default transport pools the
+     * connections of each host separately. Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if the connections are pooled per host
+     */
+    public boolean isPerHostConnectionPool() {
+        return perHostConnectionPool_;
+    }
+
+    /**
+     * Sets whether the default transport pools the connections of each host
+     * separately, with a {@link PerHostHttpConnectionManager}, or all the
+     * connections in the single pool of a
+     * {@link MultiThreadedHttpConnectionManager}. The per host pool is not
+     * the default until its scaling on multi-core hosts is measured, see the
+     * <code>ConnectionManagerBenchmark</code> example.
+     * 
+     * @param perHost
+     *            <code>true</code> to pool the connections per host
+     */
+    public void setPerHostConnectionPool(boolean perHost) {
+        perHostConnectionPool_= perHost;
+    }
+
+    /**
+     * Gets the maximum number of responses kept in the client-side decision
+     * cache. Default is <code>0</code>, the cache is disabled.
+     * 
+     * @return maximum number of cached responses
+     */
+    public int getDecisionCacheSize() {
+        return decisionCacheSize_;
+    }
+
+    /**
+     * Sets the maximum number of responses kept in the client-side decision
+     * cache. The responses are cached by request, after the PIPs have been
+     * applied. <code>0</code> disables the cache.
+     * 
+     * @param size
+     *            maximum number of cached responses
+     */
+    public void setDecisionCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Decision cache size can not be negative");
+        }
+        decisionCacheSize_= size;
+    }
+
+    /**
+     * Gets the time-to-live in millis of a cached Permit decision. Default is
+     * <code>60000</code> milliseconds.
+     * 
+     * @return the Permit decision time-to-live
+     */
+    public int getDecisionCachePermitTTL() {
+        return decisionCachePermitTTL_;
+    }
+
+    /**
+     * Sets the time-to-live in millis of a cached Permit decision.
+     * <code>0</code> to never cache Permit decisions.
+     * 
+     * @param ttl
+     *            Permit decision time-to-live in millis
+     */
+    public void setDecisionCachePermitTTL(int ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Permit decision cache TTL can not be negative");
+        }
+        decisionCachePermitTTL_= ttl;
+    }
+
+    /**
+     * Gets the time-to-live in millis of a cached Deny decision. Default is
+     * <code>60000</code> milliseconds.
+     * 
+     * @return the Deny decision time-to-live
+     */
+    public int getDecisionCacheDenyTTL() {
+        return decisionCacheDenyTTL_;
+    }
+
+    /**
+     * Sets the time-to-live in millis of a cached Deny decision.
+     * <code>0</code> to never cache Deny decisions.
+     * 
+     * @param ttl
+     *            Deny decision time-to-live in millis
+     */
+    public void setDecisionCacheDenyTTL(int ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Deny decision cache TTL can not be negative");
+        }
+        decisionCacheDenyTTL_= ttl;
+    }
+
+    /**
+     * Gets the time-to-live in millis of a cached NotApplicable decision.
+     * Default is <code>60000</code> milliseconds.
+     * 
+     * @return the NotApplicable decision time-to-live
+     */
+    public int getDecisionCacheNotApplicableTTL() {
+        return decisionCacheNotApplicableTTL_;
+    }
+
+    /**
+     * Sets the time-to-live in millis of a cached NotApplicable decision.
+     * <code>0</code> to never cache NotApplicable decisions.
+     * 
+     * @param ttl
+     *            NotApplicable decision time-to-live in millis
+     */
+    public void setDecisionCacheNotApplicableTTL(int ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("NotApplicable decision cache TTL can not be negative");
+        }
+        decisionCacheNotApplicableTTL_= ttl;
+    }
+
+    /**
+     * Returns <code>true</code> if the concurrent identical requests are
+     * coalesced. Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if the request coalescing is enabled
+     */
+    public boolean isRequestCoalescing() {
+        return requestCoalescing_;
+    }
+
+    /**
+     * Enables or disables the coalescing of concurrent identical requests.
+     * When enabled, the threads authorizing an equal request at the same time
+     * wait for a single PEP daemon call and share its response.
+     * 
+     * @param coalescing
+     *            <code>true</code> to enable the request coalescing
+     */
+    public void setRequestCoalescing(boolean coalescing) {
+        requestCoalescing_= coalescing;
+    }
+
+    /**
+     * Gets the executor running the asynchronous authorizations.
+     * 
+     * @return the executor or <code>null</code> if the PEP client creates its
+     *         own executor
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor_;
+    }
+
+    /**
+     * Sets the executor running the asynchronous authorizations. The
+     * executor is not shut down by the PEP client.
+     * 
+     * @param executor
+     *            the executor, or <code>null</code> to let the PEP client
+     *            create its own executor of {@link #getAsyncThreads()} daemon
+     *            threads
+     */
+    public void setAsyncExecutor(Executor executor) {
+        asyncExecutor_= executor;
+    }
+
+    /**
+     * Gets the number of threads of the executor created by the PEP client
+     * for the asynchronous authorizations. Default is <code>10</code>.
+     * 
+     * @return the number of asynchronous authorization threads
+     */
+    public int getAsyncThreads() {
+        return asyncThreads_;
+    }
+
+    /**
+     * Sets the number of threads of the executor created by the PEP client
+     * for the asynchronous authorizations. Not used if an executor is set
+     * with {@link #setAsyncExecutor(Executor)}.
+     * 
+     * @param threads
+     *            the number of asynchronous authorization threads, must be
+     *            greater than zero
+     */
+    public void setAsyncThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of asynchronous authorization threads must be greater than zero");
+        }
+        asyncThreads_= threads;
+    }
+
+    /**
+     * Returns <code>true</code> if the PEP client runs in virtual thread
+     * mode. Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if the virtual thread mode is enabled
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads_;
+    }
+
+    /**
+     * Enables or disables the virtual thread mode, for callers running in
+     * virtual threads. In this mode, the asynchronous and hedged
+     * authorizations run in virtual threads when the Java runtime supports
+     * them, and the asynchronous authorizations are not limited by
+     * {@link #getAsyncThreads()}. The callers of the default transport wait
+     * for a free connection on a semaphore, not in a monitor which would pin
+     * their carrier thread: with the per host connection pool, otherwise
+     * through connection permits.
+     * 
+     * @param virtualThreads
+     *            <code>true</code> to enable the virtual thread mode
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        virtualThreads_= virtualThreads;
+    }
+
+    /**
+     * Gets the number of consecutive failures opening the circuit of a PEP
+     * daemon endpoint. Default is <code>0</code>, the circuit breakers are
+     * disabled.
+     * 
+     * @return the circuit breaker failure threshold
+     */
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold_;
+    }
+
+    /**
+     * Sets the number of consecutive failures opening the circuit of a PEP
+     * daemon endpoint. An endpoint with an open circuit is skipped by the
+     * failover, until a probe request succeeds after the cool-down period.
+     * <code>0</code> disables the circuit breakers.
+     * 
+     * @param threshold
+     *            the circuit breaker failure threshold
+     */
+    public void setCircuitBreakerFailureThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Circuit breaker failure threshold can not be negative");
+        }
+        circuitBreakerFailureThreshold_= threshold;
+    }
+
+    /**
+     * Gets the cool-down in millis before an endpoint with an open circuit is
+     * probed again. Default is <code>30000</code> milliseconds.
+     * 
+     * @return the circuit breaker cool-down
+     */
+    public int getCircuitBreakerCoolDown() {
+        return circuitBreakerCoolDown_;
+    }
+
+    /**
+     * Sets the cool-down in millis before an endpoint with an open circuit is
+     * probed again.
+     * 
+     * @param coolDown
+     *            the circuit breaker cool-down in millis
+     */
+    public void setCircuitBreakerCoolDown(int coolDown) {
+        if (coolDown < 0) {
+            throw new IllegalArgumentException("Circuit breaker cool-down can not be negative");
+        }
+        circuitBreakerCoolDown_= coolDown;
+    }
+
+    /**
+     * Gets the delay in millis before a hedged request is sent to the next
+     * PEP daemon endpoint. Default is <code>0</code>, the hedging is disabled.
+     * 
+     * @return the hedge delay
+     */
+    public int getHedgeDelay() {
+        return hedgeDelay_;
+    }
+
+    /**
+     * Sets the delay in millis before a hedged request is sent to the next
+     * PEP daemon endpoint. If the first endpoint didn't respond within the
+     * delay, the same request is sent to the next endpoint, the first
+     * response wins and the other request is aborted. The delay should be
+     * set around the observed 95th percentile of the PEP daemon latency.
+     * <code>0</code> disables the hedging.
+     * 
+     * @param delay
+     *            the hedge delay in millis
+     */
+    public void setHedgeDelay(int delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Hedge delay can not be negative");
+        }
+        hedgeDelay_= delay;
+    }
+
+    /**
+     * Gets the maximum ratio of the requests which can be hedged. Default is
+     * <code>0.1</code>, at most 10% of the requests are hedged.
+     * 
+     * @return the maximum hedge rate
+     */
+    public float getMaxHedgeRate() {
+        return maxHedgeRate_;
+    }
+
+    /**
+     * Sets the maximum ratio of the requests which can be hedged, so the
+     * hedging can not double the load of the PEP daemons.
+     * 
+     * @param rate
+     *            the maximum hedge rate, between <code>0</code> and
+     *            <code>1</code>
+     */
+    public void setMaxHedgeRate(float rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Hedge rate must be between 0 and 1");
+        }
+        maxHedgeRate_= rate;
+    }
+
+    /**
+     * Gets the default timeout in millis of an authorization call. Default is
+     * <code>0</code>, no timeout.
+     * 
+     * @return the default authorization timeout
+     */
+    public int getAuthorizationTimeout() {
+        return authorizationTimeout_;
+    }
+
+    /**
+     * Sets the default timeout in millis of an authorization call. The
+     * timeout covers the PIPs and all the PEP daemon attempts, and is checked
+     * before the obligation handlers, which run to completion once started.
+     * The remaining time bounds the wait for a free connection and the read
+     * timeout of each PEP daemon attempt. <code>0</code> for no timeout.
+     * 
+     * @param timeout
+     *            the default authorization timeout in millis
+     */
+    public void setAuthorizationTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Authorization timeout can not be negative");
+        }
+        authorizationTimeout_= timeout;
+    }
+
+    /**
+     * Returns <code>true</code> if the messages are sent without Base64
+     * armoring. Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if the binary transport is enabled
+     */
+    public boolean isBinaryTransport() {
+        return binaryTransport_;
+    }
+
+    /**
+     * Enables or disables the binary transport. When enabled, the serialized
+     * messages are sent as is, with the binary content type of the wire
+     * codec, saving the Base64 encoding and its 33% size overhead. An
+     * endpoint rejecting a binary request with a 400, 415 or 501 status code
+     * gets it again Base64 encoded, and only Base64 encoded requests
+     * afterwards.
+     * 
+     * @param binary
+     *            <code>true</code> to enable the binary transport
+     * @see org.glite.authz.pep.client.codec.WireCodec#getBinaryContentType()
+     */
+    public void setBinaryTransport(boolean binary) {
+        binaryTransport_= binary;
+    }
+
+    /**
+     * Returns the compression of the requests. Default is
+     * {@link RequestCompression#NONE}.
+     * 
+     * @return the request compression
+     */
+    public RequestCompression getRequestCompression() {
+        return requestCompression_;
+    }
+
+    /**
+     * Sets the compression of the requests sent to the PEP daemon. The
+     * requests smaller than the compression threshold are not compressed,
+     * and the compressed responses are always decompressed.
+     * 
+     * @param compression
+     *            the request compression
+     * @see #setCompressionThreshold(int)
+     */
+    public void setRequestCompression(RequestCompression compression) {
+        if (compression == null) {
+            throw new IllegalArgumentException("Request compression can not be null");
+        }
+        requestCompression_= compression;
+    }
+
+    /**
+     * Returns the minimum size in bytes of a serialized request to compress
+     * it. Default is <code>1024</code> bytes.
+     * 
+     * @return the compression threshold in bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold_;
+    }
+
+    /**
+     * Sets the minimum size in bytes of a serialized request to compress it.
+     * Compressing the small requests costs more CPU than the bytes it saves.
+     * 
+     * @param threshold
+     *            the compression threshold in bytes
+     */
+    public void setCompressionThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Compression threshold can not be negative");
+        }
+        compressionThreshold_= threshold;
+    }
+
+    /**
+     * Returns the number of connections opened to each PEP daemon endpoint
+     * when the client is created. Default is <code>0</code>.
+     * 
+     * @return the number of warm-up connections per endpoint
+     */
+    public int getWarmupConnections() {
+        return warmupConnections_;
+    }
+
+    /**
+     * Sets the number of connections opened to each PEP daemon endpoint, in
+     * the background, when the client is created, so the first requests don't
+     * pay the TCP connect and the TLS handshake. Capped by the maximum number
+     * of connections per host.
+     * 
+     * @param connections
+     *            the number of warm-up connections per endpoint, <code>0</code>
+     *            to disable the warm-up
+     */
+    public void setWarmupConnections(int connections) {
+        if (connections < 0) {
+            throw new IllegalArgumentException("Number of warm-up connections can not be negative");
+        }
+        warmupConnections_= connections;
+    }
+
+    /**
+     * Returns the minimum number of idle connections kept open to each PEP
+     * daemon endpoint. Default is <code>0</code>.
+     * 
+     * @return the minimum number of idle connections per endpoint
+     */
+    public int getMinIdleConnections() {
+        return minIdleConnections_;
+    }
+
+    /**
+     * Sets the minimum number of idle connections kept open to each PEP
+     * daemon endpoint. The missing connections are opened in the background
+     * at each connection pool maintenance. Capped by the maximum number of
+     * connections per host.
+     * 
+     * @param connections
+     *            the minimum number of idle connections per endpoint,
+     *            <code>0</code> to disable
+     * @see #setConnectionMaintenanceInterval(int)
+     */
+    public void setMinIdleConnections(int connections) {
+        if (connections < 0) {
+            throw new IllegalArgumentException("Minimum number of idle connections can not be negative");
+        }
+        minIdleConnections_= connections;
+    }
+
+    /**
+     * Returns the maximum idle time in millis of a pooled connection. Default
+     * is <code>0</code>, no limit.
+     * 
+     * @return the maximum idle time in millis
+     */
+    public int getMaxIdleTime() {
+        return maxIdleTime_;
+    }
+
+    /**
+     * Sets the maximum idle time in millis of a pooled connection. The
+     * connections idle for longer are closed at the next connection pool
+     * maintenance, before the PEP daemon or a firewall drops them. Should be
+     * shorter than the PEP daemon keep-alive timeout.
+     * 
+     * @param idleTime
+     *            the maximum idle time in millis, <code>0</code> for no limit
+     * @see #setConnectionMaintenanceInterval(int)
+     */
+    public void setMaxIdleTime(int idleTime) {
+        if (idleTime < 0) {
+            throw new IllegalArgumentException("Maximum idle time can not be negative");
+        }
+        maxIdleTime_= idleTime;
+    }
+
+    /**
+     * Returns the interval in millis of the connection pool maintenance.
+     * Default is <code>10000</code> millis.
+     * 
+     * @return the maintenance interval in millis
+     */
+    public int getConnectionMaintenanceInterval() {
+        return connectionMaintenanceInterval_;
+    }
+
+    /**
+     * Sets the interval in millis of the connection pool maintenance, which
+     * closes the connections idle for too long and opens the missing idle
+     * connections. The maintenance only runs if the minimum number of idle
+     * connections or the maximum idle time is set.
+     * 
+     * @param interval
+     *            the maintenance interval in millis, must be greater than
+     *            zero
+     */
+    public void setConnectionMaintenanceInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Connection maintenance interval must be greater than zero");
+        }
+        connectionMaintenanceInterval_= interval;
+    }
+
+    /**
+     * Returns the maximum number of TLS client sessions cached for
+     * resumption. Default is <code>-1</code>, the JSSE default.
+     * 
+     * @return the maximum number of cached TLS sessions
+     */
+    public int getTLSSessionCacheSize() {
+        return tlsSessionCacheSize_;
+    }
+
+    /**
+     * Sets the maximum number of TLS client sessions cached for resumption.
+     * The new connections to a PEP daemon resume its cached session with an
+     * abbreviated handshake, without the certificate exchange and validation.
+     * One session per PEP daemon endpoint is enough.
+     * 
+     * @param size
+     *            the maximum number of cached TLS sessions, <code>0</code>
+     *            for unlimited, <code>-1</code> for the JSSE default
+     */
+    public void setTLSSessionCacheSize(int size) {
+        if (size < -1) {
+            throw new IllegalArgumentException("TLS session cache size can not be less than -1");
+        }
+        tlsSessionCacheSize_= size;
+    }
+
+    /**
+     * Returns the timeout in seconds of the cached TLS client sessions.
+     * Default is <code>-1</code>, the JSSE default.
+     * 
+     * @return the TLS session timeout in seconds
+     */
+    public int getTLSSessionTimeout() {
+        return tlsSessionTimeout_;
+    }
+
+    /**
+     * Sets the timeout in seconds of the cached TLS client sessions. The
+     * sessions older than the timeout are not resumed, a full handshake is
+     * done instead.
+     * 
+     * @param seconds
+     *            the TLS session timeout in seconds, <code>0</code> for
+     *            unlimited, <code>-1</code> for the JSSE default
+     */
+    public void setTLSSessionTimeout(int seconds) {
+        if (seconds < -1) {
+            throw new IllegalArgumentException("TLS session timeout can not be less than -1");
+        }
+        tlsSessionTimeout_= seconds;
+    }
+
+    /**
+     * Returns the TLS protocols, cipher suites and JSSE provider used for the
+     * HTTPS connections. Default is <code>null</code>, the JSSE defaults.
+     * 
+     * @return the TLS profile or <code>null</code>
+     */
+    public TLSProfile getTLSProfile() {
+        return tlsProfile_;
+    }
+
+    /**
+     * Sets the TLS protocols, cipher suites and JSSE provider used for the
+     * HTTPS connections, for instance {@link TLSProfile#MODERN}. The
+     * negotiated protocols and cipher suites are reported by the
+     * {@link org.glite.authz.pep.client.PEPClient#getTLSSocketFactory()}.
+     * 
+     * @param profile
+     *            the TLS profile, <code>null</code> for the JSSE defaults
+     */
+    public void setTLSProfile(TLSProfile profile) {
+        tlsProfile_= profile;
+    }
+
+    /**
+     * Returns the time-to-live in millis of a cached server certificate chain
+     * validation. Default is <code>0</code>, no caching.
+     * 
+     * @return the time-to-live in millis
+     */
+    public int getTrustCacheTTL() {
+        return trustCacheTTL_;
+    }
+
+    /**
+     * Sets the time-to-live in millis of a cached server certificate chain
+     * validation. The new TLS connections to a PEP daemon presenting the same
+     * certificate chain then skip the path validation and the CRL
+     * processing. A cached validation also expires with the certificates of
+     * the chain, and the cache is cleared when the trust material is
+     * reloaded, so a revoked server certificate is accepted at most for the
+     * time-to-live after the CRL update.
+     * 
+     * @param ttl
+     *            the time-to-live in millis, <code>0</code> to disable the
+     *            cache
+     */
+    public void setTrustCacheTTL(int ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Trust cache TTL can not be negative");
+        }
+        trustCacheTTL_= ttl;
+        if (trustManager_ instanceof CachingX509TrustManager) {
+            ((CachingX509TrustManager) trustManager_).setTTL(ttl);
+        }
+    }
+
+    /**
+     * Returns the HTTP transport sending the requests to the PEP daemons.
+     * Default is {@link TransportType#HTTPCLIENT}.
+     * 
+     * @return the transport type
+     */
+    public TransportType getTransportType() {
+        return transportType_;
+    }
+
+    /**
+     * Sets the HTTP transport sending the requests to the PEP daemons. The
+     * connection warm-up and maintenance are only supported by the
+     * {@link TransportType#HTTPCLIENT} transport.
+     * 
+     * @param transportType
+     *            the transport type
+     */
+    public void setTransportType(TransportType transportType) {
+        if (transportType == null) {
+            throw new IllegalArgumentException("Transport type can not be null");
+        }
+        transportType_= transportType;
+    }
+
+    /**
+     * Returns the maximum number of concurrent HTTP/2 streams, the requests
+     * in flight, on a connection of the {@link TransportType#HTTP2}
+     * transport. Default is <code>100</code>, lowered by the limit of the
+     * PEP daemon, if any.
+     * 
+     * @return the maximum number of concurrent streams per connection
+     */
+    public int getHTTP2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams_;
+    }
+
+    /**
+     * Sets the maximum number of concurrent HTTP/2 streams on a connection.
+     * A new connection, up to the maximum number of connections per host, is
+     * only opened when all the connections to the PEP daemon are at the
+     * limit, the requests then wait for a stream to complete.
+     * 
+     * @param maxConcurrentStreams
+     *            the maximum number of concurrent streams per connection
+     */
+    public void setHTTP2MaxConcurrentStreams(int maxConcurrentStreams) {
+        if (maxConcurrentStreams < 1) {
+            throw new IllegalArgumentException("Maximum concurrent streams must be greater than zero");
+        }
+        http2MaxConcurrentStreams_= maxConcurrentStreams;
+    }
+
+    /**
+     * Returns the HTTP/2 flow control window of a stream, the response bytes
+     * the PEP daemon can send before the client acknowledges them. Default is
+     * 1 MB.
+     * 
+     * @return the stream window size in bytes
+     */
+    public int getHTTP2StreamWindowSize() {
+        return http2StreamWindowSize_;
+    }
+
+    /**
+     * Sets the HTTP/2 flow control window of a stream.
+     * 
+     * @param windowSize
+     *            the stream window size in bytes
+     */
+    public void setHTTP2StreamWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Stream window size must be greater than zero");
+        }
+        http2StreamWindowSize_= windowSize;
+    }
+}
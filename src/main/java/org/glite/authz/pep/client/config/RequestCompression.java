@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.config;
+
+/**
+ * Compression of the authorization requests sent to the PEP daemon.
+ */
+public enum RequestCompression {
+
+    /** The requests are not compressed */
+    NONE,
+
+    /**
+     * The serialized request is gzip-compressed before its Base64 encoding,
+     * like {@link org.glite.authz.common.util.Base64#GZIP}, and detected by
+     * the gzip header after the Base64 decoding. With the binary transport,
+     * the request is sent with the <code>gzip</code> content encoding.
+     */
+    BASE64_GZIP,
+
+    /**
+     * The HTTP request body is sent with the <code>gzip</code> content
+     * encoding.
+     */
+    CONTENT_ENCODING
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.config;
+
+/**
+ * HTTP transport sending the authorization requests to the PEP daemon.
+ * 
+ * @see org.glite.authz.pep.client.transport.PEPTransport
+ */
+public enum TransportType {
+
+    /**
+     * The commons-httpclient 3 client, with its pool of connections, which
+     * can be warmed up and maintained.
+     * 
+     * @see org.glite.authz.pep.client.transport.HttpClientTransport
+     */
+    HTTPCLIENT,
+
+    /**
+     * The JDK <code>HttpURLConnection</code>, with the JDK keep-alive cache
+     * of connections.
+     * 
+     * @see org.glite.authz.pep.client.transport.URLConnectionTransport
+     */
+    URLCONNECTION,
+
+    /**
+     * A non-blocking transport pipelining the requests on a few persistent
+     * connections per endpoint, at most the maximum number of connections per
+     * host.
+     * 
+     * @see org.glite.authz.pep.client.transport.NIOTransport
+     */
+    NIO,
+
+    /**
+     * The non-blocking transport multiplexing the requests as HTTP/2 streams
+     * on one connection per endpoint, with ALPN over TLS, falling back to
+     * HTTP/1.1, or with prior knowledge (h2c) over plain HTTP.
+     * 
+     * @see org.glite.authz.pep.client.transport.NIOTransport
+     */
+    HTTP2
+}
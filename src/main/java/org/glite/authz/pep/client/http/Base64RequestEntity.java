@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.glite.authz.common.util.Base64;
+
+/**
+ * A repeatable request entity streaming a binary message, Base64 encoded, to the connection. The message is encoded
+ * on the fly while written, a block at a time, no encoded copy of the message is created, and the content length is
+ * computed from the binary message length.
+ * <p>
+ * The entity does not copy the message, which must not be modified while the request is in progress.
+ */
+public class Base64RequestEntity implements RequestEntity {
+
+    /** Length of the message blocks encoded at once: 1 KB, a multiple of the 57 bytes of a Base64 line. */
+    private static final int BLOCK_LENGTH = 57 * 18;
+
+    /** The binary message. */
+    private final byte[] content;
+
+    /** Offset of the message in the content array. */
+    private final int offset;
+
+    /** Length of the message. */
+    private final int length;
+
+    /** Content type of the entity. */
+    private final String contentType;
+
+    /** Base64 encoding options. */
+    private final int options;
+
+    /**
+     * Constructor.
+     *
+     * @param content the binary message
+     * @param offset offset of the message in the array
+     * @param length length of the message
+     * @param contentType content type of the entity
+     */
+    public Base64RequestEntity(byte[] content, int offset, int length, String contentType) {
+        this(content, offset, length, contentType, Base64.NO_OPTIONS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param content the binary message
+     * @param offset offset of the message in the array
+     * @param length length of the message
+     * @param contentType content type of the entity
+     * @param options Base64 encoding options, {@link Base64#DONT_BREAK_LINES} to send the message on a single line
+     */
+    public Base64RequestEntity(byte[] content, int offset, int length, String contentType, int options) {
+        if (offset < 0 || length < 0 || offset + length > content.length) {
+            throw new IndexOutOfBoundsException("Invalid message offset or length");
+        }
+        this.content = content;
+        this.offset = offset;
+        this.length = length;
+        this.contentType = contentType;
+        this.options = options;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public void writeRequest(OutputStream out) throws IOException {
+        // whole lines per block, the blocks join as a single encoding
+        byte[] encoded = new byte[Base64.encodedLength(Math.min(length, BLOCK_LENGTH), options)];
+        int end = offset + length;
+        for (int block = offset; block < end; block += BLOCK_LENGTH) {
+            int n = Base64.encode(content, block, Math.min(BLOCK_LENGTH, end - block), encoded, 0, options);
+            out.write(encoded, 0, n);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the length of the Base64 encoded message.
+     *
+     * @return the content length
+     * @see Base64#encodedLength(int, int)
+     */
+    public long getContentLength() {
+        return Base64.encodedLength(length, options);
+    }
+
+    /** {@inheritDoc} */
+    public String getContentType() {
+        return contentType;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * A repeatable request entity writing a binary message, without Base64 armoring, to the connection.
+ * <p>
+ * The entity does not copy the message, which must not be modified while the request is in progress.
+ */
+public class BinaryRequestEntity implements RequestEntity {
+
+    /** The binary message. */
+    private final byte[] content;
+
+    /** Offset of the message in the content array. */
+    private final int offset;
+
+    /** Length of the message. */
+    private final int length;
+
+    /** Content type of the entity. */
+    private final String contentType;
+
+    /**
+     * Constructor.
+     *
+     * @param content the binary message
+     * @param offset offset of the message in the array
+     * @param length length of the message
+     * @param contentType content type of the entity
+     */
+    public BinaryRequestEntity(byte[] content, int offset, int length, String contentType) {
+        if (offset < 0 || length < 0 || offset + length > content.length) {
+            throw new IndexOutOfBoundsException("Invalid message offset or length");
+        }
+        this.content = content;
+        this.offset = offset;
+        this.length = length;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Returns the array containing the binary message.
+     *
+     * @return the content array, not copied
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the offset of the message in the content array.
+     *
+     * @return the message offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public void writeRequest(OutputStream out) throws IOException {
+        out.write(content, offset, length);
+        out.flush();
+    }
+
+    /** {@inheritDoc} */
+    public long getContentLength() {
+        return length;
+    }
+
+    /** {@inheritDoc} */
+    public String getContentType() {
+        return contentType;
+    }
+}
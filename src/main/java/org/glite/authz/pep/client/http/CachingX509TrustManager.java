@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.X509TrustManager;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+
+/**
+ * A trust manager caching the successful validations of the server certificate chains, so the repeated handshakes
+ * with the same PEP daemon skip the path validation and the CRL processing of the delegate trust manager.
+ * <p>
+ * The cache is keyed by the SHA-256 fingerprint of the chain and the authentication type. A cached validation expires
+ * after the time-to-live, or when a certificate of the chain expires, and the whole cache is cleared when the
+ * trust store is reloaded, registering the trust manager as {@link StoreUpdateListener} of the certificate chain
+ * validator. The failed validations are not cached. A validation running while the cache is cleared is not cached
+ * either, the delegate may have used the trust anchors or the CRLs loaded before the reload. The client certificate
+ * chains are always validated by the delegate.
+ */
+public class CachingX509TrustManager implements X509TrustManager, StoreUpdateListener {
+
+    /** Maximum number of cached validations, the cache is cleared when full. */
+    private static final int MAX_SIZE = 256;
+
+    /** The trust manager doing the validations. */
+    private final X509TrustManager delegate;
+
+    /** Time-to-live in millis of a cached validation, <code>0</code> disables the cache. */
+    private volatile long ttl;
+
+    /** Expiration time in millis of the cached validations, by chain fingerprint. */
+    private final ConcurrentMap<String, Long> validations = new ConcurrentHashMap<String, Long>();
+
+    /** Incremented each time the cache is cleared, before clearing it. */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Number of validations found in the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of validations done by the delegate. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the trust manager doing the validations
+     * @param ttl time-to-live in millis of a cached validation, <code>0</code> disables the cache
+     */
+    public CachingX509TrustManager(X509TrustManager delegate, long ttl) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate trust manager can not be null");
+        }
+        this.delegate = delegate;
+        setTTL(ttl);
+    }
+
+    /**
+     * Gets the trust manager doing the validations.
+     *
+     * @return the delegate trust manager
+     */
+    public X509TrustManager getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the time-to-live of a cached validation.
+     *
+     * @return the time-to-live in millis, <code>0</code> if the cache is disabled
+     */
+    public long getTTL() {
+        return ttl;
+    }
+
+    /**
+     * Sets the time-to-live of a cached validation, and clears the cache.
+     *
+     * @param ttl the time-to-live in millis, <code>0</code> to disable the cache
+     */
+    public void setTTL(long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("TTL can not be negative");
+        }
+        this.ttl = ttl;
+        clear();
+    }
+
+    /**
+     * Gets the number of server certificate chain validations found in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of server certificate chain validations done by the delegate.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Clears the cached validations. */
+    public void clear() {
+        generation.incrementAndGet();
+        validations.clear();
+    }
+
+    /** {@inheritDoc} */
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        delegate.checkClientTrusted(chain, authType);
+    }
+
+    /** {@inheritDoc} */
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        long timeToLive = ttl;
+        if (timeToLive == 0 || chain == null || chain.length == 0) {
+            delegate.checkServerTrusted(chain, authType);
+            return;
+        }
+        String key = fingerprint(chain, authType);
+        long now = System.currentTimeMillis();
+        Long expiration = validations.get(key);
+        if (expiration != null) {
+            if (now < expiration.longValue()) {
+                hits.incrementAndGet();
+                return;
+            }
+            validations.remove(key, expiration);
+        }
+        misses.incrementAndGet();
+        long validationGeneration = generation.get();
+        delegate.checkServerTrusted(chain, authType);
+        if (validations.size() >= MAX_SIZE) {
+            removeExpired(now);
+        }
+        long expirationTime = now + timeToLive;
+        for (X509Certificate certificate : chain) {
+            expirationTime = Math.min(expirationTime, certificate.getNotAfter().getTime());
+        }
+        expiration = Long.valueOf(expirationTime);
+        validations.put(key, expiration);
+        // the cache was cleared during the validation, the put may have missed the clear
+        if (generation.get() != validationGeneration) {
+            validations.remove(key, expiration);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public X509Certificate[] getAcceptedIssuers() {
+        return delegate.getAcceptedIssuers();
+    }
+
+    /**
+     * Clears the cached validations when the trust anchors or the CRLs of the certificate chain validator are
+     * reloaded.
+     *
+     * @param location the reloaded file or URL
+     * @param type the reloaded material, {@link StoreUpdateListener#CA_CERT}, {@link StoreUpdateListener#CRL}, ...
+     * @param level the severity of the notification
+     * @param cause the loading error, or <code>null</code>
+     */
+    public void loadingNotification(String location, String type, Severity level, Exception cause) {
+        clear();
+    }
+
+    /**
+     * Removes the expired validations, or all of them if none expired.
+     *
+     * @param now the current time in millis
+     */
+    private void removeExpired(long now) {
+        int size = validations.size();
+        Iterator<Map.Entry<String, Long>> entries = validations.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getValue().longValue() <= now) {
+                entries.remove();
+            }
+        }
+        if (validations.size() == size) {
+            validations.clear();
+        }
+    }
+
+    /**
+     * Computes the SHA-256 fingerprint of a certificate chain and an authentication type.
+     *
+     * @param chain the certificate chain
+     * @param authType the authentication type
+     * @return the hex encoded fingerprint
+     * @throws CertificateException if a certificate can not be encoded
+     */
+    private static String fingerprint(X509Certificate[] chain, String authType) throws CertificateException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertificateException("SHA-256 digest not available: " + e.getMessage());
+        }
+        for (X509Certificate certificate : chain) {
+            digest.update(certificate.getEncoded());
+        }
+        StringBuilder key = new StringBuilder(64 + 1 + (authType == null ? 4 : authType.length()));
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        key.append(' ').append(authType);
+        return key.toString();
+    }
+}
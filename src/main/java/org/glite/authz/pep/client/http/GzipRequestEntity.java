@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * A repeatable request entity writing another entity gzip-compressed, to be sent with the <code>gzip</code> content
+ * encoding. The entity is compressed once, when created, so its content length is known and the compressed copy can
+ * be sent several times and by other threads.
+ */
+public class GzipRequestEntity implements RequestEntity {
+
+    /** The content encoding of the entity. */
+    public static final String CONTENT_ENCODING = "gzip";
+
+    /** The uncompressed entity. */
+    private final RequestEntity entity;
+
+    /** The compressed entity. */
+    private final byte[] content;
+
+    /**
+     * Constructor.
+     *
+     * @param entity the repeatable entity to compress
+     * @throws IOException if the entity can not be written
+     */
+    public GzipRequestEntity(RequestEntity entity) throws IOException {
+        if (!entity.isRepeatable()) {
+            throw new IllegalArgumentException("Entity is not repeatable");
+        }
+        this.entity = entity;
+        long length = entity.getContentLength();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length > 0 ? (int) (length / 2) : 512);
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        entity.writeRequest(out);
+        out.close();
+        content = compressed.toByteArray();
+    }
+
+    /**
+     * Gzip-compresses a message.
+     *
+     * @param message the array containing the message
+     * @param offset offset of the message in the array
+     * @param length length of the message
+     * @return the compressed message
+     * @throws IOException if the message can not be compressed
+     */
+    public static byte[] gzip(byte[] message, int offset, int length) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 32);
+        GZIPOutputStream out = new GZIPOutputStream(compressed);
+        out.write(message, offset, length);
+        out.close();
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Returns the uncompressed entity.
+     *
+     * @return the uncompressed entity
+     */
+    public RequestEntity getEntity() {
+        return entity;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public void writeRequest(OutputStream out) throws IOException {
+        out.write(content);
+        out.flush();
+    }
+
+    /** {@inheritDoc} */
+    public long getContentLength() {
+        return content.length;
+    }
+
+    /** {@inheritDoc} */
+    public String getContentType() {
+        return entity.getContentType();
+    }
+}
@@ -23,6 +23,7 @@ import org.glite.authz.common.model.util.Strings;
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -35,9 +36,9 @@ import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 /**
  * A builder for {@link HttpClient}s.
  * 
- * This builder will produce clients that employ the {@link MultiThreadedHttpConnectionManager} and as such users of the
- * clients MUST be sure to invoke {@link org.apache.commons.httpclient.HttpMethod#releaseConnection()} after they have
- * finished with the method.
+ * This builder will produce clients that employ the {@link PerHostHttpConnectionManager}, or the
+ * {@link MultiThreadedHttpConnectionManager}, and as such users of the clients MUST be sure to invoke
+ * {@link org.apache.commons.httpclient.HttpMethod#releaseConnection()} after they have finished with the method.
  */
 public class HttpClientBuilder {
 
@@ -62,6 +63,9 @@ public class HttpClientBuilder {
     /** Amount of time, in milliseconds, to wait for a connection to be established, default is 5,000. */
     private int connectionTimeout;
 
+    /** Amount of time, in milliseconds, to wait for data on a connection. */
+    private int socketTimeout;
+
     /** Size of the buffer, in bytes, used to hold outbound information, defaults to 4,096. */
     private int sendBufferSize;
 
@@ -80,6 +84,9 @@ public class HttpClientBuilder {
     /** Number of times a failed connection to a host should be retried. */
     private int connectionRetryAttempts;
 
+    /** Whether to pool the connections of each host separately, defaults to true. */
+    private boolean perHostConnectionPool;
+
     /** Socket factory used for the 'https' scheme. */
     private SecureProtocolSocketFactory httpsProtocolSocketFactory;
 
@@ -94,12 +101,14 @@ public class HttpClientBuilder {
         preemptiveAuthentication = false;
         contentCharSet = "UTF-8";
         connectionTimeout = 5000;
+        socketTimeout = 0;
         sendBufferSize = 4096;
         receiveBufferSize = 16384;
         tcpNoDelay = true;
         maxConnectionsPerHost = 5;
         maxTotalConnectons = 20;
         connectionRetryAttempts = 0;
+        perHostConnectionPool = false;
     }
 
     /**
@@ -121,13 +130,19 @@ public class HttpClientBuilder {
 
         HttpConnectionManagerParams connMgrParams = new HttpConnectionManagerParams();
         connMgrParams.setConnectionTimeout(getConnectionTimeout());
+        connMgrParams.setSoTimeout(getSocketTimeout());
         connMgrParams.setDefaultMaxConnectionsPerHost(getMaxConnectionsPerHost());
         connMgrParams.setMaxTotalConnections(getMaxTotalConnections());
         connMgrParams.setReceiveBufferSize(getReceiveBufferSize());
         connMgrParams.setSendBufferSize(getSendBufferSize());
         connMgrParams.setTcpNoDelay(isTcpNoDelay());
 
-        MultiThreadedHttpConnectionManager connMgr = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManager connMgr;
+        if (perHostConnectionPool) {
+            connMgr = new PerHostHttpConnectionManager();
+        } else {
+            connMgr = new MultiThreadedHttpConnectionManager();
+        }
         connMgr.setParams(connMgrParams);
 
         HttpClient httpClient = new HttpClient(clientParams, connMgr);
@@ -276,6 +291,26 @@ public class HttpClientBuilder {
         connectionTimeout = timeout;
     }
 
+    /**
+     * Gets the time, in milliseconds, to wait for data on an established connection (SO_TIMEOUT). Default value is 0.
+     * A value of 0 indicates there is no timeout.
+     * 
+     * @return time, in milliseconds, to wait for data on an established connection
+     */
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * Sets the time, in milliseconds, to wait for data on an established connection (SO_TIMEOUT). A value of 0
+     * indicates there is no timeout.
+     * 
+     * @param timeout time, in milliseconds, to wait for data on an established connection
+     */
+    public void setSocketTimeout(int timeout) {
+        socketTimeout = timeout;
+    }
+
     /**
      * Gets the size of buffer, in bytes, used when sending content. Default value is 4,096.
      * 
@@ -371,6 +406,26 @@ public class HttpClientBuilder {
         maxTotalConnectons = max;
     }
 
+    /**
+     * Gets whether the connections of each host are pooled separately, by a {@link PerHostHttpConnectionManager},
+     * rather than in the single pool of a {@link MultiThreadedHttpConnectionManager}. Default value is false.
+     * 
+     * @return whether the connections of each host are pooled separately
+     */
+    public boolean isPerHostConnectionPool() {
+        return perHostConnectionPool;
+    }
+
+    /**
+     * Sets whether the connections of each host are pooled separately, by a {@link PerHostHttpConnectionManager},
+     * rather than in the single pool of a {@link MultiThreadedHttpConnectionManager}.
+     * 
+     * @param perHost whether the connections of each host are pooled separately
+     */
+    public void setPerHostConnectionPool(boolean perHost) {
+        perHostConnectionPool = perHost;
+    }
+
     /**
      * Gets the number of times a connection will be tried if a host is unreachable.
      * 
@@ -0,0 +1,798 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+
+/**
+ * A connection manager pooling the connections of each host separately, a replacement for the
+ * {@link MultiThreadedHttpConnectionManager} which guards the connections of all hosts with a single lock.
+ * <p>
+ * The number of connections in use is limited per host and in total by two {@link Semaphore}s, and the idle
+ * connections of a host are handed off through a lock-free queue, so the threads getting and releasing the
+ * connections of different hosts do not contend, and the threads waiting for a free connection are not holding a
+ * monitor. A released connection is queued before its permits are released, so the next thread getting a connection
+ * of the host reuses it.
+ * <p>
+ * The limits are read from the parameters: the total limit when the parameters are set, the limit of a host when its
+ * first connection is requested. A maximum number of connections per host of <code>0</code> leaves only the total
+ * limit. The connections are not reclaimed when garbage collected, they must be released.
+ * <p>
+ * As with the {@link MultiThreadedHttpConnectionManager}, each use of a connection gets its own adapter, detached from
+ * the pooled connection when released. A method aborted after its connection was released, and possibly handed to
+ * another thread, thus can not close it.
+ */
+public class PerHostHttpConnectionManager implements HttpConnectionManager {
+
+    /** Connection manager parameters. */
+    private volatile HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+
+    /** Connection permits of all hosts. */
+    private volatile Semaphore totalPermits;
+
+    /** Pools of connections by host key. */
+    private final ConcurrentMap<String, HostPool> hostPools = new ConcurrentHashMap<String, HostPool>();
+
+    /** Whether the connection manager is shut down. */
+    private volatile boolean shutdown = false;
+
+    /** Constructor. */
+    public PerHostHttpConnectionManager() {
+        totalPermits = new Semaphore(params.getMaxTotalConnections(), true);
+    }
+
+    /** {@inheritDoc} */
+    public HttpConnectionManagerParams getParams() {
+        return params;
+    }
+
+    /**
+     * Sets the connection manager parameters, and the total limit of connections in use. The parameters must be set
+     * before the connection manager is used.
+     * 
+     * @param params the connection manager parameters
+     */
+    public void setParams(HttpConnectionManagerParams params) {
+        if (params == null) {
+            throw new IllegalArgumentException("Parameters can not be null");
+        }
+        this.params = params;
+        totalPermits = new Semaphore(params.getMaxTotalConnections(), true);
+    }
+
+    /**
+     * Gets a connection to a host, waiting as long as needed for a free connection.
+     * 
+     * @param hostConfiguration the host configuration
+     * @return the connection, to be released
+     * @throws IllegalThreadStateException if interrupted while waiting, as with the
+     *             {@link MultiThreadedHttpConnectionManager}
+     */
+    public HttpConnection getConnection(HostConfiguration hostConfiguration) {
+        try {
+            return getConnectionWithTimeout(hostConfiguration, 0);
+        } catch (ConnectionPoolTimeoutException e) {
+            throw new IllegalThreadStateException(e.getMessage());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Deprecated
+    public HttpConnection getConnection(HostConfiguration hostConfiguration, long timeout) throws HttpException {
+        try {
+            return getConnectionWithTimeout(hostConfiguration, timeout);
+        } catch (ConnectionPoolTimeoutException e) {
+            throw new HttpException(e.getMessage());
+        }
+    }
+
+    /**
+     * Gets a connection to a host, an idle one if any, otherwise a new one, waiting for a free connection if the
+     * limits are reached. A shorter timeout can be set for one execution in the parameters of its host configuration,
+     * as {@link HttpClientParams#CONNECTION_MANAGER_TIMEOUT}.
+     * 
+     * @param hostConfiguration the host configuration
+     * @param timeout the time in millis to wait for a free connection, <code>0</code> to wait forever
+     * @return the connection, to be released
+     * @throws ConnectionPoolTimeoutException if no connection was free in time, or if interrupted while waiting
+     */
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+            throws ConnectionPoolTimeoutException {
+        if (hostConfiguration == null) {
+            throw new IllegalArgumentException("Host configuration can not be null");
+        }
+        if (shutdown) {
+            throw new IllegalStateException("Connection manager has been shut down");
+        }
+        long hostTimeout = hostConfiguration.getParams().getLongParameter(HttpClientParams.CONNECTION_MANAGER_TIMEOUT, 0);
+        if (hostTimeout > 0 && (timeout <= 0 || hostTimeout < timeout)) {
+            timeout = hostTimeout;
+        }
+        HostPool pool = getHostPool(hostConfiguration, true);
+        Semaphore total = totalPermits;
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        acquire(pool.permits, deadline);
+        try {
+            acquire(total, deadline);
+        } catch (ConnectionPoolTimeoutException e) {
+            pool.permits.release();
+            throw e;
+        }
+        PooledConnection connection = pool.idle.poll();
+        if (connection == null) {
+            connection = new PooledConnection(hostConfiguration, pool);
+            connection.getParams().setDefaults(params);
+            connection.setHttpConnectionManager(this);
+            pool.connections.incrementAndGet();
+        }
+        connection.totalPermits = total;
+        connection.leased.set(true);
+        return new LeasedConnection(connection);
+    }
+
+    /**
+     * Releases a connection, queued as idle connection of its host unless the connection manager is shut down. The
+     * remaining response is read first. A closed connection is reopened by its next user, as with the
+     * {@link MultiThreadedHttpConnectionManager}. Releasing a connection again has no effect.
+     * 
+     * @param conn the connection
+     */
+    public void releaseConnection(HttpConnection conn) {
+        if (conn instanceof LeasedConnection) {
+            conn = ((LeasedConnection) conn).detach();
+            if (conn == null) {
+                // already released
+                return;
+            }
+        }
+        if (!(conn instanceof PooledConnection) || conn.getHttpConnectionManager() != this) {
+            conn.close();
+            return;
+        }
+        PooledConnection connection = (PooledConnection) conn;
+        if (!connection.leased.compareAndSet(true, false)) {
+            return;
+        }
+        finishLastResponse(connection);
+        HostPool pool = connection.pool;
+        if (shutdown || pool.connections.get() > pool.maxConnections) {
+            connection.close();
+            pool.connections.decrementAndGet();
+        } else {
+            connection.idleSince = System.currentTimeMillis();
+            pool.idle.offer(connection);
+        }
+        connection.totalPermits.release();
+        pool.permits.release();
+    }
+
+    /**
+     * Closes the connections idle for longer than a time, and removes them from the pools.
+     * 
+     * @param idleTimeout the idle time in millis
+     */
+    public void closeIdleConnections(long idleTimeout) {
+        long idleSince = System.currentTimeMillis() - idleTimeout;
+        for (HostPool pool : hostPools.values()) {
+            Iterator<PooledConnection> connections = pool.idle.iterator();
+            while (connections.hasNext()) {
+                PooledConnection connection = connections.next();
+                if (connection.idleSince <= idleSince && pool.idle.remove(connection)) {
+                    connection.close();
+                    pool.connections.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /** Removes the closed idle connections from the pools. */
+    public void deleteClosedConnections() {
+        for (HostPool pool : hostPools.values()) {
+            Iterator<PooledConnection> connections = pool.idle.iterator();
+            while (connections.hasNext()) {
+                PooledConnection connection = connections.next();
+                if (!connection.isOpen() && pool.idle.remove(connection)) {
+                    pool.connections.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of connections of a host, idle or in use.
+     * 
+     * @param hostConfiguration the host configuration
+     * @return the number of connections of the host
+     */
+    public int getConnectionsInPool(HostConfiguration hostConfiguration) {
+        HostPool pool = getHostPool(hostConfiguration, false);
+        return pool == null ? 0 : pool.connections.get();
+    }
+
+    /**
+     * Gets the number of connections of all hosts, idle or in use.
+     * 
+     * @return the number of connections
+     */
+    public int getConnectionsInPool() {
+        int connections = 0;
+        for (HostPool pool : hostPools.values()) {
+            connections += pool.connections.get();
+        }
+        return connections;
+    }
+
+    /**
+     * Shuts the connection manager down, closing the idle connections. The connections in use are closed when
+     * released.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (HostPool pool : hostPools.values()) {
+            PooledConnection connection;
+            while ((connection = pool.idle.poll()) != null) {
+                connection.close();
+                pool.connections.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Gets the pool of a host.
+     * 
+     * @param hostConfiguration the host configuration
+     * @param create whether to create the pool if missing
+     * @return the pool of the host, or <code>null</code> if missing and not created
+     */
+    private HostPool getHostPool(HostConfiguration hostConfiguration, boolean create) {
+        String key = getHostKey(hostConfiguration);
+        HostPool pool = hostPools.get(key);
+        if (pool == null && create) {
+            pool = new HostPool(params.getMaxConnectionsPerHost(hostConfiguration));
+            HostPool existing = hostPools.putIfAbsent(key, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Gets the key of a host configuration. The pools are not keyed by the host configurations themselves, whose
+     * synchronized equals method would lock the shared keys.
+     * 
+     * @param hostConfiguration the host configuration
+     * @return the key of the host, proxy and local address
+     */
+    private static String getHostKey(HostConfiguration hostConfiguration) {
+        StringBuilder key = new StringBuilder(64);
+        key.append(hostConfiguration.getHostURL());
+        if (hostConfiguration.getProxyHost() != null) {
+            key.append(" proxy ").append(hostConfiguration.getProxyHost()).append(':').append(
+                    hostConfiguration.getProxyPort());
+        }
+        if (hostConfiguration.getLocalAddress() != null) {
+            key.append(" local ").append(hostConfiguration.getLocalAddress().getHostAddress());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Acquires a permit before a deadline.
+     * 
+     * @param permits the permits
+     * @param deadline the deadline in millis, <code>0</code> to wait forever
+     * @throws ConnectionPoolTimeoutException if the deadline is reached, or if interrupted while waiting
+     */
+    private static void acquire(Semaphore permits, long deadline) throws ConnectionPoolTimeoutException {
+        try {
+            if (deadline == 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS)) {
+                throw new ConnectionPoolTimeoutException("Timeout waiting for connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionPoolTimeoutException("Interrupted while waiting for connection");
+        }
+    }
+
+    /**
+     * Reads the remaining response of a connection, so the next request of the connection does not read it. The
+     * connection is closed if the response can not be read.
+     * 
+     * @param connection the connection
+     */
+    private static void finishLastResponse(HttpConnection connection) {
+        InputStream lastResponse = connection.getLastResponseInputStream();
+        if (lastResponse != null) {
+            connection.setLastResponseInputStream(null);
+            try {
+                lastResponse.close();
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    /** The connections of a host. */
+    private static final class HostPool {
+
+        /** Maximum number of connections of the host. */
+        private final int maxConnections;
+
+        /** Connection permits of the host. */
+        private final Semaphore permits;
+
+        /** Idle connections, the least recently released first. */
+        private final ConcurrentLinkedQueue<PooledConnection> idle = new ConcurrentLinkedQueue<PooledConnection>();
+
+        /** Number of connections of the host, idle or in use. */
+        private final AtomicInteger connections = new AtomicInteger();
+
+        /**
+         * Constructor.
+         * 
+         * @param maxConnections maximum number of connections of the host, <code>0</code> for no maximum
+         */
+        HostPool(int maxConnections) {
+            this.maxConnections = maxConnections > 0 ? maxConnections : Integer.MAX_VALUE;
+            permits = new Semaphore(this.maxConnections, true);
+        }
+    }
+
+    /** A connection of a host pool. */
+    private static final class PooledConnection extends HttpConnection {
+
+        /** The pool of the connection host. */
+        private final HostPool pool;
+
+        /** The total permits the connection is using a permit of. */
+        private volatile Semaphore totalPermits;
+
+        /** Whether the connection is in use. */
+        private final AtomicBoolean leased = new AtomicBoolean();
+
+        /** Time in millis the connection was released. */
+        private volatile long idleSince;
+
+        /**
+         * Constructor.
+         * 
+         * @param hostConfiguration the host configuration
+         * @param pool the pool of the host
+         */
+        PooledConnection(HostConfiguration hostConfiguration, HostPool pool) {
+            super(hostConfiguration);
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * The adapter of a pooled connection handed out for one use. Once released, the adapter is detached: closing it
+     * has no effect, and the other operations fail with an {@link IllegalStateException}.
+     */
+    private static final class LeasedConnection extends HttpConnection {
+
+        /**
+         * Lock guarding the pooled connection, held while closing it. A monitor would pin the carrier thread of a
+         * virtual thread closing the socket.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** The pooled connection, <code>null</code> once released. Guarded by the lock. */
+        private PooledConnection connection;
+
+        /**
+         * Constructor.
+         * 
+         * @param connection the leased pooled connection
+         */
+        LeasedConnection(PooledConnection connection) {
+            super(connection.getHost(), connection.getPort(), connection.getProtocol());
+            this.connection = connection;
+        }
+
+        /**
+         * Detaches the adapter from its pooled connection. Mutually exclusive with {@link #close()}, so a pooled
+         * connection is never closed through an adapter once detached.
+         * 
+         * @return the pooled connection, or <code>null</code> if already detached
+         */
+        PooledConnection detach() {
+            lock.lock();
+            try {
+                PooledConnection detached = connection;
+                connection = null;
+                return detached;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets the pooled connection, <code>null</code> once released.
+         * 
+         * @return the pooled connection or <code>null</code>
+         */
+        private PooledConnection attached() {
+            lock.lock();
+            try {
+                return connection;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Gets the pooled connection.
+         * 
+         * @return the pooled connection
+         * @throws IllegalStateException if the connection has been released
+         */
+        private PooledConnection connection() {
+            PooledConnection attached = attached();
+            if (attached == null) {
+                throw new IllegalStateException("Connection has been released");
+            }
+            return attached;
+        }
+
+        /** Closes the pooled connection, unless released. */
+        public void close() {
+            lock.lock();
+            try {
+                if (connection != null) {
+                    connection.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** {@inheritDoc} */
+        public boolean isOpen() {
+            PooledConnection attached = attached();
+            return attached != null && attached.isOpen();
+        }
+
+        /** {@inheritDoc} */
+        public boolean closeIfStale() throws IOException {
+            lock.lock();
+            try {
+                return connection != null && connection.closeIfStale();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Releases the pooled connection to the connection manager, unless locked or already released. */
+        public void releaseConnection() {
+            if (!isLocked()) {
+                PooledConnection released = detach();
+                if (released != null) {
+                    released.releaseConnection();
+                }
+            }
+        }
+
+        /** {@inheritDoc} */
+        public HttpConnectionManager getHttpConnectionManager() {
+            PooledConnection attached = attached();
+            return attached == null ? null : attached.getHttpConnectionManager();
+        }
+
+        /** {@inheritDoc} */
+        public void setHttpConnectionManager(HttpConnectionManager httpConnectionManager) {
+            lock.lock();
+            try {
+                if (connection != null) {
+                    connection.setHttpConnectionManager(httpConnectionManager);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** {@inheritDoc} */
+        public InputStream getLastResponseInputStream() {
+            PooledConnection attached = attached();
+            return attached == null ? null : attached.getLastResponseInputStream();
+        }
+
+        /** {@inheritDoc} */
+        public void setLastResponseInputStream(InputStream inStream) {
+            lock.lock();
+            try {
+                if (connection != null) {
+                    connection.setLastResponseInputStream(inStream);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** {@inheritDoc} */
+        public String getHost() {
+            return connection().getHost();
+        }
+
+        /** {@inheritDoc} */
+        public void setHost(String host) {
+            connection().setHost(host);
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public String getVirtualHost() {
+            return connection().getVirtualHost();
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void setVirtualHost(String host) {
+            connection().setVirtualHost(host);
+        }
+
+        /** {@inheritDoc} */
+        public int getPort() {
+            return connection().getPort();
+        }
+
+        /** {@inheritDoc} */
+        public void setPort(int port) {
+            connection().setPort(port);
+        }
+
+        /** {@inheritDoc} */
+        public String getProxyHost() {
+            return connection().getProxyHost();
+        }
+
+        /** {@inheritDoc} */
+        public void setProxyHost(String host) {
+            connection().setProxyHost(host);
+        }
+
+        /** {@inheritDoc} */
+        public int getProxyPort() {
+            return connection().getProxyPort();
+        }
+
+        /** {@inheritDoc} */
+        public void setProxyPort(int port) {
+            connection().setProxyPort(port);
+        }
+
+        /** {@inheritDoc} */
+        public boolean isSecure() {
+            return connection().isSecure();
+        }
+
+        /** {@inheritDoc} */
+        public Protocol getProtocol() {
+            return connection().getProtocol();
+        }
+
+        /** {@inheritDoc} */
+        public void setProtocol(Protocol protocol) {
+            connection().setProtocol(protocol);
+        }
+
+        /** {@inheritDoc} */
+        public InetAddress getLocalAddress() {
+            return connection().getLocalAddress();
+        }
+
+        /** {@inheritDoc} */
+        public void setLocalAddress(InetAddress localAddress) {
+            connection().setLocalAddress(localAddress);
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public boolean isStaleCheckingEnabled() {
+            return connection().isStaleCheckingEnabled();
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void setStaleCheckingEnabled(boolean staleCheckEnabled) {
+            connection().setStaleCheckingEnabled(staleCheckEnabled);
+        }
+
+        /** {@inheritDoc} */
+        public boolean isProxied() {
+            return connection().isProxied();
+        }
+
+        /** {@inheritDoc} */
+        public HttpConnectionParams getParams() {
+            return connection().getParams();
+        }
+
+        /** {@inheritDoc} */
+        public void setParams(HttpConnectionParams params) {
+            connection().setParams(params);
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void setSoTimeout(int timeout) throws SocketException {
+            connection().setSoTimeout(timeout);
+        }
+
+        /** {@inheritDoc} */
+        public void setSocketTimeout(int timeout) throws SocketException {
+            connection().setSocketTimeout(timeout);
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public int getSoTimeout() throws SocketException {
+            return connection().getSoTimeout();
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void setConnectionTimeout(int timeout) {
+            connection().setConnectionTimeout(timeout);
+        }
+
+        /** {@inheritDoc} */
+        public void open() throws IOException {
+            connection().open();
+        }
+
+        /** {@inheritDoc} */
+        public void tunnelCreated() throws IOException {
+            connection().tunnelCreated();
+        }
+
+        /** {@inheritDoc} */
+        public boolean isTransparent() {
+            return connection().isTransparent();
+        }
+
+        /** {@inheritDoc} */
+        public void flushRequestOutputStream() throws IOException {
+            connection().flushRequestOutputStream();
+        }
+
+        /** {@inheritDoc} */
+        public OutputStream getRequestOutputStream() throws IOException {
+            return connection().getRequestOutputStream();
+        }
+
+        /** {@inheritDoc} */
+        public InputStream getResponseInputStream() throws IOException {
+            return connection().getResponseInputStream();
+        }
+
+        /** {@inheritDoc} */
+        public boolean isResponseAvailable() throws IOException {
+            return connection().isResponseAvailable();
+        }
+
+        /** {@inheritDoc} */
+        public boolean isResponseAvailable(int timeout) throws IOException {
+            return connection().isResponseAvailable(timeout);
+        }
+
+        /** {@inheritDoc} */
+        public void write(byte[] data) throws IOException {
+            connection().write(data);
+        }
+
+        /** {@inheritDoc} */
+        public void write(byte[] data, int offset, int length) throws IOException {
+            connection().write(data, offset, length);
+        }
+
+        /** {@inheritDoc} */
+        public void writeLine(byte[] data) throws IOException {
+            connection().writeLine(data);
+        }
+
+        /** {@inheritDoc} */
+        public void writeLine() throws IOException {
+            connection().writeLine();
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void print(String data) throws IOException {
+            connection().print(data);
+        }
+
+        /** {@inheritDoc} */
+        public void print(String data, String charset) throws IOException {
+            connection().print(data, charset);
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void printLine(String data) throws IOException {
+            connection().printLine(data);
+        }
+
+        /** {@inheritDoc} */
+        public void printLine(String data, String charset) throws IOException {
+            connection().printLine(data, charset);
+        }
+
+        /** {@inheritDoc} */
+        public void printLine() throws IOException {
+            connection().printLine();
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public String readLine() throws IOException {
+            return connection().readLine();
+        }
+
+        /** {@inheritDoc} */
+        public String readLine(String charset) throws IOException {
+            return connection().readLine(charset);
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void shutdownOutput() {
+            connection().shutdownOutput();
+        }
+
+        /** {@inheritDoc} */
+        public int getSendBufferSize() throws SocketException {
+            return connection().getSendBufferSize();
+        }
+
+        /** {@inheritDoc} */
+        @Deprecated
+        public void setSendBufferSize(int sendBufferSize) throws SocketException {
+            connection().setSendBufferSize(sendBufferSize);
+        }
+    }
+}
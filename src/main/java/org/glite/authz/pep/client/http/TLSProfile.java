@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The TLS protocols and cipher suites enabled on the sockets created by the {@link TLSProtocolSocketFactory}, and the
+ * JSSE provider of its SSL context.
+ * <p>
+ * The cipher suites are offered to the server in the given order, most preferred first, but a server enforcing its own
+ * order, like the JSSE server does by default, picks its most preferred suite of the list. The protocols and cipher
+ * suites not supported by the JSSE provider are ignored, so a profile listing the TLS 1.3 suites can be used with a
+ * provider only supporting TLS 1.2.
+ */
+public class TLSProfile {
+
+    /**
+     * TLS 1.3 and TLS 1.2 with forward secrecy and authenticated encryption only: the TLS 1.3 AES-GCM and
+     * ChaCha20-Poly1305 suites, then the same TLS 1.2 ECDHE suites, AES-128 first.
+     */
+    public static final TLSProfile MODERN = new TLSProfile(new String[] { "TLSv1.3", "TLSv1.2" }, new String[] {
+            "TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384", "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256", "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256" }, null);
+
+    /** Enabled protocols, <code>null</code> for the provider defaults. */
+    private final String[] protocols;
+
+    /** Enabled cipher suites in preference order, <code>null</code> for the provider defaults. */
+    private final String[] cipherSuites;
+
+    /** Name of the JSSE provider, <code>null</code> for the most preferred provider. */
+    private final String provider;
+
+    /**
+     * Constructor.
+     *
+     * @param protocols the enabled protocols, for instance <code>TLSv1.2</code>, <code>null</code> for the provider
+     *            defaults
+     * @param cipherSuites the enabled cipher suites, most preferred first, <code>null</code> for the provider defaults
+     * @param provider the name of the JSSE provider, <code>null</code> for the most preferred provider
+     */
+    public TLSProfile(String[] protocols, String[] cipherSuites, String provider) {
+        if (protocols != null && protocols.length == 0) {
+            throw new IllegalArgumentException("Protocols can not be empty");
+        }
+        if (cipherSuites != null && cipherSuites.length == 0) {
+            throw new IllegalArgumentException("Cipher suites can not be empty");
+        }
+        this.protocols = protocols == null ? null : protocols.clone();
+        this.cipherSuites = cipherSuites == null ? null : cipherSuites.clone();
+        this.provider = provider;
+    }
+
+    /**
+     * Returns a copy of this profile using another JSSE provider.
+     *
+     * @param providerName the name of the JSSE provider, <code>null</code> for the most preferred provider
+     * @return the profile using the provider
+     */
+    public TLSProfile withProvider(String providerName) {
+        return new TLSProfile(protocols, cipherSuites, providerName);
+    }
+
+    /**
+     * Gets the enabled protocols.
+     *
+     * @return the enabled protocols, <code>null</code> for the provider defaults
+     */
+    public String[] getProtocols() {
+        return protocols == null ? null : protocols.clone();
+    }
+
+    /**
+     * Gets the enabled cipher suites.
+     *
+     * @return the enabled cipher suites, most preferred first, <code>null</code> for the provider defaults
+     */
+    public String[] getCipherSuites() {
+        return cipherSuites == null ? null : cipherSuites.clone();
+    }
+
+    /**
+     * Gets the name of the JSSE provider.
+     *
+     * @return the name of the JSSE provider, <code>null</code> for the most preferred provider
+     */
+    public String getProvider() {
+        return provider;
+    }
+
+    /**
+     * Keeps the protocols or cipher suites of the profile supported by the provider, in the profile order.
+     *
+     * @param enabled the protocols or cipher suites of the profile, <code>null</code> for the provider defaults
+     * @param supported the protocols or cipher suites supported by the provider
+     * @return the supported protocols or cipher suites of the profile, <code>null</code> for the provider defaults
+     * @throws IllegalArgumentException if none is supported
+     */
+    static String[] filterSupported(String[] enabled, String[] supported) throws IllegalArgumentException {
+        if (enabled == null) {
+            return null;
+        }
+        List<String> supportedList = Arrays.asList(supported);
+        List<String> filtered = new ArrayList<String>(enabled.length);
+        for (String name : enabled) {
+            if (supportedList.contains(name)) {
+                filtered.add(name);
+            }
+        }
+        if (filtered.isEmpty()) {
+            throw new IllegalArgumentException("None of " + Arrays.asList(enabled) + " is supported");
+        }
+        return filtered.toArray(new String[filtered.size()]);
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("TLSProfile{");
+        sb.append("protocols=").append(protocols == null ? null : Arrays.asList(protocols));
+        sb.append(", cipherSuites=").append(cipherSuites == null ? null : Arrays.asList(cipherSuites));
+        sb.append(", provider=").append(provider);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -19,15 +19,28 @@
 package org.glite.authz.pep.client.http;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
@@ -37,6 +50,17 @@ import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
 /** 
  * An SSL/TLS socket factory that uses {@link KeyStoreFactory}s to get its key and trust material. 
+ * <p>
+ * The sockets created for the HTTP client connections complete the TLS handshake when created, bounded by the
+ * connection timeout, so an opened connection, for instance by the pool warm-up, is ready to send a request.
+ * <p>
+ * The client sessions are cached by the {@link SSLContext}, keyed by host and port, and resumed by the new
+ * connections to the same PEP daemon, with the session ID for TLS 1.2 or with a session ticket for TLS 1.3, which
+ * skips the certificate exchange and validation and the key exchange. The size and the timeout of the session cache
+ * can be set, and the full and resumed handshakes are counted.
+ * <p>
+ * An optional {@link TLSProfile} selects the JSSE provider, and the protocols and cipher suites enabled on every
+ * created socket. The negotiated protocols and cipher suites are counted.
  */
 public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
 
@@ -49,6 +73,21 @@ public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
     /** Currently active SSL context. */
     private SSLContext sslContext;
 
+    /** Enabled protocols, <code>null</code> for the provider defaults. */
+    private String[] enabledProtocols;
+
+    /** Enabled cipher suites, <code>null</code> for the provider defaults. */
+    private String[] enabledCipherSuites;
+
+    /** Number of handshakes by negotiated protocol and cipher suite. */
+    private final ConcurrentMap<String, AtomicLong> negotiatedParameters = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Number of full handshakes. */
+    private final AtomicLong fullHandshakes = new AtomicLong();
+
+    /** Number of abbreviated handshakes, resuming a cached session. */
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
     /**
      * Constructor.
      * 
@@ -59,30 +98,153 @@ public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
      *             {@link SSLContext} used to create new sockets
      */
     public TLSProtocolSocketFactory(X509KeyManager keyMgr, X509TrustManager trustMgr) throws IllegalArgumentException {
+        this(keyMgr, trustMgr, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param keyMgr manager used to retrieve client-cert authentication keys for a given host
+     * @param trustMgr manager used to validate the X.509 credentials of a given host
+     * @param profile the protocols, cipher suites and JSSE provider to use, <code>null</code> for the JSSE defaults
+     * 
+     * @throws IllegalArgumentException thrown if the given key or trust manager can not be used to create the
+     *             {@link SSLContext} used to create new sockets, or if the provider does not exist or supports none
+     *             of the protocols or cipher suites of the profile
+     */
+    public TLSProtocolSocketFactory(X509KeyManager keyMgr, X509TrustManager trustMgr, TLSProfile profile)
+            throws IllegalArgumentException {
         keyManager = keyMgr;
         trustManager = trustMgr;
 
         try {
-            sslContext = SSLContext.getInstance("SSL");
+            if (profile == null) {
+                sslContext = SSLContext.getInstance("SSL");
+            } else if (profile.getProvider() == null) {
+                sslContext = SSLContext.getInstance("TLS");
+            } else {
+                sslContext = SSLContext.getInstance("TLS", profile.getProvider());
+            }
             sslContext.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, null);
         } catch (GeneralSecurityException e) {
             throw new IllegalArgumentException("Error create SSL context", e);
         }
+
+        if (profile != null) {
+            SSLSocketFactory socketFactory = sslContext.getSocketFactory();
+            String[] supportedProtocols;
+            try {
+                SSLSocket socket = (SSLSocket) socketFactory.createSocket();
+                supportedProtocols = socket.getSupportedProtocols();
+                socket.close();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Error create SSL socket", e);
+            }
+            enabledProtocols = TLSProfile.filterSupported(profile.getProtocols(), supportedProtocols);
+            enabledCipherSuites = TLSProfile.filterSupported(profile.getCipherSuites(),
+                    socketFactory.getSupportedCipherSuites());
+        }
+    }
+
+    /**
+     * Gets the maximum number of client sessions in the session cache.
+     * 
+     * @return the maximum number of cached sessions, <code>0</code> if unlimited
+     */
+    public int getSessionCacheSize() {
+        return getSessionContext().getSessionCacheSize();
+    }
+
+    /**
+     * Sets the maximum number of client sessions in the session cache. One session per PEP daemon endpoint is
+     * enough, but the cache is shared by all the hosts this factory connects to.
+     * 
+     * @param size the maximum number of cached sessions, <code>0</code> for unlimited
+     */
+    public void setSessionCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Session cache size can not be negative");
+        }
+        getSessionContext().setSessionCacheSize(size);
+    }
+
+    /**
+     * Gets the timeout of the cached client sessions.
+     * 
+     * @return the session timeout in seconds, <code>0</code> if unlimited
+     */
+    public int getSessionTimeout() {
+        return getSessionContext().getSessionTimeout();
+    }
+
+    /**
+     * Sets the timeout of the cached client sessions. A session older than the timeout is not resumed, a full
+     * handshake is done instead. The PEP daemon may expire its sessions earlier.
+     * 
+     * @param seconds the session timeout in seconds, <code>0</code> for unlimited
+     */
+    public void setSessionTimeout(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Session timeout can not be negative");
+        }
+        getSessionContext().setSessionTimeout(seconds);
+    }
+
+    /**
+     * Gets the number of full handshakes done by the sockets created for the HTTP client connections.
+     * 
+     * @return the number of full handshakes
+     */
+    public long getFullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * Gets the number of abbreviated handshakes, resuming a cached session, done by the sockets created for the HTTP
+     * client connections.
+     * 
+     * @return the number of resumed handshakes
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * Gets the number of handshakes by negotiated protocol and cipher suite, for instance
+     * <code>TLSv1.3 TLS_AES_128_GCM_SHA256</code>.
+     * 
+     * @return a snapshot of the number of handshakes by protocol and cipher suite
+     */
+    public Map<String, Long> getNegotiatedParameters() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : negotiatedParameters.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the client session context of the SSL context.
+     * 
+     * @return the client session context
+     */
+    private SSLSessionContext getSessionContext() {
+        return sslContext.getClientSessionContext();
     }
 
     /** {@inheritDoc} */
     public Socket createSocket(String host, int port) throws IOException {
-        return sslContext.getSocketFactory().createSocket(host, port);
+        return configure(sslContext.getSocketFactory().createSocket(host, port));
     }
 
     /** {@inheritDoc} */
     public Socket createSocket(String host, int port, InetAddress localHost, int clientPort) throws IOException {
-        return sslContext.getSocketFactory().createSocket(host, port, localHost, clientPort);
+        return configure(sslContext.getSocketFactory().createSocket(host, port, localHost, clientPort));
     }
 
     /** {@inheritDoc} */
     public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
-        return sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
+        return configure(sslContext.getSocketFactory().createSocket(socket, host, port, autoClose));
     }
 
     /** {@inheritDoc} */
@@ -93,16 +255,172 @@ public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
         }
         int timeout = connParams.getConnectionTimeout();
         SocketFactory socketfactory = sslContext.getSocketFactory();
+        Socket socket;
         if (timeout == 0) {
-            return socketfactory.createSocket(host, port, localHost, localPort);
+            socket = configure(socketfactory.createSocket(host, port, localHost, localPort));
         } else {
-            Socket socket = socketfactory.createSocket();
+            socket = configure(socketfactory.createSocket());
             SocketAddress localaddr = new InetSocketAddress(localHost, localPort);
             SocketAddress remoteaddr = new InetSocketAddress(host, port);
             socket.bind(localaddr);
             socket.connect(remoteaddr, timeout);
-            return socket;
         }
+        startHandshake(socket, timeout);
+        return socket;
+    }
+
+    /**
+     * Enables the protocols and cipher suites of the profile on a socket, before its handshake.
+     * 
+     * @param socket the created socket
+     * @return the socket
+     */
+    private Socket configure(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            SSLSocket sslSocket = (SSLSocket) socket;
+            if (enabledProtocols != null) {
+                sslSocket.setEnabledProtocols(enabledProtocols);
+            }
+            if (enabledCipherSuites != null) {
+                sslSocket.setEnabledCipherSuites(enabledCipherSuites);
+            }
+        }
+        return socket;
+    }
+
+    /**
+     * Completes the TLS handshake of a connected socket, and counts it as full or resumed. A resumed session keeps
+     * the creation time of the session established by the full handshake. The read timeout is then set again by the
+     * HTTP connection.
+     * 
+     * @param socket the connected socket
+     * @param timeout the handshake timeout in millis, <code>0</code> for none
+     * @throws IOException if the handshake fails, the socket is then closed
+     */
+    private void startHandshake(Socket socket, int timeout) throws IOException {
+        if (!(socket instanceof SSLSocket)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            socket.setSoTimeout(timeout);
+            ((SSLSocket) socket).startHandshake();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        countHandshake(((SSLSocket) socket).getSession(), start);
+    }
+
+    /**
+     * Counts a completed handshake as full or resumed, and its negotiated protocol and cipher suite.
+     * 
+     * @param session the session of the handshake
+     * @param start the start time in millis of the handshake
+     */
+    private void countHandshake(SSLSession session, long start) {
+        if (session.getCreationTime() < start) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+        String parameters = session.getProtocol() + " " + session.getCipherSuite();
+        AtomicLong count = negotiatedParameters.get(parameters);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = negotiatedParameters.putIfAbsent(parameters, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Gets a JSSE socket factory creating the sockets like this factory, for the HTTP clients not using the
+     * commons-httpclient socket factories. The protocols and cipher suites of the profile are enabled, and the
+     * handshakes, started by the HTTP client, are counted when completed.
+     * 
+     * @return the JSSE socket factory
+     */
+    public SSLSocketFactory getSSLSocketFactory() {
+        return new ProfileSSLSocketFactory(sslContext.getSocketFactory());
+    }
+
+    /**
+     * Creates a client SSL engine, for the non-blocking HTTP clients. The protocols and cipher suites of the profile
+     * are enabled. The host and port of the PEP daemon identify the cached session to resume.
+     * 
+     * @param host the PEP daemon host
+     * @param port the PEP daemon port
+     * @return the client SSL engine
+     * @see #handshakeCompleted(SSLSession, long)
+     */
+    public SSLEngine createSSLEngine(String host, int port) {
+        SSLEngine engine = sslContext.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        if (enabledProtocols != null) {
+            engine.setEnabledProtocols(enabledProtocols);
+        }
+        if (enabledCipherSuites != null) {
+            engine.setEnabledCipherSuites(enabledCipherSuites);
+        }
+        return engine;
+    }
+
+    /**
+     * Creates a client SSL engine offering application protocols with ALPN, for instance <code>h2</code> and
+     * <code>http/1.1</code>. ALPN requires a Java runtime supporting
+     * <code>SSLParameters.setApplicationProtocols</code>, otherwise no application protocol is offered.
+     * 
+     * @param host the PEP daemon host
+     * @param port the PEP daemon port
+     * @param applicationProtocols the application protocols, most preferred first
+     * @return the client SSL engine, offering the application protocols if supported
+     * @see #getApplicationProtocol(SSLEngine)
+     */
+    public SSLEngine createSSLEngine(String host, int port, String[] applicationProtocols) {
+        SSLEngine engine = createSSLEngine(host, port);
+        try {
+            // Java 9+ API, also backported to Java 8u251
+            Method getSSLParameters = SSLEngine.class.getMethod("getSSLParameters");
+            Object parameters = getSSLParameters.invoke(engine);
+            Method setApplicationProtocols = parameters.getClass().getMethod("setApplicationProtocols",
+                    String[].class);
+            setApplicationProtocols.invoke(parameters, new Object[] { applicationProtocols.clone() });
+            Method setSSLParameters = SSLEngine.class.getMethod("setSSLParameters", getSSLParameters.getReturnType());
+            setSSLParameters.invoke(engine, parameters);
+        } catch (Exception e) {
+            // ALPN not supported by the runtime
+        }
+        return engine;
+    }
+
+    /**
+     * Gets the application protocol negotiated with ALPN by an SSL engine.
+     * 
+     * @param engine the SSL engine, after the handshake
+     * @return the negotiated application protocol, or <code>null</code> if none was negotiated or ALPN is not
+     *         supported by the runtime
+     */
+    public static String getApplicationProtocol(SSLEngine engine) {
+        try {
+            Method getApplicationProtocol = SSLEngine.class.getMethod("getApplicationProtocol");
+            String protocol = (String) getApplicationProtocol.invoke(engine);
+            return protocol == null || protocol.length() == 0 ? null : protocol;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Counts the completed handshake of an SSL engine created by this factory.
+     * 
+     * @param session the session of the handshake
+     * @param start the start time in millis of the handshake
+     */
+    public void handshakeCompleted(SSLSession session, long start) {
+        countHandshake(session, start);
     }
 
     /** {@inheritDoc} */
@@ -114,4 +432,82 @@ public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
     public int hashCode() {
         return getClass().hashCode();
     }
-}
\ No newline at end of file
+
+    /** JSSE socket factory enabling the profile and counting the handshakes of its sockets. */
+    private class ProfileSSLSocketFactory extends SSLSocketFactory {
+
+        /** The socket factory of the SSL context. */
+        private final SSLSocketFactory delegate;
+
+        /**
+         * Constructor.
+         * 
+         * @param delegate the socket factory of the SSL context
+         */
+        ProfileSSLSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        /** {@inheritDoc} */
+        public String[] getDefaultCipherSuites() {
+            return enabledCipherSuites != null ? enabledCipherSuites.clone() : delegate.getDefaultCipherSuites();
+        }
+
+        /** {@inheritDoc} */
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        /** {@inheritDoc} */
+        public Socket createSocket() throws IOException {
+            return track(delegate.createSocket());
+        }
+
+        /** {@inheritDoc} */
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return track(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        /** {@inheritDoc} */
+        public Socket createSocket(String host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        /** {@inheritDoc} */
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return track(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        /** {@inheritDoc} */
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        /** {@inheritDoc} */
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return track(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        /**
+         * Enables the profile on a created socket, and counts its first handshake. The socket is created before its
+         * handshake starts.
+         * 
+         * @param socket the created socket
+         * @return the socket
+         */
+        private Socket track(Socket socket) {
+            configure(socket);
+            if (socket instanceof SSLSocket) {
+                final long created = System.currentTimeMillis();
+                ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        event.getSocket().removeHandshakeCompletedListener(this);
+                        countHandshake(event.getSession(), created);
+                    }
+                });
+            }
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * HPACK header compression of the HTTP/2 transport (RFC 7541).
+ * <p>
+ * The request headers are encoded as literals without indexing, with the
+ * name from the static table when it has one, and without Huffman coding,
+ * so the encoder is stateless. The response headers are decoded with the
+ * static and the dynamic tables and the Huffman code.
+ */
+final class Hpack {
+
+    /** Default and maximum size of the dynamic table */
+    static final int TABLE_SIZE= 4096;
+
+    /** Maximum size of a decoded header list, as computed for the table */
+    static final int MAX_HEADER_LIST_SIZE= 64 * 1024;
+
+    /** The static table, index <code>1</code> first */
+    private static final String[][] STATIC_TABLE= { { ":authority", "" },
+            { ":method", "GET" }, { ":method", "POST" }, { ":path", "/" },
+            { ":path", "/index.html" }, { ":scheme", "http" },
+            { ":scheme", "https" }, { ":status", "200" },
+            { ":status", "204" }, { ":status", "206" }, { ":status", "304" },
+            { ":status", "400" }, { ":status", "404" }, { ":status", "500" },
+            { "accept-charset", "" }, { "accept-encoding", "gzip, deflate" },
+            { "accept-language", "" }, { "accept-ranges", "" },
+            { "accept", "" }, { "access-control-allow-origin", "" },
+            { "age", "" }, { "allow", "" }, { "authorization", "" },
+            { "cache-control", "" }, { "content-disposition", "" },
+            { "content-encoding", "" }, { "content-language", "" },
+            { "content-length", "" }, { "content-location", "" },
+            { "content-range", "" }, { "content-type", "" },
+            { "cookie", "" }, { "date", "" }, { "etag", "" },
+            { "expect", "" }, { "expires", "" }, { "from", "" },
+            { "host", "" }, { "if-match", "" }, { "if-modified-since", "" },
+            { "if-none-match", "" }, { "if-range", "" },
+            { "if-unmodified-since", "" }, { "last-modified", "" },
+            { "link", "" }, { "location", "" }, { "max-forwards", "" },
+            { "proxy-authenticate", "" }, { "proxy-authorization", "" },
+            { "range", "" }, { "referer", "" }, { "refresh", "" },
+            { "retry-after", "" }, { "server", "" }, { "set-cookie", "" },
+            { "strict-transport-security", "" },
+            { "transfer-encoding", "" }, { "user-agent", "" },
+            { "vary", "" }, { "via", "" }, { "www-authenticate", "" } };
+
+    /** Index in the static table of the header names */
+    private static final Map<String, Integer> STATIC_NAMES= new HashMap<String, Integer>();
+
+    /** Huffman codes of the symbols, right aligned */
+    private static final int[] HUFFMAN_CODES= {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee };
+
+    /** Length in bits of the Huffman codes of the symbols */
+    private static final byte[] HUFFMAN_LENGTHS= {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26 };
+
+    /**
+     * The Huffman decoding tree: the children of node <code>n</code> are at
+     * <code>2 * n</code> and <code>2 * n + 1</code>, a negative child is the
+     * leaf of the symbol <code>-child - 1</code>, <code>0</code> no child.
+     */
+    private static final int[] HUFFMAN_TREE;
+
+    static {
+        for (int i= STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], Integer.valueOf(i + 1));
+        }
+        int[] tree= new int[2 * 256];
+        int nodes= 1;
+        for (int symbol= 0; symbol < 256; symbol++) {
+            int node= 0;
+            int length= HUFFMAN_LENGTHS[symbol];
+            for (int bit= length - 1; bit > 0; bit--) {
+                int child= 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+                if (tree[child] == 0) {
+                    tree[child]= nodes++;
+                }
+                node= tree[child];
+            }
+            tree[2 * node + (HUFFMAN_CODES[symbol] & 1)]= -symbol - 1;
+        }
+        HUFFMAN_TREE= tree;
+    }
+
+    /** The dynamic table, newest entry first */
+    private final LinkedList<String[]> dynamicTable_= new LinkedList<String[]>();
+
+    /** Size of the dynamic table */
+    private int tableSize_= 0;
+
+    /** Maximum size of the dynamic table, set by the encoder */
+    private int maxTableSize_= TABLE_SIZE;
+
+    /**
+     * Encodes a header as a literal without indexing.
+     * 
+     * @param name
+     *            the lower case header name
+     * @param value
+     *            the header value
+     * @param out
+     *            the header block
+     */
+    static void encode(String name, String value, ByteArrayOutputStream out) {
+        Integer index= STATIC_NAMES.get(name);
+        if (index == null) {
+            out.write(0);
+            encodeString(name, out);
+        }
+        else {
+            encodeInteger(index.intValue(), 0, 4, out);
+        }
+        encodeString(value, out);
+    }
+
+    /**
+     * Encodes a header fully indexed in the static table, for instance
+     * <code>:method: POST</code>.
+     * 
+     * @param name
+     *            the header name
+     * @param value
+     *            the header value
+     * @param out
+     *            the header block
+     * @return <code>false</code> if the static table does not contain the
+     *         header
+     */
+    static boolean encodeIndexed(String name, String value,
+            ByteArrayOutputStream out) {
+        for (int i= 0; i < STATIC_TABLE.length; i++) {
+            if (STATIC_TABLE[i][0].equals(name)
+                    && STATIC_TABLE[i][1].equals(value)) {
+                encodeInteger(i + 1, 0x80, 7, out);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a string literal, without Huffman coding.
+     * 
+     * @param s
+     *            the ISO-8859-1 string
+     * @param out
+     *            the header block
+     */
+    private static void encodeString(String s, ByteArrayOutputStream out) {
+        encodeInteger(s.length(), 0, 7, out);
+        for (int i= 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    /**
+     * Encodes an integer with a prefix.
+     * 
+     * @param value
+     *            the integer
+     * @param flags
+     *            the flags before the prefix
+     * @param prefixBits
+     *            the number of bits of the prefix
+     * @param out
+     *            the header block
+     */
+    private static void encodeInteger(int value, int flags, int prefixBits,
+            ByteArrayOutputStream out) {
+        int max= (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value-= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value>>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Decodes a header block. The header names are lower case, the repeated
+     * headers are joined with a comma.
+     * 
+     * @param block
+     *            the complete header block
+     * @return the headers, including the pseudo headers
+     * @throws IOException
+     *             if the header block is invalid or too large
+     */
+    Map<String, String> decode(ByteBuffer block) throws IOException {
+        Map<String, String> headers= new HashMap<String, String>();
+        int listSize= 0;
+        boolean first= true;
+        while (block.hasRemaining()) {
+            int b= block.get(block.position()) & 0xFF;
+            String name;
+            String value;
+            if ((b & 0x80) != 0) {
+                String[] entry= getEntry(decodeInteger(block, 7));
+                name= entry[0];
+                value= entry[1];
+            }
+            else if ((b & 0xE0) == 0x20) {
+                // dynamic table size update, only at the block start
+                int size= decodeInteger(block, 5);
+                if (!first || size > TABLE_SIZE) {
+                    throw new IOException("Invalid HPACK table size update "
+                            + size);
+                }
+                maxTableSize_= size;
+                evict(0);
+                continue;
+            }
+            else {
+                boolean indexing= (b & 0xC0) == 0x40;
+                int index= decodeInteger(block, indexing ? 6 : 4);
+                name= index == 0 ? decodeString(block) : getEntry(index)[0];
+                value= decodeString(block);
+                if (indexing) {
+                    add(name, value);
+                }
+            }
+            first= false;
+            listSize+= name.length() + value.length() + 32;
+            if (listSize > MAX_HEADER_LIST_SIZE) {
+                throw new IOException("HTTP/2 header list too large");
+            }
+            String previous= headers.get(name);
+            headers.put(name, previous == null ? value : previous + ","
+                    + value);
+        }
+        return headers;
+    }
+
+    /**
+     * Gets an entry of the static or dynamic table.
+     * 
+     * @param index
+     *            the index of the entry
+     * @return the name and value of the entry
+     * @throws IOException
+     *             if the index is invalid
+     */
+    private String[] getEntry(int index) throws IOException {
+        if (index > 0 && index <= STATIC_TABLE.length) {
+            return STATIC_TABLE[index - 1];
+        }
+        int dynamicIndex= index - STATIC_TABLE.length - 1;
+        if (index <= 0 || dynamicIndex >= dynamicTable_.size()) {
+            throw new IOException("Invalid HPACK index " + index);
+        }
+        return dynamicTable_.get(dynamicIndex);
+    }
+
+    /**
+     * Adds an entry to the dynamic table, evicting the oldest entries.
+     * 
+     * @param name
+     *            the header name
+     * @param value
+     *            the header value
+     */
+    private void add(String name, String value) {
+        int size= name.length() + value.length() + 32;
+        if (size > maxTableSize_) {
+            dynamicTable_.clear();
+            tableSize_= 0;
+            return;
+        }
+        evict(size);
+        dynamicTable_.addFirst(new String[] { name, value });
+        tableSize_+= size;
+    }
+
+    /**
+     * Evicts the oldest entries of the dynamic table.
+     * 
+     * @param size
+     *            the size to make room for
+     */
+    private void evict(int size) {
+        while (tableSize_ + size > maxTableSize_) {
+            String[] entry= dynamicTable_.removeLast();
+            tableSize_-= entry[0].length() + entry[1].length() + 32;
+        }
+    }
+
+    /**
+     * Decodes an integer with a prefix.
+     * 
+     * @param block
+     *            the header block
+     * @param prefixBits
+     *            the number of bits of the prefix
+     * @return the integer
+     * @throws IOException
+     *             if the integer is truncated or too large
+     */
+    private static int decodeInteger(ByteBuffer block, int prefixBits)
+            throws IOException {
+        int max= (1 << prefixBits) - 1;
+        int value= block.get() & max;
+        if (value < max) {
+            return value;
+        }
+        for (int shift= 0; shift < 28; shift+= 7) {
+            if (!block.hasRemaining()) {
+                throw new IOException("Truncated HPACK integer");
+            }
+            int b= block.get() & 0xFF;
+            value+= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("HPACK integer too large");
+    }
+
+    /**
+     * Decodes a string literal.
+     * 
+     * @param block
+     *            the header block
+     * @return the ISO-8859-1 string
+     * @throws IOException
+     *             if the string is truncated or badly Huffman coded
+     */
+    private static String decodeString(ByteBuffer block) throws IOException {
+        if (!block.hasRemaining()) {
+            throw new IOException("Truncated HPACK string");
+        }
+        boolean huffman= (block.get(block.position()) & 0x80) != 0;
+        int length= decodeInteger(block, 7);
+        if (length > block.remaining()) {
+            throw new IOException("Truncated HPACK string");
+        }
+        StringBuilder s= new StringBuilder(huffman ? length * 8 / 5 : length);
+        if (!huffman) {
+            for (int i= 0; i < length; i++) {
+                s.append((char) (block.get() & 0xFF));
+            }
+            return s.toString();
+        }
+        int node= 0;
+        int padding= 0;
+        for (int i= 0; i < length; i++) {
+            int b= block.get() & 0xFF;
+            for (int bit= 7; bit >= 0; bit--) {
+                int child= HUFFMAN_TREE[2 * node + ((b >>> bit) & 1)];
+                if (child < 0) {
+                    s.append((char) (-child - 1));
+                    node= 0;
+                    padding= 0;
+                }
+                else if (child == 0) {
+                    // only the EOS code, longer than any symbol, is missing
+                    throw new IOException("Invalid HPACK Huffman code");
+                }
+                else {
+                    node= child;
+                    padding= ((b >>> bit) & 1) == 0 ? 8 : padding + 1;
+                }
+            }
+        }
+        // the padding is the most significant bits of EOS, all ones
+        if (padding > 7) {
+            throw new IOException("Invalid HPACK Huffman padding");
+        }
+        return s.toString();
+    }
+
+    /**
+     * Checks if a header can be sent over HTTP/2.
+     * 
+     * @param name
+     *            the header name
+     * @return <code>false</code> for the connection specific headers
+     */
+    static boolean isAllowed(String name) {
+        String lowerCase= name.toLowerCase(Locale.ENGLISH);
+        return !"connection".equals(lowerCase)
+                && !"keep-alive".equals(lowerCase)
+                && !"proxy-connection".equals(lowerCase)
+                && !"transfer-encoding".equals(lowerCase)
+                && !"upgrade".equals(lowerCase) && !"host".equals(lowerCase)
+                && !"content-length".equals(lowerCase);
+    }
+}
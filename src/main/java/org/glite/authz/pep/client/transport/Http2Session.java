@@ -0,0 +1,976 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The HTTP/2 framing of a client connection (RFC 7540), independent of the
+ * network I/O: the received bytes are parsed into frames, and the frames to
+ * send are appended to an output queue.
+ * <p>
+ * Each request is sent on a new stream, its header block encoded by
+ * {@link Hpack}, and its body in <code>DATA</code> frames within the flow
+ * control windows of the stream and of the connection. The response headers
+ * and body are buffered until the end of the stream. The received
+ * <code>DATA</code> frames are acknowledged with <code>WINDOW_UPDATE</code>
+ * frames when half of the window is consumed. Server push is disabled.
+ * <p>
+ * The number of concurrent streams is capped by the local limit and by the
+ * <code>SETTINGS_MAX_CONCURRENT_STREAMS</code> of the server, a single stream
+ * being created until the settings of the server are received. A protocol
+ * error of the connection throws an {@link IOException}, and the connection
+ * must be closed.
+ */
+final class Http2Session {
+
+    /** Receives the responses of the streams. */
+    interface Listener {
+
+        /**
+         * Called when the response of a stream is complete.
+         * 
+         * @param streamId
+         *            the stream identifier
+         * @param response
+         *            the response
+         */
+        void responseReceived(int streamId, ResponseParser.Response response);
+
+        /**
+         * Called when a stream is reset by the server, or not processed
+         * before a <code>GOAWAY</code>.
+         * 
+         * @param streamId
+         *            the stream identifier
+         * @param cause
+         *            the cause of the reset
+         * @param unprocessed
+         *            <code>true</code> if the server did not process the
+         *            request, which can be sent again
+         */
+        void streamReset(int streamId, IOException cause, boolean unprocessed);
+    }
+
+    /** The connection preface of the client */
+    private static final byte[] PREFACE;
+
+    /** Frame types */
+    private static final int DATA= 0x0, HEADERS= 0x1, PRIORITY= 0x2,
+            RST_STREAM= 0x3, SETTINGS= 0x4, PUSH_PROMISE= 0x5, PING= 0x6,
+            GOAWAY= 0x7, WINDOW_UPDATE= 0x8, CONTINUATION= 0x9;
+
+    /** Frame flags */
+    private static final int END_STREAM= 0x1, ACK= 0x1, END_HEADERS= 0x4,
+            PADDED= 0x8, PRIORITY_FLAG= 0x20;
+
+    /** Settings identifiers */
+    private static final int SETTINGS_ENABLE_PUSH= 0x2,
+            SETTINGS_MAX_CONCURRENT_STREAMS= 0x3,
+            SETTINGS_INITIAL_WINDOW_SIZE= 0x4, SETTINGS_MAX_FRAME_SIZE= 0x5,
+            SETTINGS_MAX_HEADER_LIST_SIZE= 0x6;
+
+    /** Error codes */
+    private static final int NO_ERROR= 0x0, PROTOCOL_ERROR= 0x1,
+            FLOW_CONTROL_ERROR= 0x3, FRAME_SIZE_ERROR= 0x6,
+            REFUSED_STREAM= 0x7, CANCEL= 0x8;
+
+    /** Names of the error codes */
+    private static final String[] ERROR_NAMES= { "NO_ERROR",
+            "PROTOCOL_ERROR", "INTERNAL_ERROR", "FLOW_CONTROL_ERROR",
+            "SETTINGS_TIMEOUT", "STREAM_CLOSED", "FRAME_SIZE_ERROR",
+            "REFUSED_STREAM", "CANCEL", "COMPRESSION_ERROR",
+            "CONNECT_ERROR", "ENHANCE_YOUR_CALM", "INADEQUATE_SECURITY",
+            "HTTP_1_1_REQUIRED" };
+
+    /** Default flow control window and frame size */
+    private static final int DEFAULT_WINDOW_SIZE= 65535,
+            DEFAULT_MAX_FRAME_SIZE= 16384;
+
+    /** Maximum flow control window */
+    private static final long MAX_WINDOW_SIZE= Integer.MAX_VALUE;
+
+    /** Flow control window of the connection for the received data */
+    private static final int CONNECTION_WINDOW_SIZE= 16 * 1024 * 1024;
+
+    /** Maximum length of a response body */
+    private static final int MAX_BODY_LENGTH= 16 * 1024 * 1024;
+
+    /** Size of a frame header */
+    private static final int FRAME_HEADER_LENGTH= 9;
+
+    static {
+        try {
+            PREFACE= "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /** Local limit of concurrent streams */
+    private final int maxConcurrentStreams_;
+
+    /** Flow control window of a stream for the received data */
+    private final int streamWindowSize_;
+
+    /** Receives the responses */
+    private final Listener listener_;
+
+    /** Decoder of the response header blocks */
+    private final Hpack decoder_= new Hpack();
+
+    /** The open streams, in creation order */
+    private final Map<Integer, Stream> streams_= new LinkedHashMap<Integer, Stream>();
+
+    /** Identifier of the next stream */
+    private int nextStreamId_= 1;
+
+    /** Limit of concurrent streams of the server */
+    private long peerMaxConcurrentStreams_= Integer.MAX_VALUE;
+
+    /** Initial flow control window of the server streams */
+    private int peerInitialWindowSize_= DEFAULT_WINDOW_SIZE;
+
+    /** Maximum frame size accepted by the server */
+    private int peerMaxFrameSize_= DEFAULT_MAX_FRAME_SIZE;
+
+    /** Flow control window of the connection for the sent data */
+    private long sendWindow_= DEFAULT_WINDOW_SIZE;
+
+    /** Flow control window of the connection for the received data */
+    private long receiveWindow_= DEFAULT_WINDOW_SIZE;
+
+    /** Received data of the connection not yet acknowledged */
+    private int receiveConsumed_= 0;
+
+    /** Whether the settings of the server were received */
+    private boolean settingsReceived_= false;
+
+    /** Whether the server sent a <code>GOAWAY</code> */
+    private boolean goAway_= false;
+
+    /** Header of the frame being received */
+    private final ByteBuffer frameHeader_= ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+
+    /** Payload of the frame being received, <code>null</code> while receiving the header */
+    private ByteBuffer payload_= null;
+
+    /** Reused payload buffer */
+    private final ByteBuffer payloadBuffer_= ByteBuffer.allocate(DEFAULT_MAX_FRAME_SIZE);
+
+    /** Type, flags and stream of the frame being received */
+    private int frameType_, frameFlags_, frameStreamId_;
+
+    /** Header block being received */
+    private final ByteArrayOutputStream headerBlock_= new ByteArrayOutputStream(256);
+
+    /** Stream of the header block being received, <code>0</code> if none */
+    private int headerStreamId_= 0;
+
+    /** Whether the header block being received ends its stream */
+    private boolean headerEndStream_;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxConcurrentStreams
+     *            the local limit of concurrent streams
+     * @param streamWindowSize
+     *            the flow control window of a stream for the received data
+     * @param listener
+     *            receives the responses
+     */
+    Http2Session(int maxConcurrentStreams, int streamWindowSize,
+            Listener listener) {
+        maxConcurrentStreams_= maxConcurrentStreams;
+        streamWindowSize_= streamWindowSize;
+        listener_= listener;
+    }
+
+    /**
+     * Starts the connection: sends the preface and the settings, and
+     * enlarges the flow control window of the connection.
+     * 
+     * @param out
+     *            the frames to send
+     */
+    void start(List<ByteBuffer> out) {
+        ByteBuffer settings= ByteBuffer.allocate(FRAME_HEADER_LENGTH
+                + PREFACE.length + 3 * 6 + FRAME_HEADER_LENGTH + 4);
+        settings.put(PREFACE);
+        putFrameHeader(settings, 3 * 6, SETTINGS, 0, 0);
+        settings.putShort((short) SETTINGS_ENABLE_PUSH).putInt(0);
+        settings.putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(streamWindowSize_);
+        settings.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(Hpack.MAX_HEADER_LIST_SIZE);
+        putFrameHeader(settings, 4, WINDOW_UPDATE, 0, 0);
+        settings.putInt(CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+        settings.flip();
+        out.add(settings);
+        receiveWindow_= CONNECTION_WINDOW_SIZE;
+    }
+
+    /**
+     * Checks if a new stream can be created.
+     * 
+     * @return <code>false</code> if the concurrent streams are at the limit,
+     *         or the server sent a <code>GOAWAY</code>
+     */
+    boolean canCreateStream() {
+        // a single stream until the limit of the server is known
+        return !goAway_ && (settingsReceived_ || streams_.isEmpty())
+                && streams_.size() < maxConcurrentStreams_
+                && streams_.size() < peerMaxConcurrentStreams_
+                && nextStreamId_ > 0;
+    }
+
+    /**
+     * Tells whether the stream limit of the server is still unknown, the
+     * session taking a single stream until its settings are received.
+     * 
+     * @return <code>true</code> if the settings of the server are not received
+     */
+    boolean isAwaitingSettings() {
+        return !goAway_ && !settingsReceived_;
+    }
+
+    /**
+     * Gets the number of open streams.
+     * 
+     * @return the number of open streams
+     */
+    int getActiveStreams() {
+        return streams_.size();
+    }
+
+    /**
+     * Checks if the server sent a <code>GOAWAY</code>. The connection can be
+     * closed when the open streams are completed.
+     * 
+     * @return <code>true</code> if no new stream can be created on the
+     *         connection
+     */
+    boolean isGoingAway() {
+        return goAway_;
+    }
+
+    /**
+     * Sends a <code>POST</code> request on a new stream.
+     * 
+     * @param scheme
+     *            the scheme, <code>http</code> or <code>https</code>
+     * @param authority
+     *            the host and port
+     * @param path
+     *            the path and query
+     * @param headers
+     *            the request headers, the connection specific headers are
+     *            not sent
+     * @param body
+     *            the request body
+     * @param out
+     *            the frames to send
+     * @return the stream identifier
+     */
+    int createStream(String scheme, String authority, String path,
+            Map<String, String> headers, byte[] body, List<ByteBuffer> out) {
+        ByteArrayOutputStream block= new ByteArrayOutputStream(256);
+        Hpack.encodeIndexed(":method", "POST", block);
+        Hpack.encodeIndexed(":scheme", scheme, block);
+        Hpack.encode(":authority", authority, block);
+        Hpack.encode(":path", path, block);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (Hpack.isAllowed(header.getKey())) {
+                Hpack.encode(header.getKey().toLowerCase(Locale.ENGLISH),
+                             header.getValue(),
+                             block);
+            }
+        }
+        Hpack.encode("content-length", String.valueOf(body.length), block);
+        int streamId= nextStreamId_;
+        nextStreamId_+= 2;
+        Stream stream= new Stream(streamId, peerInitialWindowSize_,
+                                  streamWindowSize_);
+        streams_.put(Integer.valueOf(streamId), stream);
+        byte[] headerBlock= block.toByteArray();
+        int offset= 0;
+        do {
+            int length= Math.min(headerBlock.length - offset, peerMaxFrameSize_);
+            int flags= offset + length == headerBlock.length ? END_HEADERS : 0;
+            if (offset == 0 && body.length == 0) {
+                flags|= END_STREAM;
+            }
+            out.add(frameHeader(length, offset == 0 ? HEADERS : CONTINUATION,
+                                flags,
+                                streamId));
+            out.add(ByteBuffer.wrap(headerBlock, offset, length));
+            offset+= length;
+        } while (offset < headerBlock.length);
+        if (body.length > 0) {
+            stream.pendingBody_= ByteBuffer.wrap(body);
+            sendData(out);
+        }
+        else {
+            stream.endStreamSent_= true;
+        }
+        return streamId;
+    }
+
+    /**
+     * Cancels a stream, its response is discarded.
+     * 
+     * @param streamId
+     *            the stream identifier
+     * @param out
+     *            the frames to send
+     */
+    void cancelStream(int streamId, List<ByteBuffer> out) {
+        if (streams_.remove(Integer.valueOf(streamId)) != null) {
+            out.add(rstStream(streamId, CANCEL));
+        }
+    }
+
+    /**
+     * Parses the received bytes, and handles the complete frames.
+     * 
+     * @param in
+     *            the received bytes, all consumed
+     * @param out
+     *            the frames to send
+     * @throws IOException
+     *             on a connection error, the connection must be closed
+     */
+    void received(ByteBuffer in, List<ByteBuffer> out) throws IOException {
+        while (in.hasRemaining()) {
+            if (payload_ == null) {
+                transfer(in, frameHeader_);
+                if (frameHeader_.hasRemaining()) {
+                    return;
+                }
+                frameHeader_.flip();
+                int length= (frameHeader_.getShort() & 0xFFFF) << 8
+                        | frameHeader_.get() & 0xFF;
+                frameType_= frameHeader_.get() & 0xFF;
+                frameFlags_= frameHeader_.get() & 0xFF;
+                frameStreamId_= frameHeader_.getInt() & 0x7FFFFFFF;
+                frameHeader_.clear();
+                if (length > payloadBuffer_.capacity()) {
+                    throw error(FRAME_SIZE_ERROR, "frame of " + length
+                            + " bytes");
+                }
+                payload_= payloadBuffer_;
+                payload_.clear();
+                payload_.limit(length);
+            }
+            transfer(in, payload_);
+            if (!payload_.hasRemaining()) {
+                ByteBuffer payload= payload_;
+                payload_= null;
+                payload.flip();
+                handleFrame(payload, out);
+            }
+        }
+    }
+
+    /**
+     * Handles a received frame.
+     * 
+     * @param payload
+     *            the frame payload
+     * @param out
+     *            the frames to send
+     * @throws IOException
+     *             on a connection error
+     */
+    private void handleFrame(ByteBuffer payload, List<ByteBuffer> out)
+            throws IOException {
+        if (headerStreamId_ != 0
+                && (frameType_ != CONTINUATION || frameStreamId_ != headerStreamId_)) {
+            throw error(PROTOCOL_ERROR, "CONTINUATION frame expected");
+        }
+        switch (frameType_) {
+        case DATA:
+            handleData(payload, out);
+            break;
+        case HEADERS:
+            checkStream(true);
+            stripPadding(payload);
+            if ((frameFlags_ & PRIORITY_FLAG) != 0) {
+                if (payload.remaining() < 5) {
+                    throw error(FRAME_SIZE_ERROR, "HEADERS frame of "
+                            + payload.remaining() + " bytes");
+                }
+                // the stream dependency and weight are ignored
+                payload.position(payload.position() + 5);
+            }
+            headerBlock_.reset();
+            headerStreamId_= frameStreamId_;
+            headerEndStream_= (frameFlags_ & END_STREAM) != 0;
+            handleContinuation(payload, out);
+            break;
+        case CONTINUATION:
+            if (headerStreamId_ == 0) {
+                throw error(PROTOCOL_ERROR, "unexpected CONTINUATION frame");
+            }
+            handleContinuation(payload, out);
+            break;
+        case RST_STREAM:
+            checkStream(true);
+            checkLength(payload, 4);
+            int errorCode= payload.getInt();
+            if (streams_.remove(Integer.valueOf(frameStreamId_)) != null) {
+                listener_.streamReset(frameStreamId_,
+                                      new IOException("HTTP/2 stream reset by server: "
+                                              + errorName(errorCode)),
+                                      errorCode == REFUSED_STREAM);
+            }
+            break;
+        case SETTINGS:
+            checkStream(false);
+            if ((frameFlags_ & ACK) != 0) {
+                checkLength(payload, 0);
+                break;
+            }
+            if (payload.remaining() % 6 != 0) {
+                throw error(FRAME_SIZE_ERROR, "SETTINGS frame of "
+                        + payload.remaining() + " bytes");
+            }
+            while (payload.hasRemaining()) {
+                applySetting(payload.getShort() & 0xFFFF,
+                             payload.getInt() & 0xFFFFFFFFL);
+            }
+            settingsReceived_= true;
+            out.add(frameHeader(0, SETTINGS, ACK, 0));
+            sendData(out);
+            break;
+        case PUSH_PROMISE:
+            throw error(PROTOCOL_ERROR, "PUSH_PROMISE while push is disabled");
+        case PING:
+            checkStream(false);
+            checkLength(payload, 8);
+            if ((frameFlags_ & ACK) == 0) {
+                ByteBuffer ping= ByteBuffer.allocate(FRAME_HEADER_LENGTH + 8);
+                putFrameHeader(ping, 8, PING, ACK, 0);
+                ping.put(payload);
+                ping.flip();
+                out.add(ping);
+            }
+            break;
+        case GOAWAY:
+            checkStream(false);
+            if (payload.remaining() < 8) {
+                throw error(FRAME_SIZE_ERROR, "GOAWAY frame of "
+                        + payload.remaining() + " bytes");
+            }
+            int lastStreamId= payload.getInt() & 0x7FFFFFFF;
+            IOException cause= new IOException("HTTP/2 connection closed by server: "
+                    + errorName(payload.getInt()));
+            goAway_= true;
+            List<Integer> unprocessed= new ArrayList<Integer>();
+            for (Integer streamId : streams_.keySet()) {
+                if (streamId.intValue() > lastStreamId) {
+                    unprocessed.add(streamId);
+                }
+            }
+            for (Integer streamId : unprocessed) {
+                streams_.remove(streamId);
+                listener_.streamReset(streamId.intValue(), cause, true);
+            }
+            break;
+        case WINDOW_UPDATE:
+            checkLength(payload, 4);
+            int increment= payload.getInt() & 0x7FFFFFFF;
+            if (increment == 0) {
+                throw error(PROTOCOL_ERROR, "empty WINDOW_UPDATE");
+            }
+            if (frameStreamId_ == 0) {
+                sendWindow_+= increment;
+                if (sendWindow_ > MAX_WINDOW_SIZE) {
+                    throw error(FLOW_CONTROL_ERROR, "connection window overflow");
+                }
+            }
+            else {
+                Stream stream= streams_.get(Integer.valueOf(frameStreamId_));
+                if (stream != null) {
+                    stream.sendWindow_+= increment;
+                    if (stream.sendWindow_ > MAX_WINDOW_SIZE) {
+                        throw error(FLOW_CONTROL_ERROR, "stream window overflow");
+                    }
+                }
+            }
+            sendData(out);
+            break;
+        case PRIORITY:
+            // no prioritization of the requests
+            break;
+        default:
+            // unknown frame types are ignored
+            break;
+        }
+    }
+
+    /**
+     * Handles a received <code>DATA</code> frame.
+     * 
+     * @param payload
+     *            the frame payload
+     * @param out
+     *            the frames to send
+     * @throws IOException
+     *             on a connection error
+     */
+    private void handleData(ByteBuffer payload, List<ByteBuffer> out)
+            throws IOException {
+        checkStream(true);
+        int length= payload.remaining();
+        receiveWindow_-= length;
+        if (receiveWindow_ < 0) {
+            throw error(FLOW_CONTROL_ERROR, "connection window exceeded");
+        }
+        receiveConsumed_+= length;
+        if (receiveConsumed_ >= CONNECTION_WINDOW_SIZE / 2) {
+            out.add(windowUpdate(0, receiveConsumed_));
+            receiveWindow_+= receiveConsumed_;
+            receiveConsumed_= 0;
+        }
+        Stream stream= streams_.get(Integer.valueOf(frameStreamId_));
+        if (stream == null) {
+            // cancelled stream
+            return;
+        }
+        if (stream.statusCode_ == 0) {
+            throw error(PROTOCOL_ERROR, "DATA frame before HEADERS");
+        }
+        stream.receiveWindow_-= length;
+        if (stream.receiveWindow_ < 0) {
+            throw error(FLOW_CONTROL_ERROR, "stream window exceeded");
+        }
+        stripPadding(payload);
+        if (stream.body_.size() + payload.remaining() > MAX_BODY_LENGTH) {
+            streams_.remove(Integer.valueOf(stream.id_));
+            out.add(rstStream(stream.id_, CANCEL));
+            listener_.streamReset(stream.id_,
+                                  new IOException("HTTP/2 response body too large"),
+                                  false);
+            return;
+        }
+        stream.body_.write(payload.array(), payload.arrayOffset()
+                + payload.position(), payload.remaining());
+        if ((frameFlags_ & END_STREAM) != 0) {
+            complete(stream, out);
+            return;
+        }
+        stream.receiveConsumed_+= length;
+        if (stream.receiveConsumed_ >= streamWindowSize_ / 2) {
+            out.add(windowUpdate(stream.id_, stream.receiveConsumed_));
+            stream.receiveWindow_+= stream.receiveConsumed_;
+            stream.receiveConsumed_= 0;
+        }
+    }
+
+    /**
+     * Handles a fragment of a header block, and the complete header block.
+     * 
+     * @param fragment
+     *            the header block fragment
+     * @param out
+     *            the frames to send
+     * @throws IOException
+     *             on a connection error
+     */
+    private void handleContinuation(ByteBuffer fragment, List<ByteBuffer> out)
+            throws IOException {
+        if (headerBlock_.size() + fragment.remaining() > Hpack.MAX_HEADER_LIST_SIZE) {
+            throw error(PROTOCOL_ERROR, "header block too large");
+        }
+        headerBlock_.write(fragment.array(), fragment.arrayOffset()
+                + fragment.position(), fragment.remaining());
+        if ((frameFlags_ & END_HEADERS) == 0) {
+            return;
+        }
+        int streamId= headerStreamId_;
+        headerStreamId_= 0;
+        Map<String, String> headers;
+        try {
+            // always decoded, to keep the dynamic table in sync
+            headers= decoder_.decode(ByteBuffer.wrap(headerBlock_.toByteArray()));
+        } catch (IOException e) {
+            throw error(PROTOCOL_ERROR, "COMPRESSION_ERROR, " + e.getMessage());
+        }
+        Stream stream= streams_.get(Integer.valueOf(streamId));
+        if (stream == null) {
+            return;
+        }
+        if (stream.statusCode_ == 0) {
+            int statusCode;
+            try {
+                statusCode= Integer.parseInt(headers.get(":status"));
+            } catch (NumberFormatException e) {
+                throw error(PROTOCOL_ERROR, "invalid :status "
+                        + headers.get(":status"));
+            }
+            if (statusCode < 200) {
+                // informational response
+                if (headerEndStream_) {
+                    throw error(PROTOCOL_ERROR, "informational response ends stream");
+                }
+                return;
+            }
+            Iterator<String> names= headers.keySet().iterator();
+            while (names.hasNext()) {
+                if (names.next().startsWith(":")) {
+                    names.remove();
+                }
+            }
+            stream.statusCode_= statusCode;
+            stream.headers_= headers;
+        }
+        else if (!headerEndStream_) {
+            throw error(PROTOCOL_ERROR, "trailers without END_STREAM");
+        }
+        if (headerEndStream_) {
+            complete(stream, out);
+        }
+    }
+
+    /**
+     * Applies a setting of the server.
+     * 
+     * @param identifier
+     *            the setting identifier
+     * @param value
+     *            the unsigned setting value
+     * @throws IOException
+     *             if the setting value is invalid
+     */
+    private void applySetting(int identifier, long value) throws IOException {
+        switch (identifier) {
+        case SETTINGS_MAX_CONCURRENT_STREAMS:
+            peerMaxConcurrentStreams_= value;
+            break;
+        case SETTINGS_INITIAL_WINDOW_SIZE:
+            if (value > MAX_WINDOW_SIZE) {
+                throw error(FLOW_CONTROL_ERROR, "initial window size " + value);
+            }
+            int delta= (int) value - peerInitialWindowSize_;
+            for (Stream stream : streams_.values()) {
+                stream.sendWindow_+= delta;
+                if (stream.sendWindow_ > MAX_WINDOW_SIZE) {
+                    throw error(FLOW_CONTROL_ERROR, "stream window overflow");
+                }
+            }
+            peerInitialWindowSize_= (int) value;
+            break;
+        case SETTINGS_MAX_FRAME_SIZE:
+            if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                throw error(PROTOCOL_ERROR, "max frame size " + value);
+            }
+            peerMaxFrameSize_= (int) value;
+            break;
+        default:
+            // the header table size is not used by the encoder
+            break;
+        }
+    }
+
+    /**
+     * Sends the pending request bodies, within the flow control windows.
+     * 
+     * @param out
+     *            the frames to send
+     */
+    private void sendData(List<ByteBuffer> out) {
+        for (Stream stream : streams_.values()) {
+            if (sendWindow_ <= 0) {
+                return;
+            }
+            ByteBuffer body= stream.pendingBody_;
+            while (body != null && sendWindow_ > 0 && stream.sendWindow_ > 0) {
+                int length= (int) Math.min(Math.min(body.remaining(),
+                                                    peerMaxFrameSize_),
+                                           Math.min(sendWindow_,
+                                                    stream.sendWindow_));
+                ByteBuffer data= body.slice();
+                data.limit(length);
+                body.position(body.position() + length);
+                boolean last= !body.hasRemaining();
+                out.add(frameHeader(length, DATA, last ? END_STREAM : 0,
+                                    stream.id_));
+                out.add(data);
+                sendWindow_-= length;
+                stream.sendWindow_-= length;
+                if (last) {
+                    stream.pendingBody_= null;
+                    stream.endStreamSent_= true;
+                    body= null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes the response of a stream.
+     * 
+     * @param stream
+     *            the stream
+     * @param out
+     *            the frames to send
+     */
+    private void complete(Stream stream, List<ByteBuffer> out) {
+        streams_.remove(Integer.valueOf(stream.id_));
+        if (!stream.endStreamSent_) {
+            // the server answered before the end of the request body
+            out.add(rstStream(stream.id_, NO_ERROR));
+        }
+        listener_.responseReceived(stream.id_,
+                                   new ResponseParser.Response(stream.statusCode_,
+                                                               stream.headers_,
+                                                               stream.body_.toByteArray(),
+                                                               false));
+    }
+
+    /**
+     * Checks the stream identifier of the received frame.
+     * 
+     * @param streamFrame
+     *            <code>true</code> if the frame type requires a stream,
+     *            <code>false</code> if it requires the connection
+     * @throws IOException
+     *             if the stream identifier is invalid
+     */
+    private void checkStream(boolean streamFrame) throws IOException {
+        if (streamFrame == (frameStreamId_ == 0)) {
+            throw error(PROTOCOL_ERROR, "frame type " + frameType_
+                    + " on stream " + frameStreamId_);
+        }
+    }
+
+    /**
+     * Checks the length of a received frame payload.
+     * 
+     * @param payload
+     *            the frame payload
+     * @param length
+     *            the length of the fixed size frame type
+     * @throws IOException
+     *             if the length is invalid
+     */
+    private void checkLength(ByteBuffer payload, int length) throws IOException {
+        if (payload.remaining() != length) {
+            throw error(FRAME_SIZE_ERROR, "frame type " + frameType_ + " of "
+                    + payload.remaining() + " bytes");
+        }
+    }
+
+    /**
+     * Removes the padding of a <code>DATA</code> or <code>HEADERS</code>
+     * frame.
+     * 
+     * @param payload
+     *            the frame payload
+     * @throws IOException
+     *             if the padding is invalid
+     */
+    private void stripPadding(ByteBuffer payload) throws IOException {
+        if ((frameFlags_ & PADDED) == 0) {
+            return;
+        }
+        if (!payload.hasRemaining()) {
+            throw error(PROTOCOL_ERROR, "missing pad length");
+        }
+        int padLength= payload.get() & 0xFF;
+        if (padLength > payload.remaining()) {
+            throw error(PROTOCOL_ERROR, "pad length " + padLength);
+        }
+        payload.limit(payload.limit() - padLength);
+    }
+
+    /**
+     * Copies bytes between buffers.
+     * 
+     * @param in
+     *            the source
+     * @param out
+     *            the destination
+     */
+    private static void transfer(ByteBuffer in, ByteBuffer out) {
+        int length= Math.min(in.remaining(), out.remaining());
+        out.put(in.array(), in.arrayOffset() + in.position(), length);
+        in.position(in.position() + length);
+    }
+
+    /**
+     * Creates a connection error.
+     * 
+     * @param errorCode
+     *            the error code
+     * @param message
+     *            the error message
+     * @return the connection error
+     */
+    private static IOException error(int errorCode, String message) {
+        return new IOException("HTTP/2 " + errorName(errorCode) + ": "
+                + message);
+    }
+
+    /**
+     * Gets the name of an error code.
+     * 
+     * @param errorCode
+     *            the error code
+     * @return the name of the error code
+     */
+    private static String errorName(int errorCode) {
+        return errorCode >= 0 && errorCode < ERROR_NAMES.length ? ERROR_NAMES[errorCode]
+                : "0x" + Integer.toHexString(errorCode);
+    }
+
+    /**
+     * Creates a frame header.
+     * 
+     * @param length
+     *            the payload length
+     * @param type
+     *            the frame type
+     * @param flags
+     *            the frame flags
+     * @param streamId
+     *            the stream identifier
+     * @return the frame header
+     */
+    private static ByteBuffer frameHeader(int length, int type, int flags,
+            int streamId) {
+        ByteBuffer header= ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+        putFrameHeader(header, length, type, flags, streamId);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Writes a frame header.
+     * 
+     * @param buffer
+     *            the buffer
+     * @param length
+     *            the payload length
+     * @param type
+     *            the frame type
+     * @param flags
+     *            the frame flags
+     * @param streamId
+     *            the stream identifier
+     */
+    private static void putFrameHeader(ByteBuffer buffer, int length,
+            int type, int flags, int streamId) {
+        buffer.put((byte) (length >>> 16));
+        buffer.putShort((short) length);
+        buffer.put((byte) type);
+        buffer.put((byte) flags);
+        buffer.putInt(streamId);
+    }
+
+    /**
+     * Creates a <code>RST_STREAM</code> frame.
+     * 
+     * @param streamId
+     *            the stream identifier
+     * @param errorCode
+     *            the error code
+     * @return the frame
+     */
+    private static ByteBuffer rstStream(int streamId, int errorCode) {
+        ByteBuffer frame= ByteBuffer.allocate(FRAME_HEADER_LENGTH + 4);
+        putFrameHeader(frame, 4, RST_STREAM, 0, streamId);
+        frame.putInt(errorCode);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Creates a <code>WINDOW_UPDATE</code> frame.
+     * 
+     * @param streamId
+     *            the stream identifier, <code>0</code> for the connection
+     * @param increment
+     *            the window increment
+     * @return the frame
+     */
+    private static ByteBuffer windowUpdate(int streamId, int increment) {
+        ByteBuffer frame= ByteBuffer.allocate(FRAME_HEADER_LENGTH + 4);
+        putFrameHeader(frame, 4, WINDOW_UPDATE, 0, streamId);
+        frame.putInt(increment);
+        frame.flip();
+        return frame;
+    }
+
+    /** The state of a stream. */
+    private static final class Stream {
+
+        /** The stream identifier */
+        final int id_;
+
+        /** Flow control window for the sent data */
+        long sendWindow_;
+
+        /** Flow control window for the received data */
+        long receiveWindow_;
+
+        /** Received data not yet acknowledged */
+        int receiveConsumed_= 0;
+
+        /** Request body not yet sent, <code>null</code> if sent */
+        ByteBuffer pendingBody_= null;
+
+        /** Whether the end of the request was sent */
+        boolean endStreamSent_= false;
+
+        /** Response status code, <code>0</code> until the headers are received */
+        int statusCode_= 0;
+
+        /** Response headers */
+        Map<String, String> headers_;
+
+        /** Response body */
+        final ByteArrayOutputStream body_= new ByteArrayOutputStream();
+
+        /**
+         * Constructor.
+         * 
+         * @param id
+         *            the stream identifier
+         * @param sendWindow
+         *            the initial flow control window for the sent data
+         * @param receiveWindow
+         *            the initial flow control window for the received data
+         */
+        Stream(int id, int sendWindow, int receiveWindow) {
+            id_= id;
+            sendWindow_= sendWindow;
+            receiveWindow_= receiveWindow;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.glite.authz.pep.client.http.PerHostHttpConnectionManager;
+
+/**
+ * Transport using the commons-httpclient 3 {@link HttpClient}, with its pool
+ * of persistent connections.
+ * <p>
+ * The {@link MultiThreadedHttpConnectionManager} waits for a free connection
+ * in a monitor, which pins a virtual thread to its carrier thread. With
+ * connection permits, the exchanges wait for a free connection on a
+ * {@link Semaphore} instead, and only get a connection from the pool when one
+ * is free. The {@link PerHostHttpConnectionManager} does not need them.
+ * <p>
+ * The pool timeout of an exchange bounds its wait for a connection permit, or
+ * is passed to the {@link PerHostHttpConnectionManager} in the parameters of
+ * the host configuration. The {@link MultiThreadedHttpConnectionManager} only
+ * takes its timeout from the client parameters: without permits, the
+ * exchanges wait for a connection as set there.
+ */
+public class HttpClientTransport implements PEPTransport {
+
+    /** The HTTP client */
+    private final HttpClient httpClient_;
+
+    /** Maximum number of connections per host, <code>0</code> without permits */
+    private final int maxConnectionsPerHost_;
+
+    /** Connection permits of all hosts, <code>null</code> without permits */
+    private final Semaphore totalPermits_;
+
+    /** Connection permits by host */
+    private final ConcurrentMap<String, Semaphore> hostPermits_= new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * Constructor.
+     * 
+     * @param httpClient
+     *            the HTTP client, with a multi-threaded or per host
+     *            connection manager
+     */
+    public HttpClientTransport(HttpClient httpClient) {
+        this(httpClient, 0, 0);
+    }
+
+    /**
+     * Constructor. The exchanges wait for a connection permit before using a
+     * connection of the pool, the permits matching the limits of the
+     * connection manager.
+     * 
+     * @param httpClient
+     *            the HTTP client, with a multi-threaded connection manager
+     * @param maxConnectionsPerHost
+     *            the maximum number of connections per host of the
+     *            connection manager, <code>0</code> to disable the permits
+     * @param maxTotalConnections
+     *            the maximum total number of connections of the connection
+     *            manager
+     */
+    public HttpClientTransport(HttpClient httpClient,
+            int maxConnectionsPerHost, int maxTotalConnections) {
+        if (httpClient == null) {
+            throw new IllegalArgumentException("HTTP client can not be null");
+        }
+        if (maxConnectionsPerHost < 0) {
+            throw new IllegalArgumentException("Maximum connections per host can not be negative");
+        }
+        if (maxConnectionsPerHost > 0 && maxTotalConnections < 1) {
+            throw new IllegalArgumentException("Maximum total connections must be greater than zero");
+        }
+        httpClient_= httpClient;
+        maxConnectionsPerHost_= maxConnectionsPerHost;
+        totalPermits_= maxConnectionsPerHost > 0 ? new Semaphore(maxTotalConnections,
+                                                                 true)
+                : null;
+    }
+
+    /**
+     * Returns the HTTP client.
+     * 
+     * @return the HTTP client
+     */
+    public HttpClient getHttpClient() {
+        return httpClient_;
+    }
+
+    /** {@inheritDoc} */
+    public PEPExchange createExchange(String endpoint) {
+        return new PostMethodExchange(endpoint);
+    }
+
+    /**
+     * Waits for a connection permit to a host.
+     * 
+     * @param host
+     *            the host key
+     * @param timeout
+     *            the time to wait in millis, <code>0</code> to wait forever
+     * @throws ConnectionPoolTimeoutException
+     *             if no permit was free in time
+     * @throws InterruptedIOException
+     *             if interrupted while waiting
+     */
+    private void acquirePermit(String host, int timeout)
+            throws InterruptedIOException {
+        long deadline= timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        Semaphore permits= getHostPermits(host);
+        acquire(permits, host, deadline);
+        try {
+            acquire(totalPermits_, host, deadline);
+        } catch (InterruptedIOException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires a permit before a deadline.
+     * 
+     * @param permits
+     *            the permits
+     * @param host
+     *            the host key, for the error message
+     * @param deadline
+     *            the deadline in millis, <code>0</code> to wait forever
+     * @throws ConnectionPoolTimeoutException
+     *             if the deadline is reached
+     * @throws InterruptedIOException
+     *             if interrupted while waiting
+     */
+    private static void acquire(Semaphore permits, String host, long deadline)
+            throws InterruptedIOException {
+        try {
+            if (deadline == 0) {
+                permits.acquire();
+            }
+            else if (!permits.tryAcquire(Math.max(0, deadline
+                    - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                throw new ConnectionPoolTimeoutException("Timeout waiting for a connection to "
+                        + host);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a connection to "
+                    + host);
+        }
+    }
+
+    /**
+     * Releases a connection permit to a host.
+     * 
+     * @param host
+     *            the host key
+     */
+    private void releasePermit(String host) {
+        totalPermits_.release();
+        getHostPermits(host).release();
+    }
+
+    /**
+     * Gets the connection permits of a host, created on first use.
+     * 
+     * @param host
+     *            the host key
+     * @return the connection permits
+     */
+    private Semaphore getHostPermits(String host) {
+        Semaphore permits= hostPermits_.get(host);
+        if (permits == null) {
+            permits= new Semaphore(maxConnectionsPerHost_, true);
+            Semaphore existing= hostPermits_.putIfAbsent(host, permits);
+            if (existing != null) {
+                permits= existing;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Gets the host key of an endpoint, as the connection manager pools the
+     * connections by scheme, host and port.
+     * 
+     * @param endpoint
+     *            the endpoint URL
+     * @return the host key
+     */
+    private static String getHostKey(String endpoint) {
+        try {
+            URI uri= new URI(endpoint);
+            if (uri.getHost() != null) {
+                return uri.getScheme() + "://" + uri.getHost() + ":"
+                        + uri.getPort();
+            }
+        } catch (Exception e) {
+            // the execution fails on the invalid URL
+        }
+        return endpoint;
+    }
+
+    /** {@inheritDoc} */
+    public void shutdown() {
+        HttpConnectionManager connectionManager= httpClient_.getHttpConnectionManager();
+        if (connectionManager instanceof PerHostHttpConnectionManager) {
+            ((PerHostHttpConnectionManager) connectionManager).shutdown();
+        }
+        else if (connectionManager instanceof MultiThreadedHttpConnectionManager) {
+            ((MultiThreadedHttpConnectionManager) connectionManager).shutdown();
+        }
+    }
+
+    /** An exchange executing a {@link PostMethod}. */
+    private class PostMethodExchange implements PEPExchange {
+
+        /** The endpoint URL */
+        private final String endpoint_;
+
+        /** The POST method */
+        private final PostMethod postMethod_;
+
+        /** Host key of the connection permits, <code>null</code> without permits */
+        private final String host_;
+
+        /** A connection permit is held until the exchange is released */
+        private boolean permitted_= false;
+
+        /** Time to wait for a connection in millis, <code>0</code> for the default */
+        private int poolTimeout_= 0;
+
+        /**
+         * Constructor.
+         * 
+         * @param endpoint
+         *            the endpoint URL
+         */
+        PostMethodExchange(String endpoint) {
+            endpoint_= endpoint;
+            postMethod_= new PostMethod(endpoint);
+            host_= totalPermits_ != null ? getHostKey(endpoint) : null;
+        }
+
+        /** {@inheritDoc} */
+        public String getEndpoint() {
+            return endpoint_;
+        }
+
+        /** {@inheritDoc} */
+        public RequestEntity getRequestEntity() {
+            return postMethod_.getRequestEntity();
+        }
+
+        /** {@inheritDoc} */
+        public void setRequestEntity(RequestEntity entity) {
+            // set again from the new entity on execution
+            postMethod_.removeRequestHeader("Content-Type");
+            postMethod_.removeRequestHeader("Content-Length");
+            postMethod_.setRequestEntity(entity);
+        }
+
+        /** {@inheritDoc} */
+        public void setRequestHeader(String name, String value) {
+            postMethod_.setRequestHeader(name, value);
+        }
+
+        /** {@inheritDoc} */
+        public void removeRequestHeader(String name) {
+            postMethod_.removeRequestHeader(name);
+        }
+
+        /** {@inheritDoc} */
+        public void setReadTimeout(int timeout) {
+            postMethod_.getParams().setSoTimeout(timeout);
+        }
+
+        /** {@inheritDoc} */
+        public void setPoolTimeout(int timeout) {
+            poolTimeout_= timeout;
+        }
+
+        /** {@inheritDoc} */
+        public int execute() throws IOException {
+            if (host_ != null && !permitted_) {
+                acquirePermit(host_, poolTimeout_);
+                permitted_= true;
+            }
+            if (poolTimeout_ > 0 && host_ == null) {
+                // the client parameters are shared, the host configuration
+                // is copied for each execution
+                HostConfiguration hostConfiguration= new HostConfiguration(httpClient_.getHostConfiguration());
+                hostConfiguration.getParams().setLongParameter(HttpClientParams.CONNECTION_MANAGER_TIMEOUT,
+                                                               poolTimeout_);
+                return httpClient_.executeMethod(hostConfiguration,
+                                                 postMethod_);
+            }
+            return httpClient_.executeMethod(postMethod_);
+        }
+
+        /** {@inheritDoc} */
+        public int getStatusCode() {
+            return postMethod_.getStatusCode();
+        }
+
+        /** {@inheritDoc} */
+        public String getResponseHeader(String name) {
+            Header header= postMethod_.getResponseHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        /** {@inheritDoc} */
+        public InputStream getResponseBody() throws IOException {
+            return postMethod_.getResponseBodyAsStream();
+        }
+
+        /** {@inheritDoc} */
+        public void release() {
+            postMethod_.releaseConnection();
+            if (permitted_) {
+                permitted_= false;
+                releasePermit(host_);
+            }
+        }
+
+        /** {@inheritDoc} */
+        public void abort() {
+            postMethod_.abort();
+        }
+    }
+}
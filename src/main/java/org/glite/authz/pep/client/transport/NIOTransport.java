@@ -0,0 +1,1553 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glite.authz.pep.client.http.TLSProtocolSocketFactory;
+
+/**
+ * Non-blocking transport multiplexing the requests to each PEP daemon over a
+ * few persistent connections with HTTP/1.1 pipelining.
+ * <p>
+ * A single selector thread does all the network I/O, and the TLS with an
+ * {@link SSLEngine}. A request is sent on the connection of its endpoint with
+ * the fewest requests in flight, a new connection being opened while all of
+ * them are busy and the maximum number of connections per endpoint is not
+ * reached. The responses of a connection are received in the order of its
+ * requests. The thread executing an exchange only waits for its response, so
+ * many concurrent authorizations share a handful of sockets.
+ * <p>
+ * When the PEP daemon closes a connection, the requests in flight without a
+ * response are sent again on another connection, once. A request timing out
+ * closes its connection, as the responses after it would be delayed too. An
+ * aborted request keeps its place in the pipeline, and its response is
+ * discarded. The host names are resolved by the selector thread.
+ * <p>
+ * In HTTP/2 mode, the requests are multiplexed as concurrent streams of a
+ * connection, up to the limit of concurrent streams, and a new connection is
+ * only opened when all of them are at the limit, or the requests wait for a
+ * stream to complete. HTTP/2 is negotiated with ALPN over TLS, falling back
+ * to HTTP/1.1 if the PEP daemon or the Java runtime do not support it, and
+ * used with prior knowledge (h2c) over plain HTTP. A timed out or aborted
+ * request resets its stream only.
+ */
+public class NIOTransport implements PEPTransport {
+
+    /** Maximum time in millis the selector waits, to check the timeouts */
+    private static final long SELECT_TIMEOUT= 100;
+
+    /** Maximum number of times a request is sent */
+    private static final int MAX_ATTEMPTS= 2;
+
+    /** Size of the plain text buffers */
+    private static final int BUFFER_SIZE= 16 * 1024;
+
+    /** Empty buffer, to wrap the TLS handshake messages */
+    private static final ByteBuffer EMPTY= ByteBuffer.allocate(0);
+
+    /** Application protocols offered with ALPN in HTTP/2 mode */
+    private static final String[] APPLICATION_PROTOCOLS= { "h2", "http/1.1" };
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(NIOTransport.class);
+
+    /** Connection timeout in millis, <code>0</code> for none */
+    private final int connectionTimeout_;
+
+    /** Default read timeout in millis, <code>0</code> for none */
+    private final int readTimeout_;
+
+    /** Maximum number of connections per endpoint */
+    private final int connectionsPerEndpoint_;
+
+    /** Factory of the SSL engines, <code>null</code> if HTTPS is not configured */
+    private final TLSProtocolSocketFactory tlsSocketFactory_;
+
+    /** Maximum number of concurrent streams per connection, <code>0</code> for HTTP/1.1 */
+    private final int maxConcurrentStreams_;
+
+    /** HTTP/2 flow control window of a stream for the received data */
+    private final int streamWindowSize_;
+
+    /** The selector of the connections */
+    private final Selector selector_;
+
+    /** Tasks run by the selector thread */
+    private final Queue<Runnable> tasks_= new ConcurrentLinkedQueue<Runnable>();
+
+    /** The endpoints by scheme, host and port, used by the selector thread */
+    private final Map<String, Endpoint> endpoints_= new HashMap<String, Endpoint>();
+
+    /** Whether the transport is running */
+    private volatile boolean running_= true;
+
+    /**
+     * Constructor of an HTTP/1.1 transport. Starts the selector thread.
+     * 
+     * @param connectionTimeout
+     *            the connection timeout in millis, <code>0</code> for none
+     * @param readTimeout
+     *            the default read timeout in millis, <code>0</code> for none
+     * @param connectionsPerEndpoint
+     *            the maximum number of connections per endpoint
+     * @param tlsSocketFactory
+     *            the factory of the SSL engines, <code>null</code> if HTTPS is
+     *            not configured
+     * @throws IOException
+     *             if the selector can not be opened
+     */
+    public NIOTransport(int connectionTimeout, int readTimeout,
+            int connectionsPerEndpoint,
+            TLSProtocolSocketFactory tlsSocketFactory) throws IOException {
+        this(connectionTimeout,
+             readTimeout,
+             connectionsPerEndpoint,
+             tlsSocketFactory,
+             0,
+             0);
+    }
+
+    /**
+     * Constructor of an HTTP/2 transport. Starts the selector thread.
+     * 
+     * @param connectionTimeout
+     *            the connection timeout in millis, <code>0</code> for none
+     * @param readTimeout
+     *            the default read timeout in millis, <code>0</code> for none
+     * @param connectionsPerEndpoint
+     *            the maximum number of connections per endpoint
+     * @param tlsSocketFactory
+     *            the factory of the SSL engines, <code>null</code> if HTTPS is
+     *            not configured
+     * @param maxConcurrentStreams
+     *            the maximum number of concurrent streams per connection,
+     *            <code>0</code> for HTTP/1.1
+     * @param streamWindowSize
+     *            the HTTP/2 flow control window of a stream for the received
+     *            data
+     * @throws IOException
+     *             if the selector can not be opened
+     */
+    public NIOTransport(int connectionTimeout, int readTimeout,
+            int connectionsPerEndpoint,
+            TLSProtocolSocketFactory tlsSocketFactory,
+            int maxConcurrentStreams, int streamWindowSize) throws IOException {
+        if (connectionsPerEndpoint < 1) {
+            throw new IllegalArgumentException("Connections per endpoint must be greater than zero");
+        }
+        if (maxConcurrentStreams < 0) {
+            throw new IllegalArgumentException("Maximum concurrent streams can not be negative");
+        }
+        if (maxConcurrentStreams > 0 && streamWindowSize < 1) {
+            throw new IllegalArgumentException("Stream window size must be greater than zero");
+        }
+        connectionTimeout_= connectionTimeout;
+        readTimeout_= readTimeout;
+        connectionsPerEndpoint_= connectionsPerEndpoint;
+        tlsSocketFactory_= tlsSocketFactory;
+        maxConcurrentStreams_= maxConcurrentStreams;
+        streamWindowSize_= streamWindowSize;
+        selector_= Selector.open();
+        Thread selectorThread= new Thread(new Runnable() {
+            public void run() {
+                select();
+            }
+        }, "PEPClient-nio");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /** {@inheritDoc} */
+    public PEPExchange createExchange(String endpoint) {
+        return new PipelinedExchange(endpoint);
+    }
+
+    /** {@inheritDoc} */
+    public void shutdown() {
+        running_= false;
+        selector_.wakeup();
+    }
+
+    /**
+     * Returns the number of open connections to an endpoint.
+     * 
+     * @param endpoint
+     *            the endpoint URL
+     * @return the number of open connections
+     * @throws InterruptedException
+     *             if interrupted while waiting for the selector thread
+     */
+    public int getConnectionCount(String endpoint) throws InterruptedException {
+        final Target target;
+        try {
+            target= new Target(endpoint);
+        } catch (IOException e) {
+            return 0;
+        }
+        final int[] count= new int[1];
+        final CountDownLatch done= new CountDownLatch(1);
+        submit(new Runnable() {
+            public void run() {
+                Endpoint e= endpoints_.get(target.key_);
+                count[0]= e == null ? 0 : e.connections_.size();
+                done.countDown();
+            }
+        });
+        done.await(SELECT_TIMEOUT * 10, TimeUnit.MILLISECONDS);
+        return count[0];
+    }
+
+    /**
+     * Runs a task in the selector thread.
+     * 
+     * @param task
+     *            the task
+     * @return <code>false</code> if the transport is shut down
+     */
+    private boolean submit(Runnable task) {
+        if (!running_) {
+            return false;
+        }
+        tasks_.add(task);
+        selector_.wakeup();
+        return true;
+    }
+
+    /** The selector loop. */
+    private void select() {
+        while (running_) {
+            try {
+                selector_.select(SELECT_TIMEOUT);
+                Runnable task;
+                while ((task= tasks_.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys= selector_.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key= keys.next();
+                    keys.remove();
+                    process(key);
+                }
+                checkConnectionTimeouts();
+            } catch (IOException e) {
+                log.error("Selector failure", e);
+            } catch (RuntimeException e) {
+                log.error("Selector failure", e);
+            }
+        }
+        IOException shutdown= new IOException("Transport shut down");
+        for (Endpoint endpoint : new ArrayList<Endpoint>(endpoints_.values())) {
+            for (PendingRequest request : endpoint.waiting_) {
+                request.fail(shutdown);
+            }
+            endpoint.waiting_.clear();
+            for (Connection connection : new ArrayList<Connection>(endpoint.connections_)) {
+                close(connection, shutdown, false);
+            }
+        }
+        Runnable task;
+        while ((task= tasks_.poll()) != null) {
+            task.run();
+        }
+        try {
+            selector_.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    /**
+     * Processes the ready operations of a connection.
+     * 
+     * @param key
+     *            the selection key of the connection
+     */
+    private void process(SelectionKey key) {
+        Connection connection= (Connection) key.attachment();
+        try {
+            if (key.isValid() && key.isConnectable()) {
+                connection.channel_.finishConnect();
+                connected(connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Connection to " + connection.endpoint_.key_
+                        + " failed: " + e);
+            }
+            // the requests are only sent again if the endpoint was reachable
+            close(connection, e, connection.connected_);
+        } catch (RuntimeException e) {
+            log.error("Connection to " + connection.endpoint_.key_
+                    + " failed", e);
+            close(connection, new IOException(e.toString()), false);
+        }
+    }
+
+    /**
+     * Sends a request on the least loaded connection of its endpoint, opening
+     * a new one if all are busy, or queues it until a stream completes.
+     * 
+     * @param request
+     *            the request
+     */
+    private void dispatch(PendingRequest request) {
+        if (request.isDone()) {
+            return;
+        }
+        Target target= request.target_;
+        Endpoint endpoint= endpoints_.get(target.key_);
+        if (endpoint == null) {
+            endpoint= new Endpoint(target);
+            endpoints_.put(target.key_, endpoint);
+        }
+        if (!endpoint.waiting_.isEmpty()) {
+            // the waiting requests are sent first
+            endpoint.waiting_.add(request);
+            return;
+        }
+        Connection connection;
+        try {
+            connection= acquire(endpoint);
+        } catch (IOException e) {
+            request.fail(e);
+            return;
+        }
+        if (connection == null) {
+            endpoint.waiting_.add(request);
+        }
+        else {
+            send(connection, request);
+        }
+    }
+
+    /**
+     * Sends the waiting requests of an endpoint, while a connection can take
+     * them.
+     * 
+     * @param endpoint
+     *            the endpoint
+     */
+    private void drain(Endpoint endpoint) {
+        LinkedList<PendingRequest> waiting= endpoint.waiting_;
+        while (!waiting.isEmpty()) {
+            if (waiting.getFirst().isDone()) {
+                waiting.removeFirst();
+                continue;
+            }
+            Connection connection;
+            try {
+                connection= acquire(endpoint);
+            } catch (IOException e) {
+                waiting.removeFirst().fail(e);
+                continue;
+            }
+            if (connection == null) {
+                return;
+            }
+            send(connection, waiting.removeFirst());
+        }
+    }
+
+    /**
+     * Gets the connection of an endpoint to send a request on: the least
+     * loaded available connection, a new connection if none is available and
+     * no HTTP/2 session waits for the settings of the server, or else the
+     * least loaded HTTP/1.1 connection, pipelining the request.
+     * 
+     * @param endpoint
+     *            the endpoint
+     * @return the connection, or <code>null</code> if the request must wait
+     *         for a stream to complete
+     * @throws IOException
+     *             if a new connection can not be opened
+     */
+    private Connection acquire(Endpoint endpoint) throws IOException {
+        Connection best= null;
+        for (Connection connection : endpoint.connections_) {
+            if (connection.isAvailable(maxConcurrentStreams_)
+                    && (best == null || connection.inFlight_.size() < best.inFlight_.size())) {
+                best= connection;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        for (Connection connection : endpoint.connections_) {
+            if (connection.h2_ != null && connection.h2_.isAwaitingSettings()) {
+                // the session may take more streams once its limit is known
+                return null;
+            }
+        }
+        if (endpoint.connections_.size() < connectionsPerEndpoint_) {
+            return open(endpoint);
+        }
+        for (Connection connection : endpoint.connections_) {
+            if (connection.ready_ && connection.h2_ == null
+                    && (best == null || connection.inFlight_.size() < best.inFlight_.size())) {
+                best= connection;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Sends a request on a connection. The requests of a connection
+     * negotiating its protocol are sent when it is negotiated.
+     * 
+     * @param connection
+     *            the connection
+     * @param request
+     *            the request
+     */
+    private void send(Connection connection, PendingRequest request) {
+        request.attempts_++;
+        request.connection_= connection;
+        connection.inFlight_.add(request);
+        if (!connection.ready_) {
+            return;
+        }
+        write(connection, request);
+        if (connection.connected_) {
+            try {
+                flush(connection);
+            } catch (IOException e) {
+                close(connection, e, true);
+            }
+        }
+    }
+
+    /**
+     * Queues a request for writing, as an HTTP/1.1 message or on a new
+     * HTTP/2 stream.
+     * 
+     * @param connection
+     *            the ready connection
+     * @param request
+     *            the request in flight on the connection
+     */
+    private void write(Connection connection, PendingRequest request) {
+        if (connection.h2_ == null) {
+            connection.writeQueue_.add(request.getMessage());
+            return;
+        }
+        Target target= request.target_;
+        request.streamId_= connection.h2_.createStream(target.secure_ ? "https"
+                                                               : "http",
+                                                       target.hostHeader_,
+                                                       target.path_,
+                                                       request.headers_,
+                                                       request.body_,
+                                                       connection.writeQueue_);
+        connection.streams_.put(Integer.valueOf(request.streamId_), request);
+    }
+
+    /**
+     * Starts the negotiated protocol of a connection, and sends its requests.
+     * In HTTP/2, the requests over the stream limit wait again.
+     * 
+     * @param connection
+     *            the connection
+     * @param http2
+     *            <code>true</code> for HTTP/2, <code>false</code> for
+     *            HTTP/1.1
+     */
+    private void ready(Connection connection, boolean http2) {
+        connection.ready_= true;
+        if (http2) {
+            connection.h2_= new Http2Session(maxConcurrentStreams_,
+                                             streamWindowSize_,
+                                             new StreamListener(connection));
+            connection.h2_.start(connection.writeQueue_);
+        }
+        else if (log.isDebugEnabled() && maxConcurrentStreams_ > 0) {
+            log.debug("HTTP/2 not negotiated with " + connection.endpoint_.key_
+                    + ", using HTTP/1.1");
+        }
+        List<PendingRequest> requests= new ArrayList<PendingRequest>(connection.inFlight_);
+        connection.inFlight_.clear();
+        List<PendingRequest> overLimit= new ArrayList<PendingRequest>();
+        for (PendingRequest request : requests) {
+            if (request.isDone()) {
+                continue;
+            }
+            if (http2 && !connection.h2_.canCreateStream()) {
+                overLimit.add(request);
+                continue;
+            }
+            connection.inFlight_.add(request);
+            write(connection, request);
+        }
+        connection.endpoint_.waiting_.addAll(0, overLimit);
+    }
+
+    /**
+     * Opens a new connection to an endpoint.
+     * 
+     * @param endpoint
+     *            the endpoint
+     * @return the connection, connecting
+     * @throws IOException
+     *             if the connection can not be opened
+     */
+    private Connection open(Endpoint endpoint) throws IOException {
+        SocketChannel channel= SocketChannel.open();
+        Connection connection;
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            boolean connected= channel.connect(new InetSocketAddress(endpoint.target_.host_,
+                                                                     endpoint.target_.port_));
+            connection= new Connection(endpoint, channel);
+            // in HTTP/2 mode, the protocol is known once connected
+            connection.ready_= maxConcurrentStreams_ == 0;
+            connection.key_= channel.register(selector_,
+                                              connected ? SelectionKey.OP_READ
+                                                      : SelectionKey.OP_CONNECT,
+                                              connection);
+            endpoint.connections_.add(connection);
+            if (connected) {
+                connected(connection);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Starts the TLS handshake, if any, and the sending of the requests of a
+     * connected connection.
+     * 
+     * @param connection
+     *            the connected connection
+     * @throws IOException
+     *             if the handshake can not start or the requests can not be
+     *             sent
+     */
+    private void connected(Connection connection) throws IOException {
+        connection.connected_= true;
+        connection.key_.interestOps(SelectionKey.OP_READ);
+        Target target= connection.endpoint_.target_;
+        if (target.secure_) {
+            if (tlsSocketFactory_ == null) {
+                throw new SSLException("HTTPS not configured for " + target.key_);
+            }
+            connection.engine_= maxConcurrentStreams_ == 0 ? tlsSocketFactory_.createSSLEngine(target.host_,
+                                                                                              target.port_)
+                    : tlsSocketFactory_.createSSLEngine(target.host_,
+                                                        target.port_,
+                                                        APPLICATION_PROTOCOLS);
+            SSLSession session= connection.engine_.getSession();
+            connection.netIn_= ByteBuffer.allocate(session.getPacketBufferSize());
+            connection.netOut_= ByteBuffer.allocate(session.getPacketBufferSize());
+            connection.appIn_= ByteBuffer.allocate(Math.max(BUFFER_SIZE,
+                                                            session.getApplicationBufferSize()));
+            connection.handshakeStart_= System.currentTimeMillis();
+            connection.engine_.beginHandshake();
+        }
+        else if (!connection.ready_) {
+            // h2c with prior knowledge
+            ready(connection, true);
+        }
+        flush(connection);
+    }
+
+    /**
+     * Closes the connections still connecting after the connection timeout.
+     */
+    private void checkConnectionTimeouts() {
+        if (connectionTimeout_ <= 0) {
+            return;
+        }
+        long now= System.currentTimeMillis();
+        for (Endpoint endpoint : new ArrayList<Endpoint>(endpoints_.values())) {
+            for (Connection connection : new ArrayList<Connection>(endpoint.connections_)) {
+                if (!connection.connected_
+                        && now - connection.created_ > connectionTimeout_) {
+                    close(connection,
+                          new SocketTimeoutException("Connection to "
+                                  + endpoint.key_ + " timed out"),
+                          false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the received bytes and delivers the complete responses.
+     * 
+     * @param connection
+     *            the readable connection
+     * @throws IOException
+     *             if the connection fails or a response is malformed
+     */
+    private void read(Connection connection) throws IOException {
+        int n= connection.channel_.read(connection.netIn_);
+        if (n < 0) {
+            if (connection.parser_.closed()) {
+                deliver(connection, connection.parser_.takeResponse());
+            }
+            close(connection, new EOFException("Connection closed by "
+                    + connection.endpoint_.key_), true);
+            return;
+        }
+        if (connection.engine_ == null) {
+            connection.netIn_.flip();
+            parse(connection, connection.netIn_);
+            connection.netIn_.compact();
+        }
+        else {
+            unwrap(connection);
+        }
+        if (!connection.closed_) {
+            flush(connection);
+        }
+    }
+
+    /**
+     * Decrypts the received TLS records and delivers the complete responses.
+     * 
+     * @param connection
+     *            the TLS connection
+     * @throws IOException
+     *             if the TLS records are invalid or a response is malformed
+     */
+    private void unwrap(Connection connection) throws IOException {
+        SSLEngine engine= connection.engine_;
+        connection.netIn_.flip();
+        boolean progress= true;
+        while (progress && !connection.closed_) {
+            SSLEngineResult result= engine.unwrap(connection.netIn_,
+                                                  connection.appIn_);
+            progress= result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                connection.appIn_= enlarge(connection.appIn_,
+                                           engine.getSession().getApplicationBufferSize());
+                progress= true;
+                break;
+            case BUFFER_UNDERFLOW:
+                int packetSize= engine.getSession().getPacketBufferSize();
+                if (connection.netIn_.capacity() < packetSize) {
+                    ByteBuffer netIn= ByteBuffer.allocate(packetSize);
+                    netIn.put(connection.netIn_);
+                    netIn.flip();
+                    connection.netIn_= netIn;
+                }
+                progress= false;
+                break;
+            case CLOSED:
+                close(connection, new EOFException("TLS connection closed by "
+                        + connection.endpoint_.key_), true);
+                return;
+            default:
+                break;
+            }
+            if (handshake(connection, result.getHandshakeStatus())) {
+                progress= true;
+            }
+            if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                // the handshake messages are sent before unwrapping more
+                wrap(connection);
+                progress= !connection.closed_;
+            }
+            if (connection.appIn_.position() > 0) {
+                connection.appIn_.flip();
+                parse(connection, connection.appIn_);
+                connection.appIn_.compact();
+            }
+            if (!connection.netIn_.hasRemaining()) {
+                progress= false;
+            }
+        }
+        connection.netIn_.compact();
+    }
+
+    /**
+     * Parses the received plain text and delivers the complete responses.
+     * 
+     * @param connection
+     *            the connection
+     * @param in
+     *            the received plain text
+     * @throws IOException
+     *             if a response is malformed
+     */
+    private void parse(Connection connection, ByteBuffer in) throws IOException {
+        if (connection.h2_ != null) {
+            connection.h2_.received(in, connection.writeQueue_);
+            if (connection.h2_.isGoingAway()
+                    && connection.h2_.getActiveStreams() == 0) {
+                close(connection, new EOFException("HTTP/2 connection closed by "
+                        + connection.endpoint_.key_), true);
+            }
+            else {
+                drain(connection.endpoint_);
+            }
+            return;
+        }
+        while (!connection.closed_ && connection.parser_.parse(in)) {
+            deliver(connection, connection.parser_.takeResponse());
+        }
+    }
+
+    /**
+     * Delivers a response to the oldest request in flight on the connection.
+     * 
+     * @param connection
+     *            the connection
+     * @param response
+     *            the response
+     * @throws IOException
+     *             if no request is in flight
+     */
+    private void deliver(Connection connection, ResponseParser.Response response)
+            throws IOException {
+        PendingRequest request= connection.inFlight_.poll();
+        if (request == null) {
+            throw new IOException("Unexpected response from "
+                    + connection.endpoint_.key_);
+        }
+        request.complete(response);
+        if (response.close_) {
+            close(connection, new EOFException("Connection closed by "
+                    + connection.endpoint_.key_), true);
+        }
+    }
+
+    /**
+     * Sends the queued requests, and the TLS handshake messages.
+     * 
+     * @param connection
+     *            the connected connection
+     * @throws IOException
+     *             if the connection fails
+     */
+    private void flush(Connection connection) throws IOException {
+        if (!connection.connected_ || connection.closed_) {
+            return;
+        }
+        boolean pending;
+        if (connection.engine_ == null) {
+            List<ByteBuffer> writeQueue= connection.writeQueue_;
+            while (!writeQueue.isEmpty()) {
+                connection.channel_.write(writeQueue.toArray(new ByteBuffer[writeQueue.size()]));
+                while (!writeQueue.isEmpty()
+                        && !writeQueue.get(0).hasRemaining()) {
+                    writeQueue.remove(0);
+                }
+                if (!writeQueue.isEmpty()) {
+                    break;
+                }
+            }
+            pending= !writeQueue.isEmpty();
+        }
+        else {
+            pending= wrap(connection);
+            if (connection.closed_) {
+                return;
+            }
+        }
+        connection.key_.interestOps(pending ? SelectionKey.OP_READ
+                | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Encrypts and sends the TLS handshake messages and the queued requests.
+     * 
+     * @param connection
+     *            the TLS connection
+     * @return <code>true</code> if encrypted bytes remain to be sent
+     * @throws IOException
+     *             if the connection fails
+     */
+    private boolean wrap(Connection connection) throws IOException {
+        SSLEngine engine= connection.engine_;
+        while (true) {
+            if (connection.netOut_.position() > 0) {
+                connection.netOut_.flip();
+                connection.channel_.write(connection.netOut_);
+                boolean remaining= connection.netOut_.hasRemaining();
+                connection.netOut_.compact();
+                if (remaining) {
+                    return true;
+                }
+            }
+            HandshakeStatus handshakeStatus= engine.getHandshakeStatus();
+            ByteBuffer src;
+            if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+                handshake(connection, handshakeStatus);
+                continue;
+            }
+            else if (handshakeStatus == HandshakeStatus.NEED_WRAP) {
+                src= EMPTY;
+            }
+            else if (handshakeStatus == HandshakeStatus.NOT_HANDSHAKING
+                    && !connection.writeQueue_.isEmpty()) {
+                src= connection.writeQueue_.get(0);
+            }
+            else {
+                return false;
+            }
+            SSLEngineResult result= engine.wrap(src, connection.netOut_);
+            switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                connection.netOut_= enlarge(connection.netOut_,
+                                            engine.getSession().getPacketBufferSize());
+                break;
+            case CLOSED:
+                close(connection, new EOFException("TLS connection closed by "
+                        + connection.endpoint_.key_), true);
+                return false;
+            default:
+                break;
+            }
+            handshake(connection, result.getHandshakeStatus());
+            if (src != EMPTY && !src.hasRemaining()) {
+                connection.writeQueue_.remove(0);
+            }
+        }
+    }
+
+    /**
+     * Runs the delegated tasks of the TLS handshake, and counts the completed
+     * handshake.
+     * 
+     * @param connection
+     *            the TLS connection
+     * @param handshakeStatus
+     *            the handshake status of the last operation
+     * @return <code>true</code> if delegated tasks were run
+     */
+    private boolean handshake(Connection connection,
+            HandshakeStatus handshakeStatus) {
+        SSLEngine engine= connection.engine_;
+        if (handshakeStatus == HandshakeStatus.FINISHED
+                && !connection.handshakeCompleted_) {
+            connection.handshakeCompleted_= true;
+            tlsSocketFactory_.handshakeCompleted(engine.getSession(),
+                                                 connection.handshakeStart_);
+            if (!connection.ready_) {
+                ready(connection,
+                      "h2".equals(TLSProtocolSocketFactory.getApplicationProtocol(engine)));
+            }
+        }
+        if (engine.getHandshakeStatus() != HandshakeStatus.NEED_TASK) {
+            return false;
+        }
+        Runnable task;
+        while ((task= engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+        return true;
+    }
+
+    /**
+     * Enlarges a buffer in write mode.
+     * 
+     * @param buffer
+     *            the buffer
+     * @param size
+     *            the minimum free space
+     * @return the enlarged buffer, with the same content
+     */
+    private ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer enlarged= ByteBuffer.allocate(buffer.position() + size);
+        buffer.flip();
+        enlarged.put(buffer);
+        return enlarged;
+    }
+
+    /**
+     * Closes a connection. Its requests in flight are sent again on another
+     * connection, or fail.
+     * 
+     * @param connection
+     *            the connection
+     * @param cause
+     *            the cause of the close
+     * @param retry
+     *            <code>true</code> to send again the requests in flight
+     */
+    private void close(Connection connection, IOException cause, boolean retry) {
+        if (connection.closed_) {
+            return;
+        }
+        connection.closed_= true;
+        connection.endpoint_.connections_.remove(connection);
+        if (connection.key_ != null) {
+            connection.key_.cancel();
+        }
+        try {
+            connection.channel_.close();
+        } catch (IOException e) {
+            // ignored
+        }
+        for (PendingRequest request : connection.inFlight_) {
+            if (retry && running_ && request.attempts_ < MAX_ATTEMPTS) {
+                dispatch(request);
+            }
+            else {
+                request.fail(cause);
+            }
+        }
+        connection.inFlight_.clear();
+        connection.streams_.clear();
+        connection.writeQueue_.clear();
+        if (running_) {
+            // the waiting requests of the endpoint need another connection
+            drain(connection.endpoint_);
+        }
+    }
+
+    /**
+     * Cancels a timed out or aborted request: a waiting request is removed,
+     * the HTTP/2 stream of the request is reset, and the HTTP/1.1 connection
+     * of a timed out request is closed, the aborted request keeping its place
+     * in the pipeline.
+     * 
+     * @param request
+     *            the completed request
+     * @param timedOut
+     *            <code>true</code> if the request timed out
+     */
+    private void cancel(PendingRequest request, boolean timedOut) {
+        Endpoint endpoint= endpoints_.get(request.target_.key_);
+        if (endpoint != null && endpoint.waiting_.remove(request)) {
+            return;
+        }
+        Connection connection= request.connection_;
+        if (connection == null || !connection.inFlight_.contains(request)) {
+            return;
+        }
+        if (!connection.ready_) {
+            connection.inFlight_.remove(request);
+        }
+        else if (connection.h2_ != null) {
+            connection.inFlight_.remove(request);
+            connection.streams_.remove(Integer.valueOf(request.streamId_));
+            connection.h2_.cancelStream(request.streamId_,
+                                        connection.writeQueue_);
+            try {
+                flush(connection);
+            } catch (IOException e) {
+                close(connection, e, true);
+                return;
+            }
+            drain(connection.endpoint_);
+        }
+        else if (timedOut) {
+            connection.inFlight_.remove(request);
+            close(connection,
+                  new SocketTimeoutException("Request to "
+                          + connection.endpoint_.key_ + " timed out"),
+                  true);
+        }
+    }
+
+    /** Receives the responses of the HTTP/2 streams of a connection. */
+    private class StreamListener implements Http2Session.Listener {
+
+        /** The HTTP/2 connection */
+        private final Connection connection_;
+
+        /**
+         * Constructor.
+         * 
+         * @param connection
+         *            the HTTP/2 connection
+         */
+        StreamListener(Connection connection) {
+            connection_= connection;
+        }
+
+        /** {@inheritDoc} */
+        public void responseReceived(int streamId,
+                ResponseParser.Response response) {
+            PendingRequest request= connection_.streams_.remove(Integer.valueOf(streamId));
+            if (request != null) {
+                connection_.inFlight_.remove(request);
+                request.complete(response);
+            }
+        }
+
+        /** {@inheritDoc} */
+        public void streamReset(int streamId, IOException cause,
+                boolean unprocessed) {
+            PendingRequest request= connection_.streams_.remove(Integer.valueOf(streamId));
+            if (request == null) {
+                return;
+            }
+            connection_.inFlight_.remove(request);
+            if (unprocessed && request.attempts_ < MAX_ATTEMPTS) {
+                dispatch(request);
+            }
+            else {
+                request.fail(cause);
+            }
+        }
+    }
+
+    /** The scheme, host, port and path of an endpoint URL. */
+    private static final class Target {
+
+        /** Whether the endpoint uses HTTPS */
+        final boolean secure_;
+
+        /** The host */
+        final String host_;
+
+        /** The port */
+        final int port_;
+
+        /** The path and query of the requests */
+        final String path_;
+
+        /** The <code>Host</code> header */
+        final String hostHeader_;
+
+        /** The key of the connections, scheme, host and port */
+        final String key_;
+
+        /**
+         * Constructor.
+         * 
+         * @param endpoint
+         *            the endpoint URL
+         * @throws IOException
+         *             if the URL is invalid
+         */
+        Target(String endpoint) throws IOException {
+            URI uri;
+            try {
+                uri= new URI(endpoint);
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid PEP Server endpoint URL "
+                        + endpoint + ": " + e.getMessage());
+            }
+            String scheme= uri.getScheme() == null ? ""
+                    : uri.getScheme().toLowerCase(Locale.ENGLISH);
+            if (!"http".equals(scheme) && !"https".equals(scheme)) {
+                throw new IOException("Unsupported PEP Server endpoint URL "
+                        + endpoint);
+            }
+            if (uri.getHost() == null) {
+                throw new IOException("Invalid PEP Server endpoint URL "
+                        + endpoint);
+            }
+            secure_= "https".equals(scheme);
+            host_= uri.getHost();
+            port_= uri.getPort() < 0 ? (secure_ ? 443 : 80) : uri.getPort();
+            String path= uri.getRawPath() == null || uri.getRawPath().length() == 0 ? "/"
+                    : uri.getRawPath();
+            path_= uri.getRawQuery() == null ? path : path + "?"
+                    + uri.getRawQuery();
+            hostHeader_= uri.getPort() < 0 ? host_ : host_ + ":" + port_;
+            key_= scheme + "://" + host_ + ":" + port_;
+        }
+    }
+
+    /** The connections to an endpoint, used by the selector thread. */
+    private static final class Endpoint {
+
+        /** The endpoint */
+        final Target target_;
+
+        /** The key of the endpoint */
+        final String key_;
+
+        /** The open connections */
+        final List<Connection> connections_= new ArrayList<Connection>();
+
+        /** The requests waiting for an HTTP/2 stream, in order */
+        final LinkedList<PendingRequest> waiting_= new LinkedList<PendingRequest>();
+
+        /**
+         * Constructor.
+         * 
+         * @param target
+         *            the endpoint
+         */
+        Endpoint(Target target) {
+            target_= target;
+            key_= target.key_;
+        }
+    }
+
+    /** A connection, used by the selector thread. */
+    private static final class Connection {
+
+        /** The endpoint of the connection */
+        final Endpoint endpoint_;
+
+        /** The channel */
+        final SocketChannel channel_;
+
+        /** The creation time in millis */
+        final long created_= System.currentTimeMillis();
+
+        /** The selection key */
+        SelectionKey key_;
+
+        /** The requests to write */
+        final List<ByteBuffer> writeQueue_= new LinkedList<ByteBuffer>();
+
+        /** The requests waiting for their response, in order */
+        final LinkedList<PendingRequest> inFlight_= new LinkedList<PendingRequest>();
+
+        /** The parser of the HTTP/1.1 responses */
+        final ResponseParser parser_= new ResponseParser();
+
+        /** Whether the protocol is negotiated and the requests can be written */
+        boolean ready_;
+
+        /** The HTTP/2 session, <code>null</code> for HTTP/1.1 */
+        Http2Session h2_;
+
+        /** The HTTP/2 requests in flight, by stream identifier */
+        final Map<Integer, PendingRequest> streams_= new HashMap<Integer, PendingRequest>();
+
+        /** The received bytes, encrypted if TLS */
+        ByteBuffer netIn_= ByteBuffer.allocate(BUFFER_SIZE);
+
+        /** The decrypted bytes, if TLS */
+        ByteBuffer appIn_;
+
+        /** The encrypted bytes to send, if TLS */
+        ByteBuffer netOut_;
+
+        /** The SSL engine, <code>null</code> if plain */
+        SSLEngine engine_;
+
+        /** The start time in millis of the TLS handshake */
+        long handshakeStart_;
+
+        /** Whether the TLS handshake is completed and counted */
+        boolean handshakeCompleted_= false;
+
+        /** Whether the connection is established */
+        boolean connected_= false;
+
+        /** Whether the connection is closed */
+        boolean closed_= false;
+
+        /**
+         * Constructor.
+         * 
+         * @param endpoint
+         *            the endpoint of the connection
+         * @param channel
+         *            the channel
+         */
+        Connection(Endpoint endpoint, SocketChannel channel) {
+            endpoint_= endpoint;
+            channel_= channel;
+        }
+
+        /**
+         * Checks if the connection can take a request without pipelining.
+         * 
+         * @param maxConcurrentStreams
+         *            the maximum number of concurrent streams, <code>0</code>
+         *            for HTTP/1.1
+         * @return <code>true</code> if a request can be sent now
+         */
+        boolean isAvailable(int maxConcurrentStreams) {
+            if (h2_ != null) {
+                return h2_.canCreateStream();
+            }
+            if (!ready_) {
+                return inFlight_.size() < maxConcurrentStreams;
+            }
+            return inFlight_.isEmpty();
+        }
+    }
+
+    /** A request sent by an exchange, waiting for its response. */
+    private static final class PendingRequest {
+
+        /** The endpoint */
+        final Target target_;
+
+        /** The request headers, with the content type */
+        final Map<String, String> headers_;
+
+        /** The request body */
+        final byte[] body_;
+
+        /** The serialized HTTP/1.1 request, <code>null</code> until needed */
+        private ByteBuffer message_= null;
+
+        /** The HTTP/2 stream, used by the selector thread */
+        int streamId_;
+
+        /** Number of times the request was sent, used by the selector thread */
+        int attempts_= 0;
+
+        /** The connection sending the request, used by the selector thread */
+        Connection connection_;
+
+        /** Whether the request is completed */
+        private final AtomicBoolean done_= new AtomicBoolean(false);
+
+        /** Signaled when the request is completed */
+        private final CountDownLatch latch_= new CountDownLatch(1);
+
+        /** The response */
+        private volatile ResponseParser.Response response_;
+
+        /** The failure */
+        private volatile IOException failure_;
+
+        /**
+         * Constructor.
+         * 
+         * @param target
+         *            the endpoint
+         * @param headers
+         *            the request headers, with the content type
+         * @param body
+         *            the request body
+         */
+        PendingRequest(Target target, Map<String, String> headers, byte[] body) {
+            target_= target;
+            headers_= headers;
+            body_= body;
+        }
+
+        /**
+         * Gets the serialized HTTP/1.1 request.
+         * 
+         * @return the serialized request, to write
+         */
+        ByteBuffer getMessage() {
+            if (message_ == null) {
+                StringBuilder head= new StringBuilder(256);
+                head.append("POST ").append(target_.path_).append(" HTTP/1.1\r\n");
+                head.append("Host: ").append(target_.hostHeader_).append("\r\n");
+                head.append("Content-Length: ").append(body_.length).append("\r\n");
+                for (Map.Entry<String, String> header : headers_.entrySet()) {
+                    head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+                }
+                head.append("\r\n");
+                message_= ByteBuffer.allocate(head.length() + body_.length);
+                for (int i= 0; i < head.length(); i++) {
+                    message_.put((byte) head.charAt(i));
+                }
+                message_.put(body_);
+                message_.flip();
+            }
+            return message_.duplicate();
+        }
+
+        /**
+         * Checks if the request is completed.
+         * 
+         * @return <code>true</code> if completed
+         */
+        boolean isDone() {
+            return done_.get();
+        }
+
+        /**
+         * Completes the request with its response.
+         * 
+         * @param response
+         *            the response
+         */
+        void complete(ResponseParser.Response response) {
+            if (done_.compareAndSet(false, true)) {
+                response_= response;
+                latch_.countDown();
+            }
+        }
+
+        /**
+         * Completes the request with a failure.
+         * 
+         * @param failure
+         *            the failure
+         */
+        void fail(IOException failure) {
+            if (done_.compareAndSet(false, true)) {
+                failure_= failure;
+                latch_.countDown();
+            }
+        }
+
+        /**
+         * Waits for the completion of the request.
+         * 
+         * @param timeout
+         *            the maximum time to wait in millis, <code>0</code> for
+         *            no limit
+         * @return <code>true</code> if the request completed
+         * @throws InterruptedException
+         *             if interrupted while waiting
+         */
+        boolean await(long timeout) throws InterruptedException {
+            if (timeout <= 0) {
+                latch_.await();
+                return true;
+            }
+            return latch_.await(timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** An exchange sent as a pipelined request. */
+    private class PipelinedExchange implements PEPExchange {
+
+        /** The endpoint URL */
+        private final String endpoint_;
+
+        /** The request headers */
+        private final Map<String, String> requestHeaders_= new LinkedHashMap<String, String>();
+
+        /** The request entity */
+        private RequestEntity requestEntity_= null;
+
+        /** The read timeout in millis */
+        private int readTimeout_= NIOTransport.this.readTimeout_;
+
+        /** The request in progress */
+        private volatile PendingRequest request_= null;
+
+        /** The response */
+        private ResponseParser.Response response_= null;
+
+        /** Whether the exchange was aborted */
+        private volatile boolean aborted_= false;
+
+        /**
+         * Constructor.
+         * 
+         * @param endpoint
+         *            the endpoint URL
+         */
+        PipelinedExchange(String endpoint) {
+            endpoint_= endpoint;
+        }
+
+        /** {@inheritDoc} */
+        public String getEndpoint() {
+            return endpoint_;
+        }
+
+        /** {@inheritDoc} */
+        public RequestEntity getRequestEntity() {
+            return requestEntity_;
+        }
+
+        /** {@inheritDoc} */
+        public void setRequestEntity(RequestEntity entity) {
+            requestEntity_= entity;
+        }
+
+        /** {@inheritDoc} */
+        public void setRequestHeader(String name, String value) {
+            requestHeaders_.put(name, value);
+        }
+
+        /** {@inheritDoc} */
+        public void removeRequestHeader(String name) {
+            requestHeaders_.remove(name);
+        }
+
+        /** {@inheritDoc} */
+        public void setReadTimeout(int timeout) {
+            readTimeout_= timeout;
+        }
+
+        /**
+         * Has no effect, the wait for a connection or a stream is bounded by
+         * the read timeout of the exchange.
+         * 
+         * @param timeout
+         *            the time to wait in millis
+         */
+        public void setPoolTimeout(int timeout) {
+            // the requests are pipelined
+        }
+
+        /** {@inheritDoc} */
+        public int execute() throws IOException {
+            response_= null;
+            Target target= new Target(endpoint_);
+            final PendingRequest request= createRequest(target);
+            request_= request;
+            if (aborted_) {
+                throw new IOException("Request to " + endpoint_ + " aborted");
+            }
+            boolean submitted= submit(new Runnable() {
+                public void run() {
+                    dispatch(request);
+                }
+            });
+            if (!submitted) {
+                throw new IOException("Transport shut down");
+            }
+            boolean completed;
+            try {
+                completed= request.await(readTimeout_ > 0 ? connectionTimeout_
+                        + readTimeout_ : 0);
+            } catch (InterruptedException e) {
+                abort();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for "
+                        + endpoint_);
+            }
+            if (!completed) {
+                request.fail(new SocketTimeoutException("Read timed out"));
+                submit(new Runnable() {
+                    public void run() {
+                        cancel(request, true);
+                    }
+                });
+            }
+            if (request.failure_ != null) {
+                IOException failure= new IOException("Request to "
+                        + endpoint_ + " failed: " + request.failure_.getMessage());
+                if (request.failure_ instanceof SocketTimeoutException) {
+                    failure= new SocketTimeoutException("Request to "
+                            + endpoint_ + " timed out");
+                }
+                failure.initCause(request.failure_);
+                throw failure;
+            }
+            response_= request.response_;
+            return response_.statusCode_;
+        }
+
+        /**
+         * Creates the request to send.
+         * 
+         * @param target
+         *            the endpoint
+         * @return the request
+         * @throws IOException
+         *             if the request entity can not be written
+         */
+        private PendingRequest createRequest(Target target) throws IOException {
+            ByteArrayOutputStream body= new ByteArrayOutputStream();
+            Map<String, String> headers= new LinkedHashMap<String, String>();
+            if (requestEntity_ != null) {
+                requestEntity_.writeRequest(body);
+                if (requestEntity_.getContentType() != null) {
+                    headers.put("Content-Type",
+                                requestEntity_.getContentType());
+                }
+            }
+            headers.putAll(requestHeaders_);
+            return new PendingRequest(target, headers, body.toByteArray());
+        }
+
+        /** {@inheritDoc} */
+        public int getStatusCode() {
+            return response_ == null ? 0 : response_.statusCode_;
+        }
+
+        /** {@inheritDoc} */
+        public String getResponseHeader(String name) {
+            return response_ == null ? null
+                    : response_.headers_.get(name.toLowerCase(Locale.ENGLISH));
+        }
+
+        /** {@inheritDoc} */
+        public InputStream getResponseBody() throws IOException {
+            if (response_ == null) {
+                throw new IOException("Request to " + endpoint_
+                        + " not executed");
+            }
+            return new ByteArrayInputStream(response_.body_);
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The response is already received, the connection is shared.
+         */
+        public void release() {
+            response_= null;
+            request_= null;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * An HTTP/1.1 request keeps its place in the pipeline, and its
+         * response is discarded. The stream of an HTTP/2 request is reset.
+         */
+        public void abort() {
+            aborted_= true;
+            final PendingRequest request= request_;
+            if (request != null) {
+                request.fail(new IOException("Request to " + endpoint_
+                        + " aborted"));
+                submit(new Runnable() {
+                    public void run() {
+                        cancel(request, false);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * An HTTP POST exchange with a PEP daemon endpoint, created by a
+ * {@link PEPTransport}.
+ * <p>
+ * The request entity and headers are set, the exchange is executed, then the
+ * response status, headers and body are read, and the exchange is released.
+ * An exchange can be executed again after being released, for instance with
+ * another request entity.
+ */
+public interface PEPExchange {
+
+    /**
+     * Returns the PEP daemon endpoint URL.
+     * 
+     * @return the endpoint URL
+     */
+    public String getEndpoint();
+
+    /**
+     * Returns the request entity.
+     * 
+     * @return the request entity, or <code>null</code> if not set
+     */
+    public RequestEntity getRequestEntity();
+
+    /**
+     * Sets the request entity, which gives the <code>Content-Type</code> and
+     * <code>Content-Length</code> request headers.
+     * 
+     * @param entity
+     *            the repeatable request entity
+     */
+    public void setRequestEntity(RequestEntity entity);
+
+    /**
+     * Sets a request header, replacing the existing value.
+     * 
+     * @param name
+     *            the header name
+     * @param value
+     *            the header value
+     */
+    public void setRequestHeader(String name, String value);
+
+    /**
+     * Removes a request header.
+     * 
+     * @param name
+     *            the header name
+     */
+    public void removeRequestHeader(String name);
+
+    /**
+     * Sets the socket read timeout of the exchange.
+     * 
+     * @param timeout
+     *            the read timeout in millis, <code>0</code> for none
+     */
+    public void setReadTimeout(int timeout);
+
+    /**
+     * Sets the time to wait for a free connection, when the transport limits
+     * the number of connections in use.
+     * 
+     * @param timeout
+     *            the time to wait in millis, <code>0</code> for the transport
+     *            default
+     */
+    public void setPoolTimeout(int timeout);
+
+    /**
+     * Sends the request and reads the response status and headers.
+     * 
+     * @return the response status code
+     * @throws IOException
+     *             if the request can not be sent or the response can not be
+     *             read
+     */
+    public int execute() throws IOException;
+
+    /**
+     * Returns the response status code.
+     * 
+     * @return the response status code
+     */
+    public int getStatusCode();
+
+    /**
+     * Returns a response header.
+     * 
+     * @param name
+     *            the header name
+     * @return the header value, or <code>null</code> if not present
+     */
+    public String getResponseHeader(String name);
+
+    /**
+     * Returns the response body.
+     * 
+     * @return the response body stream
+     * @throws IOException
+     *             if the response body can not be read
+     */
+    public InputStream getResponseBody() throws IOException;
+
+    /**
+     * Releases the connection of the exchange, to be reused by the following
+     * exchanges.
+     */
+    public void release();
+
+    /**
+     * Aborts the exchange in progress, from another thread. The connection is
+     * closed.
+     */
+    public void abort();
+
+}
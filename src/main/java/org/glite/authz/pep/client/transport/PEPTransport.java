@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+/**
+ * Transport sending the authorization requests to the PEP daemons with HTTP
+ * POST exchanges.
+ * <p>
+ * The transport owns the connections to the PEP daemons. Implementations must
+ * be thread-safe, but the exchanges they create are used by a single thread,
+ * except for {@link PEPExchange#abort()}.
+ */
+public interface PEPTransport {
+
+    /**
+     * Creates a POST exchange with a PEP daemon endpoint.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint URL
+     * @return the exchange, to be released once its response is read
+     */
+    public PEPExchange createExchange(String endpoint);
+
+    /**
+     * Closes the connections to the PEP daemons. The transport can not be
+     * used afterwards.
+     */
+    public void shutdown();
+
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental parser of the HTTP/1.1 responses received on a connection,
+ * with a <code>Content-Length</code>, chunked, or delimited by the
+ * connection close. The interim <code>1xx</code> responses are skipped.
+ */
+final class ResponseParser {
+
+    /** Maximum length of the status line or of a header line */
+    private static final int MAX_LINE_LENGTH= 8192;
+
+    /** Maximum number of header lines */
+    private static final int MAX_HEADERS= 100;
+
+    /** Maximum length of a response body */
+    private static final int MAX_BODY_LENGTH= 16 * 1024 * 1024;
+
+    /** Parser states */
+    private enum State {
+        STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_UNTIL_CLOSE
+    }
+
+    /** Current state */
+    private State state_= State.STATUS_LINE;
+
+    /** Current line */
+    private final ByteArrayOutputStream line_= new ByteArrayOutputStream(128);
+
+    /** Status code of the current response */
+    private int statusCode_;
+
+    /** Headers of the current response, by lower case name */
+    private Map<String, String> headers_= new HashMap<String, String>();
+
+    /** Body of the current response */
+    private ByteArrayOutputStream body_;
+
+    /** Remaining length of the body or of the chunk */
+    private int remaining_;
+
+    /** The last completed response */
+    private Response response_;
+
+    /**
+     * Parses the received bytes until a response is complete.
+     * 
+     * @param in
+     *            the received bytes, consumed by the parser
+     * @return <code>true</code> if a response is complete, see
+     *         {@link #takeResponse()}
+     * @throws IOException
+     *             if the response is malformed
+     */
+    boolean parse(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            switch (state_) {
+            case STATUS_LINE:
+                if (readLine(in)) {
+                    String statusLine= takeLine();
+                    if (statusLine.length() == 0) {
+                        // tolerate empty lines between responses
+                        continue;
+                    }
+                    parseStatusLine(statusLine);
+                    state_= State.HEADERS;
+                }
+                break;
+            case HEADERS:
+                if (readLine(in)) {
+                    String header= takeLine();
+                    if (header.length() > 0) {
+                        parseHeader(header);
+                    }
+                    else if (startBody()) {
+                        return true;
+                    }
+                }
+                break;
+            case BODY:
+            case CHUNK_DATA:
+                int n= Math.min(remaining_, in.remaining());
+                body_.write(in.array(), in.arrayOffset() + in.position(), n);
+                in.position(in.position() + n);
+                remaining_-= n;
+                if (remaining_ == 0) {
+                    if (state_ == State.BODY) {
+                        complete();
+                        return true;
+                    }
+                    state_= State.CHUNK_END;
+                }
+                break;
+            case CHUNK_SIZE:
+                if (readLine(in)) {
+                    String chunkSize= takeLine();
+                    int extension= chunkSize.indexOf(';');
+                    if (extension >= 0) {
+                        chunkSize= chunkSize.substring(0, extension);
+                    }
+                    try {
+                        remaining_= Integer.parseInt(chunkSize.trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid chunk size: " + chunkSize);
+                    }
+                    if (remaining_ < 0
+                            || body_.size() + remaining_ > MAX_BODY_LENGTH) {
+                        throw new IOException("Invalid chunk size: " + chunkSize);
+                    }
+                    state_= remaining_ == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                }
+                break;
+            case CHUNK_END:
+                if (readLine(in)) {
+                    takeLine();
+                    state_= State.CHUNK_SIZE;
+                }
+                break;
+            case TRAILERS:
+                if (readLine(in) && takeLine().length() == 0) {
+                    complete();
+                    return true;
+                }
+                break;
+            case BODY_UNTIL_CLOSE:
+                if (body_.size() + in.remaining() > MAX_BODY_LENGTH) {
+                    throw new IOException("Response body too large");
+                }
+                body_.write(in.array(),
+                            in.arrayOffset() + in.position(),
+                            in.remaining());
+                in.position(in.limit());
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Completes the response delimited by the connection close, if any.
+     * 
+     * @return <code>true</code> if a response is complete, see
+     *         {@link #takeResponse()}
+     */
+    boolean closed() {
+        if (state_ == State.BODY_UNTIL_CLOSE) {
+            complete();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the parser is between two responses.
+     * 
+     * @return <code>true</code> if no response is partially received
+     */
+    boolean isIdle() {
+        return state_ == State.STATUS_LINE && line_.size() == 0;
+    }
+
+    /**
+     * Returns the last completed response.
+     * 
+     * @return the response
+     */
+    Response takeResponse() {
+        Response response= response_;
+        response_= null;
+        return response;
+    }
+
+    /**
+     * Reads bytes into the current line until the line feed.
+     * 
+     * @param in
+     *            the received bytes
+     * @return <code>true</code> if the line is complete
+     * @throws IOException
+     *             if the line is too long
+     */
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            byte b= in.get();
+            if (b == '\n') {
+                return true;
+            }
+            if (line_.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Response line too long");
+            }
+            line_.write(b);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the current line, without the trailing carriage return, and
+     * clears it.
+     * 
+     * @return the line
+     */
+    private String takeLine() {
+        int length= line_.size();
+        byte[] bytes= line_.toByteArray();
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        line_.reset();
+        char[] chars= new char[length];
+        for (int i= 0; i < length; i++) {
+            chars[i]= (char) (bytes[i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses the status code of the status line.
+     * 
+     * @param statusLine
+     *            the status line
+     * @throws IOException
+     *             if the status line is malformed
+     */
+    private void parseStatusLine(String statusLine) throws IOException {
+        if (!statusLine.startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        int start= statusLine.indexOf(' ');
+        if (start < 0) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        int end= statusLine.indexOf(' ', start + 1);
+        String statusCode= end < 0 ? statusLine.substring(start + 1)
+                : statusLine.substring(start + 1, end);
+        try {
+            statusCode_= Integer.parseInt(statusCode.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        headers_= new HashMap<String, String>();
+    }
+
+    /**
+     * Parses a header line.
+     * 
+     * @param header
+     *            the header line
+     * @throws IOException
+     *             if the header is malformed, or there are too many headers
+     */
+    private void parseHeader(String header) throws IOException {
+        int colon= header.indexOf(':');
+        if (colon <= 0) {
+            throw new IOException("Invalid header: " + header);
+        }
+        if (headers_.size() >= MAX_HEADERS) {
+            throw new IOException("Too many headers");
+        }
+        String name= header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+        String value= header.substring(colon + 1).trim();
+        String previous= headers_.get(name);
+        headers_.put(name, previous == null ? value : previous + ", " + value);
+    }
+
+    /**
+     * Starts reading the body, after the headers.
+     * 
+     * @return <code>true</code> if the response has no body and is complete
+     * @throws IOException
+     *             if the content length is invalid
+     */
+    private boolean startBody() throws IOException {
+        if (statusCode_ >= 100 && statusCode_ < 200) {
+            // interim response
+            state_= State.STATUS_LINE;
+            return false;
+        }
+        body_= new ByteArrayOutputStream();
+        String transferEncoding= headers_.get("transfer-encoding");
+        String contentLength= headers_.get("content-length");
+        if (statusCode_ == 204 || statusCode_ == 304) {
+            complete();
+            return true;
+        }
+        if (transferEncoding != null
+                && transferEncoding.toLowerCase(Locale.ENGLISH).indexOf("chunked") >= 0) {
+            state_= State.CHUNK_SIZE;
+            return false;
+        }
+        if (contentLength != null) {
+            try {
+                remaining_= Integer.parseInt(contentLength);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid content length: "
+                        + contentLength);
+            }
+            if (remaining_ < 0 || remaining_ > MAX_BODY_LENGTH) {
+                throw new IOException("Invalid content length: "
+                        + contentLength);
+            }
+            if (remaining_ == 0) {
+                complete();
+                return true;
+            }
+            body_= new ByteArrayOutputStream(remaining_);
+            state_= State.BODY;
+            return false;
+        }
+        state_= State.BODY_UNTIL_CLOSE;
+        return false;
+    }
+
+    /** Completes the current response, and waits for the next one. */
+    private void complete() {
+        boolean close= state_ == State.BODY_UNTIL_CLOSE
+                || "close".equalsIgnoreCase(headers_.get("connection"));
+        response_= new Response(statusCode_,
+                                headers_,
+                                body_ == null ? new byte[0] : body_.toByteArray(),
+                                close);
+        body_= null;
+        state_= State.STATUS_LINE;
+    }
+
+    /** A received response. */
+    static final class Response {
+
+        /** The status code */
+        final int statusCode_;
+
+        /** The headers, by lower case name */
+        final Map<String, String> headers_;
+
+        /** The body */
+        final byte[] body_;
+
+        /** Whether the server closes the connection after the response */
+        final boolean close_;
+
+        /**
+         * Constructor.
+         * 
+         * @param statusCode
+         *            the status code
+         * @param headers
+         *            the headers, by lower case name
+         * @param body
+         *            the body
+         * @param close
+         *            whether the server closes the connection
+         */
+        Response(int statusCode, Map<String, String> headers, byte[] body,
+                boolean close) {
+            statusCode_= statusCode;
+            headers_= headers;
+            body_= body;
+            close_= close;
+        }
+    }
+}
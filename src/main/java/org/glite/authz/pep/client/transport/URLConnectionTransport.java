@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * Transport using the JDK {@link HttpURLConnection} instead of
+ * commons-httpclient.
+ * <p>
+ * The persistent connections are kept by the JDK keep-alive cache, which
+ * holds up to <code>http.maxConnections</code> (system property, default
+ * <code>5</code>) idle connections per host. This cache is shared by the
+ * whole process and synchronized, like the commons-httpclient connection
+ * manager it replaces. The HTTPS host name of the PEP
+ * daemon is verified against its certificate by the default
+ * {@link HttpsURLConnection} host name verifier.
+ */
+public class URLConnectionTransport implements PEPTransport {
+
+    /** Empty response body */
+    private static final byte[] EMPTY= new byte[0];
+
+    /** Connection timeout in millis, <code>0</code> for none */
+    private final int connectionTimeout_;
+
+    /** Default read timeout in millis, <code>0</code> for none */
+    private final int readTimeout_;
+
+    /** Factory of the HTTPS sockets, <code>null</code> for the JDK default */
+    private final SSLSocketFactory sslSocketFactory_;
+
+    /**
+     * Constructor.
+     * 
+     * @param connectionTimeout
+     *            the connection timeout in millis, <code>0</code> for none
+     * @param readTimeout
+     *            the default read timeout in millis, <code>0</code> for none
+     * @param sslSocketFactory
+     *            the factory of the HTTPS sockets, <code>null</code> for the
+     *            JDK default
+     */
+    public URLConnectionTransport(int connectionTimeout, int readTimeout,
+            SSLSocketFactory sslSocketFactory) {
+        connectionTimeout_= connectionTimeout;
+        readTimeout_= readTimeout;
+        sslSocketFactory_= sslSocketFactory;
+    }
+
+    /** {@inheritDoc} */
+    public PEPExchange createExchange(String endpoint) {
+        return new URLConnectionExchange(endpoint);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The idle connections stay in the JDK keep-alive cache, shared by the
+     * process, until they time out.
+     */
+    public void shutdown() {
+    }
+
+    /** An exchange over an {@link HttpURLConnection}. */
+    private class URLConnectionExchange implements PEPExchange {
+
+        /** The endpoint URL */
+        private final String endpoint_;
+
+        /** The request headers */
+        private final Map<String, String> requestHeaders_= new LinkedHashMap<String, String>();
+
+        /** The request entity */
+        private RequestEntity requestEntity_= null;
+
+        /** The read timeout in millis */
+        private int readTimeout_= URLConnectionTransport.this.readTimeout_;
+
+        /** The connection of the exchange in progress */
+        private volatile HttpURLConnection connection_= null;
+
+        /** The response body stream, once opened */
+        private InputStream responseBody_= null;
+
+        /** The response status code */
+        private int statusCode_= 0;
+
+        /** Whether the exchange was aborted */
+        private volatile boolean aborted_= false;
+
+        /**
+         * Constructor.
+         * 
+         * @param endpoint
+         *            the endpoint URL
+         */
+        URLConnectionExchange(String endpoint) {
+            endpoint_= endpoint;
+        }
+
+        /** {@inheritDoc} */
+        public String getEndpoint() {
+            return endpoint_;
+        }
+
+        /** {@inheritDoc} */
+        public RequestEntity getRequestEntity() {
+            return requestEntity_;
+        }
+
+        /** {@inheritDoc} */
+        public void setRequestEntity(RequestEntity entity) {
+            requestEntity_= entity;
+        }
+
+        /** {@inheritDoc} */
+        public void setRequestHeader(String name, String value) {
+            requestHeaders_.put(name, value);
+        }
+
+        /** {@inheritDoc} */
+        public void removeRequestHeader(String name) {
+            requestHeaders_.remove(name);
+        }
+
+        /** {@inheritDoc} */
+        public void setReadTimeout(int timeout) {
+            readTimeout_= timeout;
+        }
+
+        /**
+         * Has no effect, the JDK opens a new connection when none is idle.
+         * 
+         * @param timeout
+         *            the time to wait in millis
+         */
+        public void setPoolTimeout(int timeout) {
+            // no limit of connections in use
+        }
+
+        /** {@inheritDoc} */
+        public int execute() throws IOException {
+            HttpURLConnection connection= openConnection();
+            connection_= connection;
+            if (aborted_) {
+                connection.disconnect();
+                throw new IOException("Request to " + endpoint_ + " aborted");
+            }
+            connection.setConnectTimeout(connectionTimeout_);
+            connection.setReadTimeout(readTimeout_);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setUseCaches(false);
+            connection.setInstanceFollowRedirects(false);
+            for (Map.Entry<String, String> header : requestHeaders_.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            if (requestEntity_ != null) {
+                if (requestEntity_.getContentType() != null) {
+                    connection.setRequestProperty("Content-Type",
+                                                  requestEntity_.getContentType());
+                }
+                long length= requestEntity_.getContentLength();
+                if (length >= 0 && length <= Integer.MAX_VALUE) {
+                    connection.setFixedLengthStreamingMode((int) length);
+                }
+                else {
+                    connection.setChunkedStreamingMode(0);
+                }
+            }
+            OutputStream out= connection.getOutputStream();
+            try {
+                if (requestEntity_ != null) {
+                    requestEntity_.writeRequest(out);
+                }
+            } finally {
+                out.close();
+            }
+            statusCode_= connection.getResponseCode();
+            return statusCode_;
+        }
+
+        /**
+         * Opens the connection to the endpoint, with the HTTPS socket factory.
+         * 
+         * @return the unconnected connection
+         * @throws IOException
+         *             if the endpoint URL is invalid
+         */
+        private HttpURLConnection openConnection() throws IOException {
+            URL url;
+            try {
+                url= new URL(endpoint_);
+            } catch (MalformedURLException e) {
+                throw new IOException("Invalid PEP Server endpoint URL "
+                        + endpoint_ + ": " + e.getMessage());
+            }
+            HttpURLConnection connection= (HttpURLConnection) url.openConnection();
+            if (sslSocketFactory_ != null
+                    && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory_);
+            }
+            return connection;
+        }
+
+        /** {@inheritDoc} */
+        public int getStatusCode() {
+            return statusCode_;
+        }
+
+        /** {@inheritDoc} */
+        public String getResponseHeader(String name) {
+            HttpURLConnection connection= connection_;
+            return connection == null ? null : connection.getHeaderField(name);
+        }
+
+        /** {@inheritDoc} */
+        public InputStream getResponseBody() throws IOException {
+            if (responseBody_ == null) {
+                responseBody_= openResponseBody();
+            }
+            return responseBody_;
+        }
+
+        /**
+         * Opens the response body stream, the error stream for an error
+         * status code.
+         * 
+         * @return the response body stream
+         * @throws IOException
+         *             if the response body can not be read
+         */
+        private InputStream openResponseBody() throws IOException {
+            HttpURLConnection connection= connection_;
+            if (connection == null) {
+                throw new IOException("Request to " + endpoint_
+                        + " not executed");
+            }
+            InputStream in;
+            if (statusCode_ < HttpURLConnection.HTTP_BAD_REQUEST) {
+                in= connection.getInputStream();
+            }
+            else {
+                in= connection.getErrorStream();
+            }
+            return in == null ? new ByteArrayInputStream(EMPTY) : in;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Closing the response body returns the connection to the JDK
+         * keep-alive cache.
+         */
+        public void release() {
+            HttpURLConnection connection= connection_;
+            if (connection == null) {
+                return;
+            }
+            try {
+                if (statusCode_ > 0) {
+                    getResponseBody().close();
+                }
+                else {
+                    // request not sent, or no response
+                    connection.disconnect();
+                }
+            } catch (IOException e) {
+                connection.disconnect();
+            } finally {
+                connection_= null;
+                responseBody_= null;
+                statusCode_= 0;
+            }
+        }
+
+        /** {@inheritDoc} */
+        public void abort() {
+            aborted_= true;
+            HttpURLConnection connection= connection_;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -68,7 +68,9 @@ public final class CommonXACMLAuthorizationProfile extends
         for (X509Certificate x509 : x509s) {
             try {
                 byte[] derBytes= x509.getEncoded();
-                String base64Binary= Base64.encodeBytes(derBytes);
+                // canonical xs:base64Binary, without line breaks
+                String base64Binary= Base64.encodeBytes(derBytes,
+                                                        Base64.DONT_BREAK_LINES);
                 attrKeyInfo.getValues().add(base64Binary);
             } catch (CertificateEncodingException e) {
                 throw new ProfileException("Can not convert certificate to base64 binary format",
@@ -148,17 +150,14 @@ public final class CommonXACMLAuthorizationProfile extends
     }
 
     /** Singleton instance */
-    private static CommonXACMLAuthorizationProfile SINGLETON= null;
+    private static final CommonXACMLAuthorizationProfile SINGLETON= new CommonXACMLAuthorizationProfile();
 
     /**
      * Gets the EMI Common XACML Authorization Profile instance
      * 
      * @return
      */
-    public static synchronized CommonXACMLAuthorizationProfile getInstance() {
-        if (SINGLETON == null) {
-            SINGLETON= new CommonXACMLAuthorizationProfile();
-        }
+    public static CommonXACMLAuthorizationProfile getInstance() {
         return SINGLETON;
     }
 
@@ -94,7 +94,7 @@ public final class GridCEAuthorizationProfile extends
             + GLiteAuthorizationProfileConstants.SEPARATOR + "manage";
 
     /** Singleton */
-    private static GridCEAuthorizationProfile SINGLETON= null;
+    private static final GridCEAuthorizationProfile SINGLETON= new GridCEAuthorizationProfile();
 
     /*
      * (non-Javadoc)
@@ -166,10 +166,7 @@ public final class GridCEAuthorizationProfile extends
      * 
      * @return
      */
-    public static synchronized GridCEAuthorizationProfile getInstance() {
-        if (SINGLETON == null) {
-            SINGLETON= new GridCEAuthorizationProfile();
-        }
+    public static GridCEAuthorizationProfile getInstance() {
         return SINGLETON;
     }
 }
@@ -35,7 +35,7 @@ public final class GridWNAuthorizationProfile extends
         AbstractAuthorizationProfile {
 
     /** Singleton */
-    private static GridWNAuthorizationProfile SINGLETON= null;
+    private static final GridWNAuthorizationProfile SINGLETON= new GridWNAuthorizationProfile();
 
     /** Action value <b>execute</b>: {@value} */
     public static final String ACTION_EXECUTE= GLiteAuthorizationProfileConstants.NS_ACTION
@@ -106,10 +106,7 @@ public final class GridWNAuthorizationProfile extends
      * 
      * @return
      */
-    public static synchronized GridWNAuthorizationProfile getInstance() {
-        if (SINGLETON == null) {
-            SINGLETON= new GridWNAuthorizationProfile();
-        }
+    public static GridWNAuthorizationProfile getInstance() {
         return SINGLETON;
     }
 
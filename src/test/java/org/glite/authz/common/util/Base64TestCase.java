@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit to test the {@link Base64} streams and buffer encoding.
+ */
+public class Base64TestCase extends TestCase {
+
+    private Random random = new Random(42);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testBulkRead() throws Exception {
+        for (int length = 0; length < 5000; length += 7) {
+            byte[] data = randomBytes(length);
+            InputStream in = new Base64.InputStream(new ByteArrayInputStream(Base64.encodeBytes(data).getBytes("UTF-8")));
+            assertTrue("length " + length, Arrays.equals(data, readFully(in, 1000)));
+        }
+    }
+
+    public void testSingleByteRead() throws Exception {
+        byte[] data = randomBytes(3001);
+        InputStream in = new Base64.InputStream(new ByteArrayInputStream(Base64.encodeBytes(data).getBytes("UTF-8")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            out.write(b);
+        }
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+    }
+
+    public void testTrickleInput() throws Exception {
+        byte[] data = randomBytes(1000);
+        // the underlying stream returns a single character per read
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(Base64.encodeBytes(data).getBytes("UTF-8"))) {
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        InputStream in = new Base64.InputStream(trickle);
+        // mixed single byte and bulk reads
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(in.read());
+        out.write(readFully(in, 64));
+        assertTrue(Arrays.equals(data, out.toByteArray()));
+    }
+
+    public void testImproperPadding() throws Exception {
+        InputStream in = new Base64.InputStream(new ByteArrayInputStream("SGVsbG8".getBytes("UTF-8")));
+        try {
+            readFully(in, 16);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testInvalidCharacter() throws Exception {
+        // white space is skipped, but not the invalid characters
+        InputStream in = new Base64.InputStream(new ByteArrayInputStream("SGVs\r\nbG8=".getBytes("UTF-8")));
+        assertEquals("Hello", new String(readFully(in, 16), "UTF-8"));
+        in = new Base64.InputStream(new ByteArrayInputStream("SGVs*bG8=".getBytes("UTF-8")));
+        try {
+            readFully(in, 16);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testEncodeSameAsOutputStream() throws Exception {
+        int[] optionsList = { Base64.NO_OPTIONS, Base64.DONT_BREAK_LINES, Base64.URL_SAFE };
+        for (int options : optionsList) {
+            for (int length = 0; length < 400; length++) {
+                byte[] data = randomBytes(length);
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                Base64.OutputStream b64out = new Base64.OutputStream(expected, Base64.ENCODE | options);
+                b64out.write(data);
+                b64out.flushBase64();
+
+                // offset in both arrays
+                byte[] source = new byte[length + 5];
+                System.arraycopy(data, 0, source, 3, length);
+                byte[] encoded = new byte[Base64.encodedLength(length, options) + 7];
+                int n = Base64.encode(source, 3, length, encoded, 2, options);
+                assertEquals("length " + length, expected.size(), n);
+                assertEquals("length " + length, Base64.encodedLength(length, options), n);
+                assertEquals("length " + length, expected.toString("US-ASCII"), new String(encoded, 2, n, "US-ASCII"));
+                assertEquals(expected.toString("US-ASCII"), Base64.encodeBytes(data, options));
+            }
+        }
+    }
+
+    public void testDecodeIntoArray() throws Exception {
+        for (int length = 0; length < 400; length++) {
+            byte[] data = randomBytes(length);
+            byte[] encoded = ("  " + Base64.encodeBytes(data) + "\n").getBytes("US-ASCII");
+            assertEquals("length " + length, length, Base64.decodedLength(encoded, 0, encoded.length, Base64.NO_OPTIONS));
+            byte[] decoded = new byte[length + 4];
+            int n = Base64.decode(encoded, 0, encoded.length, decoded, 4, Base64.NO_OPTIONS);
+            assertEquals(length, n);
+            byte[] expected = new byte[length + 4];
+            System.arraycopy(data, 0, expected, 4, length);
+            assertTrue("length " + length, Arrays.equals(expected, decoded));
+        }
+    }
+
+    public void testEncodeDecodeBuffers() throws Exception {
+        for (int length = 0; length < 300; length += 7) {
+            byte[] data = randomBytes(length);
+            String expected = Base64.encodeBytes(data);
+            int encodedLength = Base64.encodedLength(length, Base64.NO_OPTIONS);
+
+            ByteBuffer heap = ByteBuffer.allocate(encodedLength);
+            Base64.encode(ByteBuffer.wrap(data), heap, Base64.NO_OPTIONS);
+            assertEquals(expected, new String(heap.array(), "US-ASCII"));
+            heap.flip();
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(encodedLength);
+            ByteBuffer source = ByteBuffer.allocateDirect(length);
+            source.put(data).flip();
+            Base64.encode(source, direct, Base64.NO_OPTIONS);
+            assertFalse(source.hasRemaining());
+            assertFalse(direct.hasRemaining());
+            direct.flip();
+
+            CharBuffer chars = CharBuffer.allocate(encodedLength);
+            Base64.encode(ByteBuffer.wrap(data), chars, Base64.NO_OPTIONS);
+            chars.flip();
+            assertEquals(expected, chars.toString());
+
+            ByteBuffer decoded = ByteBuffer.allocate(length);
+            Base64.decode(heap, decoded, Base64.NO_OPTIONS);
+            assertTrue(Arrays.equals(data, decoded.array()));
+            decoded = ByteBuffer.allocate(length);
+            Base64.decode(direct, decoded, Base64.NO_OPTIONS);
+            assertTrue(Arrays.equals(data, decoded.array()));
+            decoded = ByteBuffer.allocate(length);
+            Base64.decode(chars, decoded, Base64.NO_OPTIONS);
+            assertTrue(Arrays.equals(data, decoded.array()));
+        }
+    }
+
+    public void testDestinationTooSmall() throws Exception {
+        byte[] data = randomBytes(10);
+        try {
+            Base64.encode(data, 0, data.length, new byte[15], 0, Base64.NO_OPTIONS);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            Base64.encode(ByteBuffer.wrap(data), CharBuffer.allocate(15), Base64.NO_OPTIONS);
+            fail("BufferOverflowException expected");
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+        byte[] encoded = Base64.encodeBytes(data).getBytes("US-ASCII");
+        byte[] destination = new byte[12];
+        try {
+            Base64.decode(encoded, 0, encoded.length, destination, 3, Base64.NO_OPTIONS);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        // checked before anything is written
+        assertTrue(Arrays.equals(new byte[12], destination));
+    }
+
+    public void testDecodeDataAfterPadding() throws Exception {
+        byte[] source = "AA==AAAA".getBytes("US-ASCII");
+        try {
+            Base64.decodedLength(source, 0, source.length, Base64.NO_OPTIONS);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        ByteBuffer decoded = ByteBuffer.allocate(1);
+        try {
+            Base64.decode(ByteBuffer.wrap(source), decoded, Base64.NO_OPTIONS);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(0, decoded.position());
+        // white space may follow the padding
+        source = "AA==\r\n".getBytes("US-ASCII");
+        assertEquals(1, Base64.decodedLength(source, 0, source.length, Base64.NO_OPTIONS));
+        Base64.decode(CharBuffer.wrap("AA==\r\n"), decoded, Base64.NO_OPTIONS);
+        assertEquals(1, decoded.position());
+    }
+
+    public void testDecodeInvalidInput() throws Exception {
+        String[] invalid = { "SGVsbG8", "SGVs*G8=", "S===", "AA==AAAA", "AA=A", "AA=" };
+        for (String encoded : invalid) {
+            byte[] source = encoded.getBytes("US-ASCII");
+            try {
+                Base64.decode(source, 0, source.length, new byte[16], 0, Base64.NO_OPTIONS);
+                fail(encoded + ": IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                Base64.decode(CharBuffer.wrap(encoded), ByteBuffer.allocate(16), Base64.NO_OPTIONS);
+                fail(encoded + ": IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[] readFully(InputStream in, int chunkSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[chunkSize];
+        int n;
+        while ((n = in.read(chunk, 0, chunkSize)) >= 0) {
+            assertTrue(n > 0);
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
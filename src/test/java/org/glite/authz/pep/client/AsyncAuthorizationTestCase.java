@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+
+/**
+ * JUnit to test {@link PEPClient#authorizeAsync(Request)} against a local
+ * {@link StubPEPDaemon}.
+ */
+public class AsyncAuthorizationTestCase extends TestCase {
+
+    private StubPEPDaemon daemon;
+
+    private PEPClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        daemon = new StubPEPDaemon(false);
+        daemon.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        daemon.stop();
+        super.tearDown();
+    }
+
+    public void testFutureResponse() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        client = new PEPClient(config);
+        Future<Response> future = client.authorizeAsync(StubPEPDaemon.createRequest());
+        assertPermit(future.get(10, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+    }
+
+    public void testFailover() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(getUnreachableEndpoint());
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        client = new PEPClient(config);
+        assertPermit(client.authorizeAsync(StubPEPDaemon.createRequest()).get(10, TimeUnit.SECONDS));
+    }
+
+    public void testFailure() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(getUnreachableEndpoint());
+        client = new PEPClient(config);
+        Future<Response> future = client.authorizeAsync(StubPEPDaemon.createRequest());
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PEPClientException);
+        }
+    }
+
+    public void testCallerExecutor() throws Exception {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final AtomicInteger executed = new AtomicInteger();
+        try {
+            PEPClientConfiguration config = new PEPClientConfiguration();
+            config.addPEPDaemonEndpoint(daemon.getEndpoint());
+            config.setAsyncExecutor(new Executor() {
+                public void execute(Runnable command) {
+                    executed.incrementAndGet();
+                    pool.execute(command);
+                }
+            });
+            client = new PEPClient(config);
+            assertPermit(client.authorizeAsync(StubPEPDaemon.createRequest()).get(10, TimeUnit.SECONDS));
+            assertPermit(client.authorizeAsync(StubPEPDaemon.createRequest()).get(10, TimeUnit.SECONDS));
+            assertEquals(2, executed.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testRejectedByExecutor() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        pool.shutdown();
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        config.setAsyncExecutor(pool);
+        client = new PEPClient(config);
+        try {
+            client.authorizeAsync(StubPEPDaemon.createRequest());
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            // expected
+        }
+    }
+
+    private String getUnreachableEndpoint() throws Exception {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int port = socket.getLocalPort();
+        socket.close();
+        return "http://127.0.0.1:" + port + "/authz";
+    }
+
+    private void assertPermit(Response response) {
+        Result result = response.getResults().get(0);
+        assertEquals(Result.DECISION_PERMIT, result.getDecision());
+        assertEquals("stub", result.getResourceId());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.balancer.EndpointStatistics;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+
+/**
+ * JUnit to test {@link PEPClient#authorize(Request, long)} against slow local {@link StubPEPDaemon}s.
+ */
+public class AuthorizationTimeoutTestCase extends TestCase {
+
+    private StubPEPDaemon slow;
+
+    private StubPEPDaemon fast;
+
+    private PEPClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        slow = new StubPEPDaemon(false);
+        slow.setResponseDelay(3000);
+        slow.start();
+        fast = new StubPEPDaemon(false);
+        fast.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        slow.stop();
+        fast.stop();
+        super.tearDown();
+    }
+
+    public void testWithinTimeout() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(fast.getEndpoint());
+        client = new PEPClient(config);
+        Response response = client.authorize(StubPEPDaemon.createRequest(), 5000);
+        assertEquals(Result.DECISION_PERMIT, response.getResults().get(0).getDecision());
+    }
+
+    public void testTimeoutExpires() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(slow.getEndpoint());
+        client = new PEPClient(config);
+        assertTimeout(300);
+        assertEquals(1, slow.getContentTypes().size());
+    }
+
+    public void testNoFailoverOnceExpired() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(slow.getEndpoint());
+        config.addPEPDaemonEndpoint(fast.getEndpoint());
+        client = new PEPClient(config);
+        assertTimeout(300);
+        assertEquals(1, slow.getContentTypes().size());
+        assertEquals(0, fast.getContentTypes().size());
+    }
+
+    public void testTimeoutNotEndpointFailure() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(slow.getEndpoint());
+        config.setCircuitBreakerFailureThreshold(1);
+        client = new PEPClient(config);
+        assertTimeout(300);
+        assertTimeout(300);
+        // the caller's deadline expired, not the daemon failed
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker(slow.getEndpoint()).getState());
+        EndpointStatistics statistics = client.getEndpointStatistics().get(0);
+        assertEquals(0, statistics.getFailures());
+        assertEquals(0, statistics.getOutstandingRequests());
+    }
+
+    public void testObligationHandlersNotInterrupted() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(fast.getEndpoint());
+        client = new PEPClient(config) {
+            protected void runObligationHandlers(Request request, Response response) {
+                try {
+                    // enforces the decision past the deadline
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Response response = client.authorize(StubPEPDaemon.createRequest(), 300);
+        assertEquals(Result.DECISION_PERMIT, response.getResults().get(0).getDecision());
+    }
+
+    public void testDefaultAuthorizationTimeout() throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(slow.getEndpoint());
+        config.setAuthorizationTimeout(300);
+        client = new PEPClient(config);
+        long start = System.currentTimeMillis();
+        try {
+            client.authorize(StubPEPDaemon.createRequest());
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    public void testTimeoutWaitingForConnection() throws Exception {
+        assertTimeoutWaitingForConnection(false);
+    }
+
+    public void testTimeoutWaitingForPerHostConnection() throws Exception {
+        assertTimeoutWaitingForConnection(true);
+    }
+
+    private void assertTimeoutWaitingForConnection(boolean perHostConnectionPool) throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(slow.getEndpoint());
+        config.setMaxConnectionsPerHost(1);
+        config.setPerHostConnectionPool(perHostConnectionPool);
+        client = new PEPClient(config);
+        // holds the only connection until the slow response
+        Thread holder = new Thread() {
+            public void run() {
+                try {
+                    client.authorize(StubPEPDaemon.createRequest());
+                } catch (PEPClientException e) {
+                    // the daemon is stopped
+                }
+            }
+        };
+        holder.setDaemon(true);
+        holder.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (slow.getContentTypes().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, slow.getContentTypes().size());
+        assertTimeout(300);
+        assertEquals(1, slow.getContentTypes().size());
+    }
+
+    private void assertTimeout(long timeout) {
+        long start = System.currentTimeMillis();
+        try {
+            client.authorize(StubPEPDaemon.createRequest(), timeout);
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            // expected
+        }
+        // not waiting for the slow response
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+}
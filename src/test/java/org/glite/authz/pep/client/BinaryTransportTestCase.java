@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.codec.HessianWireCodec;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+
+/**
+ * JUnit to test the binary transport, and its fallback to Base64, against a
+ * local {@link StubPEPDaemon}.
+ */
+public class BinaryTransportTestCase extends TestCase {
+
+    private static final String BASE64 = HessianWireCodec.CONTENT_TYPE;
+
+    private static final String BINARY = HessianWireCodec.BINARY_CONTENT_TYPE;
+
+    private StubPEPDaemon daemon;
+
+    private PEPClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        if (daemon != null) {
+            daemon.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testBase64ByDefault() throws Exception {
+        createClient(true, false);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BASE64), daemon.getContentTypes());
+    }
+
+    public void testBinaryTransport() throws Exception {
+        createClient(true, true);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BINARY, BINARY), daemon.getContentTypes());
+    }
+
+    public void testFallbackToBase64() throws Exception {
+        createClient(false, true);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        // the endpoint is then only sent Base64 requests
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BINARY, BASE64, BASE64), daemon.getContentTypes());
+    }
+
+    public void testNoFallbackOnServerError() throws Exception {
+        createClient(true, true);
+        daemon.setErrorStatus(500);
+        try {
+            client.authorize(StubPEPDaemon.createRequest());
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            // expected
+        }
+        daemon.setErrorStatus(0);
+        // the failed request was not retried, and the endpoint keeps the binary transport
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BINARY, BINARY), daemon.getContentTypes());
+    }
+
+    private void createClient(boolean binarySupported, boolean binaryTransport) throws Exception {
+        daemon = new StubPEPDaemon(binarySupported);
+        daemon.start();
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        config.setBinaryTransport(binaryTransport);
+        client = new PEPClient(config);
+    }
+
+    private void assertPermit(Response response) {
+        Result result = response.getResults().get(0);
+        assertEquals(Result.DECISION_PERMIT, result.getDecision());
+        assertEquals("stub", result.getResourceId());
+        Attribute actionId = response.getRequest().getAction().getAttributes().iterator().next();
+        assertEquals(StubPEPDaemon.EXECUTE_ACTION, actionId.getValues().iterator().next());
+    }
+}
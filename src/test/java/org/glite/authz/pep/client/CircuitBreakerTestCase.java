@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit to test the {@link CircuitBreaker} state transitions.
+ */
+public class CircuitBreakerTestCase extends TestCase {
+
+    String endpoint= "https://pepd.example.org:8154/authz";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker= new CircuitBreaker(endpoint, 3, 60000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    public void testHalfOpenProbe() throws InterruptedException {
+        CircuitBreaker breaker= new CircuitBreaker(endpoint, 1, 10);
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(20);
+        // only one probe is allowed
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        // failed probe opens again the circuit
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(20);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.codec.HessianWireCodec;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.config.RequestCompression;
+
+/**
+ * JUnit to test the request compression and the response decompression
+ * against a local {@link StubPEPDaemon}.
+ */
+public class CompressionTestCase extends TestCase {
+
+    private static final String BASE64 = HessianWireCodec.CONTENT_TYPE;
+
+    private static final String BINARY = HessianWireCodec.BINARY_CONTENT_TYPE;
+
+    private StubPEPDaemon daemon;
+
+    private PEPClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        if (daemon != null) {
+            daemon.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testNoCompressionByDefault() throws Exception {
+        PEPClientConfiguration config = createConfiguration(true);
+        client = new PEPClient(config);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList((String) null), daemon.getContentEncodings());
+        assertEquals(0, daemon.getGzipMessageCount());
+    }
+
+    public void testContentEncoding() throws Exception {
+        PEPClientConfiguration config = createConfiguration(true);
+        config.setRequestCompression(RequestCompression.CONTENT_ENCODING);
+        config.setCompressionThreshold(0);
+        client = new PEPClient(config);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BASE64), daemon.getContentTypes());
+        assertEquals(Arrays.asList("gzip"), daemon.getContentEncodings());
+        assertEquals(0, daemon.getGzipMessageCount());
+    }
+
+    public void testBase64Gzip() throws Exception {
+        PEPClientConfiguration config = createConfiguration(true);
+        config.setRequestCompression(RequestCompression.BASE64_GZIP);
+        config.setCompressionThreshold(0);
+        client = new PEPClient(config);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList((String) null), daemon.getContentEncodings());
+        assertEquals(1, daemon.getGzipMessageCount());
+    }
+
+    public void testBelowThreshold() throws Exception {
+        PEPClientConfiguration config = createConfiguration(true);
+        config.setRequestCompression(RequestCompression.CONTENT_ENCODING);
+        config.setCompressionThreshold(64 * 1024);
+        client = new PEPClient(config);
+        // the response is still compressed
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList((String) null), daemon.getContentEncodings());
+    }
+
+    public void testBinaryTransport() throws Exception {
+        PEPClientConfiguration config = createConfiguration(true);
+        config.setBinaryTransport(true);
+        config.setRequestCompression(RequestCompression.BASE64_GZIP);
+        config.setCompressionThreshold(0);
+        client = new PEPClient(config);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BINARY), daemon.getContentTypes());
+        assertEquals(Arrays.asList("gzip"), daemon.getContentEncodings());
+    }
+
+    public void testFallbackToBase64() throws Exception {
+        PEPClientConfiguration config = createConfiguration(false);
+        config.setBinaryTransport(true);
+        config.setRequestCompression(RequestCompression.BASE64_GZIP);
+        config.setCompressionThreshold(0);
+        client = new PEPClient(config);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BINARY, BASE64), daemon.getContentTypes());
+        assertEquals(Arrays.asList("gzip", null), daemon.getContentEncodings());
+        assertEquals(1, daemon.getGzipMessageCount());
+    }
+
+    private PEPClientConfiguration createConfiguration(boolean binarySupported) throws Exception {
+        daemon = new StubPEPDaemon(binarySupported);
+        daemon.start();
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        return config;
+    }
+
+    private void assertPermit(Response response) {
+        Result result = response.getResults().get(0);
+        assertEquals(Result.DECISION_PERMIT, result.getDecision());
+        assertEquals("stub", result.getResourceId());
+        Attribute actionId = response.getRequest().getAction().getAttributes().iterator().next();
+        assertEquals(StubPEPDaemon.EXECUTE_ACTION, actionId.getValues().iterator().next());
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.balancer.EndpointStatistics;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+
+/**
+ * JUnit to test the connection pool warm-up and maintenance against a local
+ * {@link StubPEPDaemon}.
+ */
+public class ConnectionWarmerTestCase extends TestCase {
+
+    private static final long WAIT = 5000;
+
+    private StubPEPDaemon daemon;
+
+    private PEPClient client;
+
+    private PEPClientConfiguration config;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        daemon = new StubPEPDaemon(true);
+        daemon.start();
+        config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        config.setConnectionMaintenanceInterval(50);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        daemon.stop();
+        super.tearDown();
+    }
+
+    public void testWarmup() throws Exception {
+        config.setWarmupConnections(2);
+        client = new PEPClient(config);
+        assertTrue(waitForAccepted(2));
+        // the requests use the warm connections
+        authorize(client);
+        authorize(client);
+        assertEquals(2, daemon.getAcceptedConnections());
+    }
+
+    public void testWarmupCappedByMaxConnections() throws Exception {
+        config.setMaxConnectionsPerHost(1);
+        config.setWarmupConnections(3);
+        client = new PEPClient(config);
+        assertTrue(waitForAccepted(1));
+        Thread.sleep(200);
+        assertEquals(1, daemon.getAcceptedConnections());
+    }
+
+    public void testWarmupHoldsOneConnection() throws Exception {
+        final AtomicInteger leased = new AtomicInteger();
+        final AtomicInteger maxLeasedOnConnect = new AtomicInteger();
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager() {
+            @Override
+            public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+                    throws ConnectionPoolTimeoutException {
+                HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+                leased.incrementAndGet();
+                return connection;
+            }
+
+            @Override
+            public void releaseConnection(HttpConnection connection) {
+                leased.decrementAndGet();
+                super.releaseConnection(connection);
+            }
+        };
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(3);
+        // records the connections taken from the pool while a connection is opened
+        Protocol.registerProtocol("http", new Protocol("http", new ProtocolSocketFactory() {
+            public Socket createSocket(String host, int port, InetAddress localAddress, int localPort)
+                    throws IOException {
+                return createSocket(host, port, localAddress, localPort, null);
+            }
+
+            public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+                    HttpConnectionParams params) throws IOException, ConnectTimeoutException {
+                synchronized (maxLeasedOnConnect) {
+                    maxLeasedOnConnect.set(Math.max(maxLeasedOnConnect.get(), leased.get()));
+                }
+                return new Socket(host, port);
+            }
+
+            public Socket createSocket(String host, int port) throws IOException {
+                return createSocket(host, port, null, 0, null);
+            }
+        }, 80));
+        ConnectionWarmer warmer = null;
+        try {
+            warmer = new ConnectionWarmer(new HttpClient(connectionManager),
+                    Collections.singletonList(new EndpointStatistics(daemon.getEndpoint(), 1)), 3, 0, 0, 3);
+            warmer.start(60000);
+            assertTrue(waitForAccepted(3));
+        } finally {
+            if (warmer != null) {
+                warmer.stop();
+            }
+            Protocol.unregisterProtocol("http");
+            connectionManager.shutdown();
+        }
+        assertEquals(3, daemon.getAcceptedConnections());
+        assertEquals(1, maxLeasedOnConnect.get());
+    }
+
+    public void testMaxIdleTime() throws Exception {
+        config.setWarmupConnections(2);
+        config.setMaxIdleTime(100);
+        client = new PEPClient(config);
+        assertTrue(waitForAccepted(2));
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (daemon.getOpenConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, daemon.getOpenConnections());
+    }
+
+    public void testMinIdleConnections() throws Exception {
+        config.setMinIdleConnections(2);
+        // no maintenance while the request holds a connection
+        config.setConnectionMaintenanceInterval(1000);
+        client = new PEPClient(config);
+        assertTrue(waitForAccepted(2));
+        authorize(client);
+        Thread.sleep(200);
+        assertEquals(2, daemon.getAcceptedConnections());
+        assertEquals(2, daemon.getOpenConnections());
+    }
+
+    public void testMinIdleConnectionsReplaceEvicted() throws Exception {
+        config.setMinIdleConnections(1);
+        config.setMaxIdleTime(100);
+        client = new PEPClient(config);
+        // the evicted idle connection is replaced by a new one
+        assertTrue(waitForAccepted(3));
+        assertTrue(daemon.getOpenConnections() <= 1);
+    }
+
+    public void testClose() throws Exception {
+        config.setMinIdleConnections(1);
+        client = new PEPClient(config);
+        assertTrue(waitForAccepted(1));
+        client.close();
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (daemon.getOpenConnections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, daemon.getOpenConnections());
+        // the maintenance is stopped
+        Thread.sleep(200);
+        assertEquals(1, daemon.getAcceptedConnections());
+        try {
+            authorize(client);
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            // expected
+        }
+    }
+
+    private boolean waitForAccepted(int connections) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (daemon.getAcceptedConnections() < connections && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        return daemon.getAcceptedConnections() >= connections;
+    }
+
+    private void authorize(PEPClient client) throws Exception {
+        assertEquals(Result.DECISION_PERMIT, client.authorize(StubPEPDaemon.createRequest()).getResults().get(0)
+                .getDecision());
+    }
+}
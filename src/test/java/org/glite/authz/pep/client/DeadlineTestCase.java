@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit to test the {@link Deadline}.
+ */
+public class DeadlineTestCase extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testNoTimeout() throws Exception {
+        Deadline deadline= Deadline.after(0);
+        assertFalse(deadline.isBounded());
+        assertEquals(Long.MAX_VALUE, deadline.remaining());
+        // the operation timeout is unchanged
+        assertEquals(30000, deadline.timeout(30000));
+        assertEquals(0, deadline.timeout(0));
+        deadline.check("never");
+    }
+
+    public void testRemainingTimeCapsOperationTimeout() {
+        Deadline deadline= Deadline.after(1000);
+        assertTrue(deadline.isBounded());
+        assertTrue(deadline.remaining() <= 1000);
+        assertTrue(deadline.timeout(30000) <= 1000);
+        // no operation timeout is bounded by the deadline
+        assertTrue(deadline.timeout(0) > 0);
+        assertEquals(10, deadline.timeout(10));
+    }
+
+    public void testExpired() throws Exception {
+        Deadline deadline= Deadline.after(1);
+        Thread.sleep(10);
+        assertEquals(0, deadline.remaining());
+        // a socket timeout of 0 would mean no timeout
+        assertEquals(1, deadline.timeout(30000));
+        try {
+            deadline.check("in test");
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            // expected
+            assertTrue(e.getMessage().endsWith("in test"));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * JUnit to test the {@link DecisionCache} and the {@link RequestKey}.
+ */
+public class DecisionCacheTestCase extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testRequestKeyIgnoresOrder() {
+        Request request1= createRequest("CN=John Doe", "resource", "action");
+        Request request2= createRequest("CN=John Doe", "resource", "action");
+        request1.getSubjects().iterator().next().getAttributes().add(createAttribute("a1",
+                                                                                     "v1"));
+        request1.getSubjects().iterator().next().getAttributes().add(createAttribute("a2",
+                                                                                     "v2"));
+        request2.getSubjects().iterator().next().getAttributes().add(createAttribute("a2",
+                                                                                     "v2"));
+        request2.getSubjects().iterator().next().getAttributes().add(createAttribute("a1",
+                                                                                     "v1"));
+        assertEquals(new RequestKey(request1), new RequestKey(request2));
+
+        Request request3= createRequest("CN=Jane Doe", "resource", "action");
+        assertFalse(new RequestKey(request1).equals(new RequestKey(request3)));
+    }
+
+    public void testHitAndMiss() {
+        DecisionCache cache= new DecisionCache(10, 60000, 60000, 60000);
+        RequestKey key= new RequestKey(createRequest("CN=John Doe",
+                                                     "resource",
+                                                     "action"));
+        assertNull(cache.get(key));
+        assertTrue(cache.put(key, createResponse(Result.DECISION_PERMIT)));
+        Response cached= cache.get(key);
+        assertNotNull(cached);
+        assertEquals(Result.DECISION_PERMIT,
+                     cached.getResults().get(0).getDecision());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testCachedResponseIsCopied() {
+        DecisionCache cache= new DecisionCache(10, 60000, 60000, 60000);
+        RequestKey key= new RequestKey(createRequest("CN=John Doe",
+                                                     "resource",
+                                                     "action"));
+        cache.put(key, createResponse(Result.DECISION_PERMIT));
+        // obligation handlers may remove the handled obligations
+        cache.get(key).getResults().get(0).getObligations().clear();
+        assertEquals(1, cache.get(key).getResults().get(0).getObligations().size());
+    }
+
+    public void testIndeterminateNotCached() {
+        DecisionCache cache= new DecisionCache(10, 60000, 60000, 60000);
+        RequestKey key= new RequestKey(createRequest("CN=John Doe",
+                                                     "resource",
+                                                     "action"));
+        assertFalse(cache.put(key, createResponse(Result.DECISION_INDETERMINATE)));
+        assertNull(cache.get(key));
+    }
+
+    public void testDecisionTTL() throws InterruptedException {
+        DecisionCache cache= new DecisionCache(10, 60000, 0, 1);
+        RequestKey key= new RequestKey(createRequest("CN=John Doe",
+                                                     "resource",
+                                                     "action"));
+        assertFalse(cache.put(key, createResponse(Result.DECISION_DENY)));
+        assertTrue(cache.put(key, createResponse(Result.DECISION_NOT_APPLICABLE)));
+        Thread.sleep(10);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    public void testEviction() {
+        DecisionCache cache= new DecisionCache(2, 60000, 60000, 60000);
+        RequestKey key1= new RequestKey(createRequest("CN=1", "r", "a"));
+        RequestKey key2= new RequestKey(createRequest("CN=2", "r", "a"));
+        RequestKey key3= new RequestKey(createRequest("CN=3", "r", "a"));
+        cache.put(key1, createResponse(Result.DECISION_PERMIT));
+        cache.put(key2, createResponse(Result.DECISION_PERMIT));
+        // key1 is now the most recently used
+        assertNotNull(cache.get(key1));
+        cache.put(key3, createResponse(Result.DECISION_PERMIT));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get(key1));
+        assertNull(cache.get(key2));
+        assertNotNull(cache.get(key3));
+    }
+
+    private Attribute createAttribute(String id, String value) {
+        Attribute attribute= new Attribute();
+        attribute.setId(id);
+        attribute.setDataType(Attribute.DT_STRING);
+        attribute.getValues().add(value);
+        return attribute;
+    }
+
+    private Request createRequest(String subjectId, String resourceId,
+            String actionId) {
+        Subject subject= new Subject();
+        subject.getAttributes().add(createAttribute(Attribute.ID_SUB_ID,
+                                                    subjectId));
+        Resource resource= new Resource();
+        resource.getAttributes().add(createAttribute(Attribute.ID_RES_ID,
+                                                     resourceId));
+        Action action= new Action();
+        action.getAttributes().add(createAttribute(Attribute.ID_ACT_ID,
+                                                   actionId));
+        Request request= new Request();
+        request.getSubjects().add(subject);
+        request.getResources().add(resource);
+        request.setAction(action);
+        return request;
+    }
+
+    private Response createResponse(int decision) {
+        Obligation obligation= new Obligation();
+        obligation.setId("obligation");
+        obligation.setFulfillOn(decision);
+        Result result= new Result();
+        result.setDecision(decision);
+        result.getObligations().add(obligation);
+        Response response= new Response();
+        response.getResults().add(result);
+        return response;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+
+/**
+ * JUnit to test the hedged requests against local {@link StubPEPDaemon}s.
+ */
+public class HedgingTestCase extends TestCase {
+
+    private List<StubPEPDaemon> daemons = new ArrayList<StubPEPDaemon>();
+
+    private PEPClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        for (StubPEPDaemon daemon : daemons) {
+            daemon.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testNoHedgeBeforeDelay() throws Exception {
+        StubPEPDaemon first = startDaemon();
+        StubPEPDaemon second = startDaemon();
+        createClient(2000, 1);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(0, client.getHedgeCount());
+        assertEquals(1, first.getContentTypes().size());
+        assertEquals(0, second.getContentTypes().size());
+    }
+
+    public void testHedgeAfterDelay() throws Exception {
+        StubPEPDaemon first = startDaemon();
+        first.setResponseDelay(3000);
+        StubPEPDaemon second = startDaemon();
+        createClient(100, 1);
+        long start = System.currentTimeMillis();
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        // answered by the hedge
+        assertTrue(System.currentTimeMillis() - start < 3000);
+        assertEquals(1, client.getHedgeCount());
+        assertEquals(1, first.getContentTypes().size());
+        assertEquals(1, second.getContentTypes().size());
+    }
+
+    public void testFirstResponseWinsAndLoserAborted() throws Exception {
+        StubPEPDaemon first = startDaemon();
+        first.setResponseDelay(500);
+        StubPEPDaemon second = startDaemon();
+        second.setResponseDelay(5000);
+        createClient(100, 1);
+        long start = System.currentTimeMillis();
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        // the first request won, without waiting for the hedge
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, client.getHedgeCount());
+        assertEquals(1, second.getContentTypes().size());
+        // the aborted hedge closed its connection, the winner kept it
+        assertTrue(awaitNoOpenConnection(second, 10000));
+        assertEquals(1, first.getOpenConnections());
+    }
+
+    public void testMaxHedgeRate() throws Exception {
+        StubPEPDaemon first = startDaemon();
+        first.setResponseDelay(300);
+        StubPEPDaemon second = startDaemon();
+        second.setResponseDelay(300);
+        createClient(50, 0.5f);
+        for (int i = 0; i < 4; i++) {
+            assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        }
+        // at most one hedge for two requests
+        assertEquals(2, client.getHedgeCount());
+        assertEquals(4, first.getContentTypes().size());
+        assertEquals(2, second.getContentTypes().size());
+    }
+
+    public void testFailoverBeforeDelay() throws Exception {
+        StubPEPDaemon first = startDaemon();
+        first.setErrorStatus(503);
+        StubPEPDaemon second = startDaemon();
+        createClient(5000, 1);
+        long start = System.currentTimeMillis();
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        // the failover does not wait for the hedge delay and is not a hedge
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(0, client.getHedgeCount());
+        assertEquals(1, first.getContentTypes().size());
+        assertEquals(1, second.getContentTypes().size());
+    }
+
+    public void testOnlyFirstAttemptHedged() throws Exception {
+        StubPEPDaemon first = startDaemon();
+        first.setErrorStatus(503);
+        StubPEPDaemon second = startDaemon();
+        second.setErrorStatus(503);
+        StubPEPDaemon third = startDaemon();
+        third.setResponseDelay(500);
+        createClient(100, 1);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        // the failed hedge endpoint is not tried again with the third one
+        assertEquals(0, client.getHedgeCount());
+        assertEquals(1, first.getContentTypes().size());
+        assertEquals(1, second.getContentTypes().size());
+        assertEquals(1, third.getContentTypes().size());
+    }
+
+    private StubPEPDaemon startDaemon() throws Exception {
+        StubPEPDaemon daemon = new StubPEPDaemon(false);
+        daemon.start();
+        daemons.add(daemon);
+        return daemon;
+    }
+
+    private void createClient(int hedgeDelay, float maxHedgeRate) throws Exception {
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        for (StubPEPDaemon daemon : daemons) {
+            config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        }
+        config.setHedgeDelay(hedgeDelay);
+        config.setMaxHedgeRate(maxHedgeRate);
+        client = new PEPClient(config);
+    }
+
+    private boolean awaitNoOpenConnection(StubPEPDaemon daemon, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (daemon.getOpenConnections() > 0) {
+            if (System.currentTimeMillis() > end) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void assertPermit(Response response) {
+        Result result = response.getResults().get(0);
+        assertEquals(Result.DECISION_PERMIT, result.getDecision());
+        assertEquals("stub", result.getResourceId());
+    }
+}
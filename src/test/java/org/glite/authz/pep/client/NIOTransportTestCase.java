@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.codec.HessianWireCodec;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.config.RequestCompression;
+import org.glite.authz.pep.client.config.TransportType;
+import org.glite.authz.pep.client.http.TLSProtocolSocketFactory;
+import org.glite.authz.pep.client.transport.NIOTransport;
+import org.glite.authz.pep.client.transport.PEPExchange;
+
+/**
+ * JUnit to test the {@link TransportType#NIO} transport against a local {@link StubPEPDaemon}, and over TLS against a
+ * local HTTPS server.
+ */
+public class NIOTransportTestCase extends TestCase {
+
+    private static final String BASE64 = HessianWireCodec.CONTENT_TYPE;
+
+    private static final String BINARY = HessianWireCodec.BINARY_CONTENT_TYPE;
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private StubPEPDaemon daemon;
+
+    private PEPClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        if (daemon != null) {
+            daemon.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testBase64() throws Exception {
+        client = new PEPClient(createConfiguration(true));
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BASE64, BASE64), daemon.getContentTypes());
+        assertEquals(1, daemon.getAcceptedConnections());
+    }
+
+    public void testSharedConnections() throws Exception {
+        PEPClientConfiguration config = createConfiguration(true);
+        config.setMaxConnectionsPerHost(2);
+        client = new PEPClient(config);
+        final int threads = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 10; j++) {
+                            assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(30000);
+        }
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(threads * 10, daemon.getContentTypes().size());
+        assertTrue(daemon.getAcceptedConnections() <= 2);
+    }
+
+    public void testFallbackToBase64() throws Exception {
+        PEPClientConfiguration config = createConfiguration(false);
+        config.setBinaryTransport(true);
+        client = new PEPClient(config);
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BINARY, BASE64, BASE64), daemon.getContentTypes());
+    }
+
+    public void testCompression() throws Exception {
+        PEPClientConfiguration config = createConfiguration(true);
+        config.setBinaryTransport(true);
+        config.setRequestCompression(RequestCompression.CONTENT_ENCODING);
+        config.setCompressionThreshold(0);
+        client = new PEPClient(config);
+        // the response is compressed too
+        assertPermit(client.authorize(StubPEPDaemon.createRequest()));
+        assertEquals(Arrays.asList(BINARY), daemon.getContentTypes());
+        assertEquals(Arrays.asList("gzip"), daemon.getContentEncodings());
+    }
+
+    public void testUnreachableEndpoint() throws Exception {
+        daemon = new StubPEPDaemon(true);
+        daemon.start();
+        String endpoint = daemon.getEndpoint();
+        daemon.stop();
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(endpoint);
+        config.setTransportType(TransportType.NIO);
+        client = new PEPClient(config);
+        try {
+            client.authorize(StubPEPDaemon.createRequest());
+            fail("unreachable PEP daemon answered");
+        } catch (PEPClientException e) {
+            // expected
+        }
+        daemon = null;
+    }
+
+    public void testTLS() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("/tls_server.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        final SSLServerSocket serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory()
+                .createServerSocket(0);
+        Thread server = new Thread("https-server") {
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        echo(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        };
+        server.setDaemon(true);
+        server.start();
+        TLSProtocolSocketFactory tls = new TLSProtocolSocketFactory(null,
+                (X509TrustManager) tmf.getTrustManagers()[0]);
+        NIOTransport transport = new NIOTransport(5000, 5000, 1, tls);
+        try {
+            String endpoint = "https://localhost:" + serverSocket.getLocalPort() + "/authz";
+            for (int i = 0; i < 3; i++) {
+                PEPExchange exchange = transport.createExchange(endpoint);
+                byte[] body = ("request " + i).getBytes("UTF-8");
+                exchange.setRequestEntity(new ByteArrayRequestEntity(body, "text/plain"));
+                assertEquals(200, exchange.execute());
+                assertEquals("text/plain", exchange.getResponseHeader("Content-Type"));
+                assertEquals("request " + i, new String(readAll(exchange.getResponseBody()), "UTF-8"));
+                exchange.release();
+            }
+            assertEquals(1, transport.getConnectionCount(endpoint));
+            assertEquals(1, tls.getFullHandshakeCount());
+        } finally {
+            transport.shutdown();
+            serverSocket.close();
+        }
+    }
+
+    /** Answers the HTTP requests of a connection with their body. */
+    private void echo(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int contentLength = 0;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+            byte[] body = new byte[contentLength];
+            for (int n = 0; n < contentLength;) {
+                int read = in.read(body, n, contentLength - n);
+                if (read < 0) {
+                    return;
+                }
+                n += read;
+            }
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + contentLength + "\r\n\r\n")
+                    .getBytes("ISO-8859-1"));
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return b < 0 && line.length() == 0 ? null : line.toString();
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private PEPClientConfiguration createConfiguration(boolean binarySupported) throws Exception {
+        daemon = new StubPEPDaemon(binarySupported);
+        daemon.start();
+        PEPClientConfiguration config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        config.setTransportType(TransportType.NIO);
+        return config;
+    }
+
+    private void assertPermit(Response response) {
+        Result result = response.getResults().get(0);
+        assertEquals(Result.DECISION_PERMIT, result.getDecision());
+        assertEquals("stub", result.getResourceId());
+    }
+}
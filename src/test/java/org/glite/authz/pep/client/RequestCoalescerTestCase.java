@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+
+/**
+ * JUnit to test the {@link RequestCoalescer}.
+ */
+public class RequestCoalescerTestCase extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        final int nThreads= 10;
+        final RequestCoalescer coalescer= new RequestCoalescer();
+        final RequestKey key= new RequestKey(new Request());
+        final CountDownLatch release= new CountDownLatch(1);
+        final AtomicInteger calls= new AtomicInteger();
+        final AtomicInteger responses= new AtomicInteger();
+        final List<Throwable> failures= Collections.synchronizedList(new ArrayList<Throwable>());
+        final Callable<Response> call= new Callable<Response>() {
+            public Response call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                Result result= new Result();
+                result.setDecision(Result.DECISION_PERMIT);
+                Response response= new Response();
+                response.getResults().add(result);
+                return response;
+            }
+        };
+        Thread[] threads= new Thread[nThreads];
+        for (int i= 0; i < nThreads; i++) {
+            threads[i]= new Thread() {
+                public void run() {
+                    try {
+                        Response response= coalescer.execute(key, call);
+                        if (response.getResults().size() == 1) {
+                            responses.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        awaitCallers(coalescer, nThreads);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("worker failures: " + failures, 0, failures.size());
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescer.getExecutedCount());
+        assertEquals(nThreads - 1, coalescer.getCoalescedCount());
+        assertEquals(nThreads, responses.get());
+    }
+
+    public void testFailureIsShared() throws Exception {
+        final int nThreads= 10;
+        final RequestCoalescer coalescer= new RequestCoalescer();
+        final RequestKey key= new RequestKey(new Request());
+        final CountDownLatch release= new CountDownLatch(1);
+        final AtomicInteger calls= new AtomicInteger();
+        final AtomicInteger sharedFailures= new AtomicInteger();
+        final List<Throwable> failures= Collections.synchronizedList(new ArrayList<Throwable>());
+        final Callable<Response> call= new Callable<Response>() {
+            public Response call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                throw new PEPClientException("PEP daemon down");
+            }
+        };
+        Thread[] threads= new Thread[nThreads];
+        for (int i= 0; i < nThreads; i++) {
+            threads[i]= new Thread() {
+                public void run() {
+                    try {
+                        coalescer.execute(key, call);
+                        failures.add(new AssertionError("PEPClientException expected"));
+                    } catch (PEPClientException e) {
+                        if ("PEP daemon down".equals(e.getMessage())) {
+                            sharedFailures.incrementAndGet();
+                        }
+                        else {
+                            failures.add(e);
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        // the waiters join the in-flight request before it fails
+        awaitCallers(coalescer, nThreads);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("worker failures: " + failures, 0, failures.size());
+        assertEquals(1, calls.get());
+        assertEquals(nThreads - 1, coalescer.getCoalescedCount());
+        assertEquals(nThreads, sharedFailures.get());
+    }
+
+    public void testWaiterTimeout() throws Exception {
+        final RequestCoalescer coalescer= new RequestCoalescer();
+        final RequestKey key= new RequestKey(new Request());
+        final CountDownLatch started= new CountDownLatch(1);
+        final CountDownLatch release= new CountDownLatch(1);
+        final List<Throwable> failures= Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread leader= new Thread() {
+            public void run() {
+                try {
+                    coalescer.execute(key, new Callable<Response>() {
+                        public Response call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            return new Response();
+                        }
+                    });
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }
+        };
+        leader.start();
+        started.await();
+        try {
+            coalescer.execute(key, new Callable<Response>() {
+                public Response call() throws Exception {
+                    fail("in-flight request expected");
+                    return null;
+                }
+            }, 50);
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            // expected
+        } finally {
+            release.countDown();
+            leader.join();
+        }
+        assertEquals("leader failures: " + failures, 0, failures.size());
+        assertEquals(1, coalescer.getCoalescedCount());
+    }
+
+    /** Waits until the callers have started or joined the in-flight request. */
+    private void awaitCallers(RequestCoalescer coalescer, int callers)
+            throws InterruptedException {
+        long deadline= System.currentTimeMillis() + 5000;
+        while (coalescer.getExecutedCount() + coalescer.getCoalescedCount() < callers
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
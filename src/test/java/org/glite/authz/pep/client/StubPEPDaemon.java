@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.util.Base64;
+import org.glite.authz.pep.client.codec.HessianWireCodec;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * Minimal local HTTP server answering the Hessian authorization requests with
+ * a Permit decision, for the PEP client tests.
+ * <p>
+ * The Base64 encoded requests are always accepted. The binary requests are
+ * answered in binary if the binary transport is supported, otherwise they
+ * fail with a 400 status code, like a PEP daemon unable to Base64 decode
+ * them.
+ * <p>
+ * The requests with the <code>gzip</code> content encoding, or gzip-compressed
+ * inside the Base64 armoring, are decompressed. The responses are sent with
+ * the <code>gzip</code> content encoding when the client accepts it.
+ * <p>
+ * The responses can be delayed, or replaced by an error status, to simulate a
+ * slow or failing PEP daemon.
+ */
+public class StubPEPDaemon {
+
+    /** Action ID of the requests built by {@link #createRequest()}. */
+    public static final String EXECUTE_ACTION = "http://glite.org/xacml/action/execute";
+
+    private final boolean binarySupported;
+
+    private final List<String> contentTypes = Collections.synchronizedList(new ArrayList<String>());
+
+    private final List<String> contentEncodings = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AtomicInteger gzipMessages = new AtomicInteger();
+
+    private final AtomicInteger acceptedConnections = new AtomicInteger();
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<Socket>());
+
+    private ServerSocket serverSocket;
+
+    private Thread acceptor;
+
+    private volatile long responseDelay;
+
+    private volatile int errorStatus;
+
+    /**
+     * Constructor.
+     *
+     * @param binarySupported <code>true</code> if the binary transport is supported
+     */
+    public StubPEPDaemon(boolean binarySupported) {
+        this.binarySupported = binarySupported;
+    }
+
+    /**
+     * Creates an authorization request for the execute action, as sent to the stub by the tests.
+     *
+     * @return the request
+     */
+    public static Request createRequest() {
+        Request request = new Request();
+        Action action = new Action();
+        Attribute actionId = new Attribute(Attribute.ID_ACT_ID, Attribute.DT_STRING);
+        actionId.getValues().add(EXECUTE_ACTION);
+        action.getAttributes().add(actionId);
+        request.setAction(action);
+        return request;
+    }
+
+    /**
+     * Starts the server on a free local port.
+     *
+     * @throws IOException if the server socket can not be bound
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        acceptor = new Thread("StubPEPDaemon") {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        if (serverSocket.isClosed()) {
+                            // accepted while stopping
+                            socket.close();
+                            break;
+                        }
+                        sockets.add(socket);
+                        acceptedConnections.incrementAndGet();
+                        openConnections.incrementAndGet();
+                        Thread handler = new Thread("StubPEPDaemon-connection") {
+                            public void run() {
+                                handleConnection(socket);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops the server, and closes the open connections, so the clients can not reuse them.
+     *
+     * @throws IOException if the server socket can not be closed
+     * @throws InterruptedException if interrupted while waiting for the server to stop accepting connections
+     */
+    public void stop() throws IOException, InterruptedException {
+        serverSocket.close();
+        // the socket keeps listening until the pending accept returns
+        acceptor.join();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the endpoint URL of the server.
+     *
+     * @return the endpoint URL
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/authz";
+    }
+
+    /**
+     * Sets the delay before each response is sent.
+     *
+     * @param millis the response delay in millis, <code>0</code> for none
+     */
+    public void setResponseDelay(long millis) {
+        responseDelay = millis;
+    }
+
+    /**
+     * Sets the error status code answering all the requests.
+     *
+     * @param status the error status code, <code>0</code> to process the requests
+     */
+    public void setErrorStatus(int status) {
+        errorStatus = status;
+    }
+
+    /**
+     * Returns the content types of the received requests.
+     *
+     * @return the request content types, in order
+     */
+    public List<String> getContentTypes() {
+        synchronized (contentTypes) {
+            return new ArrayList<String>(contentTypes);
+        }
+    }
+
+    /**
+     * Returns the content encodings of the received requests.
+     *
+     * @return the request content encodings, <code>null</code> if none, in order
+     */
+    public List<String> getContentEncodings() {
+        synchronized (contentEncodings) {
+            return new ArrayList<String>(contentEncodings);
+        }
+    }
+
+    /**
+     * Returns the number of received messages gzip-compressed inside the Base64 armoring.
+     *
+     * @return the number of gzip-compressed Base64 messages
+     */
+    public int getGzipMessageCount() {
+        return gzipMessages.get();
+    }
+
+    /**
+     * Returns the number of accepted connections.
+     *
+     * @return the number of accepted connections
+     */
+    public int getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    /**
+     * Returns the number of connections not closed yet.
+     *
+     * @return the number of open connections
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            // keep-alive: one request after the other
+            while ((requestLine = readLine(in)) != null && requestLine.length() > 0) {
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+                byte[] body = readBody(in, headers);
+                handleRequest(headers, body, out);
+            }
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+            openConnections.decrementAndGet();
+            sockets.remove(socket);
+        }
+    }
+
+    private void handleRequest(Map<String, String> headers, byte[] body, OutputStream out) throws IOException {
+        String contentType = headers.get("content-type");
+        contentTypes.add(contentType);
+        String contentEncoding = headers.get("content-encoding");
+        contentEncodings.add(contentEncoding);
+        long delay = responseDelay;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+        int status = errorStatus;
+        if (status != 0) {
+            writeResponse(out, status, "text/plain", null, "Stub error".getBytes("UTF-8"));
+            return;
+        }
+        boolean binary = HessianWireCodec.BINARY_CONTENT_TYPE.equals(contentType);
+        if (binary && !binarySupported) {
+            writeResponse(out, 400, "text/plain", null, "Invalid Base64 message".getBytes("UTF-8"));
+            return;
+        }
+        if (!binary && !HessianWireCodec.CONTENT_TYPE.equals(contentType)) {
+            writeResponse(out, 415, "text/plain", null, "Unsupported media type".getBytes("UTF-8"));
+            return;
+        }
+        InputStream message = new ByteArrayInputStream(body);
+        if ("gzip".equals(contentEncoding)) {
+            message = new GZIPInputStream(message);
+        }
+        if (!binary) {
+            PushbackInputStream decoded = new PushbackInputStream(new Base64.InputStream(message), 1);
+            int first = decoded.read();
+            decoded.unread(first);
+            if (first == 0x1f) {
+                gzipMessages.incrementAndGet();
+                message = new GZIPInputStream(decoded);
+            } else {
+                message = decoded;
+            }
+        }
+        Request request = (Request) new HessianInput(message).readObject(Request.class);
+        Response response = createResponse(request);
+        ByteArrayOutputStream responseMessage = new ByteArrayOutputStream();
+        HessianOutput hessian = new HessianOutput(responseMessage);
+        hessian.writeObject(response);
+        hessian.flush();
+        byte[] responseBody = responseMessage.toByteArray();
+        if (!binary) {
+            responseBody = Base64.encodeBytes(responseBody).getBytes("UTF-8");
+        }
+        String accept = headers.get("accept-encoding");
+        boolean gzip = accept != null && accept.indexOf("gzip") >= 0;
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOut = new GZIPOutputStream(compressed);
+            gzipOut.write(responseBody);
+            gzipOut.close();
+            responseBody = compressed.toByteArray();
+        }
+        writeResponse(out, 200, binary ? HessianWireCodec.BINARY_CONTENT_TYPE : HessianWireCodec.CONTENT_TYPE,
+                gzip ? "gzip" : null, responseBody);
+    }
+
+    /**
+     * Creates the response to a request: a single Permit result.
+     *
+     * @param request the authorization request
+     * @return the authorization response
+     */
+    protected Response createResponse(Request request) {
+        Response response = new Response();
+        response.setRequest(request);
+        Result result = new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setResourceId("stub");
+        response.getResults().add(result);
+        return response;
+    }
+
+    private void writeResponse(OutputStream out, int status, String contentType, String contentEncoding, byte[] body)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(" Stub\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        if (contentEncoding != null) {
+            head.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+        out.write(body);
+        out.flush();
+    }
+
+    private byte[] readBody(InputStream in, Map<String, String> headers) throws IOException {
+        String contentLength = headers.get("content-length");
+        if (contentLength == null) {
+            throw new IOException("Content-Length required");
+        }
+        byte[] body = new byte[Integer.parseInt(contentLength)];
+        int off = 0;
+        while (off < body.length) {
+            int n = in.read(body, off, body.length - off);
+            if (n < 0) {
+                throw new IOException("Truncated body");
+            }
+            off += n;
+        }
+        return body;
+    }
+
+    private String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+
+/**
+ * JUnit to test the virtual thread mode of the {@link PEPClient} against a
+ * local {@link StubPEPDaemon}.
+ */
+public class VirtualThreadModeTestCase extends TestCase {
+
+    private StubPEPDaemon daemon;
+
+    private PEPClient client;
+
+    private PEPClientConfiguration config;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        daemon = new StubPEPDaemon(true);
+        daemon.start();
+        config = new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        config.setVirtualThreads(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        daemon.stop();
+        super.tearDown();
+    }
+
+    public void testConcurrentCallersShareConnections() throws Exception {
+        config.setMaxConnectionsPerHost(2);
+        config.setPerHostConnectionPool(true);
+        client = new PEPClient(config);
+        assertEquals(100, runConcurrentCallers());
+        assertTrue(daemon.getAcceptedConnections() <= 2);
+    }
+
+    public void testConcurrentCallersWithoutPerHostPool() throws Exception {
+        config.setMaxConnectionsPerHost(2);
+        // the connection permits of the transport limit the callers
+        config.setPerHostConnectionPool(false);
+        client = new PEPClient(config);
+        assertEquals(100, runConcurrentCallers());
+        assertTrue(daemon.getAcceptedConnections() <= 2);
+    }
+
+    public void testAsyncAuthorization() throws Exception {
+        client = new PEPClient(config);
+        Future<Response> response = client.authorizeAsync(StubPEPDaemon.createRequest());
+        assertEquals(Result.DECISION_PERMIT, response.get(5, TimeUnit.SECONDS).getResults().get(0).getDecision());
+    }
+
+    private int runConcurrentCallers() throws InterruptedException {
+        final AtomicInteger permits = new AtomicInteger();
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int i = 0; i < 20; i++) {
+            Thread caller = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 5; j++) {
+                        try {
+                            Response response = client.authorize(StubPEPDaemon.createRequest());
+                            if (response.getResults().get(0).getDecision() == Result.DECISION_PERMIT) {
+                                permits.incrementAndGet();
+                            }
+                        } catch (PEPClientException e) {
+                            // counted as missing permit
+                        }
+                    }
+                }
+            };
+            caller.start();
+            callers.add(caller);
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        return permits.get();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.balancer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit to test the {@link EndpointSelector} strategies.
+ */
+public class EndpointSelectorTestCase extends TestCase {
+
+    List<EndpointStatistics> endpoints;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        endpoints= new ArrayList<EndpointStatistics>();
+        endpoints.add(new EndpointStatistics("https://pepd1:8154/authz", 1));
+        endpoints.add(new EndpointStatistics("https://pepd2:8154/authz", 3));
+        endpoints.add(new EndpointStatistics("https://pepd3:8154/authz", 1));
+    }
+
+    public void testFailoverKeepsOrder() {
+        List<EndpointStatistics> ordered= new FailoverEndpointSelector().select(endpoints);
+        assertEquals(endpoints, ordered);
+    }
+
+    public void testRoundRobin() {
+        EndpointSelector selector= new RoundRobinEndpointSelector();
+        for (int i= 0; i < 6; i++) {
+            List<EndpointStatistics> ordered= selector.select(endpoints);
+            assertEquals(endpoints.size(), ordered.size());
+            assertSame(endpoints.get(i % 3), ordered.get(0));
+        }
+    }
+
+    public void testWeighted() {
+        EndpointSelector selector= new WeightedEndpointSelector();
+        int[] counts= new int[endpoints.size()];
+        for (int i= 0; i < 5000; i++) {
+            counts[endpoints.indexOf(selector.select(endpoints).get(0))]++;
+        }
+        // pepd2 has 3/5 of the total weight
+        assertTrue("pepd2 selected " + counts[1] + " times", counts[1] > 2500);
+        assertTrue(counts[0] > 0 && counts[2] > 0);
+    }
+
+    public void testLeastOutstanding() {
+        endpoints.get(0).requestStarted();
+        endpoints.get(1).requestStarted();
+        endpoints.get(1).requestStarted();
+        EndpointSelector selector= new LeastOutstandingEndpointSelector();
+        for (int i= 0; i < 3; i++) {
+            assertSame(endpoints.get(2), selector.select(endpoints).get(0));
+        }
+    }
+
+    public void testLatencyPrefersFastEndpoint() {
+        List<EndpointStatistics> two= endpoints.subList(0, 2);
+        two.get(0).requestStarted();
+        two.get(0).requestCompleted(100000000L, true);
+        two.get(1).requestStarted();
+        two.get(1).requestCompleted(1000000L, true);
+        EndpointSelector selector= new LatencyEndpointSelector();
+        for (int i= 0; i < 10; i++) {
+            assertSame(two.get(1), selector.select(two).get(0));
+        }
+    }
+
+    public void testFailurePenalty() {
+        EndpointStatistics endpoint= endpoints.get(0);
+        endpoint.requestStarted();
+        endpoint.requestCompleted(1000000L, true);
+        endpoint.requestStarted();
+        endpoint.requestCompleted(1000L, false);
+        assertTrue(endpoint.getLatencyEWMA() > 1000000.0);
+        assertEquals(1, endpoint.getFailures());
+        assertEquals(0, endpoint.getOutstandingRequests());
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * JUnit to test the {@link CompactWireCodec}.
+ */
+public class CompactWireCodecTestCase extends TestCase {
+
+    private CompactWireCodec codec = new CompactWireCodec();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testRequestRoundTrip() throws Exception {
+        Request request = decodeRequest(encodeRequest(createRequest()));
+        assertEquals(1, request.getSubjects().size());
+        Subject subject = request.getSubjects().iterator().next();
+        assertNull(subject.getCategory());
+        Attribute subjectId = subject.getAttributes().iterator().next();
+        assertEquals(Attribute.ID_SUB_ID, subjectId.getId());
+        assertEquals(Attribute.DT_X500_NAME, subjectId.getDataType());
+        assertEquals("issuer", subjectId.getIssuer());
+        assertEquals("CN=John Doe,O=Example,C=CH", subjectId.getValues().iterator().next());
+        Resource resource = request.getResources().iterator().next();
+        assertEquals("resource-content", resource.getResourceContent());
+        Attribute resourceId = resource.getAttributes().iterator().next();
+        assertEquals(Attribute.ID_RES_ID, resourceId.getId());
+        assertEquals(Attribute.DT_STRING, resourceId.getDataType());
+        assertNull(resourceId.getIssuer());
+        assertEquals(2, resourceId.getValues().size());
+        assertTrue(resourceId.getValues().contains("r\u00e9sum\u00e9"));
+        assertNotNull(request.getAction());
+        assertNull(request.getEnvironment());
+    }
+
+    public void testResponseRoundTrip() throws Exception {
+        Response response = new Response();
+        response.setRequest(createRequest());
+        Result result = new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setResourceId("resource-id");
+        Status status = new Status();
+        status.setMessage("ok");
+        StatusCode code = new StatusCode();
+        code.setCode(StatusCode.SC_OK);
+        StatusCode subCode = new StatusCode();
+        subCode.setCode("sub-code");
+        code.setSubCode(subCode);
+        status.setCode(code);
+        result.setStatus(status);
+        Obligation obligation = new Obligation();
+        obligation.setId("obligation-id");
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        AttributeAssignment assignment = new AttributeAssignment();
+        assignment.setAttributeId("user-id");
+        assignment.setDataType(Attribute.DT_STRING);
+        assignment.setValue("atlas001");
+        obligation.getAttributeAssignments().add(assignment);
+        result.getObligations().add(obligation);
+        response.getResults().add(result);
+        response.getResults().add(new Result());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encodeResponse(response, out);
+        Response decoded = codec.decodeResponse(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(1, decoded.getRequest().getSubjects().size());
+        assertEquals(2, decoded.getResults().size());
+        Result decodedResult = decoded.getResults().get(0);
+        assertEquals(Result.DECISION_PERMIT, decodedResult.getDecision());
+        assertEquals("resource-id", decodedResult.getResourceId());
+        assertEquals("ok", decodedResult.getStatus().getMessage());
+        assertEquals(StatusCode.SC_OK, decodedResult.getStatus().getCode().getCode());
+        assertEquals("sub-code", decodedResult.getStatus().getCode().getSubCode().getCode());
+        assertNull(decodedResult.getStatus().getCode().getSubCode().getSubCode());
+        Obligation decodedObligation = decodedResult.getObligations().get(0);
+        assertEquals("obligation-id", decodedObligation.getId());
+        assertEquals(Result.DECISION_PERMIT, decodedObligation.getFulfillOn());
+        AttributeAssignment decodedAssignment = decodedObligation.getAttributeAssignments().get(0);
+        assertEquals("user-id", decodedAssignment.getAttributeId());
+        assertEquals(Attribute.DT_STRING, decodedAssignment.getDataType());
+        assertEquals("atlas001", decodedAssignment.getValue());
+        assertNull(decoded.getResults().get(1).getStatus());
+    }
+
+    public void testSmallerThanHessian() throws Exception {
+        Request request = createRequest();
+        ByteArrayOutputStream hessian = new ByteArrayOutputStream();
+        new HessianWireCodec().encodeRequest(request, hessian);
+        byte[] compact = encodeRequest(request);
+        System.out.println("Hessian: " + hessian.size() + " bytes, compact: " + compact.length + " bytes");
+        assertTrue(compact.length < hessian.size() / 2);
+    }
+
+    public void testNonStringValue() throws Exception {
+        Request request = createRequest();
+        Action action = request.getAction();
+        Attribute attribute = new Attribute("id", "type");
+        attribute.getValues().add(Integer.valueOf(1));
+        action.getAttributes().add(attribute);
+        try {
+            encodeRequest(request);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testUnsupportedVersion() throws Exception {
+        byte[] message = encodeRequest(createRequest());
+        message[0] = 2;
+        try {
+            decodeRequest(message);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("version") >= 0);
+        }
+    }
+
+    public void testTruncatedMessage() throws Exception {
+        byte[] message = encodeRequest(createRequest());
+        try {
+            byte[] truncated = new byte[message.length - 3];
+            System.arraycopy(message, 0, truncated, 0, truncated.length);
+            decodeRequest(truncated);
+            fail("EOFException expected");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    public void testLongString() throws Exception {
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 100000) {
+            value.append("r\u00e9sum\u00e9 ");
+        }
+        Request request = createRequest();
+        request.getAction().getAttributes().iterator().next().getValues().add(value.toString());
+        Attribute actionId = decodeRequest(encodeRequest(request)).getAction().getAttributes().iterator().next();
+        assertTrue(actionId.getValues().contains(value.toString()));
+    }
+
+    public void testStringLengthTooLarge() throws Exception {
+        // version, one subject, category of 0x3FFFFFFF bytes
+        byte[] message = { 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        try {
+            decodeRequest(message);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("string length") >= 0);
+        }
+    }
+
+    public void testTruncatedLongString() throws Exception {
+        // version, one subject, category of 1 MB followed by 3 bytes only
+        byte[] message = { 1, 1, (byte) 0x81, (byte) 0x80, (byte) 0x80, 0x01, 'a', 'b', 'c' };
+        try {
+            decodeRequest(message);
+            fail("EOFException expected");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    public void testStatusCodeTooDeep() throws Exception {
+        // version, no request, one result, decision, no resource id, status
+        // without message, and 100000 nested status codes without code
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        message.write(new byte[] { 1, 0, 1, 0, 0, 1, 0 });
+        for (int i = 0; i < 100000; i++) {
+            message.write(new byte[] { 1, 0 });
+        }
+        message.write(new byte[] { 0, 0 });
+        try {
+            codec.decodeResponse(new ByteArrayInputStream(message.toByteArray()));
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("Malformed compact message") >= 0);
+        }
+    }
+
+    private Request createRequest() {
+        Request request = new Request();
+        Subject subject = new Subject();
+        Attribute subjectId = new Attribute(Attribute.ID_SUB_ID, Attribute.DT_X500_NAME);
+        subjectId.setIssuer("issuer");
+        subjectId.getValues().add("CN=John Doe,O=Example,C=CH");
+        subject.getAttributes().add(subjectId);
+        request.getSubjects().add(subject);
+        Resource resource = new Resource();
+        resource.setResourceContent("resource-content");
+        Attribute resourceId = new Attribute(Attribute.ID_RES_ID, Attribute.DT_STRING);
+        resourceId.getValues().add("http://authz-interop.org/xacml/resource/resource-type/wn");
+        resourceId.getValues().add("r\u00e9sum\u00e9");
+        resource.getAttributes().add(resourceId);
+        request.getResources().add(resource);
+        Action action = new Action();
+        Attribute actionId = new Attribute(Attribute.ID_ACT_ID, Attribute.DT_STRING);
+        actionId.getValues().add("http://glite.org/xacml/action/execute");
+        action.getAttributes().add(actionId);
+        request.setAction(action);
+        return request;
+    }
+
+    private byte[] encodeRequest(Request request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encodeRequest(request, out);
+        return out.toByteArray();
+    }
+
+    private Request decodeRequest(byte[] message) throws IOException {
+        return codec.decodeRequest(new ByteArrayInputStream(message));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Subject;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+
+/**
+ * JUnit to test the {@link Hessian2WireCodec}.
+ */
+public class Hessian2WireCodecTestCase extends TestCase {
+
+    private Hessian2WireCodec codec = new Hessian2WireCodec();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testEncodeRequest() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encodeRequest(createRequest(), out);
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(out.toByteArray()));
+        Request request = (Request) in.readObject(Request.class);
+        Subject subject = request.getSubjects().iterator().next();
+        Attribute subjectId = subject.getAttributes().iterator().next();
+        assertEquals(Attribute.ID_SUB_ID, subjectId.getId());
+        assertEquals("CN=John Doe,O=Example,C=CH", subjectId.getValues().iterator().next());
+        Resource resource = request.getResources().iterator().next();
+        assertEquals(2, resource.getAttributes().size());
+    }
+
+    public void testDecodeResponse() throws Exception {
+        Response response = new Response();
+        response.setRequest(createRequest());
+        Result result = new Result();
+        result.setDecision(Result.DECISION_DENY);
+        result.setResourceId("resource-id");
+        response.getResults().add(result);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hessian2Output output = new Hessian2Output(out);
+        output.writeObject(response);
+        output.flush();
+
+        Response decoded = codec.decodeResponse(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Result.DECISION_DENY, decoded.getResults().get(0).getDecision());
+        assertEquals("resource-id", decoded.getResults().get(0).getResourceId());
+        assertEquals(1, decoded.getRequest().getSubjects().size());
+    }
+
+    public void testSmallerThanHessian1() throws Exception {
+        Request request = createRequest();
+        ByteArrayOutputStream hessian1 = new ByteArrayOutputStream();
+        new HessianWireCodec().encodeRequest(request, hessian1);
+        ByteArrayOutputStream hessian2 = new ByteArrayOutputStream();
+        codec.encodeRequest(request, hessian2);
+        System.out.println("Hessian 1: " + hessian1.size() + " bytes, Hessian 2: " + hessian2.size() + " bytes");
+        assertTrue(hessian2.size() < hessian1.size());
+    }
+
+    private Request createRequest() {
+        Request request = new Request();
+        Subject subject = new Subject();
+        Attribute subjectId = new Attribute(Attribute.ID_SUB_ID, Attribute.DT_X500_NAME);
+        subjectId.getValues().add("CN=John Doe,O=Example,C=CH");
+        subject.getAttributes().add(subjectId);
+        request.getSubjects().add(subject);
+        Resource resource = new Resource();
+        Attribute resourceId = new Attribute(Attribute.ID_RES_ID, Attribute.DT_STRING);
+        resourceId.getValues().add("http://authz-interop.org/xacml/resource/resource-type/wn");
+        resource.getAttributes().add(resourceId);
+        Attribute resourceOwner = new Attribute("http://glite.org/xacml/attribute/resource-owner", Attribute.DT_STRING);
+        resourceOwner.getValues().add("atlas");
+        resource.getAttributes().add(resourceOwner);
+        request.getResources().add(resource);
+        return request;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.model.Subject;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+
+/**
+ * JUnit to test the compatibility of the {@link ModelSerializerFactory}
+ * serializers with the reflective Hessian serializers.
+ */
+public class ModelSerializerFactoryTestCase extends TestCase {
+
+    private SerializerFactory reflective;
+
+    private SerializerFactory handWritten;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        reflective = new SerializerFactory();
+        handWritten = new SerializerFactory();
+        handWritten.addFactory(new ModelSerializerFactory());
+    }
+
+    public void testAllModelClassesSupported() {
+        ModelSerializerFactory factory = new ModelSerializerFactory();
+        Class<?>[] classes = { Request.class, Subject.class, Resource.class, Action.class, Environment.class,
+                Attribute.class, Response.class, Result.class, Status.class, StatusCode.class, Obligation.class,
+                AttributeAssignment.class };
+        for (Class<?> cl : classes) {
+            assertTrue(cl.getName(), factory.isSupported(cl));
+        }
+        assertFalse(factory.isSupported(String.class));
+    }
+
+    public void testSameBytesHessian1() throws Exception {
+        Response response = createResponse();
+        assertTrue(Arrays.equals(writeHessian1(reflective, response), writeHessian1(handWritten, response)));
+        Request request = response.getRequest();
+        assertTrue(Arrays.equals(writeHessian1(reflective, request), writeHessian1(handWritten, request)));
+    }
+
+    public void testSameBytesHessian2() throws Exception {
+        Response response = createResponse();
+        assertTrue(Arrays.equals(writeHessian2(reflective, response), writeHessian2(handWritten, response)));
+    }
+
+    public void testSameBytesEmptyObjects() throws Exception {
+        Response response = new Response();
+        response.getResults().add(new Result());
+        response.setRequest(new Request());
+        assertTrue(Arrays.equals(writeHessian1(reflective, response), writeHessian1(handWritten, response)));
+        assertTrue(Arrays.equals(writeHessian2(reflective, response), writeHessian2(handWritten, response)));
+    }
+
+    public void testRoundTripHessian1() throws Exception {
+        byte[] bytes = writeHessian1(reflective, createResponse());
+        HessianInput in = new HessianInput(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(handWritten);
+        assertResponse((Response) in.readObject(Response.class));
+    }
+
+    public void testRoundTripHessian2() throws Exception {
+        byte[] bytes = writeHessian2(handWritten, createResponse());
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(handWritten);
+        assertResponse((Response) in.readObject(Response.class));
+    }
+
+    public void testReflectiveReadsHandWritten() throws Exception {
+        byte[] bytes = writeHessian1(handWritten, createResponse());
+        HessianInput in = new HessianInput(new ByteArrayInputStream(bytes));
+        in.setSerializerFactory(reflective);
+        assertResponse((Response) in.readObject(Response.class));
+    }
+
+    private void assertResponse(Response response) {
+        Request request = response.getRequest();
+        assertEquals(1, request.getSubjects().size());
+        Subject subject = request.getSubjects().iterator().next();
+        assertEquals("subject-category", subject.getCategory());
+        assertEquals(2, subject.getAttributes().size());
+        assertEquals(1, request.getResources().size());
+        Resource resource = request.getResources().iterator().next();
+        assertEquals("resource-content", resource.getResourceContent());
+        Attribute actionId = request.getAction().getAttributes().iterator().next();
+        assertEquals(Attribute.ID_ACT_ID, actionId.getId());
+        assertEquals(Attribute.DT_STRING, actionId.getDataType());
+        assertEquals("issuer", actionId.getIssuer());
+        assertEquals("execute", actionId.getValues().iterator().next());
+        assertNull(request.getEnvironment());
+
+        assertEquals(1, response.getResults().size());
+        Result result = response.getResults().get(0);
+        assertEquals(Result.DECISION_PERMIT, result.getDecision());
+        assertEquals("resource-id", result.getResourceId());
+        assertEquals("status message", result.getStatus().getMessage());
+        assertEquals(StatusCode.SC_OK, result.getStatus().getCode().getCode());
+        assertEquals("sub-code", result.getStatus().getCode().getSubCode().getCode());
+        Obligation obligation = result.getObligations().get(0);
+        assertEquals("obligation-id", obligation.getId());
+        assertEquals(Result.DECISION_PERMIT, obligation.getFulfillOn());
+        assertEquals(2, obligation.getAttributeAssignments().size());
+        AttributeAssignment assignment = obligation.getAttributeAssignments().get(1);
+        assertEquals("group-id", assignment.getAttributeId());
+        assertEquals(Attribute.DT_STRING, assignment.getDataType());
+        assertEquals("atlas", assignment.getValue());
+    }
+
+    private Response createResponse() {
+        Request request = new Request();
+        Subject subject = new Subject();
+        subject.setCategory("subject-category");
+        Attribute subjectId = new Attribute(Attribute.ID_SUB_ID, Attribute.DT_X500_NAME);
+        subjectId.getValues().add("CN=John Doe,O=Example,C=CH");
+        subject.getAttributes().add(subjectId);
+        Attribute fqans = new Attribute("http://glite.org/xacml/attribute/fqan",
+                "http://glite.org/xacml/datatype/fqan");
+        fqans.getValues().add("/atlas/Role=NULL/Capability=NULL");
+        subject.getAttributes().add(fqans);
+        request.getSubjects().add(subject);
+        Resource resource = new Resource();
+        resource.setResourceContent("resource-content");
+        // shared reference
+        resource.getAttributes().add(fqans);
+        request.getResources().add(resource);
+        Action action = new Action();
+        Attribute actionId = new Attribute(Attribute.ID_ACT_ID, Attribute.DT_STRING);
+        actionId.setIssuer("issuer");
+        actionId.getValues().add("execute");
+        action.getAttributes().add(actionId);
+        request.setAction(action);
+
+        Response response = new Response();
+        response.setRequest(request);
+        Result result = new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setResourceId("resource-id");
+        Status status = new Status();
+        status.setMessage("status message");
+        StatusCode code = new StatusCode();
+        code.setCode(StatusCode.SC_OK);
+        StatusCode subCode = new StatusCode();
+        subCode.setCode("sub-code");
+        code.setSubCode(subCode);
+        status.setCode(code);
+        result.setStatus(status);
+        Obligation obligation = new Obligation();
+        obligation.setId("obligation-id");
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        AttributeAssignment userId = new AttributeAssignment();
+        userId.setAttributeId("user-id");
+        userId.setDataType(Attribute.DT_STRING);
+        userId.setValue("atlas001");
+        obligation.getAttributeAssignments().add(userId);
+        AttributeAssignment groupId = new AttributeAssignment();
+        groupId.setAttributeId("group-id");
+        groupId.setDataType(Attribute.DT_STRING);
+        groupId.setValue("atlas");
+        obligation.getAttributeAssignments().add(groupId);
+        result.getObligations().add(obligation);
+        response.getResults().add(result);
+        return response;
+    }
+
+    private byte[] writeHessian1(SerializerFactory factory, Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new HessianOutput(bytes), factory, object);
+        return bytes.toByteArray();
+    }
+
+    private byte[] writeHessian2(SerializerFactory factory, Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new Hessian2Output(bytes), factory, object);
+        return bytes.toByteArray();
+    }
+
+    private void write(AbstractHessianOutput out, SerializerFactory factory, Object object) throws Exception {
+        out.setSerializerFactory(factory);
+        out.writeObject(object);
+        out.flush();
+    }
+}
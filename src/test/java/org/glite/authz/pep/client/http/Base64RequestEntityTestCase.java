@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.util.Base64;
+
+/**
+ * JUnit to test the {@link Base64RequestEntity}.
+ */
+public class Base64RequestEntityTestCase extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testSameEncodingAsEncodeBytes() throws Exception {
+        Random random = new Random(42);
+        // several encoding blocks
+        for (int length = 0; length < 2500; length++) {
+            byte[] message = new byte[length];
+            random.nextBytes(message);
+            Base64RequestEntity entity = new Base64RequestEntity(message, 0, length, "application/octet-stream");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeRequest(out);
+            String encoded = out.toString("UTF-8");
+            assertEquals("length " + length, Base64.encodeBytes(message), encoded);
+            assertEquals("length " + length, encoded.length(), entity.getContentLength());
+        }
+    }
+
+    public void testDontBreakLines() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 2500; length += 13) {
+            byte[] message = new byte[length];
+            random.nextBytes(message);
+            Base64RequestEntity entity = new Base64RequestEntity(message, 0, length, "application/octet-stream",
+                    Base64.DONT_BREAK_LINES);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeRequest(out);
+            String encoded = out.toString("UTF-8");
+            assertEquals("length " + length, Base64.encodeBytes(message, Base64.DONT_BREAK_LINES), encoded);
+            assertEquals("length " + length, encoded.length(), entity.getContentLength());
+            assertEquals(-1, encoded.indexOf('\n'));
+        }
+    }
+
+    public void testOffset() throws Exception {
+        byte[] message = "--Hello, World!--".getBytes("UTF-8");
+        Base64RequestEntity entity = new Base64RequestEntity(message, 2, message.length - 4, "text/plain");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        assertEquals("Hello, World!", new String(Base64.decode(out.toString("UTF-8")), "UTF-8"));
+        assertTrue(entity.isRepeatable());
+        assertEquals("text/plain", entity.getContentType());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+
+/**
+ * JUnit to test the caching of the server certificate chain validations by the {@link CachingX509TrustManager}.
+ */
+public class CachingX509TrustManagerTestCase extends TestCase {
+
+    private X509Certificate[] chain;
+
+    private CountingTrustManager delegate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("/tls_server.jks");
+        try {
+            keyStore.load(in, "changeit".toCharArray());
+        } finally {
+            in.close();
+        }
+        chain = new X509Certificate[] { (X509Certificate) keyStore.getCertificate("localhost") };
+        delegate = new CountingTrustManager();
+    }
+
+    public void testCachedValidation() throws Exception {
+        CachingX509TrustManager trustManager = new CachingX509TrustManager(delegate, 60000);
+        trustManager.checkServerTrusted(chain, "RSA");
+        trustManager.checkServerTrusted(chain, "RSA");
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(1, delegate.validations);
+        assertEquals(2, trustManager.getHitCount());
+        assertEquals(1, trustManager.getMissCount());
+        // another authentication type is validated again
+        trustManager.checkServerTrusted(chain, "ECDHE_RSA");
+        assertEquals(2, delegate.validations);
+    }
+
+    public void testCacheDisabled() throws Exception {
+        CachingX509TrustManager trustManager = new CachingX509TrustManager(delegate, 0);
+        trustManager.checkServerTrusted(chain, "RSA");
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(2, delegate.validations);
+    }
+
+    public void testFailureNotCached() throws Exception {
+        CachingX509TrustManager trustManager = new CachingX509TrustManager(delegate, 60000);
+        delegate.trusted = false;
+        for (int i = 0; i < 2; i++) {
+            try {
+                trustManager.checkServerTrusted(chain, "RSA");
+                fail("untrusted chain accepted");
+            } catch (CertificateException e) {
+                // expected
+            }
+        }
+        assertEquals(2, delegate.validations);
+        delegate.trusted = true;
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(3, delegate.validations);
+    }
+
+    public void testExpiration() throws Exception {
+        CachingX509TrustManager trustManager = new CachingX509TrustManager(delegate, 50);
+        trustManager.checkServerTrusted(chain, "RSA");
+        Thread.sleep(100);
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(2, delegate.validations);
+    }
+
+    public void testTrustStoreReload() throws Exception {
+        CachingX509TrustManager trustManager = new CachingX509TrustManager(delegate, 60000);
+        trustManager.checkServerTrusted(chain, "RSA");
+        trustManager.loadingNotification("/etc/grid-security/certificates", StoreUpdateListener.CRL,
+                StoreUpdateListener.Severity.NOTIFICATION, null);
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(2, delegate.validations);
+    }
+
+    public void testTrustStoreReloadDuringValidation() throws Exception {
+        final CachingX509TrustManager trustManager = new CachingX509TrustManager(delegate, 60000);
+        // the trust store is reloaded while the delegate validates the chain with the old CRLs
+        delegate.reload = new Runnable() {
+            public void run() {
+                trustManager.loadingNotification("/etc/grid-security/certificates", StoreUpdateListener.CRL,
+                        StoreUpdateListener.Severity.NOTIFICATION, null);
+            }
+        };
+        trustManager.checkServerTrusted(chain, "RSA");
+        delegate.reload = null;
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(2, delegate.validations);
+        assertEquals(0, trustManager.getHitCount());
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(2, delegate.validations);
+    }
+
+    /** Trust manager counting the server certificate chain validations. */
+    private static class CountingTrustManager implements X509TrustManager {
+
+        int validations;
+
+        boolean trusted = true;
+
+        Runnable reload;
+
+        public void checkClientTrusted(X509Certificate[] certificates, String authType) throws CertificateException {
+            throw new CertificateException("not used");
+        }
+
+        public void checkServerTrusted(X509Certificate[] certificates, String authType) throws CertificateException {
+            validations++;
+            if (reload != null) {
+                reload.run();
+            }
+            if (!trusted) {
+                throw new CertificateException("untrusted");
+            }
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * JUnit to test the pools and the limits of the {@link PerHostHttpConnectionManager}. The connections are only opened
+ * to test their release.
+ */
+public class PerHostHttpConnectionManagerTestCase extends TestCase {
+
+    private PerHostHttpConnectionManager connectionManager;
+
+    private HostConfiguration host1;
+
+    private HostConfiguration host2;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        host1 = new HostConfiguration();
+        host1.setHost("pepd1.example.org", 8154, "https");
+        host2 = new HostConfiguration();
+        host2.setHost("pepd2.example.org", 8154, "https");
+        connectionManager = createConnectionManager(1, 20);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connectionManager.shutdown();
+        super.tearDown();
+    }
+
+    public void testReusesReleasedConnection() throws Exception {
+        HttpConnection connection = connectionManager.getConnectionWithTimeout(host1, 100);
+        connection.releaseConnection();
+        assertNotNull(connectionManager.getConnectionWithTimeout(new HostConfiguration(host1), 100));
+        // no second connection
+        assertEquals(1, connectionManager.getConnectionsInPool(host1));
+    }
+
+    public void testLimitPerHost() throws Exception {
+        connectionManager.getConnectionWithTimeout(host1, 100);
+        try {
+            connectionManager.getConnectionWithTimeout(host1, 100);
+            fail("second connection to host1");
+        } catch (ConnectionPoolTimeoutException e) {
+            // expected
+        }
+        // the other host has its own pool
+        assertNotNull(connectionManager.getConnectionWithTimeout(host2, 100));
+    }
+
+    public void testTotalLimit() throws Exception {
+        connectionManager.shutdown();
+        connectionManager = createConnectionManager(5, 1);
+        connectionManager.getConnectionWithTimeout(host1, 100);
+        try {
+            connectionManager.getConnectionWithTimeout(host2, 100);
+            fail("connection to host2 above the total limit");
+        } catch (ConnectionPoolTimeoutException e) {
+            // expected
+        }
+    }
+
+    public void testReleasedConnectionHandedOff() throws Exception {
+        final HttpConnection connection = connectionManager.getConnectionWithTimeout(host1, 100);
+        final AtomicReference<HttpConnection> handedOff = new AtomicReference<HttpConnection>();
+        Thread waiting = new Thread() {
+            public void run() {
+                try {
+                    handedOff.set(connectionManager.getConnectionWithTimeout(host1, 5000));
+                } catch (ConnectionPoolTimeoutException e) {
+                    // fails below
+                }
+            }
+        };
+        waiting.start();
+        Thread.sleep(100);
+        assertTrue(waiting.isAlive());
+        connection.releaseConnection();
+        waiting.join(5000);
+        assertNotNull(handedOff.get());
+        assertEquals(1, connectionManager.getConnectionsInPool(host1));
+    }
+
+    public void testReleasedConnectionDetached() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            HostConfiguration local = new HostConfiguration();
+            local.setHost("127.0.0.1", server.getLocalPort(), "http");
+            HttpConnection connection = connectionManager.getConnectionWithTimeout(local, 100);
+            connection.open();
+            connection.releaseConnection();
+            HttpConnection reused = connectionManager.getConnectionWithTimeout(local, 100);
+            assertTrue(reused.isOpen());
+            // an abort after the release does not close the connection of the next user
+            connection.close();
+            assertTrue(reused.isOpen());
+            assertFalse(connection.isOpen());
+            try {
+                connection.getResponseInputStream();
+                fail("released connection used");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            reused.close();
+            reused.releaseConnection();
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testReleaseTwiceIgnored() throws Exception {
+        connectionManager.shutdown();
+        connectionManager = createConnectionManager(2, 20);
+        HttpConnection connection = connectionManager.getConnectionWithTimeout(host1, 100);
+        connection.releaseConnection();
+        connection.releaseConnection();
+        HttpConnection first = connectionManager.getConnectionWithTimeout(host1, 100);
+        HttpConnection second = connectionManager.getConnectionWithTimeout(host1, 100);
+        assertNotSame(first, second);
+        try {
+            connectionManager.getConnectionWithTimeout(host1, 100);
+            fail("third connection to host1");
+        } catch (ConnectionPoolTimeoutException e) {
+            // expected
+        }
+    }
+
+    public void testCloseIdleConnections() throws Exception {
+        HttpConnection connection = connectionManager.getConnectionWithTimeout(host1, 100);
+        connectionManager.getConnectionWithTimeout(host2, 100).releaseConnection();
+        connectionManager.closeIdleConnections(0);
+        // the connection in use is kept
+        assertEquals(1, connectionManager.getConnectionsInPool(host1));
+        assertEquals(0, connectionManager.getConnectionsInPool(host2));
+        connection.releaseConnection();
+        connectionManager.closeIdleConnections(60000);
+        assertEquals(1, connectionManager.getConnectionsInPool());
+    }
+
+    public void testShutdown() throws Exception {
+        HttpConnection connection = connectionManager.getConnectionWithTimeout(host1, 100);
+        connectionManager.shutdown();
+        connection.releaseConnection();
+        assertEquals(0, connectionManager.getConnectionsInPool());
+        try {
+            connectionManager.getConnectionWithTimeout(host1, 100);
+            fail("connection after shutdown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static PerHostHttpConnectionManager createConnectionManager(int maxPerHost, int maxTotal) {
+        HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        params.setDefaultMaxConnectionsPerHost(maxPerHost);
+        params.setMaxTotalConnections(maxTotal);
+        PerHostHttpConnectionManager connectionManager = new PerHostHttpConnectionManager();
+        connectionManager.setParams(params);
+        return connectionManager;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+
+/**
+ * JUnit to test the TLS session cache settings, the TLS profile and the handshake counters of the {@link TLSProtocolSocketFactory}
+ * against a local TLS server.
+ */
+public class TLSProtocolSocketFactoryTestCase extends TestCase {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private SSLServerSocket serverSocket;
+
+    private X509TrustManager trustManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("/tls_server.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        trustManager = (X509TrustManager) tmf.getTrustManagers()[0];
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        Thread acceptor = new Thread("tls-server") {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        echo(serverSocket.accept());
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        serverSocket.close();
+        super.tearDown();
+    }
+
+    public void testSessionResumption() throws Exception {
+        TLSProtocolSocketFactory factory = new TLSProtocolSocketFactory(null, trustManager);
+        exchange(factory);
+        assertEquals(1, factory.getFullHandshakeCount());
+        assertEquals(0, factory.getResumedHandshakeCount());
+        Thread.sleep(5);
+        exchange(factory);
+        exchange(factory);
+        assertEquals(1, factory.getFullHandshakeCount());
+        assertEquals(2, factory.getResumedHandshakeCount());
+    }
+
+    public void testSSLSocketFactory() throws Exception {
+        TLSProtocolSocketFactory factory = new TLSProtocolSocketFactory(null, trustManager, new TLSProfile(
+                new String[] { "TLSv1.2" }, null, null));
+        SSLSocketFactory sslSocketFactory = factory.getSSLSocketFactory();
+        for (int i = 0; i < 2; i++) {
+            Thread.sleep(5);
+            SSLSocket socket = (SSLSocket) sslSocketFactory.createSocket("localhost", serverSocket.getLocalPort());
+            try {
+                assertEquals(Arrays.asList("TLSv1.2"), Arrays.asList(socket.getEnabledProtocols()));
+                socket.startHandshake();
+                socket.getOutputStream().write(1);
+                socket.getOutputStream().flush();
+                assertEquals(1, socket.getInputStream().read());
+            } finally {
+                socket.close();
+            }
+        }
+        // the handshake listeners are notified by another thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (factory.getResumedHandshakeCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, factory.getFullHandshakeCount());
+        assertEquals(1, factory.getResumedHandshakeCount());
+    }
+
+    public void testSessionCacheSettings() throws Exception {
+        TLSProtocolSocketFactory factory = new TLSProtocolSocketFactory(null, trustManager);
+        factory.setSessionCacheSize(10);
+        factory.setSessionTimeout(600);
+        assertEquals(10, factory.getSessionCacheSize());
+        assertEquals(600, factory.getSessionTimeout());
+        try {
+            factory.setSessionCacheSize(-1);
+            fail("negative session cache size accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            factory.setSessionTimeout(-1);
+            fail("negative session timeout accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testProfile() throws Exception {
+        TLSProfile profile = new TLSProfile(new String[] { "TLSv1.2" }, new String[] { "TLS_UNKNOWN_SUITE",
+                "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256" }, "SunJSSE");
+        TLSProtocolSocketFactory factory = new TLSProtocolSocketFactory(null, trustManager, profile);
+        exchange(factory);
+        assertEquals(Collections.singletonMap("TLSv1.2 TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", Long.valueOf(1)),
+                factory.getNegotiatedParameters());
+    }
+
+    public void testModernProfile() throws Exception {
+        TLSProtocolSocketFactory factory = new TLSProtocolSocketFactory(null, trustManager, TLSProfile.MODERN);
+        exchange(factory);
+        String parameters = factory.getNegotiatedParameters().keySet().iterator().next();
+        assertTrue(parameters, parameters.startsWith("TLSv1.3 ") || parameters.startsWith("TLSv1.2 TLS_ECDHE_"));
+    }
+
+    public void testUnsupportedProfile() throws Exception {
+        try {
+            new TLSProtocolSocketFactory(null, trustManager, new TLSProfile(null,
+                    new String[] { "TLS_UNKNOWN_SUITE" }, null));
+            fail("unsupported cipher suites accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new TLSProtocolSocketFactory(null, trustManager, TLSProfile.MODERN.withProvider("NoSuchProvider"));
+            fail("unknown provider accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Opens a connection, as the HTTP client does, and exchanges a byte with the server, which also receives the
+     * TLS 1.3 session ticket.
+     */
+    private void exchange(TLSProtocolSocketFactory factory) throws IOException {
+        HttpConnectionParams params = new HttpConnectionParams();
+        params.setConnectionTimeout(5000);
+        Socket socket = factory.createSocket("localhost", serverSocket.getLocalPort(), null, 0, params);
+        try {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(1);
+            socket.getOutputStream().flush();
+            assertEquals(1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void echo(final Socket socket) {
+        Thread echo = new Thread("tls-echo") {
+            public void run() {
+                try {
+                    socket.setSoTimeout(5000);
+                    int b = socket.getInputStream().read();
+                    socket.getOutputStream().write(b);
+                    socket.getOutputStream().flush();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // client gone
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                }
+            }
+        };
+        echo.setDaemon(true);
+        echo.start();
+    }
+}
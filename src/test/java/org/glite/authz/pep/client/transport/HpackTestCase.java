@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit to test the {@link Hpack} header compression with the examples of RFC 7541.
+ */
+public class HpackTestCase extends TestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    public void testLiteral() throws Exception {
+        // RFC 7541 C.3.1
+        Map<String, String> headers = new Hpack().decode(hex("828684410f7777772e6578616d706c652e636f6d"));
+        assertEquals(request("http", "/", null), headers);
+    }
+
+    public void testHuffmanAndDynamicTable() throws Exception {
+        // RFC 7541 C.4.1 to C.4.3, on the same connection
+        Hpack decoder = new Hpack();
+        assertEquals(request("http", "/", null), decoder.decode(hex("828684418cf1e3c2e5f23a6ba0ab90f4ff")));
+        Map<String, String> expected = request("http", "/", null);
+        expected.put("cache-control", "no-cache");
+        assertEquals(expected, decoder.decode(hex("828684be5886a8eb10649cbf")));
+        expected = request("https", "/index.html", "custom-value");
+        assertEquals(expected, decoder.decode(hex("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf")));
+    }
+
+    public void testEncode() throws Exception {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        assertTrue(Hpack.encodeIndexed(":method", "POST", block));
+        assertFalse(Hpack.encodeIndexed(":method", "PUT", block));
+        Hpack.encode(":path", "/authz", block);
+        Hpack.encode("content-type", "application/x-hessian", block);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            value.append('v');
+        }
+        Hpack.encode("x-long", value.toString(), block);
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put(":method", "POST");
+        expected.put(":path", "/authz");
+        expected.put("content-type", "application/x-hessian");
+        expected.put("x-long", value.toString());
+        assertEquals(expected, new Hpack().decode(ByteBuffer.wrap(block.toByteArray())));
+    }
+
+    public void testInvalidBlock() throws Exception {
+        try {
+            // dynamic table index 62 of an empty table
+            new Hpack().decode(hex("be"));
+            fail("invalid index decoded");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            // Huffman string with a zero padding bit
+            new Hpack().decode(hex("4082f1e200"));
+            fail("invalid padding decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testAllowedHeaders() {
+        assertTrue(Hpack.isAllowed("Content-Encoding"));
+        assertFalse(Hpack.isAllowed("Connection"));
+        assertFalse(Hpack.isAllowed("Host"));
+    }
+
+    private Map<String, String> request(String scheme, String path, String customValue) {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(":method", "GET");
+        headers.put(":scheme", scheme);
+        headers.put(":path", path);
+        headers.put(":authority", "www.example.com");
+        if (customValue != null) {
+            headers.put("custom-key", customValue);
+        }
+        return headers;
+    }
+
+    private ByteBuffer hex(String s) {
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
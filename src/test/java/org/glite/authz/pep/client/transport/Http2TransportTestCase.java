@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.glite.authz.pep.client.http.TLSProtocolSocketFactory;
+
+/**
+ * JUnit to test the HTTP/2 mode of the {@link NIOTransport} against a local {@link StubHttp2Server}.
+ */
+public class Http2TransportTestCase extends TestCase {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private StubHttp2Server server;
+
+    private NIOTransport transport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (transport != null) {
+            transport.shutdown();
+        }
+        if (server != null) {
+            server.stop();
+        }
+        super.tearDown();
+    }
+
+    public void testMultiplexing() throws Exception {
+        server = new StubHttp2Server(0, null);
+        server.start();
+        transport = new NIOTransport(5000, 5000, 5, null, 100, 65535);
+        executeConcurrently(server.getEndpoint("/authz"), 50, 0);
+        // one connection per endpoint, until the stream limit
+        assertEquals(1, server.getAcceptedConnections());
+        assertTrue(server.getMaxOpenStreams() > 1);
+    }
+
+    public void testServerStreamLimit() throws Exception {
+        server = new StubHttp2Server(4, null);
+        server.start();
+        transport = new NIOTransport(5000, 5000, 1, null, 100, 65535);
+        executeConcurrently(server.getEndpoint("/authz"), 20, 0);
+        assertEquals(1, server.getAcceptedConnections());
+        assertTrue(server.getMaxOpenStreams() <= 4);
+    }
+
+    public void testClientStreamLimit() throws Exception {
+        server = new StubHttp2Server(0, null);
+        server.start();
+        transport = new NIOTransport(5000, 5000, 1, null, 2, 65535);
+        executeConcurrently(server.getEndpoint("/authz"), 20, 0);
+        assertEquals(1, server.getAcceptedConnections());
+        assertTrue(server.getMaxOpenStreams() <= 2);
+    }
+
+    public void testFlowControl() throws Exception {
+        server = new StubHttp2Server(0, null);
+        server.start();
+        // the request bodies exceed the default window of the server, the responses the window of the client
+        transport = new NIOTransport(5000, 5000, 1, null, 100, 16384);
+        executeConcurrently(server.getEndpoint("/authz"), 4, 200000);
+        assertEquals(1, server.getAcceptedConnections());
+        assertTrue(server.getWindowUpdates() > 0);
+    }
+
+    public void testTimeoutResetsStream() throws Exception {
+        server = new StubHttp2Server(0, null);
+        server.start();
+        transport = new NIOTransport(5000, 300, 1, null, 100, 65535);
+        PEPExchange exchange = transport.createExchange(server.getEndpoint("/slow"));
+        exchange.setRequestEntity(new ByteArrayRequestEntity("slow".getBytes("UTF-8"), "text/plain"));
+        try {
+            exchange.execute();
+            fail("unanswered request completed");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        assertEquals("fast", execute(server.getEndpoint("/authz"), "fast", 0));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getResetStreams() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, server.getResetStreams());
+        // the connection is kept
+        assertEquals(1, server.getAcceptedConnections());
+    }
+
+    public void testALPN() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("/tls_server.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+        server = new StubHttp2Server(0, serverContext);
+        if (!server.start()) {
+            System.out.println("ALPN not supported by the Java runtime");
+            server = null;
+            return;
+        }
+        TLSProtocolSocketFactory tls = new TLSProtocolSocketFactory(null, (X509TrustManager) tmf.getTrustManagers()[0]);
+        transport = new NIOTransport(5000, 5000, 1, tls, 100, 65535);
+        executeConcurrently(server.getEndpoint("/authz"), 10, 0);
+        assertEquals(1, server.getAcceptedConnections());
+        assertEquals(1, server.getALPNConnections());
+        assertEquals(1, tls.getFullHandshakeCount());
+    }
+
+    /**
+     * Executes exchanges from many threads, checking the echoed responses.
+     */
+    private void executeConcurrently(final String endpoint, int threads, final int bodySize) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final int worker = i;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 5; j++) {
+                            String body = "request " + worker + "-" + j;
+                            assertEquals(body, execute(endpoint, body, bodySize));
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            thread.start();
+            workers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : workers) {
+            thread.join(30000);
+        }
+        assertEquals(Collections.emptyList(), failures);
+    }
+
+    /**
+     * Executes an exchange, padding the request body to a size, and returns the echoed body without the padding.
+     */
+    private String execute(String endpoint, String body, int size) throws IOException {
+        byte[] request = new byte[Math.max(size, body.length())];
+        System.arraycopy(body.getBytes("UTF-8"), 0, request, 0, body.length());
+        PEPExchange exchange = transport.createExchange(endpoint);
+        exchange.setRequestEntity(new ByteArrayRequestEntity(request, "text/plain"));
+        assertEquals(200, exchange.execute());
+        assertEquals("text/plain", exchange.getResponseHeader("Content-Type"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = exchange.getResponseBody();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        exchange.release();
+        byte[] response = out.toByteArray();
+        assertEquals(request.length, response.length);
+        return new String(response, 0, body.length(), "UTF-8");
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.glite.authz.pep.client.http.HttpClientBuilder;
+
+/**
+ * JUnit to test the connection permits of the {@link HttpClientTransport}
+ * against a local HTTP server answering empty responses.
+ */
+public class HttpClientTransportTestCase extends TestCase {
+
+    private ServerSocket serverSocket;
+
+    private HttpClientTransport transport;
+
+    private String endpoint;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.out.println("--------" + this.getName() + "------------");
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread("HttpClientTransportTestCase") {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        Thread handler = new Thread("HttpClientTransportTestCase-connection") {
+                            public void run() {
+                                answer(socket);
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        endpoint = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/authz";
+        HttpClientBuilder builder = new HttpClientBuilder();
+        builder.setMaxConnectionsPerHost(1);
+        builder.setMaxTotalConnections(1);
+        // the permits are used with the multi-threaded connection manager
+        builder.setPerHostConnectionPool(false);
+        transport = new HttpClientTransport(builder.buildClient(), 1, 1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        transport.shutdown();
+        serverSocket.close();
+        super.tearDown();
+    }
+
+    public void testPermitReleasedWithExchange() throws Exception {
+        PEPExchange first = execute();
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread waiting = executeInThread(result);
+        Thread.sleep(200);
+        assertTrue(waiting.isAlive());
+        first.release();
+        waiting.join(5000);
+        assertEquals(Integer.valueOf(200), result.get());
+    }
+
+    public void testInterruptedWhileWaitingForPermit() throws Exception {
+        PEPExchange first = execute();
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread waiting = executeInThread(result);
+        Thread.sleep(200);
+        waiting.interrupt();
+        waiting.join(5000);
+        assertTrue(result.get() instanceof InterruptedIOException);
+        first.release();
+        // the interrupted exchange did not take a permit
+        execute().release();
+    }
+
+    public void testPermitsByHost() throws Exception {
+        PEPExchange first = execute();
+        // another host, but the total is reached
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread waiting = executeInThread(result, endpoint.replace("127.0.0.1", "localhost"));
+        Thread.sleep(200);
+        assertTrue(waiting.isAlive());
+        first.release();
+        waiting.join(5000);
+        assertEquals(Integer.valueOf(200), result.get());
+    }
+
+    private PEPExchange execute() throws IOException {
+        PEPExchange exchange = transport.createExchange(endpoint);
+        exchange.setRequestEntity(new ByteArrayRequestEntity(new byte[] { 1, 2, 3 }));
+        assertEquals(200, exchange.execute());
+        return exchange;
+    }
+
+    private Thread executeInThread(AtomicReference<Object> result) {
+        return executeInThread(result, endpoint);
+    }
+
+    private Thread executeInThread(final AtomicReference<Object> result, final String url) {
+        Thread thread = new Thread() {
+            public void run() {
+                PEPExchange exchange = transport.createExchange(url);
+                exchange.setRequestEntity(new ByteArrayRequestEntity(new byte[] { 1, 2, 3 }));
+                try {
+                    result.set(Integer.valueOf(exchange.execute()));
+                } catch (IOException e) {
+                    result.set(e);
+                } finally {
+                    exchange.release();
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /** Answers an empty response to each request of a connection. */
+    private static void answer(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            StringBuilder line = new StringBuilder();
+            int contentLength = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b != '\n') {
+                    if (b != '\r') {
+                        line.append((char) b);
+                    }
+                    continue;
+                }
+                String header = line.toString();
+                line.setLength(0);
+                if (header.toLowerCase().startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(header.substring(15).trim());
+                } else if (header.length() == 0) {
+                    for (int i = 0; i < contentLength; i++) {
+                        in.read();
+                    }
+                    contentLength = 0;
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes("US-ASCII"));
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A minimal HTTP/2 server echoing the request bodies, over plain TCP with prior knowledge or over TLS with ALPN, to
+ * test the HTTP/2 mode of the {@link NIOTransport}.
+ * <p>
+ * The response body is the request body, or <code>x-response-size</code> bytes if the request has this header. The
+ * requests to a path containing <code>slow</code> are never answered. The response bodies are sent within the flow
+ * control windows of the client, the received request bodies are acknowledged at once.
+ */
+public class StubHttp2Server {
+
+    private static final int DATA = 0x0, HEADERS = 0x1, RST_STREAM = 0x3, SETTINGS = 0x4, PING = 0x6,
+            WINDOW_UPDATE = 0x8, CONTINUATION = 0x9;
+
+    private static final int END_STREAM = 0x1, ACK = 0x1, END_HEADERS = 0x4;
+
+    private final int maxConcurrentStreams;
+
+    private final SSLContext sslContext;
+
+    private ServerSocket serverSocket;
+
+    private final AtomicInteger acceptedConnections = new AtomicInteger();
+
+    private final AtomicInteger alpnConnections = new AtomicInteger();
+
+    private final AtomicInteger openStreams = new AtomicInteger();
+
+    private final AtomicInteger maxOpenStreams = new AtomicInteger();
+
+    private final AtomicInteger resetStreams = new AtomicInteger();
+
+    private final AtomicInteger windowUpdates = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrentStreams the advertised limit of concurrent streams, <code>0</code> for none
+     * @param sslContext the SSL context for TLS with ALPN, <code>null</code> for plain TCP
+     */
+    public StubHttp2Server(int maxConcurrentStreams, SSLContext sslContext) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Starts the server on a free port.
+     *
+     * @return <code>false</code> if ALPN is not supported by the Java runtime
+     * @throws IOException if the server socket can not be opened
+     */
+    public boolean start() throws IOException {
+        if (sslContext == null) {
+            serverSocket = new ServerSocket(0);
+        } else {
+            SSLServerSocket sslServerSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0);
+            try {
+                Object parameters = sslServerSocket.getSSLParameters();
+                Method setApplicationProtocols = parameters.getClass().getMethod("setApplicationProtocols",
+                        String[].class);
+                setApplicationProtocols.invoke(parameters, new Object[] { new String[] { "h2" } });
+                sslServerSocket.setSSLParameters((javax.net.ssl.SSLParameters) parameters);
+            } catch (Exception e) {
+                sslServerSocket.close();
+                return false;
+            }
+            serverSocket = sslServerSocket;
+        }
+        Thread acceptor = new Thread("h2-acceptor") {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        acceptedConnections.incrementAndGet();
+                        Thread handler = new Thread("h2-connection") {
+                            public void run() {
+                                new Connection(socket).run();
+                            }
+                        };
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return true;
+    }
+
+    public void stop() throws IOException {
+        serverSocket.close();
+    }
+
+    public String getEndpoint(String path) {
+        return (sslContext == null ? "http" : "https") + "://localhost:" + serverSocket.getLocalPort() + path;
+    }
+
+    public int getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    public int getALPNConnections() {
+        return alpnConnections.get();
+    }
+
+    public int getMaxOpenStreams() {
+        return maxOpenStreams.get();
+    }
+
+    public int getResetStreams() {
+        return resetStreams.get();
+    }
+
+    public int getWindowUpdates() {
+        return windowUpdates.get();
+    }
+
+    /** A client connection. */
+    private class Connection {
+
+        private final Socket socket;
+
+        private OutputStream out;
+
+        private final Map<Integer, ByteArrayOutputStream> bodies = new HashMap<Integer, ByteArrayOutputStream>();
+
+        private final Map<Integer, Map<String, String>> requests = new HashMap<Integer, Map<String, String>>();
+
+        private final Map<Integer, long[]> streamWindows = new HashMap<Integer, long[]>();
+
+        private final Hpack decoder = new Hpack();
+
+        private long connectionWindow = 65535;
+
+        private int clientInitialWindow = 65535;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void run() {
+            try {
+                if (socket instanceof SSLSocket) {
+                    ((SSLSocket) socket).startHandshake();
+                    Method getApplicationProtocol = SSLSocket.class.getMethod("getApplicationProtocol");
+                    if ("h2".equals(getApplicationProtocol.invoke(socket))) {
+                        alpnConnections.incrementAndGet();
+                    }
+                }
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out = socket.getOutputStream();
+                byte[] preface = new byte[24];
+                in.readFully(preface);
+                if (!"PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".equals(new String(preface, "ISO-8859-1"))) {
+                    return;
+                }
+                ByteBuffer settings = ByteBuffer.allocate(6);
+                if (maxConcurrentStreams > 0) {
+                    settings.putShort((short) 0x3).putInt(maxConcurrentStreams);
+                }
+                writeFrame(SETTINGS, 0, 0, settings.array(), settings.position());
+                ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+                while (true) {
+                    int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                    int type = in.readUnsignedByte();
+                    int flags = in.readUnsignedByte();
+                    int streamId = in.readInt() & 0x7FFFFFFF;
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    handleFrame(type, flags, streamId, payload, headerBlock);
+                }
+            } catch (Exception e) {
+                // connection closed
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+
+        private void handleFrame(int type, int flags, int streamId, byte[] payload, ByteArrayOutputStream headerBlock)
+                throws IOException {
+            Integer id = Integer.valueOf(streamId);
+            switch (type) {
+            case SETTINGS:
+                if ((flags & ACK) == 0) {
+                    ByteBuffer settings = ByteBuffer.wrap(payload);
+                    while (settings.hasRemaining()) {
+                        int identifier = settings.getShort();
+                        int value = settings.getInt();
+                        if (identifier == 0x4) {
+                            synchronized (this) {
+                                clientInitialWindow = value;
+                            }
+                        }
+                    }
+                    writeFrame(SETTINGS, ACK, 0, new byte[0], 0);
+                }
+                break;
+            case HEADERS:
+            case CONTINUATION:
+                if (type == HEADERS) {
+                    headerBlock.reset();
+                    int current = openStreams.incrementAndGet();
+                    int max;
+                    while ((max = maxOpenStreams.get()) < current && !maxOpenStreams.compareAndSet(max, current)) {
+                        // retry
+                    }
+                    bodies.put(id, new ByteArrayOutputStream());
+                    synchronized (this) {
+                        streamWindows.put(id, new long[] { clientInitialWindow });
+                    }
+                }
+                headerBlock.write(payload);
+                if ((flags & END_HEADERS) != 0) {
+                    requests.put(id, decoder.decode(ByteBuffer.wrap(headerBlock.toByteArray())));
+                }
+                if ((flags & END_STREAM) != 0) {
+                    respond(streamId);
+                }
+                break;
+            case DATA:
+                bodies.get(id).write(payload);
+                if (payload.length > 0) {
+                    writeFrame(WINDOW_UPDATE, 0, 0, ByteBuffer.allocate(4).putInt(payload.length).array(), 4);
+                    if ((flags & END_STREAM) == 0) {
+                        writeFrame(WINDOW_UPDATE, 0, streamId, ByteBuffer.allocate(4).putInt(payload.length).array(), 4);
+                    }
+                }
+                if ((flags & END_STREAM) != 0) {
+                    respond(streamId);
+                }
+                break;
+            case WINDOW_UPDATE:
+                int increment = ByteBuffer.wrap(payload).getInt();
+                synchronized (this) {
+                    if (streamId == 0) {
+                        connectionWindow += increment;
+                    } else if (streamWindows.containsKey(id)) {
+                        windowUpdates.incrementAndGet();
+                        streamWindows.get(id)[0] += increment;
+                    }
+                    notifyAll();
+                }
+                break;
+            case RST_STREAM:
+                resetStreams.incrementAndGet();
+                openStreams.decrementAndGet();
+                synchronized (this) {
+                    streamWindows.remove(id);
+                    notifyAll();
+                }
+                break;
+            case PING:
+                if ((flags & ACK) == 0) {
+                    writeFrame(PING, ACK, 0, payload, payload.length);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void respond(final int streamId) {
+            Map<String, String> headers = requests.remove(Integer.valueOf(streamId));
+            final byte[] requestBody = bodies.remove(Integer.valueOf(streamId)).toByteArray();
+            if (headers.get(":path").contains("slow")) {
+                return;
+            }
+            final String responseSize = headers.get("x-response-size");
+            Thread responder = new Thread("h2-stream-" + streamId) {
+                public void run() {
+                    try {
+                        byte[] body = responseSize == null ? requestBody : new byte[Integer.parseInt(responseSize)];
+                        ByteArrayOutputStream block = new ByteArrayOutputStream();
+                        Hpack.encodeIndexed(":status", "200", block);
+                        Hpack.encode("content-type", "text/plain", block);
+                        if (body.length == 0) {
+                            closeStream(streamId);
+                        }
+                        writeFrame(HEADERS, END_HEADERS | (body.length == 0 ? END_STREAM : 0), streamId,
+                                block.toByteArray(), block.size());
+                        int offset = 0;
+                        while (offset < body.length) {
+                            int length;
+                            synchronized (Connection.this) {
+                                long[] streamWindow;
+                                while ((streamWindow = streamWindows.get(Integer.valueOf(streamId))) != null
+                                        && (streamWindow[0] <= 0 || connectionWindow <= 0)) {
+                                    Connection.this.wait();
+                                }
+                                if (streamWindow == null) {
+                                    return;
+                                }
+                                length = (int) Math.min(Math.min(body.length - offset, 16384), Math.min(
+                                        streamWindow[0], connectionWindow));
+                                streamWindow[0] -= length;
+                                connectionWindow -= length;
+                            }
+                            byte[] data = new byte[length];
+                            System.arraycopy(body, offset, data, 0, length);
+                            offset += length;
+                            if (offset == body.length) {
+                                // closed before the client can open a new stream
+                                closeStream(streamId);
+                            }
+                            writeFrame(DATA, offset == body.length ? END_STREAM : 0, streamId, data, length);
+                        }
+                    } catch (Exception e) {
+                        // connection closed
+                    }
+                }
+            };
+            responder.setDaemon(true);
+            responder.start();
+        }
+
+        private synchronized void closeStream(int streamId) {
+            streamWindows.remove(Integer.valueOf(streamId));
+            openStreams.decrementAndGet();
+        }
+
+        private void writeFrame(int type, int flags, int streamId, byte[] payload, int length) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(9 + length);
+            frame.put((byte) (length >>> 16)).putShort((short) length).put((byte) type).put((byte) flags);
+            frame.putInt(streamId).put(payload, 0, length);
+            synchronized (out) {
+                out.write(frame.array());
+                out.flush();
+            }
+        }
+    }
+}